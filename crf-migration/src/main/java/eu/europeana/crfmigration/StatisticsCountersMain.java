@@ -0,0 +1,62 @@
+package eu.europeana.crfmigration;
+
+import com.mongodb.MongoException;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import com.typesafe.config.ConfigParseOptions;
+import com.typesafe.config.ConfigSyntax;
+import eu.europeana.harvester.db.MorphiaDataStore;
+import eu.europeana.harvester.db.interfaces.LastSourceDocumentProcessingStatisticsDao;
+import eu.europeana.harvester.db.mongo.LastSourceDocumentProcessingStatisticsDaoImpl;
+import eu.europeana.harvester.domain.MongoConfig;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Checks or rebuilds the materialized counters of the last source document processing statistics.
+ * <p/>
+ * Usage: StatisticsCountersMain check|rebuild [configFile]
+ * <p/>
+ * The check compares every counter with an aggregation over the statistics and exits with 1 if any differs.
+ * The rebuild replaces the counters with the aggregated values; the master should be stopped meanwhile.
+ */
+public class StatisticsCountersMain {
+    private static final Logger LOG = LogManager.getLogger(StatisticsCountersMain.class.getName());
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !("check".equals(args[0]) || "rebuild".equals(args[0]))) {
+            System.err.println("Usage: StatisticsCountersMain check|rebuild [configFile]");
+            System.exit(2);
+        }
+
+        final String configFilePath = args.length > 1 ? args[1] : "./extra-files/config-files/migration.conf";
+        final Config config = ConfigFactory.parseFileAnySyntax(new File(configFilePath),
+                ConfigParseOptions.defaults().setSyntax(ConfigSyntax.CONF));
+        final MongoConfig mongoConfig = MongoConfig.valueOf(config.getConfig("statisticsCounters"));
+
+        final MorphiaDataStore datastore = new MorphiaDataStore(mongoConfig.getMongoServerAddressList(), mongoConfig.getDbName());
+        if (!mongoConfig.getUsername().equals("")) {
+            if (!datastore.getMongo().getDB("admin").authenticate(mongoConfig.getUsername(), mongoConfig.getPassword().toCharArray())) {
+                throw new MongoException("Cannot authenticate to mongo database");
+            }
+        }
+
+        final LastSourceDocumentProcessingStatisticsDao dao = new LastSourceDocumentProcessingStatisticsDaoImpl(datastore.getDatastore());
+
+        if ("rebuild".equals(args[0])) {
+            LOG.info("Rebuilt " + dao.rebuildCounters() + " statistics counters");
+            return;
+        }
+
+        final Map<String, long[]> differences = dao.checkCounters();
+        for (final Map.Entry<String, long[]> difference : differences.entrySet()) {
+            LOG.error("Counter " + difference.getKey() + " is " + difference.getValue()[0] + ", aggregated " + difference.getValue()[1]);
+        }
+        LOG.info(differences.isEmpty() ? "The statistics counters are consistent" : differences.size() + " statistics counters differ");
+        System.exit(differences.isEmpty() ? 0 : 1);
+    }
+}
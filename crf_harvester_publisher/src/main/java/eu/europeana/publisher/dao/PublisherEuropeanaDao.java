@@ -171,7 +171,12 @@ public class PublisherEuropeanaDao {
 
         query.put("$or", orList);
 
-        retrievedFields.put("updatedAt", 0);
+        // only the fields read by toHarvesterDocument, the updatedAt is dropped anyway for these documents
+        retrievedFields.put("sourceDocumentReferenceId", 1);
+        retrievedFields.put("referenceOwner", 1);
+        retrievedFields.put("processingJobSubTaskStats", 1);
+        retrievedFields.put("urlSourceType", 1);
+        retrievedFields.put("taskType", 1);
         retrievedFields.put("_id", 0);
 
         return mongoDB.getCollection("LastSourceDocumentProcessingStatistics")
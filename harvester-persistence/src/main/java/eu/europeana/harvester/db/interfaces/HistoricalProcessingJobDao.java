@@ -20,6 +20,13 @@ public interface HistoricalProcessingJobDao {
      */
      public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a HistoricalProcessingJob object
      *
@@ -27,6 +27,13 @@ public interface LastSourceDocumentProcessingStatisticsDao {
      */
     public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a SourceDocumentProcessingStatistics object
      *
@@ -45,6 +52,23 @@ public interface LastSourceDocumentProcessingStatisticsDao {
      */
     LastSourceDocumentProcessingStatistics read(String id);
 
+    /**
+     * Reads and returns a list of LastSourceDocumentProcessingStatistics objects
+     *
+     * @param ids the unique ids of the records
+     * @return - the found objects
+     */
+    List<LastSourceDocumentProcessingStatistics> read(List<String> ids);
+
+    /**
+     * Reads only the id and the subtask states of the statistics. The other fields of the returned statistics are
+     * null, so they must never be saved.
+     *
+     * @param ids the unique ids of the records
+     * @return - the found objects, partially read
+     */
+    List<LastSourceDocumentProcessingStatistics> readSubTaskStats(List<String> ids);
+
     LastSourceDocumentProcessingStatistics read(String sourceDocumentReferenceId, DocumentReferenceTaskType taskType, URLSourceType urlSourceType);
 
     /**
@@ -70,7 +94,11 @@ public interface LastSourceDocumentProcessingStatisticsDao {
 
 
     /**
-     * If the objects don't exists they get created; otherwise updates the a SourceDocumentProcessingStatistics record
+     * If the objects don't exists they get created; otherwise updates the a SourceDocumentProcessingStatistics record.
+     * Only the last object with a given id is written. The objects are written in one unordered bulk, each one only if
+     * its document is still the version read just before, so the counters stay exact; the documents written meanwhile
+     * by someone else are read and written again. If some writes fail the others are still applied before the error
+     * is thrown.
      *
      * @param lastSourceDocumentProcessingStatistics the modified SourceDocumentProcessingStatistics object
      * @param writeConcern                           describes the guarantee that MongoDB provides when reporting on the success of a write
@@ -187,4 +215,28 @@ public interface LastSourceDocumentProcessingStatisticsDao {
      */
     public Interval getDateIntervalForProcessing(final String executionId);
 
+    /**
+     * The counts per collection and per execution are materialized in counters which are updated on every write.
+     * Compares the counters with an aggregation over the active statistics.
+     *
+     * @return the ids of the counters which differ, mapped to {counter value, aggregated value}; empty if consistent
+     */
+    public Map<String, long[]> checkCounters();
+
+    /**
+     * Recomputes all the counters with an aggregation over the active statistics.
+     * The statistics should not be written while the counters are rebuilt.
+     *
+     * @return the number of counters
+     */
+    public int rebuildCounters();
+
+    /**
+     * Rebuilds the counters if there are none while there are statistics, as in a database written before the
+     * counters existed, where every count would read 0.
+     *
+     * @return the number of counters, 0 if they already existed
+     */
+    public int rebuildCountersIfMissing();
+
     }
@@ -6,10 +6,12 @@ import eu.europeana.harvester.domain.MachineResourceReference;
 import eu.europeana.harvester.domain.Page;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 /**
- * DAO for CRUD with machine_resource_reference collection
+ * DAO for CRUD with machine_resource_reference collection.
+ * The writes set the lastModified of the references to the current date of the DB, the one of the objects is ignored.
  */
 public interface MachineResourceReferenceDao {
 
@@ -20,6 +22,13 @@ public interface MachineResourceReferenceDao {
      */
     public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a MachineResourceReference object
      *
@@ -79,4 +88,26 @@ public interface MachineResourceReferenceDao {
      */
     public List<MachineResourceReference> getAllMachineResourceReferences(Page page);
 
+    /**
+     * Returns a page of all the MachineResourceReferences, ordered by their id.
+     *
+     * @param afterId the id of the last reference of the previous page, null for the first page
+     * @param limit   the maximum number of references returned
+     * @return - list of MachineResourceReferences
+     */
+    public List<MachineResourceReference> getAllMachineResourceReferences(String afterId, int limit);
+
+    /**
+     * Returns a page of the MachineResourceReferences written since a given moment, ordered by their last modification
+     * then by their id. The next page starts after the (lastModified, id) of the last reference of the previous one,
+     * so any number of references modified at the same moment are paged through.
+     *
+     * @param since   the moment of the last known modification (inclusive) for the first page, the last modification
+     *                of the previous page otherwise
+     * @param afterId the id of the last reference of the previous page, null for the first page
+     * @param limit   the maximum number of references returned
+     * @return - list of MachineResourceReferences
+     */
+    public List<MachineResourceReference> getMachineResourceReferencesModifiedSince(Date since, String afterId, int limit);
+
 }
@@ -8,6 +8,7 @@ import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.util.pagedElements.PagedElements;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -24,6 +25,13 @@ public interface ProcessingJobDao {
      */
     Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    Long getEstimatedCount();
+
     /**
      * Persists a ProcessingJob object
      *
@@ -45,7 +53,9 @@ public interface ProcessingJobDao {
      com.google.code.morphia.Key<ProcessingJob> createOrModify(ProcessingJob processingJobs, WriteConcern writeConcern);
 
     /**
-     * Creates or (if existing) modifies the ProcessingJobs objects
+     * Creates or (if existing) modifies the ProcessingJobs objects.
+     * Written as one unordered bulk of whole replacements: only the last object with a given id is kept, and if
+     * some of the writes fail the others are still done before the error is thrown.
      *
      * @param processingJobs - a new object
      * @param writeConcern   describes the guarantee that MongoDB provides when reporting on the success of a write
@@ -62,6 +72,23 @@ public interface ProcessingJobDao {
      */
      ProcessingJob read(String id);
 
+    /**
+     * Reads and returns a list of ProcessingJob objects
+     *
+     * @param ids the unique ids of the records
+     * @return - the found ProcessingJob objects
+     */
+     List<ProcessingJob> read(List<String> ids);
+
+    /**
+     * Reads only the id, the reference owner and the url source type of the jobs, which is all the statistics of a
+     * finished job need. The other fields of the returned jobs are null, so they must never be saved.
+     *
+     * @param ids the unique ids of the records
+     * @return - the found ProcessingJob objects, partially read
+     */
+     List<ProcessingJob> readOwnersAndSourceTypes(List<String> ids);
+
     /**
      * Updates a ProcessingJob record
      *
@@ -91,8 +118,52 @@ public interface ProcessingJobDao {
 
     void modifyStateOfJobsWithIds(JobState newJobState,List<String> jobIds);
 
+    /**
+     * Changes the state of the jobs which are still in the expected state, with one update for all of them. The jobs
+     * which were changed meanwhile (e.g. already started or paused) are left as they are.
+     *
+     * @param oldJobState the state the jobs must be in
+     * @param newJobState the new state
+     * @param jobIds      the unique ids of the jobs
+     * @return the number of changed jobs
+     */
+    int modifyStateOfJobsWithIds(JobState oldJobState, JobState newJobState, List<String> jobIds);
+
+    /**
+     * Moves the jobs which are still READY to RUNNING with one update, marking them with the token of the load.
+     *
+     * @param jobIds    the unique ids of the jobs
+     * @param loadToken unique for each load
+     * @return the number of started jobs
+     */
+    int startJobsWithIds(List<String> jobIds, String loadToken);
+
+    /**
+     * @param loadToken the token of a load
+     * @param jobIds    the unique ids of the jobs
+     * @return the ids, among the given ones, of the jobs started by the load
+     */
+    List<String> findJobIdsStartedBy(String loadToken, List<String> jobIds);
+
+    /**
+     * @param jobState the specific state
+     * @param jobIds   the unique ids of the jobs
+     * @return the ids, among the given ones, of the jobs which are in the given state
+     */
+    List<String> findJobIdsWithState(JobState jobState, List<String> jobIds);
+
     void modifyStateOfJobs(JobState oldJobState, JobState newJobState);
 
+    /**
+     * Changes the state of the jobs of the given IPs which are in the expected state, with one update for all of them.
+     *
+     * @param oldJobState the state the jobs must be in
+     * @param newJobState the new state
+     * @param ipAddresses the IP addresses of the jobs
+     * @return the number of changed jobs
+     */
+    int modifyStateOfJobsWithIpAddresses(JobState oldJobState, JobState newJobState, Collection<String> ipAddresses);
+
     /**
      * @return a map which maps each IP address with the number of processingJobs from that IP address
      */
@@ -126,4 +197,23 @@ public interface ProcessingJobDao {
 
 	Map<String, JobStatistics> findJobsByCollectionId(String collectionId);
 
+    /**
+     * Moves the jobs which ended (FINISHED, FAILED or ERROR) and were expected to start before the given date into
+     * the historical_processing_job collection.
+     *
+     * @param expectedStartBefore only the jobs expected to start before this date are moved
+     * @param batchSize           the maximum number of jobs moved by one call
+     * @param writeConcern        describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                            operation
+     * @return the number of moved jobs, less than batchSize when there is nothing left to move
+     */
+    int archiveFinishedJobs(Date expectedStartBefore, int batchSize, WriteConcern writeConcern);
+
+    /**
+     * Makes the moved jobs expire from the historical_processing_job collection through a TTL index.
+     *
+     * @param retentionInSecs how long a job is kept after it was moved
+     */
+    void expireArchivedJobsAfter(long retentionInSecs);
+
 }
@@ -6,6 +6,7 @@ import eu.europeana.harvester.domain.ProcessingState;
 import eu.europeana.harvester.domain.SourceDocumentProcessingStatistics;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
 
@@ -21,6 +22,13 @@ public interface SourceDocumentProcessingStatisticsDao {
      */
     public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a SourceDocumentProcessingStatistics object
      *
@@ -33,6 +41,15 @@ public interface SourceDocumentProcessingStatisticsDao {
 
     public List<SourceDocumentProcessingStatistics> read(List<String> ids);
 
+    /**
+     * Reads only the id, the source document reference id and the http response headers of the statistics, which is
+     * all a conditional download needs. The other fields of the returned statistics are null, so they must never be saved.
+     *
+     * @param ids the unique ids of the records
+     * @return - the found objects, partially read
+     */
+    public List<SourceDocumentProcessingStatistics> readHttpResponseHeaders(List<String> ids);
+
     /**
      * Reads and returns a SourceDocumentProcessingStatistics object
      *
@@ -62,7 +79,9 @@ public interface SourceDocumentProcessingStatisticsDao {
     com.google.code.morphia.Key<SourceDocumentProcessingStatistics> createOrModify(SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics, WriteConcern writeConcern);
 
     /**
-     * If the objects don't exists they get created; otherwise updates the a SourceDocumentProcessingStatistics record
+     * If the objects don't exists they get created; otherwise updates the a SourceDocumentProcessingStatistics record.
+     * Written as one unordered bulk of whole replacements: only the last object with a given id is kept, and if
+     * some of the writes fail the others are still done before the error is thrown.
      *
      * @param sourceDocumentProcessingStatistics the modified SourceDocumentProcessingStatistics object
      * @param writeConcern                       describes the guarantee that MongoDB provides when reporting on the success of a write
@@ -118,4 +137,24 @@ public interface SourceDocumentProcessingStatisticsDao {
     List<SourceDocumentProcessingStatistics> deactivateDocuments(final List<String> sourceDocumentReferenceIds, final WriteConcern concern);
 
     List<SourceDocumentProcessingStatistics> findByExecutionIdAndState(String executionId, List<ProcessingState> states);
+
+    /**
+     * Moves the statistics last updated before the given date into the historical_source_document_processing_stats
+     * collection. The latest statistics of each document stay in last_source_document_processing_stats.
+     *
+     * @param updatedBefore only the statistics last updated before this date are moved
+     * @param batchSize     the maximum number of statistics moved by one call
+     * @param writeConcern  describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                      operation
+     * @return the number of moved statistics, less than batchSize when there is nothing left to move
+     */
+    int archiveStatistics(Date updatedBefore, int batchSize, WriteConcern writeConcern);
+
+    /**
+     * Makes the moved statistics expire from the historical_source_document_processing_stats collection through a
+     * TTL index.
+     *
+     * @param retentionInSecs how long the statistics are kept after they were moved
+     */
+    void expireArchivedStatisticsAfter(long retentionInSecs);
 }
@@ -20,6 +20,13 @@ public interface SourceDocumentReferenceDao {
      */
     public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a SourceDocumentReference object only if it's not created yet
      *
@@ -41,6 +48,8 @@ public interface SourceDocumentReferenceDao {
 
     /**
      * Modifies an existing SourceDocumentReference record, if it doesn't exists then creates it.
+     * Written as one unordered bulk of whole replacements: only the last object with a given id is kept, and if
+     * some of the writes fail the others are still done before the error is thrown.
      *  @param sourceDocumentReferences modified or new objects
      * @param writeConcern             describes the guarantee that MongoDB provides when reporting on the success of a write
      */
@@ -63,6 +72,25 @@ public interface SourceDocumentReferenceDao {
      */
      List<SourceDocumentReference> read(List<String> ids);
 
+    /**
+     * Reads only the id, the reference owner, the url and the last stats id of the references, which is all the
+     * task of a reference needs. The other fields of the returned references are null, so they must never be saved.
+     *
+     * @param ids the unique ids of the records
+     * @return - the found SourceDocumentReference objects, partially read
+     */
+     List<SourceDocumentReference> readForTasks(List<String> ids);
+
+    /**
+     * Writes only the last stats id and the redirection path of the references, without reading them. The other
+     * fields are left as they are in the DB and the references which don't exist are not created.
+     *
+     * @param sourceDocumentReferences the references holding the new last stats ids and redirection paths
+     * @param writeConcern             describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                                 operation
+     */
+     void updateLastStats(Collection<SourceDocumentReference> sourceDocumentReferences, WriteConcern writeConcern);
+
     /**
      * Updates a SourceDocumentReference record
      *
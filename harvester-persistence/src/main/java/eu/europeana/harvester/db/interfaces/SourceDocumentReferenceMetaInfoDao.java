@@ -19,6 +19,13 @@ public interface SourceDocumentReferenceMetaInfoDao {
      */
     public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a SourceDocumentReferenceMetaInfo object
      * @param sourceDocumentReferenceMetaInfo - a new object
@@ -29,7 +36,9 @@ public interface SourceDocumentReferenceMetaInfoDao {
     public boolean create(SourceDocumentReferenceMetaInfo sourceDocumentReferenceMetaInfo, WriteConcern writeConcern);
 
     /**
-     * Persists a SourceDocumentReferenceMetaInfo object
+     * Persists a SourceDocumentReferenceMetaInfo object.
+     * Written as one unordered bulk of whole replacements: only the last object with a given id is kept, and if
+     * some of the writes fail the others are still done before the error is thrown.
      * @param sourceDocumentReferenceMetaInfos - a list of new objects
      * @param writeConcern describes the guarantee that MongoDB provides when reporting on the success of a write
      */
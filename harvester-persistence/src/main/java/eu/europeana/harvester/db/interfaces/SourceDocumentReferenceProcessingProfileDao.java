@@ -6,6 +6,8 @@ import eu.europeana.harvester.domain.ReferenceOwner;
 import eu.europeana.harvester.domain.SourceDocumentReferenceProcessingProfile;
 
 import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -19,6 +21,13 @@ public interface SourceDocumentReferenceProcessingProfileDao {
      */
     public Long getCount();
 
+    /**
+     * Estimates the number of docs in the collection from the collection statistics, without counting them.
+     *
+     * @return returns the estimated number of documents in the collection.
+     */
+    public Long getEstimatedCount();
+
     /**
      * Persists a SourceDocumentReferenceProcessingProfile object only if it's not created yet
      *
@@ -40,6 +49,8 @@ public interface SourceDocumentReferenceProcessingProfileDao {
 
     /**
      * Modifies an existing SourceDocumentReferenceProcessingProfile record, if it doesn't exists then creates it.
+     * Written as one unordered bulk of whole replacements: only the last object with a given id is kept, and if
+     * some of the writes fail the others are still done before the error is thrown.
      *  @param sourceDocumentReferences modified or new objects
      * @param writeConcern             describes the guarantee that MongoDB provides when reporting on the success of a write
      */
@@ -94,6 +105,17 @@ public interface SourceDocumentReferenceProcessingProfileDao {
      */
     List<SourceDocumentReferenceProcessingProfile> getJobToBeEvaluated();
 
+    /**
+     *  Streams the active SourceDocumentReferenceProcessingProfiles which should have been re-evaluated till the given
+     *  date, ordered by their id. The profiles are fetched from the DB in batches while iterating.
+     *
+     *  @param evaluatedBefore the upper limit of toBeEvaluatedAt
+     *  @param afterId         only the profiles with a greater id are returned; null to start with the first one
+     *  @param batchSize       the number of profiles fetched in one round trip
+     *  @return - an iterator over the SourceDocumentReferenceProcessingProfile objects
+     */
+    Iterator<SourceDocumentReferenceProcessingProfile> streamJobToBeEvaluated(Date evaluatedBefore, String afterId, int batchSize);
+
     /**
      * @deprecated "This operation is time consuming. It does an update on the entire db"
      *
@@ -30,14 +30,14 @@ public class HistoricalProcessingJobDaoImpl implements HistoricalProcessingJobDa
         return datastore.getCount(HistoricalProcessingJob.class);
     }
 
+    @Override
+    public Long getEstimatedCount() {
+        return MongoCollectionStats.estimatedCount(datastore, HistoricalProcessingJob.class);
+    }
+
     @Override
     public boolean create(HistoricalProcessingJob historicalProcessingJob, WriteConcern writeConcern) {
-        if(read(historicalProcessingJob.getId()) == null) {
-            datastore.save(historicalProcessingJob, writeConcern);
-            return true;
-        } else {
-            return false;
-        }
+        return MorphiaConditionalWriter.insertIfMissing(datastore, HistoricalProcessingJob.class, historicalProcessingJob, writeConcern);
     }
 
     @Override
@@ -60,13 +60,7 @@ public class HistoricalProcessingJobDaoImpl implements HistoricalProcessingJobDa
 
     @Override
     public boolean update(HistoricalProcessingJob historicalProcessingJob, WriteConcern writeConcern) {
-        if(read(historicalProcessingJob.getId()) != null) {
-            datastore.save(historicalProcessingJob, writeConcern);
-
-            return true;
-        }
-
-        return false;
+        return MorphiaConditionalWriter.replaceIfExists(datastore, HistoricalProcessingJob.class, historicalProcessingJob, writeConcern);
     }
 
     @Override
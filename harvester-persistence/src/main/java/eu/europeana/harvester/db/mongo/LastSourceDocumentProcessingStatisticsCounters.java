@@ -0,0 +1,321 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.mongodb.*;
+import eu.europeana.harvester.domain.*;
+
+import java.util.*;
+
+/**
+ * Materialized counts of the active LastSourceDocumentProcessingStatistics, kept in their own collection so that the
+ * statistics of a collection or of an execution are read from a handful of documents instead of being aggregated over
+ * the whole statistics collection.
+ * <p/>
+ * There is one counter for each (collectionId, urlSourceType, taskType, field, value) where the field is the processing
+ * state, one of the subtask states or the total, and one for each (executionId, state).
+ * The counters are moved with $inc deltas whenever a statistics document is written through the DAO.
+ * The deltas are computed from the version which the write itself replaced, so concurrent writers of the same
+ * document move the counters consistently. Writes outside of the DAO, or a failure between a write and its $inc, make
+ * them drift: {@link #check()} compares them with the aggregation over the statistics and {@link #rebuild()}
+ * recomputes them.
+ */
+class LastSourceDocumentProcessingStatisticsCounters {
+
+    static final String COLLECTION_NAME = "LastSourceDocumentProcessingStatisticsCounters";
+
+    static final String TOTAL = "total";
+    static final String STATE = "state";
+
+    /**
+     * The subtask fields which are counted, relative to processingJobSubTaskStats.
+     */
+    static final List<String> SUBTASK_STATE_FIELDS = Collections.unmodifiableList(Arrays.asList(
+            "retrieveState", "colorExtractionState", "metaExtractionState", "thumbnailGenerationState", "thumbnailStorageState"));
+
+    private static final String SEPARATOR = "/";
+
+    private final Datastore datastore;
+
+    LastSourceDocumentProcessingStatisticsCounters(final Datastore datastore) {
+        this.datastore = datastore;
+    }
+
+    private DBCollection counters() {
+        return datastore.getDB().getCollection(COLLECTION_NAME);
+    }
+
+    private DBCollection statistics() {
+        return datastore.getCollection(LastSourceDocumentProcessingStatistics.class);
+    }
+
+    static String collectionCounterId(final String collectionId, final URLSourceType urlSourceType,
+                                      final DocumentReferenceTaskType taskType, final String field, final String value) {
+        return collectionCounterId(collectionId, urlSourceType.name(), taskType.name(), field, value);
+    }
+
+    private static String collectionCounterId(final String collectionId, final String urlSourceType, final String taskType,
+                                              final String field, final String value) {
+        return new StringBuilder().append("collection").append(SEPARATOR).append(collectionId).append(SEPARATOR)
+                                  .append(urlSourceType).append(SEPARATOR).append(taskType).append(SEPARATOR)
+                                  .append(field).append(SEPARATOR).append(value).toString();
+    }
+
+    static String executionCounterId(final String executionId, final String state) {
+        return new StringBuilder().append("execution").append(SEPARATOR).append(executionId).append(SEPARATOR)
+                                  .append(state).toString();
+    }
+
+    /**
+     * Moves the counters from the previous version of the documents to the new one.
+     *
+     * @param before the documents as they were before the write, missing ids are new documents
+     * @param after  the documents as written, null for deleted documents
+     */
+    void applyChanges(final Map<String, LastSourceDocumentProcessingStatistics> before,
+                      final Map<String, LastSourceDocumentProcessingStatistics> after) {
+        final Map<String, Long> deltas = new HashMap<>();
+        final Map<String, DBObject> keys = new HashMap<>();
+
+        for (final LastSourceDocumentProcessingStatistics statistics : before.values()) {
+            addContribution(statistics, -1, deltas, keys);
+        }
+        for (final LastSourceDocumentProcessingStatistics statistics : after.values()) {
+            addContribution(statistics, 1, deltas, keys);
+        }
+
+        final BulkWriteOperation bulk = counters().initializeUnorderedBulkOperation();
+        boolean hasUpdates = false;
+        for (final Map.Entry<String, Long> delta : deltas.entrySet()) {
+            if (0 == delta.getValue()) {
+                continue;
+            }
+            final BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject("count", delta.getValue()));
+            update.append("$setOnInsert", keys.get(delta.getKey()));
+            bulk.find(new BasicDBObject("_id", delta.getKey())).upsert().updateOne(update);
+            hasUpdates = true;
+        }
+
+        if (hasUpdates) {
+            bulk.execute(WriteConcern.ACKNOWLEDGED);
+        }
+    }
+
+    void applyChange(final LastSourceDocumentProcessingStatistics before, final LastSourceDocumentProcessingStatistics after) {
+        final Map<String, LastSourceDocumentProcessingStatistics> beforeById = new HashMap<>(1);
+        final Map<String, LastSourceDocumentProcessingStatistics> afterById = new HashMap<>(1);
+        if (null != before) {
+            beforeById.put(before.getId(), before);
+        }
+        if (null != after) {
+            afterById.put(after.getId(), after);
+        }
+        applyChanges(beforeById, afterById);
+    }
+
+    private static void addContribution(final LastSourceDocumentProcessingStatistics statistics, final long sign,
+                                        final Map<String, Long> deltas, final Map<String, DBObject> keys) {
+        if (null == statistics || !Boolean.TRUE.equals(statistics.getActive()) || null == statistics.getReferenceOwner()) {
+            return;
+        }
+
+        final String collectionId = statistics.getReferenceOwner().getCollectionId();
+        final String executionId = statistics.getReferenceOwner().getExecutionId();
+        final String state = null == statistics.getState() ? null : statistics.getState().name();
+
+        if (null != collectionId && null != statistics.getUrlSourceType() && null != statistics.getTaskType()) {
+            final String urlSourceType = statistics.getUrlSourceType().name();
+            final String taskType = statistics.getTaskType().name();
+
+            addCollectionCounter(collectionId, urlSourceType, taskType, TOTAL, TOTAL, sign, deltas, keys);
+            addCollectionCounter(collectionId, urlSourceType, taskType, STATE, state, sign, deltas, keys);
+
+            final ProcessingJobSubTaskStats subTaskStats = statistics.getProcessingJobSubTaskStats();
+            if (null != subTaskStats) {
+                addCollectionCounter(collectionId, urlSourceType, taskType, "retrieveState", nameOf(subTaskStats.getRetrieveState()), sign, deltas, keys);
+                addCollectionCounter(collectionId, urlSourceType, taskType, "colorExtractionState", nameOf(subTaskStats.getColorExtractionState()), sign, deltas, keys);
+                addCollectionCounter(collectionId, urlSourceType, taskType, "metaExtractionState", nameOf(subTaskStats.getMetaExtractionState()), sign, deltas, keys);
+                addCollectionCounter(collectionId, urlSourceType, taskType, "thumbnailGenerationState", nameOf(subTaskStats.getThumbnailGenerationState()), sign, deltas, keys);
+                addCollectionCounter(collectionId, urlSourceType, taskType, "thumbnailStorageState", nameOf(subTaskStats.getThumbnailStorageState()), sign, deltas, keys);
+            }
+        }
+
+        if (null != executionId && null != state) {
+            final String id = executionCounterId(executionId, state);
+            add(id, new BasicDBObject("executionId", executionId).append("value", state), sign, deltas, keys);
+        }
+    }
+
+    private static String nameOf(final Enum<?> value) {
+        return null == value ? null : value.name();
+    }
+
+    private static void addCollectionCounter(final String collectionId, final String urlSourceType, final String taskType,
+                                             final String field, final String value, final long sign,
+                                             final Map<String, Long> deltas, final Map<String, DBObject> keys) {
+        if (null == value) {
+            return;
+        }
+        final DBObject key = new BasicDBObject("collectionId", collectionId).append("urlSourceType", urlSourceType)
+                                                                           .append("taskType", taskType)
+                                                                           .append("field", field)
+                                                                           .append("value", value);
+        add(collectionCounterId(collectionId, urlSourceType, taskType, field, value), key, sign, deltas, keys);
+    }
+
+    private static void add(final String id, final DBObject key, final long sign,
+                            final Map<String, Long> deltas, final Map<String, DBObject> keys) {
+        final Long delta = deltas.get(id);
+        deltas.put(id, (null == delta ? 0 : delta) + sign);
+        keys.put(id, key);
+    }
+
+    /**
+     * Reads the given counters in one query.
+     *
+     * @return the value of each counter which exists, missing counters are 0
+     */
+    Map<String, Long> read(final Collection<String> ids) {
+        final Map<String, Long> values = new HashMap<>(ids.size());
+        if (ids.isEmpty()) {
+            return values;
+        }
+        final DBCursor cursor = counters().find(new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(ids))),
+                                                new BasicDBObject("count", 1));
+        try {
+            for (final DBObject counter : cursor) {
+                values.put((String) counter.get("_id"), ((Number) counter.get("count")).longValue());
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    long sum(final Collection<String> ids) {
+        long sum = 0;
+        for (final Long value : read(ids).values()) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the counters from scratch with aggregations over the active statistics.
+     *
+     * @return the value of each non-zero counter
+     */
+    Map<String, Long> aggregate() {
+        final Map<String, Long> values = new HashMap<>();
+        final Map<String, DBObject> keys = new HashMap<>();
+        aggregate(values, keys);
+        return values;
+    }
+
+    private void aggregate(final Map<String, Long> values, final Map<String, DBObject> keys) {
+        final DBObject match = new BasicDBObject("$match", new BasicDBObject("active", true));
+
+        final Map<String, String> fields = new LinkedHashMap<>();
+        fields.put(TOTAL, null);
+        fields.put(STATE, "$state");
+        for (final String subTaskField : SUBTASK_STATE_FIELDS) {
+            fields.put(subTaskField, "$processingJobSubTaskStats." + subTaskField);
+        }
+
+        for (final Map.Entry<String, String> field : fields.entrySet()) {
+            final BasicDBObject groupId = new BasicDBObject("collectionId", "$referenceOwner.collectionId")
+                    .append("urlSourceType", "$urlSourceType")
+                    .append("taskType", "$taskType");
+            if (null != field.getValue()) {
+                groupId.append("value", field.getValue());
+            }
+            final DBObject group = new BasicDBObject("$group", new BasicDBObject("_id", groupId)
+                    .append("count", new BasicDBObject("$sum", 1)));
+
+            for (final DBObject result : statistics().aggregate(match, group).results()) {
+                final DBObject id = (DBObject) result.get("_id");
+                final String value = null == field.getValue() ? TOTAL : (String) id.get("value");
+                if (null == id.get("collectionId") || null == id.get("urlSourceType") || null == id.get("taskType") || null == value) {
+                    continue;
+                }
+                final long count = ((Number) result.get("count")).longValue();
+                addCollectionCounter((String) id.get("collectionId"), (String) id.get("urlSourceType"), (String) id.get("taskType"),
+                                     field.getKey(), value, count, values, keys);
+            }
+        }
+
+        final DBObject group = new BasicDBObject("$group", new BasicDBObject("_id",
+                new BasicDBObject("executionId", "$referenceOwner.executionId").append("value", "$state"))
+                .append("count", new BasicDBObject("$sum", 1)));
+        for (final DBObject result : statistics().aggregate(match, group).results()) {
+            final DBObject id = (DBObject) result.get("_id");
+            if (null == id.get("executionId") || null == id.get("value")) {
+                continue;
+            }
+            final String executionId = (String) id.get("executionId");
+            final String state = (String) id.get("value");
+            add(executionCounterId(executionId, state), new BasicDBObject("executionId", executionId).append("value", state),
+                ((Number) result.get("count")).longValue(), values, keys);
+        }
+    }
+
+    /**
+     * Compares the counters with the aggregation over the statistics.
+     *
+     * @return the ids of the counters which differ, mapped to {counter value, aggregated value}
+     */
+    Map<String, long[]> check() {
+        final Map<String, Long> expected = aggregate();
+        final Map<String, long[]> differences = new TreeMap<>();
+
+        final DBCursor cursor = counters().find(new BasicDBObject(), new BasicDBObject("count", 1));
+        try {
+            for (final DBObject counter : cursor) {
+                final String id = (String) counter.get("_id");
+                final long count = ((Number) counter.get("count")).longValue();
+                final Long expectedCount = expected.remove(id);
+                if (count != (null == expectedCount ? 0 : expectedCount)) {
+                    differences.put(id, new long[]{count, null == expectedCount ? 0 : expectedCount});
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        for (final Map.Entry<String, Long> missing : expected.entrySet()) {
+            differences.put(missing.getKey(), new long[]{0, missing.getValue()});
+        }
+        return differences;
+    }
+
+    /**
+     * @return true if there are statistics but no counters, as in a database written before the counters existed
+     */
+    boolean isMissing() {
+        return null == counters().findOne() && null != statistics().findOne();
+    }
+
+    /**
+     * Replaces all the counters with the ones computed by aggregation. The statistics should not be written meanwhile.
+     *
+     * @return the number of counters
+     */
+    int rebuild() {
+        final Map<String, Long> values = new HashMap<>();
+        final Map<String, DBObject> keys = new HashMap<>();
+        aggregate(values, keys);
+
+        counters().drop();
+        if (values.isEmpty()) {
+            return 0;
+        }
+
+        final BulkWriteOperation bulk = counters().initializeUnorderedBulkOperation();
+        for (final Map.Entry<String, Long> value : values.entrySet()) {
+            final BasicDBObject counter = new BasicDBObject(keys.get(value.getKey()).toMap());
+            counter.append("_id", value.getKey()).append("count", value.getValue());
+            bulk.insert(counter);
+        }
+        bulk.execute(WriteConcern.ACKNOWLEDGED);
+        return values.size();
+    }
+}
@@ -1,8 +1,8 @@
 package eu.europeana.harvester.db.mongo;
 
 import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
 import com.google.code.morphia.query.Query;
-import com.google.code.morphia.query.UpdateOperations;
 import com.google.common.collect.Lists;
 import com.mongodb.*;
 
@@ -11,6 +11,7 @@ import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.domain.report.SubTaskState;
 import eu.europeana.harvester.domain.report.SubTaskType;
 
+import org.bson.types.ObjectId;
 import org.joda.time.Interval;
 
 import java.util.*;
@@ -24,8 +25,23 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 	 */
 	private final Datastore datastore;
 	private final static int THRESHOLD = 1000;
+
+	/**
+	 * Changed by every write of the DAO, so that a bulk write replaces a document only if it's still the version the
+	 * counters move from. It isn't mapped, only the writes read it.
+	 */
+	private static final String VERSION_FIELD = "version";
+
+	private static final int DUPLICATE_KEY_ERROR_CODE = 11000;
+
+	/**
+	 * The materialized counts of the active statistics, moved on every write.
+	 */
+	private final LastSourceDocumentProcessingStatisticsCounters counters;
+
 	public LastSourceDocumentProcessingStatisticsDaoImpl(Datastore datastore) {
 		this.datastore = datastore;
+		this.counters = new LastSourceDocumentProcessingStatisticsCounters(datastore);
 	}
 
 	@Override
@@ -33,11 +49,17 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 		return datastore.getCount(LastSourceDocumentProcessingStatistics.class);
 	}
 
+	@Override
+	public Long getEstimatedCount() {
+		return MongoCollectionStats.estimatedCount(datastore, LastSourceDocumentProcessingStatistics.class);
+	}
+
 	@Override
 	public boolean create(LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatisticss,
 			WriteConcern writeConcern) {
-		if (read(lastSourceDocumentProcessingStatisticss.getId()) == null) {
-			datastore.save(lastSourceDocumentProcessingStatisticss);
+		if (MorphiaConditionalWriter.insertIfMissing(datastore, LastSourceDocumentProcessingStatistics.class,
+				toVersionedDBObject(lastSourceDocumentProcessingStatisticss), writeConcern)) {
+			counters.applyChange(null, lastSourceDocumentProcessingStatisticss);
 			return true;
 		} else {
 			return false;
@@ -49,6 +71,29 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 		return datastore.get(LastSourceDocumentProcessingStatistics.class, id);
 	}
 
+	@Override
+	public List<LastSourceDocumentProcessingStatistics> read(List<String> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		final Query<LastSourceDocumentProcessingStatistics> query = datastore
+				.createQuery(LastSourceDocumentProcessingStatistics.class)
+				.field("_id").hasAnyOf(ids).hintIndex("_id_");
+		return query.asList();
+	}
+
+	@Override
+	public List<LastSourceDocumentProcessingStatistics> readSubTaskStats(List<String> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		final Query<LastSourceDocumentProcessingStatistics> query = datastore
+				.createQuery(LastSourceDocumentProcessingStatistics.class)
+				.retrievedFields(true, "id", "processingJobSubTaskStats")
+				.field("_id").hasAnyOf(ids).hintIndex("_id_");
+		return query.asList();
+	}
+
 	@Override
 	public LastSourceDocumentProcessingStatistics read(String sourceDocumentReferenceId,
 			DocumentReferenceTaskType taskType, URLSourceType urlSourceType) {
@@ -59,8 +104,10 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 	public boolean update(
 			LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatisticss,
 			WriteConcern writeConcern) {
-		if (read(lastSourceDocumentProcessingStatisticss.getId()) != null) {
-			datastore.save(lastSourceDocumentProcessingStatisticss, writeConcern);
+		final LastSourceDocumentProcessingStatistics previous = MorphiaConditionalWriter.replace(datastore,
+				LastSourceDocumentProcessingStatistics.class, toVersionedDBObject(lastSourceDocumentProcessingStatisticss), false);
+		if (previous != null) {
+			counters.applyChange(previous, lastSourceDocumentProcessingStatisticss);
 			return true;
 		}
 		return false;
@@ -70,7 +117,10 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 	public com.google.code.morphia.Key<LastSourceDocumentProcessingStatistics> createOrModify(
 			LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatisticss,
 			WriteConcern writeConcern) {
-		return datastore.save(lastSourceDocumentProcessingStatisticss, writeConcern);
+		final LastSourceDocumentProcessingStatistics previous = MorphiaConditionalWriter.replace(datastore,
+				LastSourceDocumentProcessingStatistics.class, toVersionedDBObject(lastSourceDocumentProcessingStatisticss), true);
+		counters.applyChange(previous, lastSourceDocumentProcessingStatisticss);
+		return new com.google.code.morphia.Key<>(LastSourceDocumentProcessingStatistics.class, lastSourceDocumentProcessingStatisticss.getId());
 	}
 
 	@Override
@@ -80,12 +130,131 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 		if (null == lastSourceDocumentProcessingStatisticss || lastSourceDocumentProcessingStatisticss.isEmpty()) {
 			return Collections.emptyList();
 		}
-		return datastore.save(lastSourceDocumentProcessingStatisticss, writeConcern);
+		final Map<String, LastSourceDocumentProcessingStatistics> written = new LinkedHashMap<>(lastSourceDocumentProcessingStatisticss.size());
+		for (final LastSourceDocumentProcessingStatistics statistics : lastSourceDocumentProcessingStatisticss) {
+			written.put(statistics.getId(), statistics);
+		}
+
+		// The versions to replace are read with one query and all the documents are written with one unordered bulk,
+		// each replacement matching the version read. A document written meanwhile makes its replacement an upsert
+		// of an existing id, which fails alone: only these documents are read and written again.
+		final DBCollection collection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);
+		final Map<String, LastSourceDocumentProcessingStatistics> previous = new HashMap<>(written.size());
+		final Map<String, LastSourceDocumentProcessingStatistics> replaced = new HashMap<>(written.size());
+		try {
+			Collection<String> pending = written.keySet();
+			while (!pending.isEmpty()) {
+				pending = writeMatchingVersions(collection, pending, written, previous, replaced, writeConcern);
+			}
+		} finally {
+			counters.applyChanges(previous, replaced);
+		}
+
+		final List<com.google.code.morphia.Key<LastSourceDocumentProcessingStatistics>> keys = new ArrayList<>(written.size());
+		for (final String id : written.keySet()) {
+			keys.add(new com.google.code.morphia.Key<>(LastSourceDocumentProcessingStatistics.class, id));
+		}
+		return keys;
+	}
+
+	/**
+	 * Writes the given documents in one unordered bulk, each one only if it's still the version read just before.
+	 *
+	 * @param ids      the ids of the documents to write
+	 * @param written  the documents to write, by id
+	 * @param previous filled with the versions replaced by the writes which succeeded
+	 * @param replaced filled with the documents whose write succeeded
+	 * @return the ids of the documents written by someone else in the meantime, which have to be written again
+	 */
+	private List<String> writeMatchingVersions(final DBCollection collection, final Collection<String> ids,
+			final Map<String, LastSourceDocumentProcessingStatistics> written,
+			final Map<String, LastSourceDocumentProcessingStatistics> previous,
+			final Map<String, LastSourceDocumentProcessingStatistics> replaced, final WriteConcern writeConcern) {
+		final Map<String, DBObject> current = new HashMap<>(ids.size());
+		final DBCursor cursor = collection.find(new BasicDBObject("_id", new BasicDBObject("$in", new ArrayList<>(ids))));
+		try {
+			for (final DBObject document : cursor) {
+				current.put((String) document.get("_id"), document);
+			}
+		} finally {
+			cursor.close();
+		}
+
+		final List<String> order = new ArrayList<>(ids);
+		final BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+		for (final String id : order) {
+			final DBObject dbObject = toVersionedDBObject(written.get(id));
+			final DBObject document = current.get(id);
+			if (null == document) {
+				bulk.insert(dbObject);
+			} else {
+				// a missing version is matched by null
+				bulk.find(new BasicDBObject("_id", id).append(VERSION_FIELD, document.get(VERSION_FIELD)))
+						.upsert().replaceOne(dbObject);
+			}
+		}
+
+		BulkWriteResult result;
+		BulkWriteException failure = null;
+		try {
+			result = bulk.execute(MorphiaConditionalWriter.acknowledged(writeConcern));
+		} catch (BulkWriteException e) {
+			result = e.getWriteResult();
+			failure = e;
+		}
+
+		// an upserted replacement means that the document was deleted meanwhile: nothing was replaced
+		final Set<Integer> upserted = new HashSet<>();
+		for (final BulkWriteUpsert upsert : result.getUpserts()) {
+			upserted.add(upsert.getIndex());
+		}
+		final Set<Integer> failed = new HashSet<>();
+		final List<String> conflicts = new ArrayList<>();
+		boolean otherErrors = null != failure && null != failure.getWriteConcernError();
+		if (null != failure) {
+			for (final BulkWriteError error : failure.getWriteErrors()) {
+				failed.add(error.getIndex());
+				if (DUPLICATE_KEY_ERROR_CODE == error.getCode()) {
+					conflicts.add(order.get(error.getIndex()));
+				} else {
+					otherErrors = true;
+				}
+			}
+		}
+
+		for (int i = 0; i < order.size(); ++i) {
+			if (failed.contains(i)) {
+				continue;
+			}
+			final String id = order.get(i);
+			final DBObject document = current.get(id);
+			if (null != document && !upserted.contains(i)) {
+				previous.put(id, MorphiaConditionalWriter.toEntity(datastore, LastSourceDocumentProcessingStatistics.class, document));
+			}
+			replaced.put(id, written.get(id));
+		}
+
+		if (otherErrors) {
+			throw failure;
+		}
+		return conflicts;
 	}
 
 	@Override
 	public WriteResult delete(String id) {
-		return datastore.delete(LastSourceDocumentProcessingStatistics.class, id);
+		final DBCollection collection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);
+		while (true) {
+			final DBObject previous = collection.findOne(new BasicDBObject("_id", id));
+			if (null == previous) {
+				return collection.remove(new BasicDBObject("_id", id), WriteConcern.ACKNOWLEDGED);
+			}
+			// removed only if it's still the version read, otherwise the counters would move from a stale one
+			final WriteResult result = collection.remove(previous, WriteConcern.ACKNOWLEDGED);
+			if (result.getN() > 0) {
+				counters.applyChange(MorphiaConditionalWriter.toEntity(datastore, LastSourceDocumentProcessingStatistics.class, previous), null);
+				return result;
+			}
+		}
 	}
 
 	@Override
@@ -137,18 +306,41 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 		List<List<String>> split = split(sourceDocumentReferenceIds);
 		for(List<String> splitted:split) {
 			final Query<LastSourceDocumentProcessingStatistics> query = datastore.find(LastSourceDocumentProcessingStatistics.class);
-			query.field("sourceDocumentReferenceId").hasAnyOf(splitted);
-
-			final UpdateOperations<LastSourceDocumentProcessingStatistics> update = datastore
-					.createUpdateOperations(LastSourceDocumentProcessingStatistics.class);
-
-			update.set("active", false);
-			datastore.update(query, update, false, writeConcern);
+			query.field("sourceDocumentReferenceId").hasAnyOf(splitted).field("active").equal(true)
+					.retrievedFields(true, "id");
+
+			// each document is deactivated only if it's still active, returning the version the counters move from
+			final Map<String, LastSourceDocumentProcessingStatistics> deactivated = new HashMap<>();
+			final Map<String, LastSourceDocumentProcessingStatistics> active = new HashMap<>();
+			try {
+				for (final LastSourceDocumentProcessingStatistics candidate : query.fetch()) {
+					final DBObject update = new BasicDBObject("$set", new BasicDBObject("active", false)
+							.append(VERSION_FIELD, new ObjectId()));
+					final LastSourceDocumentProcessingStatistics statistics = MorphiaConditionalWriter.modify(datastore,
+							LastSourceDocumentProcessingStatistics.class,
+							new BasicDBObject("_id", candidate.getId()).append("active", true), update);
+					if (null != statistics) {
+						active.put(statistics.getId(), statistics);
+						deactivated.put(statistics.getId(), statistics.withActive(false));
+					}
+				}
+			} finally {
+				counters.applyChanges(active, deactivated);
+			}
 		//	docs.addAll(query.asList());
 		}
 		return docs;
 	}
 
+	/**
+	 * @return the document of the statistics with a new version
+	 */
+	private DBObject toVersionedDBObject(final LastSourceDocumentProcessingStatistics statistics) {
+		final DBObject dbObject = ((DatastoreImpl) datastore).getMapper().toDBObject(statistics);
+		dbObject.put(VERSION_FIELD, new ObjectId());
+		return dbObject;
+	}
+
 	private List<List<String>> split(List<String> sourceDocumentReferenceIds) {
 		return Lists.partition(sourceDocumentReferenceIds,THRESHOLD);
 	}
@@ -156,41 +348,12 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 	@Override
 	public Map<SubTaskState, Long> countSubTaskStatesByUrlSourceType(final String collectionId, final URLSourceType urlSourceType,
 			final SubTaskType subtaskType) {
-		final DBCollection processingJobCollection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);
-		
-		final DBObject match = new BasicDBObject();
-		match.put("referenceOwner.collectionId", collectionId);
-		match.put("active", true);
-		match.put("urlSourceType", urlSourceType.name());
-
-		final DBObject group = new BasicDBObject();
-		switch (subtaskType) {
-		case COLOR_EXTRACTION:
-			group.put("_id", "$processingJobSubTaskStats.colorExtractionState");
-			break;
-		case META_EXTRACTION:
-			group.put("_id", "$processingJobSubTaskStats.metaExtractionState");
-			break;
-		case RETRIEVE:
-			group.put("_id", "$processingJobSubTaskStats.retrieveState");
-			break;
-		case THUMBNAIL_GENERATION:
-			group.put("_id", "$processingJobSubTaskStats.thumbnailGenerationState");
-			break;
-		case THUMBNAIL_STORAGE:
-			group.put("_id", "$processingJobSubTaskStats.thumbnailStorageState");
-			break;
-		}		
-		group.put("total", new BasicDBObject("$sum", 1));
-		
-		final AggregationOutput output = aggregationOutput(processingJobCollection, match, group);
+		final String field = subTaskStateField(subtaskType);
 		final Map<SubTaskState, Long> subTasksCountPerState = new HashMap<>();
-		if (output != null) {
-			for (DBObject result : output.results()) {
-				final String state = (String) result.get("_id");
-				final Integer count = (Integer) result.get("total");
-				if (state != null)
-					subTasksCountPerState.put(SubTaskState.valueOf(state), new Long(count));
+		for (final SubTaskState state : SubTaskState.values()) {
+			final long count = counters.sum(collectionCounterIds(collectionId, urlSourceType, field, state.name()));
+			if (count > 0) {
+				subTasksCountPerState.put(state, count);
 			}
 		}
 		return subTasksCountPerState;
@@ -198,57 +361,26 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 	
 	@Override
 	public Long countSubTaskStatesByUrlSourceType(final String collectionId, final URLSourceType urlSourceType, SubTaskType subTaskType, SubTaskState subTaskState) {
-		final DBCollection collection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);		
-		final DBObject count = new BasicDBObject();
-		count.put("referenceOwner.collectionId", collectionId);
-		count.put("active", true);
-		count.put("urlSourceType", urlSourceType.name());
-		String subTaskTypeField = null;
-		switch (subTaskType) {
-		case COLOR_EXTRACTION:
-			subTaskTypeField = "colorExtractionState";
-			break;
-		case META_EXTRACTION:
-			subTaskTypeField = "metaExtractionState";
-			break;
-		case RETRIEVE:
-			subTaskTypeField = "retrieveState";
-			break;
-		case THUMBNAIL_GENERATION:
-			subTaskTypeField = "thumbnailGenerationState";
-			break;
-		case THUMBNAIL_STORAGE:
-			subTaskTypeField = "thumbnailStorageState";
-			break;
-		}
+		final String subTaskTypeField = null == subTaskType ? null : subTaskStateField(subTaskType);
 		if (subTaskTypeField != null && subTaskState != null) {
-			count.put("processingJobSubTaskStats." + subTaskTypeField, subTaskState.name());			
+			return counters.sum(collectionCounterIds(collectionId, urlSourceType, subTaskTypeField, subTaskState.name()));
 		}
-		return collection.count(count);
+		return countAllTaskTypesByUrlSourceType(collectionId, urlSourceType);
 	}
 
 	@Override
 	public Map<ProcessingState, Long> countJobStatesByUrlSourceType(final String collectionId, final URLSourceType urlSourceType,
 			final DocumentReferenceTaskType documentReferenceTaskType) {
-		final DBCollection processingJobCollection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);
-
-		final DBObject match = new BasicDBObject();
-		match.put("referenceOwner.collectionId", collectionId);
-		match.put("active", true);
-		match.put("urlSourceType", urlSourceType.name());
-		match.put("taskType", documentReferenceTaskType.name());
+		final Map<String, ProcessingState> states = new HashMap<>();
+		for (final ProcessingState state : ProcessingState.values()) {
+			states.put(LastSourceDocumentProcessingStatisticsCounters.collectionCounterId(collectionId, urlSourceType,
+					documentReferenceTaskType, LastSourceDocumentProcessingStatisticsCounters.STATE, state.name()), state);
+		}
 
-		final DBObject group = new BasicDBObject("_id", "$state");
-		group.put("count", new BasicDBObject("$sum", 1));
-		
-		final AggregationOutput output = aggregationOutput(processingJobCollection, match, group);
 		final Map<ProcessingState, Long> jobStateCount = new HashMap<>();
-		if (output != null) {
-			for (DBObject result : output.results()) {
-				final String state = (String) result.get("_id");
-				final Integer count = (Integer) result.get("count");
-				if (state != null)
-					jobStateCount.put(ProcessingState.valueOf(state), new Long(count));
+		for (final Map.Entry<String, Long> counter : counters.read(states.keySet()).entrySet()) {
+			if (counter.getValue() > 0) {
+				jobStateCount.put(states.get(counter.getKey()), counter.getValue());
 			}
 		}
 		return jobStateCount;
@@ -256,26 +388,46 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 	
 	@Override
 	public Long countAllTaskTypesByUrlSourceType(final String collectionId, final URLSourceType urlSourceType) {
-		final DBCollection collection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);		
-		final DBObject count = new BasicDBObject();
-		count.put("referenceOwner.collectionId", collectionId);
-		count.put("active", true);
-		count.put("urlSourceType", urlSourceType.name());		
-		return collection.count(count);
+		return counters.sum(collectionCounterIds(collectionId, urlSourceType, LastSourceDocumentProcessingStatisticsCounters.TOTAL,
+				LastSourceDocumentProcessingStatisticsCounters.TOTAL));
 	}
 
 	@Override
 	public Long countSuccessfulTaskTypesByUrlSourceType(final String collectionId, final URLSourceType urlSourceType) {
-		final DBCollection collection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);		
-		final DBObject count = new BasicDBObject();
-		count.put("referenceOwner.collectionId", collectionId);
-		count.put("active", true);
-		count.put("urlSourceType", urlSourceType.name());
-		final DBObject in = new BasicDBObject();
-		String[] states = new String[]{ProcessingState.SUCCESS.name(),ProcessingState.FAILED.name()};
-		in.put("$in", states);
-		count.put("state", in);
-		return collection.count(count);
+		final List<String> ids = new ArrayList<>();
+		for (final ProcessingState state : Arrays.asList(ProcessingState.SUCCESS, ProcessingState.FAILED)) {
+			ids.addAll(collectionCounterIds(collectionId, urlSourceType, LastSourceDocumentProcessingStatisticsCounters.STATE, state.name()));
+		}
+		return counters.sum(ids);
+	}
+
+	/**
+	 * @return the ids of the counters of a value for all the task types
+	 */
+	private static List<String> collectionCounterIds(final String collectionId, final URLSourceType urlSourceType,
+			final String field, final String value) {
+		final List<String> ids = new ArrayList<>(DocumentReferenceTaskType.values().length);
+		for (final DocumentReferenceTaskType taskType : DocumentReferenceTaskType.values()) {
+			ids.add(LastSourceDocumentProcessingStatisticsCounters.collectionCounterId(collectionId, urlSourceType, taskType, field, value));
+		}
+		return ids;
+	}
+
+	private static String subTaskStateField(final SubTaskType subTaskType) {
+		switch (subTaskType) {
+		case COLOR_EXTRACTION:
+			return "colorExtractionState";
+		case META_EXTRACTION:
+			return "metaExtractionState";
+		case RETRIEVE:
+			return "retrieveState";
+		case THUMBNAIL_GENERATION:
+			return "thumbnailGenerationState";
+		case THUMBNAIL_STORAGE:
+			return "thumbnailStorageState";
+		default:
+			throw new IllegalArgumentException("Unknown subtask type " + subTaskType);
+		}
 	}
 
 	@Override
@@ -301,30 +453,35 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 
 	@Override
 	public Map<JobState, Long> countProcessingJobsByState(final String executionId) {
-		final DBCollection processingJobCollection = datastore.getCollection(LastSourceDocumentProcessingStatistics.class);
-		
-		final DBObject match = new BasicDBObject();
-		match.put("referenceOwner.executionId", executionId);
-		match.put("active", true);
-
-		final DBObject group = new BasicDBObject();
-		group.put("_id", "$state");
-		group.put("total", new BasicDBObject("$sum", 1));
+		final Map<String, JobState> states = new HashMap<>();
+		for (final JobState state : JobState.values()) {
+			states.put(LastSourceDocumentProcessingStatisticsCounters.executionCounterId(executionId, state.name()), state);
+		}
 
-		final AggregationOutput output = aggregationOutput(processingJobCollection, match, group);
 		final Map<JobState, Long> jobsPerState = new HashMap<>();
-
-		if (output != null) {
-			for (DBObject result : output.results()) {
-				final String state = (String) result.get("_id");
-				final Integer count = (Integer) result.get("total");
-				if (state != null)
-					jobsPerState.put(JobState.valueOf(state), new Long(count));
+		for (final Map.Entry<String, Long> counter : counters.read(states.keySet()).entrySet()) {
+			if (counter.getValue() > 0) {
+				jobsPerState.put(states.get(counter.getKey()), counter.getValue());
 			}
 		}
 		return jobsPerState;
 	}
 
+	@Override
+	public Map<String, long[]> checkCounters() {
+		return counters.check();
+	}
+
+	@Override
+	public int rebuildCounters() {
+		return counters.rebuild();
+	}
+
+	@Override
+	public int rebuildCountersIfMissing() {
+		return counters.isMissing() ? counters.rebuild() : 0;
+	}
+
 	@Override
 	public Interval getDateIntervalForProcessing(String executionId) {
 
@@ -1,23 +1,28 @@
 package eu.europeana.harvester.db.mongo;
 
 import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.Mapper;
 import com.google.code.morphia.query.Query;
-import com.mongodb.WriteConcern;
-import com.mongodb.WriteResult;
+import com.mongodb.*;
 import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.domain.LastSourceDocumentProcessingStatistics;
 import eu.europeana.harvester.domain.MachineResourceReference;
 import eu.europeana.harvester.domain.Page;
 
-import java.util.Collection;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 /**
- * MongoDB DAO implementation for CRUD with machine_resource_reference collection
+ * MongoDB DAO implementation for CRUD with machine_resource_reference collection.
+ * The lastModified of the written references is set by the server with $currentDate, so that the clocks of the
+ * writers can't hide a modification from the readers of the modified references.
  */
 public class MachineResourceReferenceDaoImpl implements MachineResourceReferenceDao {
 
+    private static final String LAST_MODIFIED_FIELD = "lastModified";
+
+    private static final String LIMIT_FIELD = "maxConcurrentConnectionsLimit";
+
     /**
      * The Datastore interface provides type-safe methods for accessing and storing your java objects in MongoDB.
      * It provides get/find/save/delete methods for working with your java objects.
@@ -33,19 +38,31 @@ public class MachineResourceReferenceDaoImpl implements MachineResourceReference
         return datastore.getCount(MachineResourceReference.class);
     }
 
+    @Override
+    public Long getEstimatedCount() {
+        return MongoCollectionStats.estimatedCount(datastore, MachineResourceReference.class);
+    }
+
     @Override
     public boolean create(MachineResourceReference machineResourceReference, WriteConcern writeConcern) {
-        if(read(machineResourceReference.getId()) == null) {
-            datastore.save(machineResourceReference, writeConcern);
-            return true;
-        } else {
+        // $currentDate can't be applied only on insert: the date is set once the reference is known to be new.
+        // Until then the reference has no date and it's seen only by the full reads.
+        final MachineResourceReference withoutDate = new MachineResourceReference(machineResourceReference.getId(),
+                machineResourceReference.getMaxConcurrentConnectionsLimit(), null);
+        if (!MorphiaConditionalWriter.insertIfMissing(datastore, MachineResourceReference.class, withoutDate, writeConcern)) {
             return false;
         }
+        datastore.getCollection(MachineResourceReference.class).update(
+                new BasicDBObject(Mapper.ID_KEY, machineResourceReference.getId()).append(LAST_MODIFIED_FIELD, new BasicDBObject("$exists", false)),
+                new BasicDBObject("$currentDate", new BasicDBObject(LAST_MODIFIED_FIELD, true)), false, false, writeConcern);
+        return true;
     }
 
     @Override
     public com.google.code.morphia.Key<MachineResourceReference> createOrModify(MachineResourceReference machineResourceReference, WriteConcern writeConcern) {
-        return datastore.save(machineResourceReference, writeConcern);
+        datastore.getCollection(MachineResourceReference.class).update(new BasicDBObject(Mapper.ID_KEY, machineResourceReference.getId()),
+                                                                        toUpdate(machineResourceReference), true, false, writeConcern);
+        return new Key<>(MachineResourceReference.class, machineResourceReference.getId());
     }
 
     @Override
@@ -53,7 +70,22 @@ public class MachineResourceReferenceDaoImpl implements MachineResourceReference
         if (null == machineResourceReferences || machineResourceReferences.isEmpty()) {
             return Collections.EMPTY_LIST;
         }
-        return datastore.save(machineResourceReferences, writeConcern);
+
+        // only the last reference of an ip is written, as with consecutive saves
+        final Map<String, MachineResourceReference> referencesById = new LinkedHashMap<>(machineResourceReferences.size());
+        for (final MachineResourceReference machineResourceReference : machineResourceReferences) {
+            referencesById.put(machineResourceReference.getId(), machineResourceReference);
+        }
+
+        final BulkWriteOperation bulk = datastore.getCollection(MachineResourceReference.class).initializeUnorderedBulkOperation();
+        final List<Key<MachineResourceReference>> keys = new ArrayList<>(referencesById.size());
+        for (final MachineResourceReference machineResourceReference : referencesById.values()) {
+            bulk.find(new BasicDBObject(Mapper.ID_KEY, machineResourceReference.getId())).upsert().updateOne(toUpdate(machineResourceReference));
+            keys.add(new Key<>(MachineResourceReference.class, machineResourceReference.getId()));
+        }
+
+        bulk.execute(writeConcern);
+        return keys;
     }
 
     @Override
@@ -63,13 +95,10 @@ public class MachineResourceReferenceDaoImpl implements MachineResourceReference
 
     @Override
     public boolean update(MachineResourceReference machineResourceReference, WriteConcern writeConcern) {
-        if(read(machineResourceReference.getId()) != null) {
-            datastore.save(machineResourceReference, writeConcern);
-
-            return true;
-        }
-
-        return false;
+        final WriteResult result = datastore.getCollection(MachineResourceReference.class).update(
+                new BasicDBObject(Mapper.ID_KEY, machineResourceReference.getId()), toUpdate(machineResourceReference),
+                false, false, MorphiaConditionalWriter.acknowledged(writeConcern));
+        return result.getN() > 0;
     }
 
     @Override
@@ -86,4 +115,45 @@ public class MachineResourceReferenceDaoImpl implements MachineResourceReference
         return query.asList();
     }
 
+    @Override
+    public List<MachineResourceReference> getAllMachineResourceReferences(String afterId, int limit) {
+        final Query<MachineResourceReference> query = datastore.find(MachineResourceReference.class);
+        if (null != afterId) {
+            query.field("_id").greaterThan(afterId);
+        }
+        query.order("_id");
+        query.limit(limit);
+
+        return query.asList();
+    }
+
+    @Override
+    public List<MachineResourceReference> getMachineResourceReferencesModifiedSince(Date since, String afterId, int limit) {
+        final Query<MachineResourceReference> query = datastore.find(MachineResourceReference.class);
+        if (null == afterId) {
+            query.field("lastModified").greaterThanOrEq(since);
+        } else {
+            query.or(query.criteria("lastModified").greaterThan(since),
+                     query.and(query.criteria("lastModified").equal(since), query.criteria("_id").greaterThan(afterId)));
+        }
+        query.order("lastModified, _id");
+        query.limit(limit);
+
+        return query.asList();
+    }
+
+    /**
+     * @return the update which replaces the limit of the reference, or removes it when it's null, and sets its
+     * lastModified to the current date of the server
+     */
+    private static DBObject toUpdate(final MachineResourceReference machineResourceReference) {
+        final BasicDBObject update = new BasicDBObject("$currentDate", new BasicDBObject(LAST_MODIFIED_FIELD, true));
+        if (null == machineResourceReference.getMaxConcurrentConnectionsLimit()) {
+            update.append("$unset", new BasicDBObject(LIMIT_FIELD, ""));
+        } else {
+            update.append("$set", new BasicDBObject(LIMIT_FIELD, machineResourceReference.getMaxConcurrentConnectionsLimit()));
+        }
+        return update;
+    }
+
 }
@@ -0,0 +1,96 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Moves documents from a collection into its history collection, where they expire through a TTL index.
+ */
+final class MongoArchiver {
+
+    /**
+     * The field of the archived documents which holds the date when they were moved. The TTL index is built on it.
+     */
+    static final String ARCHIVED_AT = "archivedAt";
+
+    private static final String EXPIRE_AFTER_SECONDS = "expireAfterSeconds";
+
+    private MongoArchiver() {
+    }
+
+    /**
+     * Moves at most batchSize documents matching the query. The documents are first upserted in the history
+     * collection and only then removed, so after a crash in between they are moved again by the next call.
+     * The removal repeats the query, so a document modified meanwhile stays where it is.
+     *
+     * @param from         the collection which holds the documents
+     * @param to           the history collection
+     * @param query        selects the documents to move
+     * @param batchSize    the maximum number of documents to move
+     * @param archivedAt   the date stored in the moved documents
+     * @param writeConcern describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                     operation
+     * @return the number of moved documents
+     */
+    static int archive(final DBCollection from, final DBCollection to, final DBObject query, final int batchSize,
+                       final Date archivedAt, final WriteConcern writeConcern) {
+        final List<Object> ids = new ArrayList<>(batchSize);
+        final BulkWriteOperation copy = to.initializeUnorderedBulkOperation();
+
+        final DBCursor cursor = from.find(query).limit(batchSize);
+        try {
+            for (final DBObject document : cursor) {
+                // the class name of the source would make morphia read the history as the source class
+                document.removeField(Mapper.CLASS_NAME_FIELDNAME);
+                document.put(ARCHIVED_AT, archivedAt);
+
+                copy.find(new BasicDBObject(Mapper.ID_KEY, document.get(Mapper.ID_KEY))).upsert().replaceOne(document);
+                ids.add(document.get(Mapper.ID_KEY));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        copy.execute(writeConcern);
+
+        final BasicDBObject moved = new BasicDBObject(query.toMap());
+        moved.put(Mapper.ID_KEY, new BasicDBObject("$in", ids));
+        from.remove(moved, writeConcern);
+
+        return ids.size();
+    }
+
+    /**
+     * Makes the archived documents expire after the given time. Creates the TTL index or changes its expiry if it
+     * already exists.
+     *
+     * @param history         the history collection
+     * @param retentionInSecs how long the documents are kept after they are archived
+     */
+    static void expireAfter(final DBCollection history, final long retentionInSecs) {
+        final DBObject keys = new BasicDBObject(ARCHIVED_AT, 1);
+
+        for (final DBObject index : history.getIndexInfo()) {
+            if (!keys.equals(index.get("key"))) {
+                continue;
+            }
+            final Object expiry = index.get(EXPIRE_AFTER_SECONDS);
+            if (expiry instanceof Number && ((Number) expiry).longValue() == retentionInSecs) {
+                return;
+            }
+            final DBObject collMod = new BasicDBObject("collMod", history.getName())
+                    .append("index", new BasicDBObject("keyPattern", keys).append(EXPIRE_AFTER_SECONDS, retentionInSecs));
+            history.getDB().command(collMod).throwOnError();
+            return;
+        }
+
+        history.createIndex(keys, new BasicDBObject(EXPIRE_AFTER_SECONDS, retentionInSecs));
+    }
+}
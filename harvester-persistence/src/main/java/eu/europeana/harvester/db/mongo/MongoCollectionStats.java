@@ -0,0 +1,31 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.mongodb.CommandResult;
+
+/**
+ * Reads sizes from the statistics Mongo keeps for each collection instead of counting the documents.
+ */
+final class MongoCollectionStats {
+
+    private MongoCollectionStats() {
+    }
+
+    /**
+     * The number of documents reported by collStats. It's read from the collection metadata, so it costs the same for
+     * any size of the collection, but it can be slightly off after an unclean shutdown or while chunks migrate.
+     *
+     * @param datastore the datastore which maps the entities
+     * @param clazz     the class of the entities
+     * @return the estimated number of documents, 0 if the collection doesn't exist yet
+     */
+    static Long estimatedCount(final Datastore datastore, final Class<?> clazz) {
+        final CommandResult stats = datastore.getCollection(clazz).getStats();
+        if (!stats.ok() && String.valueOf(stats.getErrorMessage()).contains("not found")) {
+            return 0l;
+        }
+        stats.throwOnError();
+        final Object count = stats.get("count");
+        return null == count ? 0l : ((Number) count).longValue();
+    }
+}
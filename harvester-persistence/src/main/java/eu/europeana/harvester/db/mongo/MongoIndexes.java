@@ -0,0 +1,111 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
+import com.mongodb.DBObject;
+import eu.europeana.harvester.domain.*;
+
+import java.util.*;
+
+/**
+ * Creates and checks the indexes declared with {@link Indexes} on the entities of the harvester database.
+ * Every query of the DAOs is served by one of them.
+ */
+public final class MongoIndexes {
+
+    /**
+     * The entities which declare indexes.
+     */
+    public static final List<Class<?>> INDEXED_ENTITIES = Collections.unmodifiableList(Arrays.<Class<?>>asList(
+            ProcessingJob.class,
+            HistoricalProcessingJob.class,
+            SourceDocumentReference.class,
+            SourceDocumentProcessingStatistics.class,
+            LastSourceDocumentProcessingStatistics.class,
+            SourceDocumentReferenceProcessingProfile.class,
+            MachineResourceReference.class
+    ));
+
+    private MongoIndexes() {
+    }
+
+    /**
+     * Creates the declared indexes which don't exist yet. They are built in the background, so the collections stay
+     * available meanwhile.
+     *
+     * @param datastore the harvester database
+     * @return the declared indexes which are still missing afterwards, see {@link #findMissingIndexes}
+     */
+    public static List<String> ensureIndexes(final Datastore datastore) {
+        for (final Class<?> entity : INDEXED_ENTITIES) {
+            datastore.ensureIndexes(entity, true);
+        }
+        return findMissingIndexes(datastore);
+    }
+
+    /**
+     * @param datastore the harvester database
+     * @return the declared indexes which don't exist, as "collection: field_direction_..." (e.g. "ProcessingJob: state_1")
+     */
+    public static List<String> findMissingIndexes(final Datastore datastore) {
+        final List<String> missingIndexes = new ArrayList<>();
+
+        for (final Class<?> entity : INDEXED_ENTITIES) {
+            final Set<String> existingIndexes = new HashSet<>();
+            for (final DBObject index : datastore.getCollection(entity).getIndexInfo()) {
+                existingIndexes.add(keyPattern((DBObject) index.get("key")));
+            }
+
+            for (final Index index : entity.getAnnotation(Indexes.class).value()) {
+                final String keyPattern = keyPattern(index.value());
+                if (!existingIndexes.contains(keyPattern)) {
+                    missingIndexes.add(datastore.getCollection(entity).getName() + ": " + keyPattern);
+                }
+            }
+        }
+
+        return missingIndexes;
+    }
+
+    /**
+     * @param fields the fields of a declared index, like "state, -updatedAt"
+     * @return the key pattern of the index, like "state_1_updatedAt_-1"
+     */
+    static String keyPattern(final String fields) {
+        final StringBuilder keyPattern = new StringBuilder();
+        for (final String field : fields.split(",")) {
+            final String trimmedField = field.trim();
+            if (keyPattern.length() > 0) {
+                keyPattern.append('_');
+            }
+            if (trimmedField.startsWith("-")) {
+                keyPattern.append(trimmedField.substring(1)).append("_-1");
+            } else {
+                keyPattern.append(trimmedField).append("_1");
+            }
+        }
+        return keyPattern.toString();
+    }
+
+    /**
+     * @param key the key of an existing index, like { state: 1, updatedAt: -1.0 }
+     * @return the key pattern of the index, like "state_1_updatedAt_-1"
+     */
+    static String keyPattern(final DBObject key) {
+        final StringBuilder keyPattern = new StringBuilder();
+        for (final String field : key.keySet()) {
+            if (keyPattern.length() > 0) {
+                keyPattern.append('_');
+            }
+            final Object direction = key.get(field);
+            keyPattern.append(field).append('_');
+            if (direction instanceof Number) {
+                keyPattern.append(((Number) direction).doubleValue() < 0 ? "-1" : "1");
+            } else {
+                keyPattern.append(direction);
+            }
+        }
+        return keyPattern.toString();
+    }
+}
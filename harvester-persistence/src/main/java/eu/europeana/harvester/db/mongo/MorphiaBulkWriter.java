@@ -0,0 +1,99 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.Key;
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+import java.util.*;
+
+/**
+ * Writes many entities in a single unordered bulk operation instead of one save per entity.
+ */
+final class MorphiaBulkWriter {
+
+    private MorphiaBulkWriter() {
+    }
+
+    /**
+     * Replaces (or inserts if missing) all the entities, matching them by their id.
+     * Unlike consecutive saves, the replacements are sent in one unordered bulk: only the last entity with a given id
+     * is written, the writes may be applied in any order, and when some of them fail the others are still applied
+     * before the error is thrown. No Morphia lifecycle callback is run on the entities.
+     *
+     * @param datastore    the datastore which maps the entities
+     * @param clazz        the class of the entities
+     * @param entities     the entities to save
+     * @param writeConcern describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                     operation
+     * @return the keys of the saved entities
+     */
+    static <T> Iterable<Key<T>> upsert(final Datastore datastore, final Class<T> clazz, final Collection<T> entities,
+                                       final WriteConcern writeConcern) {
+        final Mapper mapper = ((DatastoreImpl) datastore).getMapper();
+        final Map<Object, DBObject> dbObjectsById = new LinkedHashMap<>(entities.size());
+        for (final T entity : entities) {
+            final DBObject dbObject = mapper.toDBObject(entity);
+            dbObjectsById.put(dbObject.get(Mapper.ID_KEY), dbObject);
+        }
+
+        final BulkWriteOperation bulk = datastore.getCollection(clazz).initializeUnorderedBulkOperation();
+        final List<Key<T>> keys = new ArrayList<>(dbObjectsById.size());
+        for (final Map.Entry<Object, DBObject> entry : dbObjectsById.entrySet()) {
+            bulk.find(new BasicDBObject(Mapper.ID_KEY, entry.getKey())).upsert().replaceOne(entry.getValue());
+            keys.add(new Key<T>(clazz, entry.getKey()));
+        }
+
+        bulk.execute(writeConcern);
+        return keys;
+    }
+
+    /**
+     * Writes only the given fields of the entities, matching them by their id. The fields which are null in an entity
+     * are removed from its document, the other fields of the documents are left as they are. Entities which don't
+     * exist in the DB are not created.
+     *
+     * @param datastore    the datastore which maps the entities
+     * @param clazz        the class of the entities
+     * @param entities     the entities holding the new values
+     * @param fields       the names of the fields to write, as they are stored
+     * @param writeConcern describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                     operation
+     */
+    static <T> void update(final Datastore datastore, final Class<T> clazz, final Collection<T> entities,
+                           final Collection<String> fields, final WriteConcern writeConcern) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        final Mapper mapper = ((DatastoreImpl) datastore).getMapper();
+
+        final BulkWriteOperation bulk = datastore.getCollection(clazz).initializeUnorderedBulkOperation();
+        for (final T entity : entities) {
+            final DBObject dbObject = mapper.toDBObject(entity);
+            final BasicDBObject set = new BasicDBObject();
+            final BasicDBObject unset = new BasicDBObject();
+            for (final String field : fields) {
+                if (null == dbObject.get(field)) {
+                    unset.put(field, "");
+                } else {
+                    set.put(field, dbObject.get(field));
+                }
+            }
+
+            final BasicDBObject update = new BasicDBObject();
+            if (!set.isEmpty()) {
+                update.put("$set", set);
+            }
+            if (!unset.isEmpty()) {
+                update.put("$unset", unset);
+            }
+            bulk.find(new BasicDBObject(Mapper.ID_KEY, dbObject.get(Mapper.ID_KEY))).updateOne(update);
+        }
+
+        bulk.execute(writeConcern);
+    }
+}
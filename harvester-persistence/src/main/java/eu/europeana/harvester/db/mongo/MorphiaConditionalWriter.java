@@ -0,0 +1,130 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.DatastoreImpl;
+import com.google.code.morphia.mapping.Mapper;
+import com.mongodb.*;
+
+/**
+ * Writes a Morphia entity depending on whether its document exists, with a single round trip instead of reading the
+ * document first. The condition is checked by the server, so concurrent writers of the same entity never both succeed.
+ */
+final class MorphiaConditionalWriter {
+
+    private MorphiaConditionalWriter() {
+    }
+
+    /**
+     * Inserts the entity only if no document has its id.
+     *
+     * @param datastore    the datastore which maps the entity
+     * @param clazz        the class of the entity
+     * @param entity       the entity to insert
+     * @param writeConcern describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                     operation; an unacknowledged one is raised to {@link WriteConcern#ACKNOWLEDGED} as the
+     *                     answer of the server is needed
+     * @return true if the entity was inserted, false if it already existed
+     */
+    static <T> boolean insertIfMissing(final Datastore datastore, final Class<T> clazz, final T entity,
+                                       final WriteConcern writeConcern) {
+        return insertIfMissing(datastore, clazz, ((DatastoreImpl) datastore).getMapper().toDBObject(entity), writeConcern);
+    }
+
+    /**
+     * Inserts the document only if no document has its id, for the DAOs which store fields that aren't mapped.
+     *
+     * @see #insertIfMissing(Datastore, Class, Object, WriteConcern)
+     */
+    static <T> boolean insertIfMissing(final Datastore datastore, final Class<T> clazz, final DBObject dbObject,
+                                       final WriteConcern writeConcern) {
+        final Object id = dbObject.removeField(Mapper.ID_KEY);
+
+        try {
+            final WriteResult result = datastore.getCollection(clazz).update(new BasicDBObject(Mapper.ID_KEY, id),
+                                                                             new BasicDBObject("$setOnInsert", dbObject),
+                                                                             true, false, acknowledged(writeConcern));
+            return !result.isUpdateOfExisting();
+        } catch (DuplicateKeyException e) {
+            // a concurrent writer inserted it between the match and the insert of the upsert
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the document of the entity only if it exists.
+     *
+     * @param datastore    the datastore which maps the entity
+     * @param clazz        the class of the entity
+     * @param entity       the new version of the entity
+     * @param writeConcern describes the guarantee that MongoDB provides when reporting on the success of a write
+     *                     operation; an unacknowledged one is raised to {@link WriteConcern#ACKNOWLEDGED} as the
+     *                     answer of the server is needed
+     * @return true if the document was replaced, false if it didn't exist
+     */
+    static <T> boolean replaceIfExists(final Datastore datastore, final Class<T> clazz, final T entity,
+                                       final WriteConcern writeConcern) {
+        final DBObject dbObject = ((DatastoreImpl) datastore).getMapper().toDBObject(entity);
+
+        final WriteResult result = datastore.getCollection(clazz).update(new BasicDBObject(Mapper.ID_KEY, dbObject.get(Mapper.ID_KEY)),
+                                                                         dbObject, false, false, acknowledged(writeConcern));
+        return result.getN() > 0;
+    }
+
+    /**
+     * Replaces the document of the entity and returns its previous version, for the DAOs which keep aggregates of the
+     * changes.
+     *
+     * @param datastore the datastore which maps the entity
+     * @param clazz     the class of the entity
+     * @param entity    the new version of the entity
+     * @param upsert    whether the document is inserted if it doesn't exist
+     * @return the entity as it was before the replacement, null if it didn't exist
+     */
+    static <T> T replace(final Datastore datastore, final Class<T> clazz, final T entity, final boolean upsert) {
+        return replace(datastore, clazz, ((DatastoreImpl) datastore).getMapper().toDBObject(entity), upsert);
+    }
+
+    /**
+     * Replaces a document and returns its previous version, for the DAOs which store fields that aren't mapped.
+     *
+     * @see #replace(Datastore, Class, Object, boolean)
+     */
+    static <T> T replace(final Datastore datastore, final Class<T> clazz, final DBObject dbObject, final boolean upsert) {
+        final DBObject previous = datastore.getCollection(clazz).findAndModify(new BasicDBObject(Mapper.ID_KEY, dbObject.get(Mapper.ID_KEY)),
+                                                                              null, null, false, dbObject, false, upsert);
+        return toEntity(datastore, clazz, previous);
+    }
+
+    /**
+     * Applies an update to the first document matching the query and returns its previous version, for the DAOs which
+     * keep aggregates of the changes.
+     *
+     * @param datastore the datastore which maps the entity
+     * @param clazz     the class of the entity
+     * @param query     the query matching the document
+     * @param update    the update of the document
+     * @return the entity as it was before the update, null if no document matched
+     */
+    static <T> T modify(final Datastore datastore, final Class<T> clazz, final DBObject query, final DBObject update) {
+        final DBObject previous = datastore.getCollection(clazz).findAndModify(query, null, null, false, update, false, false);
+        return toEntity(datastore, clazz, previous);
+    }
+
+    /**
+     * Maps a document read from the collection of the entity, null if there is none.
+     */
+    static <T> T toEntity(final Datastore datastore, final Class<T> clazz, final DBObject dbObject) {
+        if (null == dbObject) {
+            return null;
+        }
+        final Mapper mapper = ((DatastoreImpl) datastore).getMapper();
+        return clazz.cast(mapper.fromDBObject(clazz, dbObject, mapper.createEntityCache()));
+    }
+
+    /**
+     * @return the write concern, raised to {@link WriteConcern#ACKNOWLEDGED} if the answer of the server is needed
+     */
+    static WriteConcern acknowledged(final WriteConcern writeConcern) {
+        return writeConcern.callGetLastError() ? writeConcern : WriteConcern.ACKNOWLEDGED;
+    }
+}
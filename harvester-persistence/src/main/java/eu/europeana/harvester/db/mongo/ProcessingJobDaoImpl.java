@@ -11,6 +11,7 @@ import eu.europeana.harvester.util.pagedElements.PagedElements;
 import eu.europeana.harvester.util.pagedElements.PagedProcessingJobElements;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * MongoDB DAO implementation for CRUD with processing_job collection
@@ -24,8 +25,40 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 	 */
 	private final Datastore datastore;
 
+	/**
+	 * The states of the jobs which are moved to the history.
+	 */
+	private static final List<String> FINISHED_STATES = Arrays.asList(JobState.FINISHED.name(),
+			JobState.FAILED.name(), JobState.ERROR.name());
+
+	/**
+	 * Set on the jobs by the load which started them. It isn't mapped, only the loads read it.
+	 */
+	private static final String LOAD_TOKEN_FIELD = "loadToken";
+
+	/**
+	 * The most queries of the diffused jobs which run at the same time.
+	 */
+	private static final int MAX_PARALLEL_DIFFUSED_QUERIES = 8;
+
+	/**
+	 * Runs the per ip queries of the diffused jobs. Its threads are daemons and
+	 * die when idle, the DAO has no lifecycle to shut it down.
+	 */
+	private final ThreadPoolExecutor diffusedQueries;
+
 	public ProcessingJobDaoImpl(Datastore datastore) {
 		this.datastore = datastore;
+		this.diffusedQueries = new ThreadPoolExecutor(MAX_PARALLEL_DIFFUSED_QUERIES, MAX_PARALLEL_DIFFUSED_QUERIES,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						final Thread thread = new Thread(runnable, "processing-job-diffused-queries");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		this.diffusedQueries.allowCoreThreadTimeOut(true);
 	}
 
 	@Override
@@ -33,14 +66,14 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		return datastore.getCount(ProcessingJob.class);
 	}
 
+	@Override
+	public Long getEstimatedCount() {
+		return MongoCollectionStats.estimatedCount(datastore, ProcessingJob.class);
+	}
+
 	@Override
 	public boolean create(ProcessingJob processingJob, WriteConcern writeConcern) {
-		if (read(processingJob.getId()) == null) {
-			datastore.save(processingJob, writeConcern);
-			return true;
-		} else {
-			return false;
-		}
+		return MorphiaConditionalWriter.insertIfMissing(datastore, ProcessingJob.class, processingJob, writeConcern);
 	}
 
 	@Override
@@ -55,7 +88,7 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		if (null == processingJobs || processingJobs.isEmpty()) {
 			return Collections.EMPTY_LIST;
 		}
-		return datastore.save(processingJobs, writeConcern);
+		return MorphiaBulkWriter.upsert(datastore, ProcessingJob.class, processingJobs, writeConcern);
 	}
 
 	@Override
@@ -64,14 +97,31 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 	}
 
 	@Override
-	public boolean update(ProcessingJob processingJob, WriteConcern writeConcern) {
-		if (read(processingJob.getId()) != null) {
-			datastore.save(processingJob, writeConcern);
+	public List<ProcessingJob> read(List<String> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		final Query<ProcessingJob> query = datastore
+				.createQuery(ProcessingJob.class).field("_id").hasAnyOf(ids)
+				.hintIndex("_id_");
+		return query.asList();
+	}
 
-			return true;
+	@Override
+	public List<ProcessingJob> readOwnersAndSourceTypes(List<String> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<>(0);
 		}
+		final Query<ProcessingJob> query = datastore
+				.createQuery(ProcessingJob.class)
+				.retrievedFields(true, "id", "referenceOwner", "urlSourceType")
+				.field("_id").hasAnyOf(ids).hintIndex("_id_");
+		return query.asList();
+	}
 
-		return false;
+	@Override
+	public boolean update(ProcessingJob processingJob, WriteConcern writeConcern) {
+		return MorphiaConditionalWriter.replaceIfExists(datastore, ProcessingJob.class, processingJob, writeConcern);
 	}
 
 	@Override
@@ -103,6 +153,67 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		datastore.update(query, ops);
 	}
 
+	@Override
+	public int modifyStateOfJobsWithIds(JobState oldJobState, JobState newJobState, List<String> jobIds) {
+		if (jobIds.isEmpty()) {
+			return 0;
+		}
+		final Query<ProcessingJob> query = datastore
+				.createQuery(ProcessingJob.class).field("_id")
+				.in(jobIds).field("state").equal(oldJobState);
+		final UpdateOperations<ProcessingJob> ops = datastore
+				.createUpdateOperations(ProcessingJob.class).set("state",
+						newJobState);
+		return datastore.update(query, ops, false, WriteConcern.ACKNOWLEDGED).getUpdatedCount();
+	}
+
+	@Override
+	public int startJobsWithIds(List<String> jobIds, String loadToken) {
+		if (jobIds.isEmpty()) {
+			return 0;
+		}
+		final DBObject query = new BasicDBObject("_id", new BasicDBObject("$in", jobIds))
+				.append("state", JobState.READY.name());
+		final DBObject update = new BasicDBObject("$set", new BasicDBObject("state", JobState.RUNNING.name())
+				.append(LOAD_TOKEN_FIELD, loadToken));
+		return datastore.getCollection(ProcessingJob.class)
+				.update(query, update, false, true, WriteConcern.ACKNOWLEDGED).getN();
+	}
+
+	@Override
+	public List<String> findJobIdsStartedBy(String loadToken, List<String> jobIds) {
+		if (jobIds.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		final DBObject query = new BasicDBObject("_id", new BasicDBObject("$in", jobIds))
+				.append(LOAD_TOKEN_FIELD, loadToken);
+		final List<String> ids = new ArrayList<>();
+		final DBCursor cursor = datastore.getCollection(ProcessingJob.class).find(query, new BasicDBObject("_id", 1));
+		try {
+			for (final DBObject job : cursor) {
+				ids.add((String) job.get("_id"));
+			}
+		} finally {
+			cursor.close();
+		}
+		return ids;
+	}
+
+	@Override
+	public List<String> findJobIdsWithState(JobState jobState, List<String> jobIds) {
+		if (jobIds.isEmpty()) {
+			return new ArrayList<>(0);
+		}
+		final Query<ProcessingJob> query = datastore
+				.createQuery(ProcessingJob.class).retrievedFields(true, "id")
+				.field("_id").in(jobIds).field("state").equal(jobState);
+		final List<String> ids = new ArrayList<>();
+		for (final ProcessingJob processingJob : query.asList()) {
+			ids.add(processingJob.getId());
+		}
+		return ids;
+	}
+
 	@Override
 	public void modifyStateOfJobs(JobState oldJobState, JobState newJobState) {
 		final Query<ProcessingJob> query = datastore
@@ -114,6 +225,20 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		datastore.update(query, ops);
 	}
 
+	@Override
+	public int modifyStateOfJobsWithIpAddresses(JobState oldJobState, JobState newJobState, Collection<String> ipAddresses) {
+		if (ipAddresses.isEmpty()) {
+			return 0;
+		}
+		final Query<ProcessingJob> query = datastore
+				.createQuery(ProcessingJob.class).field("state")
+				.equal(oldJobState).field("ipAddress").in(ipAddresses);
+		final UpdateOperations<ProcessingJob> ops = datastore
+				.createUpdateOperations(ProcessingJob.class).set("state",
+						newJobState);
+		return datastore.update(query, ops, false, WriteConcern.ACKNOWLEDGED).getUpdatedCount();
+	}
+
 	public Map<String, Integer> getIpDistribution() {
 		final DB db = datastore.getDB();
 		final DBCollection processingJobCollection = db
@@ -151,16 +276,43 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		if (ipDistribution.size() <= 0)
 			return Collections.EMPTY_LIST;
 
-		final List<ProcessingJob> processingJobs = new ArrayList<>();
-
+		// Every ip is read by its own query, limited on the server, so that no more
+		// than the limit of an ip is ever sent back, whatever its backlog. The
+		// queries run in parallel to keep a single round trip of latency.
+		final int limitPerIp = page.getLimit();
+		final List<Future<List<ProcessingJob>>> jobsPerIp = new ArrayList<>();
 		for (final String ip : ipDistribution.keySet()) {
-			final Query<ProcessingJob> query = datastore
-					.find(ProcessingJob.class);
+			final Query<ProcessingJob> query = datastore.find(ProcessingJob.class);
 			query.criteria("priority").equal(jobPriority.getPriority());
 			query.criteria("state").equal(jobState);
 			query.criteria("ipAddress").equal(ip);
-			query.limit(page.getLimit());
-			processingJobs.addAll(query.asList());
+			if (limitPerIp > 0)
+				query.limit(limitPerIp);
+
+			jobsPerIp.add(diffusedQueries.submit(new Callable<List<ProcessingJob>>() {
+				@Override
+				public List<ProcessingJob> call() {
+					return query.asList();
+				}
+			}));
+		}
+
+		final List<ProcessingJob> processingJobs = new ArrayList<>();
+		try {
+			for (final Future<List<ProcessingJob>> jobs : jobsPerIp) {
+				processingJobs.addAll(jobs.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MongoException("Interrupted while loading the jobs", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new MongoException("Failed to load the jobs", e.getCause());
+		} finally {
+			for (final Future<List<ProcessingJob>> jobs : jobsPerIp) {
+				jobs.cancel(true);
+			}
 		}
 		return processingJobs;
 	}
@@ -280,4 +432,25 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		}
 		return statistics;
 	}
+
+	@Override
+	public int archiveFinishedJobs(Date expectedStartBefore, int batchSize,
+			WriteConcern writeConcern) {
+		final DBObject query = new BasicDBObject();
+		query.put("state", new BasicDBObject("$in", FINISHED_STATES));
+		query.put("expectedStartDate", new BasicDBObject("$lt",
+				expectedStartBefore));
+
+		return MongoArchiver.archive(
+				datastore.getCollection(ProcessingJob.class),
+				datastore.getCollection(HistoricalProcessingJob.class), query,
+				batchSize, new Date(), writeConcern);
+	}
+
+	@Override
+	public void expireArchivedJobsAfter(long retentionInSecs) {
+		MongoArchiver.expireAfter(
+				datastore.getCollection(HistoricalProcessingJob.class),
+				retentionInSecs);
+	}
 }
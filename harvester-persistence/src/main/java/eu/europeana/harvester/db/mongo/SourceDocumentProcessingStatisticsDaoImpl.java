@@ -28,19 +28,24 @@ public class SourceDocumentProcessingStatisticsDaoImpl implements SourceDocument
 
     private final static int THRESHOLD = 1000;
 
+    /**
+     * The collection which holds the statistics moved out of this one.
+     */
+    static final String HISTORY_COLLECTION = "HistoricalSourceDocumentProcessingStatistics";
+
     @Override
     public Long getCount() {
         return datastore.getCount(SourceDocumentProcessingStatistics.class);
     }
 
+    @Override
+    public Long getEstimatedCount() {
+        return MongoCollectionStats.estimatedCount(datastore, SourceDocumentProcessingStatistics.class);
+    }
+
     @Override
     public boolean create(SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics, WriteConcern writeConcern) {
-        if (read(sourceDocumentProcessingStatistics.getId()) == null) {
-            datastore.save(sourceDocumentProcessingStatistics);
-            return true;
-        } else {
-            return false;
-        }
+        return MorphiaConditionalWriter.insertIfMissing(datastore, SourceDocumentProcessingStatistics.class, sourceDocumentProcessingStatistics, writeConcern);
     }
 
     @Override
@@ -63,16 +68,22 @@ public class SourceDocumentProcessingStatisticsDaoImpl implements SourceDocument
         }
     }
 
-
     @Override
-    public boolean update(SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics, WriteConcern writeConcern) {
-        if (read(sourceDocumentProcessingStatistics.getId()) != null) {
-            datastore.save(sourceDocumentProcessingStatistics, writeConcern);
-
-            return true;
+    public List<SourceDocumentProcessingStatistics> readHttpResponseHeaders(List<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>(0);
         }
+        final Query<SourceDocumentProcessingStatistics> query = datastore.createQuery(SourceDocumentProcessingStatistics.class)
+                .retrievedFields(true, "id", "sourceDocumentReferenceId", "httpResponseHeaders")
+                .field("_id").hasAnyOf(ids)
+                .hintIndex("_id_");
+        return query.asList();
+    }
+
 
-        return false;
+    @Override
+    public boolean update(SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics, WriteConcern writeConcern) {
+        return MorphiaConditionalWriter.replaceIfExists(datastore, SourceDocumentProcessingStatistics.class, sourceDocumentProcessingStatistics, writeConcern);
     }
 
     @Override
@@ -86,7 +97,7 @@ public class SourceDocumentProcessingStatisticsDaoImpl implements SourceDocument
         if (null == sourceDocumentProcessingStatistics || sourceDocumentProcessingStatistics.isEmpty()) {
             return Collections.EMPTY_LIST;
         }
-        return datastore.save(sourceDocumentProcessingStatistics, writeConcern);
+        return MorphiaBulkWriter.upsert(datastore, SourceDocumentProcessingStatistics.class, sourceDocumentProcessingStatistics, writeConcern);
     }
 
     @Override
@@ -178,6 +189,20 @@ public class SourceDocumentProcessingStatisticsDaoImpl implements SourceDocument
         return query.asList();
     }
 
+    @Override
+    public int archiveStatistics(Date updatedBefore, int batchSize, WriteConcern writeConcern) {
+        final DBObject query = new BasicDBObject("updatedAt", new BasicDBObject("$lt", updatedBefore));
+
+        return MongoArchiver.archive(datastore.getCollection(SourceDocumentProcessingStatistics.class),
+                                     datastore.getDB().getCollection(HISTORY_COLLECTION),
+                                     query, batchSize, new Date(), writeConcern);
+    }
+
+    @Override
+    public void expireArchivedStatisticsAfter(long retentionInSecs) {
+        MongoArchiver.expireAfter(datastore.getDB().getCollection(HISTORY_COLLECTION), retentionInSecs);
+    }
+
     private List<List<String>> split(List<String> sourceDocumentReferenceIds) {
         return Lists.partition(sourceDocumentReferenceIds, THRESHOLD);
     }
@@ -11,6 +11,7 @@ import eu.europeana.harvester.domain.SourceDocumentProcessingStatistics;
 import eu.europeana.harvester.domain.SourceDocumentReference;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -35,14 +36,14 @@ public class SourceDocumentReferenceDaoImpl implements SourceDocumentReferenceDa
         return datastore.getCount(SourceDocumentReference.class);
     }
 
+    @Override
+    public Long getEstimatedCount() {
+        return MongoCollectionStats.estimatedCount(datastore, SourceDocumentReference.class);
+    }
+
     @Override
     public boolean create(SourceDocumentReference sourceDocumentReference, WriteConcern writeConcern) {
-        if(read(sourceDocumentReference.getId()) == null) {
-            datastore.save(sourceDocumentReference, writeConcern);
-            return true;
-        } else {
-            return false;
-        }
+        return MorphiaConditionalWriter.insertIfMissing(datastore, SourceDocumentReference.class, sourceDocumentReference, writeConcern);
     }
 
     @Override
@@ -50,7 +51,7 @@ public class SourceDocumentReferenceDaoImpl implements SourceDocumentReferenceDa
         if (null == sourceDocumentReferences || sourceDocumentReferences.isEmpty()) {
             return Collections.EMPTY_LIST;
         }
-        return datastore.save(sourceDocumentReferences, writeConcern);
+        return MorphiaBulkWriter.upsert(datastore, SourceDocumentReference.class, sourceDocumentReferences, writeConcern);
     }
 
     @Override
@@ -79,14 +80,26 @@ public class SourceDocumentReferenceDaoImpl implements SourceDocumentReferenceDa
     }
 
     @Override
-    public boolean update(SourceDocumentReference sourceDocumentReference, WriteConcern writeConcern) {
-        if(read(sourceDocumentReference.getId()) != null) {
-            datastore.save(sourceDocumentReference, writeConcern);
-
-            return true;
+    public List<SourceDocumentReference> readForTasks(List<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>(0);
         }
+        final Query<SourceDocumentReference> query = datastore.createQuery(SourceDocumentReference.class)
+                .retrievedFields(true, "id", "referenceOwner", "url", "lastStatsId")
+                .field("_id").hasAnyOf(ids)
+                .hintIndex("_id_");
+        return query.asList();
+    }
 
-        return false;
+    @Override
+    public void updateLastStats(Collection<SourceDocumentReference> sourceDocumentReferences, WriteConcern writeConcern) {
+        MorphiaBulkWriter.update(datastore, SourceDocumentReference.class, sourceDocumentReferences,
+                Arrays.asList("lastStatsId", "redirectPathDepth", "redirectionPath"), writeConcern);
+    }
+
+    @Override
+    public boolean update(SourceDocumentReference sourceDocumentReference, WriteConcern writeConcern) {
+        return MorphiaConditionalWriter.replaceIfExists(datastore, SourceDocumentReference.class, sourceDocumentReference, writeConcern);
     }
 
     @Override
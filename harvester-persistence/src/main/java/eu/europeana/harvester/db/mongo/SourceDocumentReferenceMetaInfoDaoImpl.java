@@ -32,14 +32,14 @@ public class SourceDocumentReferenceMetaInfoDaoImpl implements SourceDocumentRef
         return datastore.getCount(SourceDocumentReferenceMetaInfo.class);
     }
 
+    @Override
+    public Long getEstimatedCount() {
+        return MongoCollectionStats.estimatedCount(datastore, SourceDocumentReferenceMetaInfo.class);
+    }
+
     @Override
     public boolean create(SourceDocumentReferenceMetaInfo sourceDocumentReferenceMetaInfo, WriteConcern writeConcern) {
-        if(read(sourceDocumentReferenceMetaInfo.getId()) == null) {
-            datastore.save(sourceDocumentReferenceMetaInfo, writeConcern);
-            return true;
-        } else {
-            return false;
-        }
+        return MorphiaConditionalWriter.insertIfMissing(datastore, SourceDocumentReferenceMetaInfo.class, sourceDocumentReferenceMetaInfo, writeConcern);
     }
 
     @Override
@@ -47,7 +47,7 @@ public class SourceDocumentReferenceMetaInfoDaoImpl implements SourceDocumentRef
         if (null == sourceDocumentReferenceMetaInfos || sourceDocumentReferenceMetaInfos.isEmpty()) {
             return Collections.EMPTY_LIST;
         }
-        return datastore.save(sourceDocumentReferenceMetaInfos, writeConcern);
+        return MorphiaBulkWriter.upsert(datastore, SourceDocumentReferenceMetaInfo.class, sourceDocumentReferenceMetaInfos, writeConcern);
     }
 
     @Override
@@ -66,13 +66,7 @@ public class SourceDocumentReferenceMetaInfoDaoImpl implements SourceDocumentRef
 
     @Override
     public boolean update(SourceDocumentReferenceMetaInfo sourceDocumentReferenceMetaInfo, WriteConcern writeConcern) {
-        if(read(sourceDocumentReferenceMetaInfo.getId()) != null) {
-            datastore.save(sourceDocumentReferenceMetaInfo, writeConcern);
-
-            return true;
-        }
-
-        return false;
+        return MorphiaConditionalWriter.replaceIfExists(datastore, SourceDocumentReferenceMetaInfo.class, sourceDocumentReferenceMetaInfo, writeConcern);
     }
 
     @Override
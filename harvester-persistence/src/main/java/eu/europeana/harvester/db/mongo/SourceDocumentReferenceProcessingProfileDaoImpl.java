@@ -25,14 +25,16 @@ public class SourceDocumentReferenceProcessingProfileDaoImpl implements SourceDo
         return datastore.getCount(SourceDocumentReferenceProcessingProfile.class);
     }
 
+    @Override
+    public Long getEstimatedCount() {
+        return MongoCollectionStats.estimatedCount(datastore, SourceDocumentReferenceProcessingProfile.class);
+    }
+
     @Override
     public boolean create (SourceDocumentReferenceProcessingProfile sourceDocumentReferenceProcessingProfile,
                            WriteConcern writeConcern) {
-        if (null == read(sourceDocumentReferenceProcessingProfile.getId())) {
-            datastore.save(sourceDocumentReferenceProcessingProfile, writeConcern);
-            return true;
-        }
-        return false;
+        return MorphiaConditionalWriter.insertIfMissing(datastore, SourceDocumentReferenceProcessingProfile.class,
+                                                        sourceDocumentReferenceProcessingProfile, writeConcern);
     }
 
     @Override
@@ -47,7 +49,8 @@ public class SourceDocumentReferenceProcessingProfileDaoImpl implements SourceDo
         if (null == sourceDocumentReferenceProcessingProfiles || sourceDocumentReferenceProcessingProfiles.isEmpty()) {
             return Collections.EMPTY_LIST;
         }
-        return datastore.save(sourceDocumentReferenceProcessingProfiles, writeConcern);
+        return MorphiaBulkWriter.upsert(datastore, SourceDocumentReferenceProcessingProfile.class,
+                                        sourceDocumentReferenceProcessingProfiles, writeConcern);
     }
 
     @Override
@@ -65,11 +68,8 @@ public class SourceDocumentReferenceProcessingProfileDaoImpl implements SourceDo
     @Override
     public boolean update (SourceDocumentReferenceProcessingProfile sourceDocumentReferenceProcessingProfile,
                            WriteConcern writeConcern) {
-        if (null != read(sourceDocumentReferenceProcessingProfile.getId())) {
-            datastore.save(sourceDocumentReferenceProcessingProfile, writeConcern);
-            return true;
-        }
-        return false;
+        return MorphiaConditionalWriter.replaceIfExists(datastore, SourceDocumentReferenceProcessingProfile.class,
+                                                        sourceDocumentReferenceProcessingProfile, writeConcern);
     }
 
     @Override
@@ -100,6 +100,20 @@ public class SourceDocumentReferenceProcessingProfileDaoImpl implements SourceDo
         return profiles;
     }
 
+    @Override
+    public Iterator<SourceDocumentReferenceProcessingProfile> streamJobToBeEvaluated (Date evaluatedBefore, String afterId,
+                                                                                      int batchSize) {
+        final Query<SourceDocumentReferenceProcessingProfile> query = datastore.createQuery(SourceDocumentReferenceProcessingProfile.class);
+
+        query.criteria("toBeEvaluatedAt").lessThanOrEq(evaluatedBefore);
+        query.criteria("active").equal(true);
+        if (null != afterId) {
+            query.criteria("_id").greaterThan(afterId);
+        }
+
+        return query.order("_id").batchSize(batchSize).fetch().iterator();
+    }
+
     @Override
     public List<SourceDocumentReferenceProcessingProfile> deactivateDocuments (ReferenceOwner owner, WriteConcern concern) {
         if (null == owner || (owner.equals(new ReferenceOwner()))) {
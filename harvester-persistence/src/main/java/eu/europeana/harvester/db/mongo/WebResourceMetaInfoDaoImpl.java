@@ -35,12 +35,7 @@ public class WebResourceMetaInfoDaoImpl implements WebResourceMetaInfoDao {
 
     @Override
     public boolean create(WebResourceMetaInfo webResourceMetaInfo, WriteConcern writeConcern) {
-        if(read(webResourceMetaInfo.getId()) == null) {
-            datastore.save(webResourceMetaInfo, writeConcern);
-            return true;
-        } else {
-            return false;
-        }
+        return MorphiaConditionalWriter.insertIfMissing(datastore, WebResourceMetaInfo.class, webResourceMetaInfo, writeConcern);
     }
 
     @Override
@@ -101,13 +96,7 @@ public class WebResourceMetaInfoDaoImpl implements WebResourceMetaInfoDao {
 
     @Override
     public boolean update(WebResourceMetaInfo webResourceMetaInfo, WriteConcern writeConcern) {
-        if(read(webResourceMetaInfo.getId()) != null) {
-            datastore.save(webResourceMetaInfo, writeConcern);
-
-            return true;
-        }
-
-        return false;
+        return MorphiaConditionalWriter.replaceIfExists(datastore, WebResourceMetaInfo.class, webResourceMetaInfo, writeConcern);
     }
 
     @Override
@@ -1,6 +1,8 @@
 package eu.europeana.harvester.domain;
 
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 
 import java.util.Date;
@@ -9,7 +11,13 @@ import java.util.Map;
 /**
  * Stores the last stats for a specific processing job for a source.
  */
-
+@Indexes({
+        @Index(value = "sourceDocumentReferenceId", background = true),
+        @Index(value = "referenceOwner.collectionId, referenceOwner.executionId, state", background = true),
+        @Index(value = "referenceOwner.executionId, createdAt", background = true),
+        @Index(value = "referenceOwner.executionId, updatedAt", background = true),
+        @Index(value = "referenceOwner.recordId", background = true)
+})
 public class LastSourceDocumentProcessingStatistics {
 
     public static final String idOf(final String sourceDocumentReferenceId, final URLSourceType urlSourceType) {
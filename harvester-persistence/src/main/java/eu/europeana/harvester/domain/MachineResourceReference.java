@@ -1,8 +1,15 @@
 package eu.europeana.harvester.domain;
 
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 
+import java.util.Date;
+
+@Indexes({
+        @Index(value = "lastModified, _id", background = true)
+})
 public class MachineResourceReference {
 
     @Id
@@ -11,19 +18,32 @@ public class MachineResourceReference {
 
     private final Integer maxConcurrentConnectionsLimit;
 
+    /**
+     * The moment when this reference was last written, set by the server on each write. Used to fetch only the
+     * changed references.
+     */
+    private final Date lastModified;
+
     public MachineResourceReference() {
         this.id = null;
         this.maxConcurrentConnectionsLimit = null;
+        this.lastModified = null;
     }
 
     public MachineResourceReference(final String ip) {
         this.id = ip;
         this.maxConcurrentConnectionsLimit = null;
+        this.lastModified = null;
     }
 
     public MachineResourceReference(String id, Integer maxConcurrentConnectionsLimit) {
+        this(id, maxConcurrentConnectionsLimit, null);
+    }
+
+    public MachineResourceReference(String id, Integer maxConcurrentConnectionsLimit, Date lastModified) {
         this.id = id;
         this.maxConcurrentConnectionsLimit = maxConcurrentConnectionsLimit;
+        this.lastModified = lastModified;
     }
 
     public String getId() {
@@ -37,4 +57,8 @@ public class MachineResourceReference {
     public Integer getMaxConcurrentConnectionsLimit() {
         return maxConcurrentConnectionsLimit;
     }
+
+    public Date getLastModified() {
+        return lastModified;
+    }
 }
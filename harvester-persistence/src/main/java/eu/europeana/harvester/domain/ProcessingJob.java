@@ -2,6 +2,8 @@ package eu.europeana.harvester.domain;
 
 import com.google.code.morphia.annotations.Embedded;
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 
 import java.util.ArrayList;
@@ -12,6 +14,14 @@ import java.util.UUID;
 /**
  * A specific processing job. Contains references to all links that are processed as part of the job.
  */
+@Indexes({
+        @Index(value = "state, expectedStartDate", background = true),
+        @Index(value = "state, ipAddress", background = true),
+        @Index(value = "priority, state, ipAddress", background = true),
+        @Index(value = "referenceOwner.collectionId, state", background = true),
+        @Index(value = "referenceOwner.executionId, state", background = true),
+        @Index(value = "referenceOwner.recordId", background = true)
+})
 public class ProcessingJob {
 
     @Id
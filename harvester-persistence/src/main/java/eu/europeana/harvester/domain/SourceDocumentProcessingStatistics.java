@@ -1,6 +1,8 @@
 package eu.europeana.harvester.domain;
 
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 
 import java.util.Date;
@@ -9,6 +11,12 @@ import java.util.Map;
 /**
  * Stores the stats for a specific processing job for a source.
  */
+@Indexes({
+        @Index(value = "updatedAt", background = true),
+        @Index(value = "sourceDocumentReferenceId", background = true),
+        @Index(value = "referenceOwner.executionId, state", background = true),
+        @Index(value = "referenceOwner.recordId", background = true)
+})
 public class SourceDocumentProcessingStatistics {
 
     public static final String idOf(final String sourceDocumentReferenceId,final String processingJobId) {
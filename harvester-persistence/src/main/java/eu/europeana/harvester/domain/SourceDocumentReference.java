@@ -1,6 +1,8 @@
 package eu.europeana.harvester.domain;
 
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 import com.google.common.base.Charsets;
 import com.google.common.hash.HashCode;
@@ -12,6 +14,11 @@ import java.util.List;
 /**
  * Represents the reference of a source document.
  */
+@Indexes({
+        @Index(value = "referenceOwner.collectionId", background = true),
+        @Index(value = "referenceOwner.executionId", background = true),
+        @Index(value = "referenceOwner.recordId", background = true)
+})
 public class SourceDocumentReference {
 
     public final static String idFromUrl(final String url,final String recordId) {
@@ -1,11 +1,19 @@
 package eu.europeana.harvester.domain;
 
 import com.google.code.morphia.annotations.Id;
+import com.google.code.morphia.annotations.Index;
+import com.google.code.morphia.annotations.Indexes;
 import com.google.code.morphia.annotations.Property;
 
 import java.io.Serializable;
 import java.util.Date;
 
+@Indexes({
+        @Index(value = "toBeEvaluatedAt", background = true),
+        @Index(value = "referenceOwner.collectionId", background = true),
+        @Index(value = "referenceOwner.executionId", background = true),
+        @Index(value = "referenceOwner.recordId", background = true)
+})
 public class SourceDocumentReferenceProcessingProfile implements Serializable {
 
 
@@ -0,0 +1,227 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Morphia;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodProcess;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import eu.europeana.harvester.db.interfaces.LastSourceDocumentProcessingStatisticsDao;
+import eu.europeana.harvester.domain.*;
+import eu.europeana.harvester.domain.report.SubTaskState;
+import eu.europeana.harvester.domain.report.SubTaskType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class LastSourceDocumentProcessingStatisticsDaoImplTest {
+
+    private static final String COLLECTION_ID = "collection";
+    private static final String EXECUTION_ID = "execution";
+
+    private LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao;
+
+    private Datastore datastore;
+
+    private MongodProcess mongod = null;
+    private MongodExecutable mongodExecutable = null;
+    private int port = 12345;
+
+    public LastSourceDocumentProcessingStatisticsDaoImplTest() throws IOException {
+
+        MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mongod = mongodExecutable.start();
+
+        MongoClient mongo = new MongoClient("localhost", port);
+        Morphia morphia = new Morphia();
+        datastore = morphia.createDatastore(mongo, "harvester_persistency");
+
+        lastSourceDocumentProcessingStatisticsDao = new LastSourceDocumentProcessingStatisticsDaoImpl(datastore);
+    }
+
+    @After
+    public void tearDown() {
+        mongodExecutable.stop();
+    }
+
+    private static LastSourceDocumentProcessingStatistics createStatistics(final int index, final ProcessingState state,
+                                                                           final ProcessingJobSubTaskState thumbnailState) {
+        final ProcessingJobSubTaskStats subTaskStats = new ProcessingJobSubTaskStats()
+                .withRetrieveState(ProcessingJobRetrieveSubTaskState.SUCCESS)
+                .withThumbnailGenerationState(thumbnailState);
+
+        return new LastSourceDocumentProcessingStatistics(new Date(), new Date(), true,
+                                                          DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, state,
+                                                          new ReferenceOwner("provider", COLLECTION_ID, "record" + index, EXECUTION_ID),
+                                                          URLSourceType.ISSHOWNBY, "reference" + index, "job" + index,
+                                                          200, "image/jpeg", 100l, 10l, 20l, 30l, "127.0.0.1",
+                                                          new HashMap<String, String>(), "", subTaskStats);
+    }
+
+    @Test
+    public void test_CountersFollowTheWrites() {
+        final List<LastSourceDocumentProcessingStatistics> statistics = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            statistics.add(createStatistics(i, ProcessingState.SUCCESS, ProcessingJobSubTaskState.SUCCESS));
+        }
+        lastSourceDocumentProcessingStatisticsDao.createOrModify(statistics, WriteConcern.ACKNOWLEDGED);
+
+        // three of them fail on the next harvest, one is deleted and one deactivated
+        final List<LastSourceDocumentProcessingStatistics> failed = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            failed.add(createStatistics(i, ProcessingState.ERROR, ProcessingJobSubTaskState.FAILED));
+        }
+        lastSourceDocumentProcessingStatisticsDao.createOrModify(failed, WriteConcern.ACKNOWLEDGED);
+        lastSourceDocumentProcessingStatisticsDao.delete(statistics.get(9).getId());
+        lastSourceDocumentProcessingStatisticsDao.deactivateDocuments(Arrays.asList("reference8"), WriteConcern.ACKNOWLEDGED);
+
+        final Map<ProcessingState, Long> jobStates = lastSourceDocumentProcessingStatisticsDao.countJobStatesByUrlSourceType(
+                COLLECTION_ID, URLSourceType.ISSHOWNBY, DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD);
+        assertEquals(2, jobStates.size());
+        assertEquals(Long.valueOf(5), jobStates.get(ProcessingState.SUCCESS));
+        assertEquals(Long.valueOf(3), jobStates.get(ProcessingState.ERROR));
+
+        final Map<SubTaskState, Long> thumbnailStates = lastSourceDocumentProcessingStatisticsDao.countSubTaskStatesByUrlSourceType(
+                COLLECTION_ID, URLSourceType.ISSHOWNBY, SubTaskType.THUMBNAIL_GENERATION);
+        assertEquals(Long.valueOf(5), thumbnailStates.get(SubTaskState.SUCCESS));
+        assertEquals(Long.valueOf(3), thumbnailStates.get(SubTaskState.FAILED));
+        assertEquals(Long.valueOf(8), lastSourceDocumentProcessingStatisticsDao.countSubTaskStatesByUrlSourceType(
+                COLLECTION_ID, URLSourceType.ISSHOWNBY, SubTaskType.RETRIEVE, SubTaskState.SUCCESS));
+
+        assertEquals(Long.valueOf(8), lastSourceDocumentProcessingStatisticsDao.countAllTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.ISSHOWNBY));
+        assertEquals(Long.valueOf(5), lastSourceDocumentProcessingStatisticsDao.countSuccessfulTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.ISSHOWNBY));
+        assertEquals(Long.valueOf(0), lastSourceDocumentProcessingStatisticsDao.countAllTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.OBJECT));
+
+        final Map<JobState, Long> executionStates = lastSourceDocumentProcessingStatisticsDao.countProcessingJobsByState(EXECUTION_ID);
+        assertEquals(Long.valueOf(3), executionStates.get(JobState.ERROR));
+
+        assertTrue(lastSourceDocumentProcessingStatisticsDao.checkCounters().isEmpty());
+    }
+
+    /**
+     * @return the number of requests received by the server, the request which reads it included
+     */
+    private long numberOfRequests() {
+        final DBObject network = (DBObject) datastore.getDB().command(new BasicDBObject("serverStatus", 1)).get("network");
+        return ((Number) network.get("numRequests")).longValue();
+    }
+
+    @Test
+    public void test_FlushCostsTheSameRoundTripsWhateverItsSize() {
+        final List<LastSourceDocumentProcessingStatistics> existing = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            existing.add(createStatistics(i, ProcessingState.SUCCESS, ProcessingJobSubTaskState.SUCCESS));
+        }
+        lastSourceDocumentProcessingStatisticsDao.createOrModify(existing, WriteConcern.ACKNOWLEDGED);
+
+        for (final int size : new int[]{10, 40, 200}) {
+            final List<LastSourceDocumentProcessingStatistics> statistics = new ArrayList<>();
+            for (int i = 0; i < size; ++i) {
+                statistics.add(createStatistics(i, ProcessingState.ERROR, ProcessingJobSubTaskState.FAILED));
+            }
+
+            final long before = numberOfRequests();
+            lastSourceDocumentProcessingStatisticsDao.createOrModify(statistics, WriteConcern.ACKNOWLEDGED);
+            final long roundTrips = numberOfRequests() - before - 1;
+
+            // the read of the versions, the bulk of the statistics and the bulk of the counters
+            assertEquals(3, roundTrips);
+        }
+
+        assertEquals(Long.valueOf(200), lastSourceDocumentProcessingStatisticsDao.countProcessingJobsByState(EXECUTION_ID).get(JobState.ERROR));
+        assertTrue(lastSourceDocumentProcessingStatisticsDao.checkCounters().isEmpty());
+    }
+
+    @Test
+    public void test_RebuildFixesTheCountersOfWritesOutsideTheDao() {
+        final List<LastSourceDocumentProcessingStatistics> statistics = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            statistics.add(createStatistics(i, ProcessingState.SUCCESS, ProcessingJobSubTaskState.SUCCESS));
+        }
+        lastSourceDocumentProcessingStatisticsDao.createOrModify(statistics, WriteConcern.ACKNOWLEDGED);
+        datastore.save(createStatistics(10, ProcessingState.FAILED, ProcessingJobSubTaskState.ERROR));
+
+        final Map<String, long[]> differences = lastSourceDocumentProcessingStatisticsDao.checkCounters();
+        assertFalse(differences.isEmpty());
+        final long[] total = differences.get(LastSourceDocumentProcessingStatisticsCounters.collectionCounterId(
+                COLLECTION_ID, URLSourceType.ISSHOWNBY, DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                LastSourceDocumentProcessingStatisticsCounters.TOTAL, LastSourceDocumentProcessingStatisticsCounters.TOTAL));
+        assertArrayEquals(new long[]{4, 5}, total);
+
+        assertTrue(lastSourceDocumentProcessingStatisticsDao.rebuildCounters() > 0);
+        assertTrue(lastSourceDocumentProcessingStatisticsDao.checkCounters().isEmpty());
+        assertEquals(Long.valueOf(5), lastSourceDocumentProcessingStatisticsDao.countAllTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.ISSHOWNBY));
+        assertEquals(Long.valueOf(1), lastSourceDocumentProcessingStatisticsDao.countProcessingJobsByState(EXECUTION_ID).get(JobState.FAILED));
+    }
+
+    @Test
+    public void test_ConcurrentWritersOfTheSameStatisticsKeepTheCountersExact() throws Exception {
+        final int writers = 4;
+        final Thread[] threads = new Thread[writers];
+        for (int w = 0; w < writers; ++w) {
+            final ProcessingState state = 0 == w % 2 ? ProcessingState.SUCCESS : ProcessingState.ERROR;
+            threads[w] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < 20; ++round) {
+                        final List<LastSourceDocumentProcessingStatistics> statistics = new ArrayList<>();
+                        for (int i = 0; i < 10; ++i) {
+                            statistics.add(createStatistics(i, state, ProcessingJobSubTaskState.SUCCESS));
+                        }
+                        lastSourceDocumentProcessingStatisticsDao.createOrModify(statistics, WriteConcern.ACKNOWLEDGED);
+                        lastSourceDocumentProcessingStatisticsDao.deactivateDocuments(Arrays.asList("reference" + round % 10),
+                                                                                      WriteConcern.ACKNOWLEDGED);
+                        lastSourceDocumentProcessingStatisticsDao.delete(statistics.get((round + 5) % 10).getId());
+                    }
+                }
+            });
+        }
+        for (final Thread thread : threads) {
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(lastSourceDocumentProcessingStatisticsDao.checkCounters().isEmpty());
+    }
+
+    @Test
+    public void test_RebuildsTheCountersOnlyIfMissing() {
+        for (int i = 0; i < 3; ++i) {
+            datastore.save(createStatistics(i, ProcessingState.SUCCESS, ProcessingJobSubTaskState.SUCCESS));
+        }
+        assertEquals(Long.valueOf(0), lastSourceDocumentProcessingStatisticsDao.countAllTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.ISSHOWNBY));
+
+        assertTrue(lastSourceDocumentProcessingStatisticsDao.rebuildCountersIfMissing() > 0);
+        assertEquals(Long.valueOf(3), lastSourceDocumentProcessingStatisticsDao.countAllTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.ISSHOWNBY));
+
+        datastore.save(createStatistics(3, ProcessingState.SUCCESS, ProcessingJobSubTaskState.SUCCESS));
+        assertEquals(0, lastSourceDocumentProcessingStatisticsDao.rebuildCountersIfMissing());
+        assertEquals(Long.valueOf(3), lastSourceDocumentProcessingStatisticsDao.countAllTaskTypesByUrlSourceType(COLLECTION_ID, URLSourceType.ISSHOWNBY));
+    }
+}
@@ -2,6 +2,7 @@ package eu.europeana.harvester.db.mongo;
 
 import com.google.code.morphia.Datastore;
 import com.google.code.morphia.Morphia;
+import com.mongodb.BasicDBObject;
 import com.mongodb.MongoClient;
 import com.mongodb.WriteConcern;
 import de.flapdoodle.embed.mongo.MongodExecutable;
@@ -30,6 +31,7 @@ public class MachineResourceReferenceDaoImplTest {
 
     private static final Logger LOG = LogManager.getLogger(MachineResourceReferenceDaoImplTest.class.getName());
 
+    private Datastore datastore;
     private MachineResourceReferenceDao machineResourceReferenceDao;
     private MongodProcess mongod = null;
     private MongodExecutable mongodExecutable = null;
@@ -51,8 +53,6 @@ public class MachineResourceReferenceDaoImplTest {
     public void setUp() throws Exception {
         mongod = mongodExecutable.start();
 
-        Datastore datastore = null;
-
         try {
             MongoClient mongo = new MongoClient("localhost", port);
             Morphia morphia = new Morphia();
@@ -188,6 +188,88 @@ public class MachineResourceReferenceDaoImplTest {
         }
     }
 
+    @Test
+    public void testGetMachineResourceReferencesModifiedSince() throws Exception {
+        final Date since = new Date(1000000L);
+        insertWithLastModified("1", 1, new Date(since.getTime() - 1));
+        insertWithLastModified("2", 2, since);
+        insertWithLastModified("3", 3, new Date(since.getTime() + 1));
+        insertWithLastModified("4", 4, null);
+
+        final List<MachineResourceReference> modified =
+                machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(since, null, 10);
+
+        assertEquals(2, modified.size());
+        assertEquals("2", modified.get(0).getId());
+        assertEquals("3", modified.get(1).getId());
+
+        for (int i = 1; i < 5; ++i) {
+            machineResourceReferenceDao.delete(Integer.toString(i));
+        }
+    }
 
+    @Test
+    public void testGetMachineResourceReferencesModifiedSince_PagesThroughEqualModifications() throws Exception {
+        final Date since = new Date(1000000L);
+        for (int i = 0; i < 5; ++i) {
+            insertWithLastModified(Integer.toString(i), i, since);
+        }
+        insertWithLastModified("5", 5, new Date(since.getTime() + 1));
+
+        final List<String> ids = new ArrayList<>();
+        Date pageSince = since;
+        String afterId = null;
+        List<MachineResourceReference> page;
+        do {
+            page = machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(pageSince, afterId, 2);
+            for (final MachineResourceReference reference : page) {
+                ids.add(reference.getId());
+                pageSince = reference.getLastModified();
+                afterId = reference.getId();
+            }
+        } while (page.size() == 2);
+
+        assertEquals(Arrays.asList("0", "1", "2", "3", "4", "5"), ids);
+
+        for (int i = 0; i < 6; ++i) {
+            machineResourceReferenceDao.delete(Integer.toString(i));
+        }
+    }
+
+    @Test
+    public void testLastModifiedIsSetByTheServer() throws Exception {
+        final Date clientDate = new Date(1000000L);
+
+        machineResourceReferenceDao.createOrModify(new MachineResourceReference("1", 1, clientDate), WriteConcern.ACKNOWLEDGED);
+        final MachineResourceReference created = machineResourceReferenceDao.read("1");
+        assertNotNull(created.getLastModified());
+        assertTrue(created.getLastModified().after(clientDate));
+        assertEquals(Integer.valueOf(1), created.getMaxConcurrentConnectionsLimit());
+
+        Thread.sleep(10);
+        assertTrue(machineResourceReferenceDao.update(new MachineResourceReference("1", 2, clientDate), WriteConcern.ACKNOWLEDGED));
+        final MachineResourceReference updated = machineResourceReferenceDao.read("1");
+        assertTrue(updated.getLastModified().after(created.getLastModified()));
+        assertEquals(Integer.valueOf(2), updated.getMaxConcurrentConnectionsLimit());
+
+        assertTrue(machineResourceReferenceDao.create(new MachineResourceReference("2", 3, clientDate), WriteConcern.ACKNOWLEDGED));
+        assertTrue(machineResourceReferenceDao.read("2").getLastModified().after(clientDate));
+        assertFalse(machineResourceReferenceDao.create(new MachineResourceReference("2", 4, clientDate), WriteConcern.ACKNOWLEDGED));
+        assertEquals(Integer.valueOf(3), machineResourceReferenceDao.read("2").getMaxConcurrentConnectionsLimit());
+
+        machineResourceReferenceDao.delete("1");
+        machineResourceReferenceDao.delete("2");
+    }
+
+    /**
+     * Writes a reference with the given modification date, as the DAO always sets the date of the server.
+     */
+    private void insertWithLastModified(final String id, final int limit, final Date lastModified) {
+        final BasicDBObject reference = new BasicDBObject("_id", id).append("maxConcurrentConnectionsLimit", limit);
+        if (null != lastModified) {
+            reference.append("lastModified", lastModified);
+        }
+        datastore.getCollection(MachineResourceReference.class).insert(reference, WriteConcern.ACKNOWLEDGED);
+    }
 
 }
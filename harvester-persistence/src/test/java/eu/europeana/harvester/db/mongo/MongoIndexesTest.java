@@ -0,0 +1,206 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Morphia;
+import com.mongodb.*;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodProcess;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import eu.europeana.harvester.db.interfaces.*;
+import eu.europeana.harvester.domain.*;
+import eu.europeana.harvester.util.pagedElements.PagedElements;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs every query of the DAOs with the profiler on and checks in the plans it recorded that none of them scanned
+ * a collection.
+ */
+public class MongoIndexesTest {
+
+    private static final String DB_NAME = "harvester_persistency";
+
+    private static final ReferenceOwner OWNER = new ReferenceOwner("provider", "collection", "record", "execution");
+
+    private static final String IP = "10.0.0.1";
+
+    private Datastore datastore;
+
+    private ProcessingJobDao processingJobDao;
+    private HistoricalProcessingJobDao historicalProcessingJobDao;
+    private SourceDocumentReferenceDao sourceDocumentReferenceDao;
+    private SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao;
+    private LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao;
+    private SourceDocumentReferenceProcessingProfileDao processingProfileDao;
+    private MachineResourceReferenceDao machineResourceReferenceDao;
+
+    private MongodProcess mongod = null;
+    private MongodExecutable mongodExecutable = null;
+    private int port = 12345;
+
+    public MongoIndexesTest() throws IOException {
+
+        MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mongod = mongodExecutable.start();
+
+        MongoClient mongo = new MongoClient("localhost", port);
+        datastore = new Morphia().createDatastore(mongo, DB_NAME);
+
+        processingJobDao = new ProcessingJobDaoImpl(datastore);
+        historicalProcessingJobDao = new HistoricalProcessingJobDaoImpl(datastore);
+        sourceDocumentReferenceDao = new SourceDocumentReferenceDaoImpl(datastore);
+        sourceDocumentProcessingStatisticsDao = new SourceDocumentProcessingStatisticsDaoImpl(datastore);
+        lastSourceDocumentProcessingStatisticsDao = new LastSourceDocumentProcessingStatisticsDaoImpl(datastore);
+        processingProfileDao = new SourceDocumentReferenceProcessingProfileDaoImpl(datastore);
+        machineResourceReferenceDao = new MachineResourceReferenceDaoImpl(datastore);
+    }
+
+    @After
+    public void tearDown() {
+        mongodExecutable.stop();
+    }
+
+    @Test
+    public void testKeyPattern() {
+        assertEquals("state_1", MongoIndexes.keyPattern("state"));
+        assertEquals("referenceOwner.executionId_1_updatedAt_-1", MongoIndexes.keyPattern("referenceOwner.executionId, -updatedAt"));
+        assertEquals("state_1_updatedAt_-1", MongoIndexes.keyPattern(new BasicDBObject("state", 1).append("updatedAt", -1.0)));
+    }
+
+    @Test
+    public void testEnsureIndexes_CreatesAllTheDeclaredIndexes() {
+        assertFalse(MongoIndexes.findMissingIndexes(datastore).isEmpty());
+        assertEquals(Collections.EMPTY_LIST, MongoIndexes.ensureIndexes(datastore));
+        assertEquals(Collections.EMPTY_LIST, MongoIndexes.ensureIndexes(datastore));
+    }
+
+    @Test
+    public void testNoDaoQueryScansACollection() throws Exception {
+        assertEquals(Collections.EMPTY_LIST, MongoIndexes.ensureIndexes(datastore));
+        insertDocuments();
+
+        final DB db = datastore.getDB();
+        db.command(new BasicDBObject("profile", 2)).throwOnError();
+        try {
+            runDaoQueries();
+        } finally {
+            db.command(new BasicDBObject("profile", 0)).throwOnError();
+        }
+
+        final List<String> namespaces = new ArrayList<>();
+        for (final Class<?> entity : MongoIndexes.INDEXED_ENTITIES) {
+            namespaces.add(DB_NAME + "." + datastore.getCollection(entity).getName());
+        }
+        final DBObject collectionScans = new BasicDBObject("ns", new BasicDBObject("$in", namespaces))
+                .append("planSummary", Pattern.compile("COLLSCAN"));
+
+        final List<DBObject> scans = db.getCollection("system.profile").find(collectionScans).toArray();
+        assertTrue("The following operations scanned a collection: " + scans, scans.isEmpty());
+        assertTrue(db.getCollection("system.profile").count(new BasicDBObject("planSummary", Pattern.compile("IXSCAN"))) > 0);
+    }
+
+    private void insertDocuments() {
+        final Date old = new Date(System.currentTimeMillis() - 30 * 24 * 3600 * 1000L);
+
+        final SourceDocumentReference reference = new SourceDocumentReference(OWNER, "http://a.com/1.jpg", IP, null, 0l, null, true);
+        sourceDocumentReferenceDao.createOrModify(reference, WriteConcern.ACKNOWLEDGED);
+
+        final List<ProcessingJobTaskDocumentReference> tasks = Arrays.asList(
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, reference.getId(), null));
+        final List<ProcessingJob> jobs = new ArrayList<>();
+        for (final JobState state : new JobState[]{JobState.READY, JobState.RUNNING, JobState.FINISHED}) {
+            jobs.add(new ProcessingJob(UUID.randomUUID().toString(), JobPriority.NORMAL.getPriority(), old, OWNER, tasks,
+                                       state, URLSourceType.ISSHOWNBY, IP, true, null));
+        }
+        processingJobDao.createOrModify(jobs, WriteConcern.ACKNOWLEDGED);
+        historicalProcessingJobDao.createOrModify(new HistoricalProcessingJob(jobs.get(0)), WriteConcern.ACKNOWLEDGED);
+
+        final SourceDocumentProcessingStatistics statistics = new SourceDocumentProcessingStatistics(
+                old, old, true, DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, ProcessingState.SUCCESS, OWNER,
+                URLSourceType.ISSHOWNBY, reference.getId(), jobs.get(2).getId(), 200, "image/jpeg", 100l, 10l, 20l, 30l,
+                IP, new HashMap<String, String>(), "", new ProcessingJobSubTaskStats());
+        sourceDocumentProcessingStatisticsDao.createOrModify(statistics, WriteConcern.ACKNOWLEDGED);
+        lastSourceDocumentProcessingStatisticsDao.createOrModify(new LastSourceDocumentProcessingStatistics(statistics),
+                                                                 WriteConcern.ACKNOWLEDGED);
+
+        processingProfileDao.createOrModify(new SourceDocumentReferenceProcessingProfile(
+                true, OWNER, reference.getId(), URLSourceType.ISSHOWNBY, DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                JobPriority.NORMAL.getPriority(), old, 3600), WriteConcern.ACKNOWLEDGED);
+
+        machineResourceReferenceDao.createOrModify(new MachineResourceReference(IP, 5, old), WriteConcern.ACKNOWLEDGED);
+    }
+
+    private void runDaoQueries() throws Exception {
+        final Date now = new Date();
+        final ReferenceOwner collectionOwner = new ReferenceOwner(null, OWNER.getCollectionId(), null);
+        final Map<String, Integer> ipDistribution = processingJobDao.getIpDistribution();
+
+        processingJobDao.getJobsWithState(JobState.READY, new Page(0, 10));
+        processingJobDao.getDiffusedJobsWithState(JobPriority.NORMAL, JobState.READY, new Page(0, 10), ipDistribution);
+        processingJobDao.modifyStateOfJobs(JobState.PAUSE, JobState.PAUSED);
+        processingJobDao.findJobIdsWithState(JobState.READY, Arrays.asList("job"));
+        processingJobDao.modifyStateOfJobsWithIds(JobState.READY, JobState.RUNNING, Arrays.asList("job"));
+        processingJobDao.startJobsWithIds(Arrays.asList("job"), "load");
+        processingJobDao.findJobIdsStartedBy("load", Arrays.asList("job"));
+        processingJobDao.modifyStateOfJobsWithIpAddresses(JobState.RUNNING, JobState.READY, Arrays.asList(IP));
+        processingJobDao.deactivateJobs(collectionOwner, WriteConcern.ACKNOWLEDGED);
+        final PagedElements<ProcessingJob> pagedJobs = processingJobDao.findJobsByCollectionIdAndState(
+                Collections.singleton(OWNER.getCollectionId()), EnumSet.of(JobState.READY, JobState.FINISHED), new Page(0, 10));
+        pagedJobs.getNextPage();
+        processingJobDao.findJobsByCollectionId(OWNER.getCollectionId());
+        processingJobDao.archiveFinishedJobs(now, 10, WriteConcern.ACKNOWLEDGED);
+
+        historicalProcessingJobDao.getJobsWithState(JobState.READY, new Page(0, 10));
+        historicalProcessingJobDao.deactivateJobs(collectionOwner, WriteConcern.ACKNOWLEDGED);
+
+        sourceDocumentReferenceDao.findByRecordID(OWNER.getRecordId());
+        sourceDocumentReferenceDao.deactivateDocuments(collectionOwner, WriteConcern.ACKNOWLEDGED);
+
+        sourceDocumentProcessingStatisticsDao.findByRecordID(OWNER.getRecordId());
+        sourceDocumentProcessingStatisticsDao.findByExecutionIdAndState(OWNER.getExecutionId(), Arrays.asList(ProcessingState.SUCCESS));
+        sourceDocumentProcessingStatisticsDao.deactivateDocuments(Arrays.asList("reference"), WriteConcern.ACKNOWLEDGED);
+        sourceDocumentProcessingStatisticsDao.archiveStatistics(now, 10, WriteConcern.ACKNOWLEDGED);
+
+        lastSourceDocumentProcessingStatisticsDao.findByRecordID(OWNER.getRecordId());
+        lastSourceDocumentProcessingStatisticsDao.findLastSourceDocumentProcessingStatistics(
+                OWNER.getCollectionId(), OWNER.getExecutionId(), Arrays.asList(ProcessingState.SUCCESS));
+        lastSourceDocumentProcessingStatisticsDao.findLastSourceDocumentProcessingStatistics(OWNER.getCollectionId(), null, null);
+        lastSourceDocumentProcessingStatisticsDao.getDateIntervalForProcessing(OWNER.getExecutionId());
+        lastSourceDocumentProcessingStatisticsDao.deactivateDocuments(Arrays.asList("reference"), WriteConcern.ACKNOWLEDGED);
+
+        processingProfileDao.findByRecordID(OWNER.getRecordId());
+        processingProfileDao.getJobToBeEvaluated();
+        final Iterator<SourceDocumentReferenceProcessingProfile> profiles = processingProfileDao.streamJobToBeEvaluated(now, null, 10);
+        while (profiles.hasNext()) {
+            profiles.next();
+        }
+        processingProfileDao.deactivateDocuments(collectionOwner, WriteConcern.ACKNOWLEDGED);
+
+        machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(new Date(0), null, 10);
+        machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(new Date(0), "127.0.0.1", 10);
+        machineResourceReferenceDao.getAllMachineResourceReferences("127.0.0.1", 10);
+    }
+}
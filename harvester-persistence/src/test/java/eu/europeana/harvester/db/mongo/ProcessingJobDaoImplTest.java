@@ -2,6 +2,10 @@ package eu.europeana.harvester.db.mongo;
 
 import com.google.code.morphia.Datastore;
 import com.google.code.morphia.Morphia;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
 import com.mongodb.MongoClient;
 import com.mongodb.WriteConcern;
 import de.flapdoodle.embed.mongo.MongodExecutable;
@@ -12,6 +16,7 @@ import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
 import de.flapdoodle.embed.mongo.config.Net;
 import de.flapdoodle.embed.mongo.distribution.Version;
 import de.flapdoodle.embed.process.runtime.Network;
+import eu.europeana.harvester.db.interfaces.HistoricalProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.util.pagedElements.PagedElements;
@@ -28,6 +33,7 @@ import java.net.UnknownHostException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.Assert.*;
 
@@ -35,7 +41,9 @@ public class ProcessingJobDaoImplTest {
 
     private static final Logger LOG = LogManager.getLogger(ProcessingJobDaoImplTest.class.getName());
 
+    private Datastore datastore;
     private ProcessingJobDao processingJobDao;
+    private HistoricalProcessingJobDao historicalProcessingJobDao;
     private List<String> ids;
 
 
@@ -59,7 +67,7 @@ public class ProcessingJobDaoImplTest {
     public void setUp() throws Exception {
         mongod = mongodExecutable.start();
 
-        Datastore datastore = null;
+        datastore = null;
         ids = new ArrayList<>();
 
         try {
@@ -73,6 +81,7 @@ public class ProcessingJobDaoImplTest {
         }
 
         processingJobDao = new ProcessingJobDaoImpl(datastore);
+        historicalProcessingJobDao = new HistoricalProcessingJobDaoImpl(datastore);
     }
 
     @After
@@ -192,6 +201,120 @@ public class ProcessingJobDaoImplTest {
         assertFalse(processingJobDao.update(newProcessingJob, WriteConcern.NONE));
     }
 
+    @Test
+    public void testCreate_ExistingJobIsKept() throws Exception {
+        final ProcessingJob processingJob =
+                new ProcessingJob(1, new Date(), new ReferenceOwner("1", "1", "1"), null, JobState.READY, null, "", null);
+        assertTrue(processingJobDao.create(processingJob, WriteConcern.NONE));
+
+        assertFalse(processingJobDao.create(processingJob.withState(JobState.FINISHED), WriteConcern.NONE));
+        assertEquals(JobState.READY, processingJobDao.read(processingJob.getId()).getState());
+
+        processingJobDao.delete(processingJob.getId());
+    }
+
+    @Test
+    public void testModifyStateOfJobsWithIds_GuardedByTheOldState() throws Exception {
+        final List<String> jobIds = new ArrayList<>();
+        for (final JobState state : new JobState[]{JobState.READY, JobState.READY, JobState.FINISHED}) {
+            final ProcessingJob processingJob =
+                    new ProcessingJob(1, new Date(), new ReferenceOwner("1", "1", "1"), null, state, null, "", null);
+            processingJobDao.create(processingJob, WriteConcern.ACKNOWLEDGED);
+            jobIds.add(processingJob.getId());
+        }
+
+        assertEquals(2, processingJobDao.modifyStateOfJobsWithIds(JobState.READY, JobState.RUNNING, jobIds));
+        assertEquals(0, processingJobDao.modifyStateOfJobsWithIds(JobState.READY, JobState.RUNNING, jobIds));
+
+        assertEquals(new HashSet<>(jobIds.subList(0, 2)), new HashSet<>(processingJobDao.findJobIdsWithState(JobState.RUNNING, jobIds)));
+        assertEquals(JobState.FINISHED, processingJobDao.read(jobIds.get(2)).getState());
+
+        for (final String jobId : jobIds) {
+            processingJobDao.delete(jobId);
+        }
+    }
+
+    @Test
+    public void testStartJobsWithIds_SkipsTheJobsStartedByAnotherLoad() throws Exception {
+        final List<String> jobIds = new ArrayList<>();
+        for (final JobState state : new JobState[]{JobState.READY, JobState.READY, JobState.READY, JobState.PAUSED}) {
+            final ProcessingJob processingJob =
+                    new ProcessingJob(1, new Date(), new ReferenceOwner("1", "1", "1"), null, state, null, "", null);
+            processingJobDao.create(processingJob, WriteConcern.ACKNOWLEDGED);
+            jobIds.add(processingJob.getId());
+        }
+
+        // another load started one of the jobs meanwhile
+        assertEquals(1, processingJobDao.startJobsWithIds(jobIds.subList(2, 3), "load1"));
+
+        assertEquals(2, processingJobDao.startJobsWithIds(jobIds, "load2"));
+        assertEquals(new HashSet<>(jobIds.subList(0, 2)), new HashSet<>(processingJobDao.findJobIdsStartedBy("load2", jobIds)));
+        assertEquals(Arrays.asList(jobIds.get(2)), processingJobDao.findJobIdsStartedBy("load1", jobIds));
+        assertEquals(new HashSet<>(jobIds.subList(0, 3)), new HashSet<>(processingJobDao.findJobIdsWithState(JobState.RUNNING, jobIds)));
+        assertEquals(JobState.PAUSED, processingJobDao.read(jobIds.get(3)).getState());
+
+        for (final String jobId : jobIds) {
+            processingJobDao.delete(jobId);
+        }
+    }
+
+    @Test
+    public void testModifyStateOfJobsWithIpAddresses() throws Exception {
+        final List<String> jobIds = new ArrayList<>();
+        for (final String ipAddress : new String[]{"10.0.0.1", "10.0.0.2", "10.0.0.3"}) {
+            final ProcessingJob processingJob =
+                    new ProcessingJob(1, new Date(), new ReferenceOwner("1", "1", "1"), null, JobState.RUNNING, null, ipAddress, null);
+            processingJobDao.create(processingJob, WriteConcern.ACKNOWLEDGED);
+            jobIds.add(processingJob.getId());
+        }
+
+        assertEquals(0, processingJobDao.modifyStateOfJobsWithIpAddresses(JobState.RUNNING, JobState.READY, Collections.<String>emptyList()));
+        assertEquals(2, processingJobDao.modifyStateOfJobsWithIpAddresses(JobState.RUNNING, JobState.READY, Arrays.asList("10.0.0.1", "10.0.0.2")));
+
+        assertEquals(new HashSet<>(jobIds.subList(0, 2)), new HashSet<>(processingJobDao.findJobIdsWithState(JobState.READY, jobIds)));
+        assertEquals(JobState.RUNNING, processingJobDao.read(jobIds.get(2)).getState());
+
+        for (final String jobId : jobIds) {
+            processingJobDao.delete(jobId);
+        }
+    }
+
+    @Test
+    public void testCreate_Concurrently() throws Exception {
+        final int numberOfWriters = 8;
+        final ProcessingJob processingJob =
+                new ProcessingJob(1, new Date(), new ReferenceOwner("1", "1", "1"), null, JobState.READY, null, "", null);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(numberOfWriters);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<Boolean>> created = new ArrayList<>();
+        try {
+            for (int i = 0; i < numberOfWriters; ++i) {
+                final JobState state = JobState.values()[i % JobState.values().length];
+                created.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        start.await();
+                        return processingJobDao.create(processingJob.withState(state), WriteConcern.ACKNOWLEDGED);
+                    }
+                }));
+            }
+            start.countDown();
+
+            int numberOfCreations = 0;
+            for (final Future<Boolean> future : created) {
+                if (future.get(30, TimeUnit.SECONDS)) {
+                    ++numberOfCreations;
+                }
+            }
+            assertEquals(1, numberOfCreations);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        processingJobDao.delete(processingJob.getId());
+    }
+
     @Test
     public void testDelete() throws Exception {
         final ProcessingJob processingJob =
@@ -243,6 +366,79 @@ public class ProcessingJobDaoImplTest {
         }
     }
 
+    @Test
+    public void testGetDiffusedJobsWithState_LimitsJobsPerIp() throws Exception {
+        final String[] ips = new String[] {"10.0.0.1", "10.0.0.2", "10.0.0.3", "10.0.0.4"};
+        final int[] jobsPerIp = new int[] {5, 1, 3, 0};
+
+        for (int i = 0; i < ips.length; ++i) {
+            for (int j = 0; j < jobsPerIp[i]; ++j) {
+                final String id = UUID.randomUUID().toString();
+                ids.add(id);
+                processingJobDao.create(new ProcessingJob(id, JobPriority.NORMAL.getPriority(), new Date(),
+                                                          new ReferenceOwner("1", "1", "1"), null, JobState.READY,
+                                                          URLSourceType.ISSHOWNBY, ips[i], true, null),
+                                        WriteConcern.NORMAL);
+            }
+        }
+
+        // Jobs which must be filtered out by state, priority or ip.
+        final ProcessingJob[] ignoredJobs = new ProcessingJob[] {
+                new ProcessingJob(UUID.randomUUID().toString(), JobPriority.NORMAL.getPriority(), new Date(),
+                                  new ReferenceOwner("1", "1", "1"), null, JobState.RUNNING,
+                                  URLSourceType.ISSHOWNBY, ips[1], true, null),
+                new ProcessingJob(UUID.randomUUID().toString(), JobPriority.FASTLANE.getPriority(), new Date(),
+                                  new ReferenceOwner("1", "1", "1"), null, JobState.READY,
+                                  URLSourceType.ISSHOWNBY, ips[1], true, null),
+                new ProcessingJob(UUID.randomUUID().toString(), JobPriority.NORMAL.getPriority(), new Date(),
+                                  new ReferenceOwner("1", "1", "1"), null, JobState.READY,
+                                  URLSourceType.ISSHOWNBY, "10.0.0.5", true, null)
+        };
+        for (final ProcessingJob job : ignoredJobs) {
+            ids.add(job.getId());
+            processingJobDao.create(job, WriteConcern.NORMAL);
+        }
+
+        final Map<String, Integer> ipDistribution = new HashMap<>();
+        for (final String ip : ips) {
+            ipDistribution.put(ip, 0);
+        }
+
+        final DB db = datastore.getDB();
+        db.command(new BasicDBObject("profile", 2)).throwOnError();
+        final List<ProcessingJob> jobs;
+        try {
+            jobs = processingJobDao.getDiffusedJobsWithState(JobPriority.NORMAL, JobState.READY, new Page(0, 2), ipDistribution);
+        } finally {
+            db.command(new BasicDBObject("profile", 0)).throwOnError();
+        }
+        // one query per ip, limited on the server: no getmore and only the loaded jobs sent back
+        final String namespace = db.getName() + "." + datastore.getCollection(ProcessingJob.class).getName();
+        final DBCollection profile = db.getCollection("system.profile");
+        assertEquals(ips.length, profile.count(new BasicDBObject("op", "query").append("ns", namespace)));
+        assertEquals(0, profile.count(new BasicDBObject("op", "getmore").append("ns", namespace)));
+        int returnedJobs = 0;
+        for (final DBObject operation : profile.find(new BasicDBObject("ns", namespace))) {
+            returnedJobs += ((Number) operation.get("nreturned")).intValue();
+        }
+        assertEquals(5, returnedJobs);
+
+        final Map<String, Integer> loadedJobsPerIp = new HashMap<>();
+        for (final ProcessingJob job : jobs) {
+            assertEquals(JobState.READY, job.getState());
+            assertEquals(JobPriority.NORMAL.getPriority().intValue(), job.getPriority());
+            final Integer count = loadedJobsPerIp.get(job.getIpAddress());
+            loadedJobsPerIp.put(job.getIpAddress(), null == count ? 1 : count + 1);
+        }
+
+        assertEquals(5, jobs.size());
+        assertEquals(Integer.valueOf(2), loadedJobsPerIp.get(ips[0]));
+        assertEquals(Integer.valueOf(1), loadedJobsPerIp.get(ips[1]));
+        assertEquals(Integer.valueOf(2), loadedJobsPerIp.get(ips[2]));
+        assertFalse(loadedJobsPerIp.containsKey(ips[3]));
+        assertFalse(loadedJobsPerIp.containsKey("10.0.0.5"));
+    }
+
     @Test
     public void testFindJobsByCollectionIdAndState_CorrectElements() throws Exception {
         final JobState[] jobStates = JobState.values();
@@ -330,4 +526,45 @@ public class ProcessingJobDaoImplTest {
 
     }
 
+    @Test
+    public void testArchiveFinishedJobs_MovesOnlyTheOldFinishedJobs() throws Exception {
+        final Date now = new Date();
+        final Date old = new DateTime(now).minusDays(10).toDate();
+
+        final List<ProcessingJob> archived = new ArrayList<>();
+        final List<ProcessingJob> kept = new ArrayList<>();
+        for (final JobState state : new JobState[] {JobState.FINISHED, JobState.FAILED, JobState.ERROR}) {
+            archived.add(new ProcessingJob(UUID.randomUUID().toString(), 1, old, new ReferenceOwner("1", "1", "1"), null,
+                                           state, URLSourceType.ISSHOWNBY, "10.0.0.1", true, null));
+            kept.add(new ProcessingJob(UUID.randomUUID().toString(), 1, now, new ReferenceOwner("1", "1", "1"), null,
+                                       state, URLSourceType.ISSHOWNBY, "10.0.0.1", true, null));
+        }
+        for (final JobState state : new JobState[] {JobState.READY, JobState.RUNNING, JobState.PAUSED}) {
+            kept.add(new ProcessingJob(UUID.randomUUID().toString(), 1, old, new ReferenceOwner("1", "1", "1"), null,
+                                       state, URLSourceType.ISSHOWNBY, "10.0.0.1", true, null));
+        }
+        processingJobDao.createOrModify(archived, WriteConcern.ACKNOWLEDGED);
+        processingJobDao.createOrModify(kept, WriteConcern.ACKNOWLEDGED);
+        for (final ProcessingJob job : kept) {
+            ids.add(job.getId());
+        }
+
+        processingJobDao.expireArchivedJobsAfter(3600);
+        final Date expectedStartBefore = new DateTime(now).minusDays(1).toDate();
+        assertEquals(2, processingJobDao.archiveFinishedJobs(expectedStartBefore, 2, WriteConcern.ACKNOWLEDGED));
+        assertEquals(1, processingJobDao.archiveFinishedJobs(expectedStartBefore, 2, WriteConcern.ACKNOWLEDGED));
+        assertEquals(0, processingJobDao.archiveFinishedJobs(expectedStartBefore, 2, WriteConcern.ACKNOWLEDGED));
+
+        for (final ProcessingJob job : archived) {
+            assertNull(processingJobDao.read(job.getId()));
+            final HistoricalProcessingJob historicalJob = historicalProcessingJobDao.read(job.getId());
+            assertNotNull(historicalJob);
+            assertEquals(job.getState(), historicalJob.getState());
+            historicalProcessingJobDao.delete(job.getId());
+        }
+        for (final ProcessingJob job : kept) {
+            assertNotNull(processingJobDao.read(job.getId()));
+        }
+    }
+
 }
@@ -2,6 +2,7 @@ package eu.europeana.harvester.db.mongo;
 
 import com.google.code.morphia.Datastore;
 import com.google.code.morphia.Morphia;
+import com.mongodb.DBCollection;
 import com.mongodb.MongoClient;
 import com.mongodb.WriteConcern;
 import de.flapdoodle.embed.mongo.MongodExecutable;
@@ -35,6 +36,8 @@ public class SourceDocumentProcessingStatisticsDaoImplTest {
 
     private SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao;
 
+    private Datastore datastore;
+
     private MongodProcess mongod = null;
     private MongodExecutable mongodExecutable = null;
     private int port = 12345;
@@ -55,7 +58,7 @@ public class SourceDocumentProcessingStatisticsDaoImplTest {
     public void setUp() throws Exception {
         mongod = mongodExecutable.start();
 
-        Datastore datastore = null;
+        datastore = null;
 
         try {
             MongoClient mongo = new MongoClient("localhost", port);
@@ -128,6 +131,26 @@ public class SourceDocumentProcessingStatisticsDaoImplTest {
         }
     }
 
+    @Test
+    public void testReadHttpResponseHeaders() throws Exception {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Length", "1024");
+        final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics =
+                new SourceDocumentProcessingStatistics(new Date(), new Date(), true, null, null, new ReferenceOwner("1", "1", "1"),
+                        null, "reference", "", 100, "", 150*1024l, 50l, 0l, 0l, "", headers, "",null);
+        sourceDocumentProcessingStatisticsDao.create(sourceDocumentProcessingStatistics, WriteConcern.NONE);
+
+        final List<SourceDocumentProcessingStatistics> read =
+                sourceDocumentProcessingStatisticsDao.readHttpResponseHeaders(Arrays.asList(sourceDocumentProcessingStatistics.getId(), "missing"));
+
+        assertEquals(1, read.size());
+        assertEquals("reference", read.get(0).getSourceDocumentReferenceId());
+        assertEquals(headers, read.get(0).getHttpResponseHeaders());
+        assertNull(read.get(0).getHttpResponseContentSizeInBytes());
+
+        sourceDocumentProcessingStatisticsDao.delete(sourceDocumentProcessingStatistics.getId());
+    }
+
     @Test
     public void testRead() throws Exception {
         SourceDocumentProcessingStatistics sourceDocumentProcessingStatisticsFromRead =
@@ -240,4 +263,33 @@ public class SourceDocumentProcessingStatisticsDaoImplTest {
         assertEquals (10L, counts.get(ProcessingState.SUCCESS).longValue());
     }
 
+    @Test
+    public void test_ArchiveStatistics_MovesOnlyTheOldStatistics() {
+        final Date now = new Date();
+        final Date old = new Date(now.getTime() - 10 * 24 * 3600 * 1000L);
+
+        final List<SourceDocumentProcessingStatistics> documents = new ArrayList<>();
+        for (int i = 0; i < 6; ++i) {
+            final String iString = Integer.toString(i);
+            documents.add(new SourceDocumentProcessingStatistics(iString, old, i < 4 ? old : now, true, null, null,
+                                                                 new ReferenceOwner(iString, iString, iString, iString),
+                                                                 null, "", "", 100, "", 1024l, 0l, 0l, 0l, "", null, "", null));
+        }
+        sourceDocumentProcessingStatisticsDao.createOrModify(documents, WriteConcern.ACKNOWLEDGED);
+
+        sourceDocumentProcessingStatisticsDao.expireArchivedStatisticsAfter(3600);
+        final Date updatedBefore = new Date(now.getTime() - 24 * 3600 * 1000L);
+        assertEquals(3, sourceDocumentProcessingStatisticsDao.archiveStatistics(updatedBefore, 3, WriteConcern.ACKNOWLEDGED));
+        assertEquals(1, sourceDocumentProcessingStatisticsDao.archiveStatistics(updatedBefore, 3, WriteConcern.ACKNOWLEDGED));
+
+        final DBCollection history = datastore.getDB().getCollection(SourceDocumentProcessingStatisticsDaoImpl.HISTORY_COLLECTION);
+        assertEquals(4, history.count());
+        for (final SourceDocumentProcessingStatistics document : documents) {
+            final boolean moved = document.getUpdatedAt().equals(old);
+            assertEquals(moved, null == sourceDocumentProcessingStatisticsDao.read(document.getId()));
+            assertEquals(moved, null != history.findOne(document.getId()));
+            sourceDocumentProcessingStatisticsDao.delete(document.getId());
+        }
+        history.drop();
+    }
 }
@@ -24,6 +24,7 @@ import org.unitils.reflectionassert.ReflectionAssert;
 import java.io.IOException;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -204,4 +205,35 @@ public class SourceDocumentReferenceDaoImplTest {
 
         sourceDocumentReferenceDao.delete(sourceDocumentReference.getId());
     }
+
+    @Test
+    public void testReadForTasks() throws Exception {
+        final SourceDocumentReference sourceDocumentReference =
+                new SourceDocumentReference(new ReferenceOwner("1", "1", "1"), "test", "127.0.0.1", "stats", 1l,
+                                            Arrays.asList("test"), true);
+        sourceDocumentReferenceDao.createOrModify(sourceDocumentReference, WriteConcern.ACKNOWLEDGED);
+
+        final List<SourceDocumentReference> read = sourceDocumentReferenceDao.readForTasks(Arrays.asList(sourceDocumentReference.getId()));
+
+        assertEquals(1, read.size());
+        ReflectionAssert.assertReflectionEquals(new SourceDocumentReference(sourceDocumentReference.getId(),
+                sourceDocumentReference.getReferenceOwner(), "test", null, "stats", null, null, null), read.get(0));
+    }
+
+    @Test
+    public void testUpdateLastStats() throws Exception {
+        final SourceDocumentReference sourceDocumentReference =
+                new SourceDocumentReference(new ReferenceOwner("1", "1", "1"), "test", "127.0.0.1", "oldStats", 1l,
+                                            Arrays.asList("test"), true);
+        sourceDocumentReferenceDao.createOrModify(sourceDocumentReference, WriteConcern.ACKNOWLEDGED);
+
+        final SourceDocumentReference missingReference = new SourceDocumentReference("missing", null, null, null, "stats", null, null, null);
+        sourceDocumentReferenceDao.updateLastStats(Arrays.asList(
+                new SourceDocumentReference(sourceDocumentReference.getId(), null, null, null, "newStats", null, null, null).withRedirectionPath(null),
+                missingReference), WriteConcern.ACKNOWLEDGED);
+
+        ReflectionAssert.assertReflectionEquals(sourceDocumentReference.withLastStatsId("newStats").withRedirectionPath(null),
+                                                sourceDocumentReferenceDao.read(sourceDocumentReference.getId()));
+        assertNull(sourceDocumentReferenceDao.read(missingReference.getId()));
+    }
 }
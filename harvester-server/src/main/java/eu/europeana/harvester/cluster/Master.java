@@ -21,8 +21,13 @@ import eu.europeana.harvester.cluster.domain.messages.CheckForTaskTimeout;
 import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
 import eu.europeana.harvester.cluster.domain.messages.Monitor;
 import eu.europeana.harvester.cluster.master.ClusterMasterActor;
+import eu.europeana.harvester.cluster.master.accountants.AccountantJournalConfig;
+import eu.europeana.harvester.cluster.master.accountants.LaneSchedulingConfig;
+import eu.europeana.harvester.cluster.master.archiver.ArchiverConfig;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.receivers.ReceiverJobDumperConfig;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
+import eu.europeana.harvester.cluster.master.sharding.ShardingConfig;
 import eu.europeana.harvester.db.interfaces.*;
 import eu.europeana.harvester.db.mongo.*;
 import eu.europeana.harvester.domain.MongoConfig;
@@ -80,8 +85,23 @@ class Master {
 
         final JobRestarterConfig jobRestarterConfig = JobRestarterConfig.valueOf(config.getConfig("akka.cluster"));
 
+        final ReceiverJobDumperConfig receiverJobDumperConfig = ReceiverJobDumperConfig.valueOf(config.getConfig("job-dumper"));
+
+        final AccountantJournalConfig accountantJournalConfig = config.hasPath("accountant-journal") ?
+                AccountantJournalConfig.valueOf(config.getConfig("accountant-journal")) : null;
+
+        final ArchiverConfig archiverConfig = config.hasPath("archiver") ?
+                ArchiverConfig.valueOf(config.getConfig("archiver")) : null;
+
+        final ShardingConfig shardingConfig = config.hasPath("sharding") ?
+                ShardingConfig.valueOf(config.getConfig("sharding")) : null;
+
+        final LaneSchedulingConfig laneSchedulingConfig = config.hasPath("lane-scheduling") ?
+                LaneSchedulingConfig.valueOf(config.getConfig("lane-scheduling")) : null;
+
         final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(jobsPerIP, maxTasksInMemory,
-                receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig, WriteConcern.NONE);
+                receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig, receiverJobDumperConfig,
+                accountantJournalConfig, archiverConfig, shardingConfig, laneSchedulingConfig, WriteConcern.NONE);
 
         Slf4jReporter reporter = Slf4jReporter.forRegistry(MasterMetrics.METRIC_REGISTRY)
                 .outputTo(org.slf4j.LoggerFactory.getLogger("metrics"))
@@ -131,11 +151,20 @@ class Master {
 
         final Datastore datastore = new Morphia().createDatastore(mongoConfig.connectToMongo(), mongoConfig.getDbName());
 
+        final List<String> missingIndexes = MongoIndexes.ensureIndexes(datastore);
+        if (!missingIndexes.isEmpty()) {
+            LOG.error("CLUSTER The following indexes are missing, their queries will scan the collections: " + missingIndexes);
+        }
+
         final ProcessingJobDao processingJobDao = new ProcessingJobDaoImpl(datastore);
         final HistoricalProcessingJobDao historicalProcessingJobDao = new HistoricalProcessingJobDaoImpl(datastore);
         final MachineResourceReferenceDao machineResourceReferenceDao = new MachineResourceReferenceDaoImpl(datastore);
         final SourceDocumentReferenceDao sourceDocumentReferenceDao = new SourceDocumentReferenceDaoImpl(datastore);
         final LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao = new LastSourceDocumentProcessingStatisticsDaoImpl(datastore);
+        final int rebuiltCounters = lastSourceDocumentProcessingStatisticsDao.rebuildCountersIfMissing();
+        if (rebuiltCounters > 0) {
+            LOG.info("CLUSTER Built the " + rebuiltCounters + " missing statistics counters");
+        }
         final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao =
                 new SourceDocumentProcessingStatisticsDaoImpl(datastore);
         final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao =
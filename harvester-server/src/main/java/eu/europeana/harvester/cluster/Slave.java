@@ -13,6 +13,8 @@ import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigParseOptions;
 import com.typesafe.config.ConfigSyntax;
 import eu.europeana.harvester.cluster.domain.NodeMasterConfig;
+import eu.europeana.harvester.cluster.slave.DoneProcessingOutbox;
+import eu.europeana.harvester.cluster.slave.NodeMasterActor;
 import eu.europeana.harvester.cluster.slave.NodeSupervisor;
 import eu.europeana.harvester.cluster.slave.SlaveMetrics;
 import eu.europeana.harvester.cluster.slave.validator.ImageMagicValidator;
@@ -30,6 +32,7 @@ import org.apache.logging.log4j.Logger;
 import java.io.File;
 import java.net.InetSocketAddress;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Slave {
 
@@ -45,6 +48,18 @@ public class Slave {
 
     private static final String containerName = "swiftUnitTesting";
 
+    /**
+     * The time given to the old actor system to release its ports before the new one starts.
+     */
+    private static final long RESTART_DELAY_IN_MILLIS = 10000l;
+
+    /**
+     * The results not yet acknowledged by the master, kept across the restarts of the actor system.
+     */
+    private final DoneProcessingOutbox doneProcessingOutbox = NodeMasterActor.createDoneProcessingOutbox();
+
+    private final AtomicBoolean restarting = new AtomicBoolean(false);
+
 
     public Slave(String[] args) {
         this.args = args;
@@ -152,7 +167,7 @@ public class Slave {
         final ActorRef masterSender = system.actorOf(FromConfig.getInstance().props(), "masterSender");
 
         NodeSupervisor.createActor(system, slave, masterSender,nodeMasterConfig,
-                mediaStorageClient, SlaveMetrics.METRIC_REGISTRY);
+                mediaStorageClient, SlaveMetrics.METRIC_REGISTRY, doneProcessingOutbox);
 
         //system.actorOf(Props.create(MetricsListener.class), "metricsListener");
     }
@@ -214,21 +229,42 @@ public class Slave {
         final ActorRef masterSender = system.actorOf(FromConfig.getInstance().props(), "masterSender");
 
         NodeSupervisor.createActor(system, slave, masterSender,nodeMasterConfig,
-                mediaStorageClient, SlaveMetrics.METRIC_REGISTRY);
+                mediaStorageClient, SlaveMetrics.METRIC_REGISTRY, doneProcessingOutbox);
 
 
     }
 
 
 
+    /**
+     * Restarts the actor system on another thread, as it's called by the actors of the system it shuts down.
+     * The calls made while a restart is in progress are ignored.
+     */
     public void restart() {
+        if (!restarting.compareAndSet(false, true)) {
+            LOG.debug("CLUSTER SLAVE The actor system is already restarting.");
+            return;
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    restartActorSystem();
+                } finally {
+                    restarting.set(false);
+                }
+            }
+        }, "slave-restart").start();
+    }
+
+    private void restartActorSystem() {
         LOG.debug("CLUSTER SLAVE Shutting down the actor system, restart.");
         SlaveMetrics.Worker.Slave.restartCounter.inc();
         system.shutdown();
         system.awaitTermination();
-        //sleep 5 minutes
         try {
-            Thread.sleep(300000l);
+            Thread.sleep(RESTART_DELAY_IN_MILLIS);
         } catch (InterruptedException e) {
             LOG.error(e.getMessage());
         }
@@ -1,7 +1,12 @@
 package eu.europeana.harvester.cluster.domain;
 
 import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.master.accountants.AccountantJournalConfig;
+import eu.europeana.harvester.cluster.master.accountants.LaneSchedulingConfig;
+import eu.europeana.harvester.cluster.master.archiver.ArchiverConfig;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.receivers.ReceiverJobDumperConfig;
+import eu.europeana.harvester.cluster.master.sharding.ShardingConfig;
 import org.joda.time.Duration;
 
 /**
@@ -33,18 +38,71 @@ public class ClusterMasterConfig {
 
     private final JobRestarterConfig jobRestarterConfig;
 
+    private final ReceiverJobDumperConfig receiverJobDumperConfig;
+
+    /**
+     * The write-ahead log of the accountant queue. Null if the queue is kept only in memory.
+     */
+    private final AccountantJournalConfig accountantJournalConfig;
+
+    /**
+     * The archiver of the finished jobs and of the old statistics. Null if they are never archived.
+     */
+    private final ArchiverConfig archiverConfig;
+
+    /**
+     * The partition of the IPs between the masters of the cluster. Null if this master owns all the IPs.
+     */
+    private final ShardingConfig shardingConfig;
+
+    /**
+     * How the accountant shares the credits of the slaves between its lanes. Null for the default weights.
+     */
+    private final LaneSchedulingConfig laneSchedulingConfig;
+
     /**
      * Describes the guarantee that MongoDB provides when reporting on the success of a write operation
      */
     private final WriteConcern writeConcern;
 
     public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
-                                JobRestarterConfig jobRestarterConfig, final WriteConcern writeConcern) {
+                                JobRestarterConfig jobRestarterConfig, final ReceiverJobDumperConfig receiverJobDumperConfig,
+                                final WriteConcern writeConcern) {
+        this(jobsPerIP, maxTasksInMemory, receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig,
+                receiverJobDumperConfig, null, null, writeConcern);
+    }
+
+    public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
+                                JobRestarterConfig jobRestarterConfig, final ReceiverJobDumperConfig receiverJobDumperConfig,
+                                final AccountantJournalConfig accountantJournalConfig, final ArchiverConfig archiverConfig,
+                                final WriteConcern writeConcern) {
+        this(jobsPerIP, maxTasksInMemory, receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig,
+                receiverJobDumperConfig, accountantJournalConfig, archiverConfig, null, writeConcern);
+    }
+
+    public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
+                                JobRestarterConfig jobRestarterConfig, final ReceiverJobDumperConfig receiverJobDumperConfig,
+                                final AccountantJournalConfig accountantJournalConfig, final ArchiverConfig archiverConfig,
+                                final ShardingConfig shardingConfig, final WriteConcern writeConcern) {
+        this(jobsPerIP, maxTasksInMemory, receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig,
+                receiverJobDumperConfig, accountantJournalConfig, archiverConfig, shardingConfig, null, writeConcern);
+    }
+
+    public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
+                                JobRestarterConfig jobRestarterConfig, final ReceiverJobDumperConfig receiverJobDumperConfig,
+                                final AccountantJournalConfig accountantJournalConfig, final ArchiverConfig archiverConfig,
+                                final ShardingConfig shardingConfig, final LaneSchedulingConfig laneSchedulingConfig,
+                                final WriteConcern writeConcern) {
         this.jobsPerIP = jobsPerIP;
         this.maxTasksInMemory = maxTasksInMemory;
         this.receiveTimeoutInterval = receiveTimeoutInterval;
         this.responseTimeoutFromSlaveInMillis = responseTimeoutFromSlaveInMillis;
         this.jobRestarterConfig = jobRestarterConfig;
+        this.receiverJobDumperConfig = receiverJobDumperConfig;
+        this.accountantJournalConfig = accountantJournalConfig;
+        this.archiverConfig = archiverConfig;
+        this.shardingConfig = shardingConfig;
+        this.laneSchedulingConfig = laneSchedulingConfig;
         this.writeConcern = writeConcern;
     }
 
@@ -71,4 +129,24 @@ public class ClusterMasterConfig {
     public JobRestarterConfig getJobRestarterConfig () {
         return jobRestarterConfig;
     }
+
+    public ReceiverJobDumperConfig getReceiverJobDumperConfig () {
+        return receiverJobDumperConfig;
+    }
+
+    public AccountantJournalConfig getAccountantJournalConfig () {
+        return accountantJournalConfig;
+    }
+
+    public ArchiverConfig getArchiverConfig () {
+        return archiverConfig;
+    }
+
+    public ShardingConfig getShardingConfig () {
+        return shardingConfig;
+    }
+
+    public LaneSchedulingConfig getLaneSchedulingConfig () {
+        return laneSchedulingConfig;
+    }
 }
@@ -0,0 +1,8 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+
+/**
+ * Asks the archiver to move the next batch of old documents to the history collections.
+ */
+public class ArchiveDocuments implements Serializable {}
@@ -69,6 +69,11 @@ public class DoneProcessing implements Serializable {
      */
     private final String jobId;
 
+    /**
+     * The IP of the task, the one by which the masters partition the tasks.
+     */
+    private final String ipAddress;
+
     /**
      * The type of job which generates this document.
      */
@@ -161,11 +166,24 @@ public class DoneProcessing implements Serializable {
             final ImageMetaInfo imageMetaInfo,
             final AudioMetaInfo audioMetaInfo, final VideoMetaInfo videoMetaInfo,
             final TextMetaInfo textMetaInfo, final String log) {
+        this(taskID, url, referenceId, jobId, null, taskType, httpRetrieveResponse, subTaskState, imageMetaInfo,
+                audioMetaInfo, videoMetaInfo, textMetaInfo, log);
+    }
+
+    public DoneProcessing(
+            final String taskID, final String url, String referenceId, final String jobId, final String ipAddress,
+            final DocumentReferenceTaskType taskType,
+            final HttpRetrieveResponse httpRetrieveResponse,
+            final ProcessingJobSubTaskStats subTaskState,
+            final ImageMetaInfo imageMetaInfo,
+            final AudioMetaInfo audioMetaInfo, final VideoMetaInfo videoMetaInfo,
+            final TextMetaInfo textMetaInfo, final String log) {
         this.taskType = taskType;
         this.taskID = taskID;
         this.url = url;
         this.referenceId = referenceId;
         this.jobId = jobId;
+        this.ipAddress = ipAddress;
         this.httpResponseCode = (httpRetrieveResponse != null) ? httpRetrieveResponse.getHttpResponseCode() : -1;
         this.httpResponseContentType = (httpRetrieveResponse != null) ? httpRetrieveResponse.getHttpResponseContentType() : null;
         this.httpResponseContentSizeInBytes = (httpRetrieveResponse != null) ? httpRetrieveResponse.getContentSizeInBytes() : -1;
@@ -195,10 +213,28 @@ public class DoneProcessing implements Serializable {
                           final ProcessingJobSubTaskStats stats, final String log,
                           final ImageMetaInfo imageMetaInfo, final AudioMetaInfo audioMetaInfo,
                           final VideoMetaInfo videoMetaInfo, final TextMetaInfo textMetaInfo) {
+        this(taskID, url, referenceId, jobId, null, taskType, httpResponseCode, httpResponseContentType,
+                httpResponseContentSizeInBytes, socketConnectToDownloadStartDurationInMilliSecs,
+                retrievalDurationInMilliSecs, checkingDurationInMilliSecs, sourceIp, httpResponseHeaders,
+                redirectionPath, stats, log, imageMetaInfo, audioMetaInfo, videoMetaInfo, textMetaInfo);
+    }
+
+    public DoneProcessing(final String taskID, final String url, String referenceId, final String jobId,
+                          final String ipAddress,
+                          final DocumentReferenceTaskType taskType, final Integer httpResponseCode,
+                          final String httpResponseContentType, final Long httpResponseContentSizeInBytes,
+                          final Long socketConnectToDownloadStartDurationInMilliSecs,
+                          final Long retrievalDurationInMilliSecs, final Long checkingDurationInMilliSecs,
+                          final String sourceIp, final Map<String, String> httpResponseHeaders,
+                          final List<String> redirectionPath,
+                          final ProcessingJobSubTaskStats stats, final String log,
+                          final ImageMetaInfo imageMetaInfo, final AudioMetaInfo audioMetaInfo,
+                          final VideoMetaInfo videoMetaInfo, final TextMetaInfo textMetaInfo) {
         this.taskID = taskID;
         this.url = url;
         this.referenceId = referenceId;
         this.jobId = jobId;
+        this.ipAddress = ipAddress;
         this.taskType = taskType;
         this.httpResponseCode = httpResponseCode;
         this.httpResponseContentType = httpResponseContentType;
@@ -229,6 +265,10 @@ public class DoneProcessing implements Serializable {
         return jobId;
     }
 
+    public String getIpAddress() {
+        return ipAddress;
+    }
+
     public DocumentReferenceTaskType getTaskType() {
         return taskType;
     }
@@ -305,7 +345,7 @@ public class DoneProcessing implements Serializable {
                                              final ImageMetaInfo newImageMetaInfo,
                                              final AudioMetaInfo newAudioMetaInfo, final VideoMetaInfo newVideoMetaInfo,
                                              final TextMetaInfo newTextMetaInfo) {
-        return new DoneProcessing(taskID, url, referenceId, jobId,
+        return new DoneProcessing(taskID, url, referenceId, jobId, ipAddress,
                 taskType, httpResponseCode,
                 httpResponseContentType, httpResponseContentSizeInBytes,
                 socketConnectToDownloadStartDurationInMilliSecs,
@@ -0,0 +1,30 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+
+/**
+ * Tells the slave that the results of a {@link DoneProcessingBatch} are persisted.
+ */
+public class DoneProcessingAck implements Serializable {
+
+    private final String batchId;
+
+    /**
+     * True if the master has more results waiting to be persisted than it wants to, so the slave sends fewer batches
+     * at once.
+     */
+    private final Boolean lagging;
+
+    public DoneProcessingAck(final String batchId, final Boolean lagging) {
+        this.batchId = batchId;
+        this.lagging = lagging;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public Boolean getLagging() {
+        return lagging;
+    }
+}
@@ -0,0 +1,31 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The results of several tasks sent by a slave. The master acknowledges the batch with a {@link DoneProcessingAck}
+ * once they are persisted; until then the slave resends it.
+ */
+public class DoneProcessingBatch implements Serializable {
+
+    /**
+     * Unique across the slaves and their restarts, so the master recognizes a resent batch.
+     */
+    private final String batchId;
+
+    private final List<DoneProcessing> results;
+
+    public DoneProcessingBatch(final String batchId, final List<DoneProcessing> results) {
+        this.batchId = batchId;
+        this.results = results;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public List<DoneProcessing> getResults() {
+        return results;
+    }
+}
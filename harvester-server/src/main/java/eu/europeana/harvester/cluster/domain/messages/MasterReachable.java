@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+
+/**
+ * Tells the node master that the master can be reached again, so it sends the buffered results and asks for tasks.
+ */
+public class MasterReachable implements Serializable {
+}
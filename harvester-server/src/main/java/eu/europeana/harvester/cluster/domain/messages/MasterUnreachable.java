@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+
+/**
+ * Tells the node master that the master can't be reached, so it drains its tasks until the master returns.
+ */
+public class MasterUnreachable implements Serializable {
+}
@@ -1,6 +1,49 @@
 package eu.europeana.harvester.cluster.domain.messages;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
 
+/**
+ * Message sent by the slaves to ask for new tasks.
+ * The slave advertises how many tasks it can take (its credits) and the IPs it already has connections to.
+ */
 public class RequestTasks implements Serializable {
+
+    /**
+     * Credits value used when the sender doesn't know its capacity, the master sends a default sized bag.
+     */
+    public static final int UNKNOWN_CREDITS = -1;
+
+    /**
+     * The number of tasks the slave can take right now.
+     */
+    private final int credits;
+
+    /**
+     * The IPs the slave has recently downloaded from. Tasks from these IPs are preferred.
+     */
+    private final Set<String> warmIPs;
+
+    public RequestTasks() {
+        this.credits = UNKNOWN_CREDITS;
+        this.warmIPs = Collections.emptySet();
+    }
+
+    public RequestTasks(final int credits, final Set<String> warmIPs) {
+        this.credits = credits;
+        this.warmIPs = (null == warmIPs) ? Collections.<String>emptySet() : warmIPs;
+    }
+
+    public int getCredits() {
+        return credits;
+    }
+
+    public Set<String> getWarmIPs() {
+        return warmIPs;
+    }
+
+    public boolean hasKnownCredits() {
+        return credits != UNKNOWN_CREDITS;
+    }
 }
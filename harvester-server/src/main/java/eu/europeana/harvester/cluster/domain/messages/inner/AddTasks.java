@@ -0,0 +1,27 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Adds all the tasks loaded in a cycle for a priority with one message, instead of one {@link AddTask} per task.
+ */
+public class AddTasks implements Serializable {
+
+    private final Integer jobPriority;
+
+    private final List<RetrieveUrl> tasks;
+
+    public AddTasks(Integer jobPriority, List<RetrieveUrl> tasks) {
+        this.jobPriority = jobPriority;
+        this.tasks = tasks;
+    }
+
+    public Integer getJobPriority() { return jobPriority; }
+
+    public List<RetrieveUrl> getTasks() {
+        return tasks;
+    }
+}
@@ -0,0 +1,32 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import akka.actor.Address;
+import eu.europeana.harvester.cluster.master.sharding.IpShardRing;
+
+import java.io.Serializable;
+
+/**
+ * Sent to the loader of a master shard when the masters of the cluster changed, with the new partition of the IPs.
+ */
+public class ChangeIpShardRing implements Serializable {
+
+    private final IpShardRing ring;
+
+    /**
+     * The address of the master shard the loader belongs to.
+     */
+    private final Address shard;
+
+    public ChangeIpShardRing(IpShardRing ring, Address shard) {
+        this.ring = ring;
+        this.shard = shard;
+    }
+
+    public IpShardRing getRing() {
+        return ring;
+    }
+
+    public Address getShard() {
+        return shard;
+    }
+}
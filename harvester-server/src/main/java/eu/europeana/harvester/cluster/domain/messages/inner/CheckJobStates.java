@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * The tick on which the loader applies the pauses and the resumes of jobs asked by the clients.
+ */
+public class CheckJobStates implements Serializable {
+}
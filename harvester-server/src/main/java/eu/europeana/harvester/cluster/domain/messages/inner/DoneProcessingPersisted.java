@@ -0,0 +1,36 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * Tells the receiver that a job dumper is done with its part of a batch of results.
+ */
+public class DoneProcessingPersisted implements Serializable {
+
+    private final String batchId;
+
+    private final int numberOfResults;
+
+    /**
+     * False if the dumper failed to write the results.
+     */
+    private final boolean successful;
+
+    public DoneProcessingPersisted(final String batchId, final int numberOfResults, final boolean successful) {
+        this.batchId = batchId;
+        this.numberOfResults = numberOfResults;
+        this.successful = successful;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public int getNumberOfResults() {
+        return numberOfResults;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+}
@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * Tells a job dumper to persist all the buffered done processing messages.
+ */
+public class FlushDoneProcessing implements Serializable {
+}
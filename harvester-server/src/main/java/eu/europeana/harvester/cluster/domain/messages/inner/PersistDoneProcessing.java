@@ -0,0 +1,30 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * The part of a batch of results sent by a slave which a job dumper persists. The dumper answers with
+ * {@link DoneProcessingPersisted} once it tried to write them.
+ */
+public class PersistDoneProcessing implements Serializable {
+
+    private final String batchId;
+
+    private final List<DoneProcessing> results;
+
+    public PersistDoneProcessing(final String batchId, final List<DoneProcessing> results) {
+        this.batchId = batchId;
+        this.results = results;
+    }
+
+    public String getBatchId() {
+        return batchId;
+    }
+
+    public List<DoneProcessing> getResults() {
+        return results;
+    }
+}
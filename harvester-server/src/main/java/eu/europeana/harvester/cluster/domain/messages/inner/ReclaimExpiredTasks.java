@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * The tick on which the accountant puts back in the queue the started tasks which took too long.
+ */
+public class ReclaimExpiredTasks implements Serializable {
+}
@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * The tick on which the loader reads all the machine resource references again and resends all their limits.
+ */
+public class ResyncMachineResources implements Serializable {
+}
@@ -0,0 +1,428 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import akka.serialization.JSerializer;
+import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.domain.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Akka serializer for the messages exchanged for every task between the master and the slaves
+ * (RetrieveUrl, BagOfTasks, DoneProcessing, StartedTask, RequestTasks, DoneProcessingBatch and DoneProcessingAck).
+ * Each message starts with a type tag followed by its fields in a fixed order. The field order below is the schema:
+ * any change to it (or to the order of the constants of a serialized enum) must be deployed on the master and on
+ * all the slaves at the same time.
+ */
+public class ClusterMessageSerializer extends JSerializer {
+
+    /**
+     * The identifier of the serializer, unique in the actor system. 0 - 40 are reserved by Akka.
+     */
+    public static final int IDENTIFIER = 7316;
+
+    private static final byte RETRIEVE_URL = 1;
+    private static final byte BAG_OF_TASKS = 2;
+    private static final byte DONE_PROCESSING = 3;
+    private static final byte STARTED_TASK = 4;
+    private static final byte REQUEST_TASKS = 5;
+    private static final byte DONE_PROCESSING_BATCH = 6;
+    private static final byte DONE_PROCESSING_ACK = 7;
+
+    private static final int INITIAL_BUFFER_SIZE = 256;
+
+    private static final DocumentReferenceTaskType[] TASK_TYPES = DocumentReferenceTaskType.values();
+    private static final ProcessingJobSubTaskType[] SUB_TASK_TYPES = ProcessingJobSubTaskType.values();
+    private static final ProcessingJobRetrieveSubTaskState[] RETRIEVE_STATES = ProcessingJobRetrieveSubTaskState.values();
+    private static final ProcessingJobSubTaskState[] SUB_TASK_STATES = ProcessingJobSubTaskState.values();
+    private static final ImageOrientation[] ORIENTATIONS = ImageOrientation.values();
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public boolean includeManifest() {
+        return false;
+    }
+
+    @Override
+    public byte[] toBinary(final Object message) {
+        final CompactBinaryWriter writer = new CompactBinaryWriter(INITIAL_BUFFER_SIZE);
+
+        if (message instanceof RetrieveUrl) {
+            writer.writeByte(RETRIEVE_URL);
+            writeRetrieveUrl(writer, (RetrieveUrl) message);
+        } else if (message instanceof BagOfTasks) {
+            writer.writeByte(BAG_OF_TASKS);
+            final List<RetrieveUrl> tasks = ((BagOfTasks) message).getTasks();
+            writer.writeSize(tasks, null == tasks ? 0 : tasks.size());
+            if (null != tasks) {
+                for (final RetrieveUrl task : tasks) {
+                    writeRetrieveUrl(writer, task);
+                }
+            }
+        } else if (message instanceof DoneProcessing) {
+            writer.writeByte(DONE_PROCESSING);
+            writeDoneProcessing(writer, (DoneProcessing) message);
+        } else if (message instanceof StartedTask) {
+            writer.writeByte(STARTED_TASK);
+            writer.writeString(((StartedTask) message).getTaskID());
+        } else if (message instanceof RequestTasks) {
+            writer.writeByte(REQUEST_TASKS);
+            final RequestTasks requestTasks = (RequestTasks) message;
+            writer.writeVarLong(requestTasks.getCredits());
+            writer.writeStringList(new ArrayList<>(requestTasks.getWarmIPs()));
+        } else if (message instanceof DoneProcessingBatch) {
+            writer.writeByte(DONE_PROCESSING_BATCH);
+            final DoneProcessingBatch batch = (DoneProcessingBatch) message;
+            writer.writeString(batch.getBatchId());
+            final List<DoneProcessing> results = batch.getResults();
+            writer.writeSize(results, null == results ? 0 : results.size());
+            if (null != results) {
+                for (final DoneProcessing doneProcessing : results) {
+                    writeDoneProcessing(writer, doneProcessing);
+                }
+            }
+        } else if (message instanceof DoneProcessingAck) {
+            writer.writeByte(DONE_PROCESSING_ACK);
+            final DoneProcessingAck ack = (DoneProcessingAck) message;
+            writer.writeString(ack.getBatchId());
+            writer.writeBoolean(ack.getLagging());
+        } else {
+            throw new IllegalArgumentException("ClusterMessageSerializer cannot serialize " +
+                    (null == message ? "null" : message.getClass().getName()));
+        }
+
+        return writer.toByteArray();
+    }
+
+    @Override
+    public Object fromBinaryJava(final byte[] bytes, final Class<?> manifest) {
+        final CompactBinaryReader reader = new CompactBinaryReader(bytes);
+        final int tag = reader.readByte();
+
+        final Object message;
+        switch (tag) {
+            case RETRIEVE_URL:
+                message = readRetrieveUrl(reader);
+                break;
+            case BAG_OF_TASKS:
+                final int size = reader.readSize();
+                List<RetrieveUrl> tasks = null;
+                if (size >= 0) {
+                    tasks = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        tasks.add(readRetrieveUrl(reader));
+                    }
+                }
+                message = new BagOfTasks(tasks);
+                break;
+            case DONE_PROCESSING:
+                message = readDoneProcessing(reader);
+                break;
+            case STARTED_TASK:
+                message = new StartedTask(reader.readString());
+                break;
+            case REQUEST_TASKS:
+                final int credits = (int) reader.readVarLong();
+                message = new RequestTasks(credits, new HashSet<>(reader.readStringList()));
+                break;
+            case DONE_PROCESSING_BATCH:
+                final String batchId = reader.readString();
+                final int numberOfResults = reader.readSize();
+                List<DoneProcessing> results = null;
+                if (numberOfResults >= 0) {
+                    results = new ArrayList<>(numberOfResults);
+                    for (int i = 0; i < numberOfResults; i++) {
+                        results.add(readDoneProcessing(reader));
+                    }
+                }
+                message = new DoneProcessingBatch(batchId, results);
+                break;
+            case DONE_PROCESSING_ACK:
+                message = new DoneProcessingAck(reader.readString(), reader.readBoolean());
+                break;
+            default:
+                throw new IllegalArgumentException("ClusterMessageSerializer: unknown message type " + tag);
+        }
+
+        if (reader.hasRemaining()) {
+            throw new IllegalArgumentException("ClusterMessageSerializer: trailing bytes after " + message.getClass().getSimpleName());
+        }
+        return message;
+    }
+
+    private static void writeRetrieveUrl(final CompactBinaryWriter writer, final RetrieveUrl retrieveUrl) {
+        writer.writeString(retrieveUrl.getId());
+        writer.writeString(retrieveUrl.getUrl());
+        writer.writeEnum(retrieveUrl.getTaskType());
+        writeLimits(writer, retrieveUrl.getLimits());
+        writer.writeString(retrieveUrl.getJobId());
+        writer.writeString(retrieveUrl.getReferenceId());
+        writer.writeStringMap(retrieveUrl.getHeaders());
+        writeDocumentReferenceTask(writer, retrieveUrl.getDocumentReferenceTask());
+        writer.writeString(retrieveUrl.getIpAddress());
+        writeReferenceOwner(writer, retrieveUrl.getReferenceOwner());
+    }
+
+    private static RetrieveUrl readRetrieveUrl(final CompactBinaryReader reader) {
+        return new RetrieveUrl(reader.readString(), reader.readString(), reader.readEnum(TASK_TYPES),
+                readLimits(reader), reader.readString(), reader.readString(), reader.readStringMap(),
+                readDocumentReferenceTask(reader), reader.readString(), readReferenceOwner(reader));
+    }
+
+    private static void writeDoneProcessing(final CompactBinaryWriter writer, final DoneProcessing doneProcessing) {
+        writer.writeString(doneProcessing.getTaskID());
+        writer.writeString(doneProcessing.getUrl());
+        writer.writeString(doneProcessing.getReferenceId());
+        writer.writeString(doneProcessing.getJobId());
+        writer.writeString(doneProcessing.getIpAddress());
+        writer.writeEnum(doneProcessing.getTaskType());
+        writer.writeInteger(doneProcessing.getHttpResponseCode());
+        writer.writeString(doneProcessing.getHttpResponseContentType());
+        writer.writeLong(doneProcessing.getHttpResponseContentSizeInBytes());
+        writer.writeLong(doneProcessing.getSocketConnectToDownloadStartDurationInMilliSecs());
+        writer.writeLong(doneProcessing.getRetrievalDurationInMilliSecs());
+        writer.writeLong(doneProcessing.getCheckingDurationInMilliSecs());
+        writer.writeString(doneProcessing.getSourceIp());
+        writer.writeStringMap(doneProcessing.getHttpResponseHeaders());
+        writer.writeStringList(doneProcessing.getRedirectionPath());
+        writeStats(writer, doneProcessing.getStats());
+        writer.writeString(doneProcessing.getLog());
+        writeImageMetaInfo(writer, doneProcessing.getImageMetaInfo());
+        writeAudioMetaInfo(writer, doneProcessing.getAudioMetaInfo());
+        writeVideoMetaInfo(writer, doneProcessing.getVideoMetaInfo());
+        writeTextMetaInfo(writer, doneProcessing.getTextMetaInfo());
+    }
+
+    private static DoneProcessing readDoneProcessing(final CompactBinaryReader reader) {
+        return new DoneProcessing(reader.readString(), reader.readString(), reader.readString(), reader.readString(),
+                reader.readString(), reader.readEnum(TASK_TYPES), reader.readInteger(), reader.readString(), reader.readLong(),
+                reader.readLong(), reader.readLong(), reader.readLong(), reader.readString(),
+                reader.readStringMap(), reader.readStringList(), readStats(reader), reader.readString(),
+                readImageMetaInfo(reader), readAudioMetaInfo(reader), readVideoMetaInfo(reader), readTextMetaInfo(reader));
+    }
+
+    private static void writeLimits(final CompactBinaryWriter writer, final ProcessingJobLimits limits) {
+        writer.writeBoolean(null == limits ? null : Boolean.TRUE);
+        if (null == limits) {
+            return;
+        }
+        writer.writeLong(limits.getRetrievalTerminationThresholdTimeLimitInMillis());
+        writer.writeLong(limits.getRetrievalTerminationThresholdReadPerSecondInBytes());
+        writer.writeLong(limits.getRetrievalConnectionTimeoutInMillis());
+        writer.writeInteger(limits.getRetrievalMaxNrOfRedirects());
+        writer.writeLong(limits.getProcessingTerminationThresholdTimeLimitInMillis());
+    }
+
+    private static ProcessingJobLimits readLimits(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new ProcessingJobLimits(reader.readLong(), reader.readLong(), reader.readLong(), reader.readInteger(),
+                reader.readLong());
+    }
+
+    private static void writeDocumentReferenceTask(final CompactBinaryWriter writer,
+                                                   final ProcessingJobTaskDocumentReference task) {
+        writer.writeBoolean(null == task ? null : Boolean.TRUE);
+        if (null == task) {
+            return;
+        }
+        writer.writeEnum(task.getTaskType());
+        writer.writeString(task.getSourceDocumentReferenceID());
+
+        final List<ProcessingJobSubTask> subTasks = task.getProcessingTasks();
+        writer.writeSize(subTasks, null == subTasks ? 0 : subTasks.size());
+        if (null == subTasks) {
+            return;
+        }
+        for (final ProcessingJobSubTask subTask : subTasks) {
+            writer.writeBoolean(null == subTask ? null : Boolean.TRUE);
+            if (null == subTask) {
+                continue;
+            }
+            writer.writeEnum(subTask.getTaskType());
+
+            final GenericSubTaskConfiguration config = subTask.getConfig();
+            final ThumbnailConfig thumbnailConfig = (null == config) ? null : config.getThumbnailConfig();
+            writer.writeByte(null == config ? 0 : (null == thumbnailConfig ? 1 : 2));
+            if (null != thumbnailConfig) {
+                writer.writeInteger(thumbnailConfig.getWidth());
+                writer.writeInteger(thumbnailConfig.getHeight());
+            }
+        }
+    }
+
+    private static ProcessingJobTaskDocumentReference readDocumentReferenceTask(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        final DocumentReferenceTaskType taskType = reader.readEnum(TASK_TYPES);
+        final String sourceDocumentReferenceID = reader.readString();
+
+        final int size = reader.readSize();
+        List<ProcessingJobSubTask> subTasks = null;
+        if (size >= 0) {
+            subTasks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                if (null == reader.readBoolean()) {
+                    subTasks.add(null);
+                    continue;
+                }
+                final ProcessingJobSubTaskType subTaskType = reader.readEnum(SUB_TASK_TYPES);
+
+                final GenericSubTaskConfiguration config;
+                switch (reader.readByte()) {
+                    case 0:
+                        config = null;
+                        break;
+                    case 1:
+                        config = new GenericSubTaskConfiguration();
+                        break;
+                    default:
+                        config = new GenericSubTaskConfiguration(new ThumbnailConfig(reader.readInteger(), reader.readInteger()));
+                }
+                subTasks.add(new ProcessingJobSubTask(subTaskType, config));
+            }
+        }
+        return new ProcessingJobTaskDocumentReference(taskType, sourceDocumentReferenceID, subTasks);
+    }
+
+    private static void writeReferenceOwner(final CompactBinaryWriter writer, final ReferenceOwner owner) {
+        writer.writeBoolean(null == owner ? null : Boolean.TRUE);
+        if (null == owner) {
+            return;
+        }
+        writer.writeString(owner.getProviderId());
+        writer.writeString(owner.getCollectionId());
+        writer.writeString(owner.getRecordId());
+        writer.writeString(owner.getExecutionId());
+    }
+
+    private static ReferenceOwner readReferenceOwner(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new ReferenceOwner(reader.readString(), reader.readString(), reader.readString(), reader.readString());
+    }
+
+    private static void writeStats(final CompactBinaryWriter writer, final ProcessingJobSubTaskStats stats) {
+        writer.writeBoolean(null == stats ? null : Boolean.TRUE);
+        if (null == stats) {
+            return;
+        }
+        writer.writeString(stats.getRetrieveLog());
+        writer.writeEnum(stats.getRetrieveState());
+        writer.writeString(stats.getColorExtractionLog());
+        writer.writeEnum(stats.getColorExtractionState());
+        writer.writeString(stats.getMetaExtractionLog());
+        writer.writeEnum(stats.getMetaExtractionState());
+        writer.writeString(stats.getThumbnailGenerationLog());
+        writer.writeEnum(stats.getThumbnailGenerationState());
+        writer.writeString(stats.getThumbnailStorageLog());
+        writer.writeEnum(stats.getThumbnailStorageState());
+    }
+
+    private static ProcessingJobSubTaskStats readStats(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new ProcessingJobSubTaskStats(reader.readString(), reader.readEnum(RETRIEVE_STATES),
+                reader.readString(), reader.readEnum(SUB_TASK_STATES),
+                reader.readString(), reader.readEnum(SUB_TASK_STATES),
+                reader.readString(), reader.readEnum(SUB_TASK_STATES),
+                reader.readString(), reader.readEnum(SUB_TASK_STATES));
+    }
+
+    private static void writeImageMetaInfo(final CompactBinaryWriter writer, final ImageMetaInfo metaInfo) {
+        writer.writeBoolean(null == metaInfo ? null : Boolean.TRUE);
+        if (null == metaInfo) {
+            return;
+        }
+        writer.writeInteger(metaInfo.getWidth());
+        writer.writeInteger(metaInfo.getHeight());
+        writer.writeString(metaInfo.getMimeType());
+        writer.writeString(metaInfo.getFileFormat());
+        writer.writeString(metaInfo.getColorSpace());
+        writer.writeLong(metaInfo.getFileSize());
+        writer.writeStringArray(metaInfo.getColorPalette());
+        writer.writeEnum(metaInfo.getOrientation());
+    }
+
+    private static ImageMetaInfo readImageMetaInfo(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new ImageMetaInfo(reader.readInteger(), reader.readInteger(), reader.readString(), reader.readString(),
+                reader.readString(), reader.readLong(), reader.readStringArray(), reader.readEnum(ORIENTATIONS));
+    }
+
+    private static void writeAudioMetaInfo(final CompactBinaryWriter writer, final AudioMetaInfo metaInfo) {
+        writer.writeBoolean(null == metaInfo ? null : Boolean.TRUE);
+        if (null == metaInfo) {
+            return;
+        }
+        writer.writeInteger(metaInfo.getSampleRate());
+        writer.writeInteger(metaInfo.getBitRate());
+        writer.writeLong(metaInfo.getDuration());
+        writer.writeString(metaInfo.getMimeType());
+        writer.writeString(metaInfo.getFileFormat());
+        writer.writeLong(metaInfo.getFileSize());
+        writer.writeInteger(metaInfo.getChannels());
+        writer.writeInteger(metaInfo.getBitDepth());
+    }
+
+    private static AudioMetaInfo readAudioMetaInfo(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new AudioMetaInfo(reader.readInteger(), reader.readInteger(), reader.readLong(), reader.readString(),
+                reader.readString(), reader.readLong(), reader.readInteger(), reader.readInteger());
+    }
+
+    private static void writeVideoMetaInfo(final CompactBinaryWriter writer, final VideoMetaInfo metaInfo) {
+        writer.writeBoolean(null == metaInfo ? null : Boolean.TRUE);
+        if (null == metaInfo) {
+            return;
+        }
+        writer.writeInteger(metaInfo.getWidth());
+        writer.writeInteger(metaInfo.getHeight());
+        writer.writeLong(metaInfo.getDuration());
+        writer.writeString(metaInfo.getMimeType());
+        writer.writeDouble(metaInfo.getFrameRate());
+        writer.writeLong(metaInfo.getFileSize());
+        writer.writeString(metaInfo.getCodec());
+        writer.writeString(metaInfo.getResolution());
+        writer.writeInteger(metaInfo.getBitRate());
+    }
+
+    private static VideoMetaInfo readVideoMetaInfo(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new VideoMetaInfo(reader.readInteger(), reader.readInteger(), reader.readLong(), reader.readString(),
+                reader.readDouble(), reader.readLong(), reader.readString(), reader.readString(), reader.readInteger());
+    }
+
+    private static void writeTextMetaInfo(final CompactBinaryWriter writer, final TextMetaInfo metaInfo) {
+        writer.writeBoolean(null == metaInfo ? null : Boolean.TRUE);
+        if (null == metaInfo) {
+            return;
+        }
+        writer.writeString(metaInfo.getMimeType());
+        writer.writeLong(metaInfo.getFileSize());
+        writer.writeInteger(metaInfo.getResolution());
+        writer.writeBoolean(metaInfo.getIsSearchable());
+    }
+
+    private static TextMetaInfo readTextMetaInfo(final CompactBinaryReader reader) {
+        if (null == reader.readBoolean()) {
+            return null;
+        }
+        return new TextMetaInfo(reader.readString(), reader.readLong(), reader.readInteger(), reader.readBoolean());
+    }
+}
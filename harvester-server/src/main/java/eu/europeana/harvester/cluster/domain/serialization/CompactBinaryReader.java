@@ -0,0 +1,139 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads values written by {@link CompactBinaryWriter}.
+ */
+class CompactBinaryReader {
+
+    private final byte[] bytes;
+
+    private int position;
+
+    CompactBinaryReader(final byte[] bytes) {
+        this.bytes = bytes;
+        this.position = 0;
+    }
+
+    int readByte() {
+        if (position >= bytes.length) {
+            throw new IllegalArgumentException("Unexpected end of message after " + bytes.length + " bytes");
+        }
+        return bytes[position++] & 0xFF;
+    }
+
+    long readVarLong() {
+        long zigZag = 0;
+        int shift = 0;
+        int current;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Malformed variable length number at byte " + position);
+            }
+            current = readByte();
+            zigZag |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+
+    Integer readInteger() {
+        return (0 == readByte()) ? null : (int) readVarLong();
+    }
+
+    Long readLong() {
+        return (0 == readByte()) ? null : readVarLong();
+    }
+
+    Double readDouble() {
+        if (0 == readByte()) {
+            return null;
+        }
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits = (bits << 8) | readByte();
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    Boolean readBoolean() {
+        final int value = readByte();
+        return (0 == value) ? null : (2 == value);
+    }
+
+    String readString() {
+        final int length = (int) readVarLong() - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > bytes.length - position) {
+            throw new IllegalArgumentException("String of " + length + " bytes overflows the message at byte " + position);
+        }
+        final String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    <E extends Enum<E>> E readEnum(final E[] values) {
+        final int ordinal = (int) readVarLong() - 1;
+        if (ordinal < 0) {
+            return null;
+        }
+        if (ordinal >= values.length) {
+            throw new IllegalArgumentException("Unknown ordinal " + ordinal + " for " + values.getClass().getComponentType().getSimpleName());
+        }
+        return values[ordinal];
+    }
+
+    /**
+     * @return the size of the collection which follows or -1 if it's null
+     */
+    int readSize() {
+        return (int) readVarLong() - 1;
+    }
+
+    List<String> readStringList() {
+        final int size = readSize();
+        if (size < 0) {
+            return null;
+        }
+        final List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    String[] readStringArray() {
+        final int size = readSize();
+        if (size < 0) {
+            return null;
+        }
+        final String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = readString();
+        }
+        return values;
+    }
+
+    Map<String, String> readStringMap() {
+        final int size = readSize();
+        if (size < 0) {
+            return null;
+        }
+        final Map<String, String> values = new HashMap<>(Math.max(4, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            values.put(readString(), readString());
+        }
+        return values;
+    }
+
+    boolean hasRemaining() {
+        return position < bytes.length;
+    }
+}
@@ -0,0 +1,126 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes values in the compact binary format used by {@link ClusterMessageSerializer}.
+ * Integers are written as variable length zig-zag numbers and every nullable value is prefixed by
+ * its presence (strings, collections and enums fold the presence into their length or ordinal).
+ */
+class CompactBinaryWriter {
+
+    private final ByteArrayOutputStream out;
+
+    CompactBinaryWriter(final int initialSize) {
+        this.out = new ByteArrayOutputStream(initialSize);
+    }
+
+    void writeByte(final int value) {
+        out.write(value);
+    }
+
+    void writeVarLong(final long value) {
+        long zigZag = (value << 1) ^ (value >> 63);
+        while ((zigZag & ~0x7FL) != 0) {
+            out.write((int) ((zigZag & 0x7F) | 0x80));
+            zigZag >>>= 7;
+        }
+        out.write((int) zigZag);
+    }
+
+    void writeInteger(final Integer value) {
+        if (null == value) {
+            out.write(0);
+        } else {
+            out.write(1);
+            writeVarLong(value);
+        }
+    }
+
+    void writeLong(final Long value) {
+        if (null == value) {
+            out.write(0);
+        } else {
+            out.write(1);
+            writeVarLong(value);
+        }
+    }
+
+    void writeDouble(final Double value) {
+        if (null == value) {
+            out.write(0);
+        } else {
+            out.write(1);
+            final long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                out.write((int) (bits >>> shift));
+            }
+        }
+    }
+
+    void writeBoolean(final Boolean value) {
+        out.write(null == value ? 0 : (value ? 2 : 1));
+    }
+
+    /**
+     * Writes the length + 1 (0 for null) followed by the UTF-8 bytes.
+     */
+    void writeString(final String value) {
+        if (null == value) {
+            writeVarLong(0);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes the ordinal + 1 (0 for null). Reordering the constants of a serialized enum changes the format.
+     */
+    void writeEnum(final Enum<?> value) {
+        writeVarLong(null == value ? 0 : value.ordinal() + 1);
+    }
+
+    /**
+     * Writes the size + 1 (0 for null), the caller writes the elements.
+     */
+    void writeSize(final Object collection, final int size) {
+        writeVarLong(null == collection ? 0 : size + 1);
+    }
+
+    void writeStringList(final List<String> values) {
+        writeSize(values, null == values ? 0 : values.size());
+        if (null != values) {
+            for (final String value : values) {
+                writeString(value);
+            }
+        }
+    }
+
+    void writeStringArray(final String[] values) {
+        writeSize(values, null == values ? 0 : values.length);
+        if (null != values) {
+            for (final String value : values) {
+                writeString(value);
+            }
+        }
+    }
+
+    void writeStringMap(final Map<String, String> values) {
+        writeSize(values, null == values ? 0 : values.size());
+        if (null != values) {
+            for (final Map.Entry<String, String> entry : values.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+    }
+
+    byte[] toByteArray() {
+        return out.toByteArray();
+    }
+}
@@ -2,6 +2,7 @@ package eu.europeana.harvester.cluster.master;
 
 import akka.actor.ActorRef;
 import akka.actor.Address;
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.cluster.Cluster;
@@ -10,6 +11,7 @@ import akka.cluster.ClusterEvent.MemberEvent;
 import akka.cluster.ClusterEvent.MemberRemoved;
 import akka.cluster.ClusterEvent.MemberUp;
 import akka.cluster.ClusterEvent.UnreachableMember;
+import akka.dispatch.ExecutionContexts;
 import akka.remote.AssociatedEvent;
 import akka.remote.DisassociatedEvent;
 import com.codahale.metrics.Gauge;
@@ -18,14 +20,17 @@ import eu.europeana.harvester.cluster.domain.DefaultLimits;
 import eu.europeana.harvester.cluster.domain.IPExceptions;
 import eu.europeana.harvester.cluster.domain.messages.*;
 import eu.europeana.harvester.cluster.master.accountants.AccountantActor;
+import eu.europeana.harvester.cluster.master.archiver.ArchiverActor;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterActor;
 import eu.europeana.harvester.cluster.master.limiter.IPLimiterAccountantActor;
 import eu.europeana.harvester.cluster.master.limiter.domain.IPLimiterConfig;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
 import eu.europeana.harvester.cluster.master.loaders.JobLoaderMasterActor;
+import eu.europeana.harvester.cluster.master.metrics.CollectionSizeGauge;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.cluster.master.receivers.ReceiverMasterActor;
+import eu.europeana.harvester.cluster.master.sharding.IpShardRouterActor;
 import eu.europeana.harvester.db.interfaces.*;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.joda.time.DateTime;
@@ -38,7 +43,12 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ClusterMasterActor extends UntypedActor {
 
@@ -83,6 +93,16 @@ public class ClusterMasterActor extends UntypedActor {
      */
     private ActorRef jobRestarterActor;
 
+    /**
+     *  moves the finished jobs and the old statistics to the history collections, null if disabled
+     */
+    private ActorRef archiverActor;
+
+    /**
+     * Keeps only the slave messages of the IPs owned by this master, null if the master isn't sharded.
+     */
+    private ActorRef shardRouterActor;
+
     /**
      * Contains all the configuration needed by this actor.
      */
@@ -163,6 +183,20 @@ public class ClusterMasterActor extends UntypedActor {
 
     private  ActorRef masterLimiter;
 
+    private static final long DATABASE_METRICS_REFRESH_INTERVAL_IN_SECONDS = 60;
+
+    private Cancellable databaseMetricsRefresh;
+
+    /**
+     * Runs the refreshes of the database metrics, which block on the database, away from the dispatcher of the actors.
+     */
+    private ExecutorService databaseMetricsExecutor;
+
+    /**
+     * Skips a refresh of the database metrics while the previous one is still running.
+     */
+    private final AtomicBoolean refreshingDatabaseMetrics = new AtomicBoolean(false);
+
     public ClusterMasterActor (final ClusterMasterConfig clusterMasterConfig,
                                final IPExceptions ipExceptions,
                                final ProcessingJobDao processingJobDao,
@@ -205,7 +239,9 @@ public class ClusterMasterActor extends UntypedActor {
 
         monitoringActor = getContext().system().actorOf(Props.create(ClusterMasterMonitoringActor.class), "monitoring");
 
-        accountantActor = getContext().system().actorOf(Props.create(AccountantActor.class,defaultLimits), "accountant");
+        accountantActor = getContext().system().actorOf(Props.create(AccountantActor.class,defaultLimits,
+                clusterMasterConfig.getAccountantJournalConfig(), clusterMasterConfig.getLaneSchedulingConfig()),
+                "accountant");
 
         receiverActor = getContext().system().actorOf(Props.create(ReceiverMasterActor.class, clusterMasterConfig,
                 accountantActor, monitoringActor, processingJobDao, historicalProcessingJobDao,
@@ -220,14 +256,35 @@ public class ClusterMasterActor extends UntypedActor {
                 sourceDocumentProcessingStatisticsDao, sourceDocumentReferenceDao, machineResourceReferenceDao,
                 defaultLimits, ipsWithJobs, ipExceptions), "jobLoader");
 
-        jobRestarterActor = getContext().system().actorOf(Props.create(JobRestarterActor.class,
-                                                                       clusterMasterConfig.getJobRestarterConfig(),
-                                                                       sourceDocumentReferenceDao,
+        if (null != clusterMasterConfig.getShardingConfig()) {
+            shardRouterActor = IpShardRouterActor.createActor(getContext().system(), clusterMasterConfig.getShardingConfig(),
+                    accountantActor, masterLimiter, receiverActor, jobLoaderActor);
+        }
+
+        // with several masters only one of them restarts and archives the jobs of the whole cluster
+        final boolean runsGlobalTasks = null == clusterMasterConfig.getShardingConfig() ||
+                clusterMasterConfig.getShardingConfig().getRunsGlobalTasks();
+
+        if (runsGlobalTasks) {
+            jobRestarterActor = getContext().system().actorOf(Props.create(JobRestarterActor.class,
+                                                                           clusterMasterConfig.getJobRestarterConfig(),
+                                                                           sourceDocumentReferenceDao,
+                                                                           processingJobDao,
+                                                                           sourceDocumentProcessingProfileDao
+                                                                           ),
+                                                              "jobRestarter"
+                                                             );
+        }
+
+        if (runsGlobalTasks && null != clusterMasterConfig.getArchiverConfig()) {
+            archiverActor = getContext().system().actorOf(Props.create(ArchiverActor.class,
+                                                                       clusterMasterConfig.getArchiverConfig(),
                                                                        processingJobDao,
-                                                                       sourceDocumentProcessingProfileDao
+                                                                       sourceDocumentProcessingStatisticsDao
                                                                        ),
-                                                          "jobRestarter"
+                                                          "archiver"
                                                          );
+        }
 
 
 
@@ -257,119 +314,113 @@ public class ClusterMasterActor extends UntypedActor {
     }
 
     private void setMasterDatabaseMetrics() {
-        MasterMetrics.MasterDatabase.HistoricalProcessingJobCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);
-            Long lastValueComputed = 0l;
+        MasterMetrics.MasterDatabase.HistoricalProcessingJobCollectionSize.registerHandler(MasterMetrics.MasterDatabase.HistoricalProcessingJobCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.ProcessingJobCollectionSize.registerHandler(MasterMetrics.MasterDatabase.ProcessingJobCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.LastSourceDocumentProcessingStatisticsCollectionSize.registerHandler(MasterMetrics.MasterDatabase.LastSourceDocumentProcessingStatisticsCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.MachineResourceReferenceCollectionSize.registerHandler(MasterMetrics.MasterDatabase.MachineResourceReferenceCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.SourceDocumentProcessingStatisticsCollectionSize.registerHandler(MasterMetrics.MasterDatabase.SourceDocumentProcessingStatisticsCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.SourceDocumentReferenceCollectionSize.registerHandler(MasterMetrics.MasterDatabase.SourceDocumentReferenceCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.SourceDocumentReferenceMetaInfoCollectionSize.registerHandler(MasterMetrics.MasterDatabase.SourceDocumentReferenceMetaInfoCollectionSizeEstimate);
+        MasterMetrics.MasterDatabase.SourceDocumentReferenceProcessingProfileCollectionSize.registerHandler(MasterMetrics.MasterDatabase.SourceDocumentReferenceProcessingProfileCollectionSizeEstimate);
+
+        // the estimates are read from the collection statistics, outside of the reporter thread
+        databaseMetricsExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
             @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = historicalProcessingJobDao.getCount();
-                }
-                return lastValueComputed;
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "master-database-metrics");
+                thread.setDaemon(true);
+                return thread;
             }
         });
+        databaseMetricsRefresh = getContext().system().scheduler().schedule(
+                scala.concurrent.duration.Duration.Zero(),
+                scala.concurrent.duration.Duration.create(DATABASE_METRICS_REFRESH_INTERVAL_IN_SECONDS, TimeUnit.SECONDS),
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        refreshMasterDatabaseMetrics();
+                    }
+                },
+                ExecutionContexts.fromExecutorService(databaseMetricsExecutor));
+    }
 
-        MasterMetrics.MasterDatabase.ProcessingJobCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = processingJobDao.getCount();
+    private void refreshMasterDatabaseMetrics() {
+        if (!refreshingDatabaseMetrics.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshEstimate(MasterMetrics.MasterDatabase.HistoricalProcessingJobCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return historicalProcessingJobDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
-
-        MasterMetrics.MasterDatabase.LastSourceDocumentProcessingStatisticsCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = lastSourceDocumentProcessingStatisticsDao.getCount();
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.ProcessingJobCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return processingJobDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
-
-        MasterMetrics.MasterDatabase.MachineResourceReferenceCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = machineResourceReferenceDao.getCount();
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.LastSourceDocumentProcessingStatisticsCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return lastSourceDocumentProcessingStatisticsDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
-
-        MasterMetrics.MasterDatabase.SourceDocumentProcessingStatisticsCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = sourceDocumentProcessingStatisticsDao.getCount();
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.MachineResourceReferenceCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return machineResourceReferenceDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
-
-        MasterMetrics.MasterDatabase.SourceDocumentReferenceCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = sourceDocumentReferenceDao.getCount();
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.SourceDocumentProcessingStatisticsCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return sourceDocumentProcessingStatisticsDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
-
-        MasterMetrics.MasterDatabase.SourceDocumentReferenceMetaInfoCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = sourceDocumentReferenceMetaInfoDao.getCount();
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.SourceDocumentReferenceCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return sourceDocumentReferenceDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
-
-
-        MasterMetrics.MasterDatabase.SourceDocumentReferenceProcessingProfileCollectionSize.registerHandler(new Gauge<Long>() {
-
-            DateTime lastTimeComputed = DateTime.now().minusMinutes(5);;
-            Long lastValueComputed = 0l;
-            @Override
-            public Long getValue() {
-                if (lastTimeComputed.plusMinutes(1).isBefore(DateTime.now())) {
-                    lastTimeComputed = DateTime.now();
-                    lastValueComputed = sourceDocumentProcessingProfileDao.getCount();
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.SourceDocumentReferenceMetaInfoCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return sourceDocumentReferenceMetaInfoDao.getEstimatedCount();
                 }
-                return lastValueComputed;
-            }
-        });
+            });
+            refreshEstimate(MasterMetrics.MasterDatabase.SourceDocumentReferenceProcessingProfileCollectionSizeEstimate, new Callable<Long>() {
+                @Override
+                public Long call() {
+                    return sourceDocumentProcessingProfileDao.getEstimatedCount();
+                }
+            });
+        } finally {
+            refreshingDatabaseMetrics.set(false);
+        }
+    }
+
+    private void refreshEstimate(final CollectionSizeGauge gauge, final Callable<Long> estimatedCount) {
+        try {
+            final long insertedBeforeRead = gauge.insertedSinceEstimate();
+            gauge.updateEstimate(estimatedCount.call(), insertedBeforeRead);
+        } catch (Exception e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.CLUSTER_MASTER),
+                    "Cannot estimate the size of a master database collection", e);
+        }
+    }
 
+    @Override
+    public void postStop() throws Exception {
+        if (null != databaseMetricsRefresh) {
+            databaseMetricsRefresh.cancel();
+        }
+        if (null != databaseMetricsExecutor) {
+            databaseMetricsExecutor.shutdownNow();
+        }
+        super.postStop();
     }
 
     @Override
@@ -383,7 +434,15 @@ public class ClusterMasterActor extends UntypedActor {
         getContext().system().stop(accountantActor);
         getContext().system().stop(monitoringActor);
         getContext().system().stop(processingJobStateStatisticsActor);
-        getContext().system().stop(jobRestarterActor);
+        if (null != jobRestarterActor) {
+            getContext().system().stop(jobRestarterActor);
+        }
+        if (null != shardRouterActor) {
+            getContext().system().stop(shardRouterActor);
+        }
+        if (null != archiverActor) {
+            getContext().system().stop(archiverActor);
+        }
     }
 
     @Override
@@ -401,11 +460,23 @@ public class ClusterMasterActor extends UntypedActor {
 
     @Override
     public void onReceive(Object message) throws Exception {
+        if (null != shardRouterActor && (message instanceof DoneProcessing || message instanceof DoneProcessingBatch ||
+                message instanceof RequestTasks || message instanceof ReserveConnectionSlotRequest ||
+                message instanceof ReturnConnectionSlotRequest)) {
+            shardRouterActor.tell(message, getSender());
+            return;
+        }
+
         if(message instanceof DoneProcessing) {
             final DoneProcessing doneProcessing = (DoneProcessing) message;
             receiverActor.tell(message, getSender());
             return ;
         }
+        if(message instanceof DoneProcessingBatch) {
+            // the batches resent by the slaves come through the cluster master
+            receiverActor.tell(message, getSender());
+            return;
+        }
         if(message instanceof ReserveConnectionSlotRequest) {
             masterLimiter.tell(message, getSender());
             return;
@@ -5,6 +5,7 @@ import akka.actor.Address;
 import akka.actor.UntypedActor;
 import eu.europeana.harvester.cluster.domain.messages.AddAddressToMonitor;
 import eu.europeana.harvester.cluster.domain.messages.AddTaskToMonitor;
+import eu.europeana.harvester.cluster.domain.messages.ChangeJobState;
 import eu.europeana.harvester.cluster.domain.messages.Monitor;
 import eu.europeana.harvester.cluster.domain.messages.RemoveTaskFromMonitor;
 import eu.europeana.harvester.logging.LoggingComponent;
@@ -79,6 +80,11 @@ public class ClusterMasterMonitoringActor extends UntypedActor {
             return;
         }
 
+        if(message instanceof ChangeJobState) {
+            broadcast(message);
+            return;
+        }
+
 
     }
 
@@ -103,6 +109,17 @@ public class ClusterMasterMonitoringActor extends UntypedActor {
 
 
 
+    /**
+     * Sends the message to all the known actors of the slaves.
+     */
+    private void broadcast(final Object message) {
+        for (final HashSet<ActorRef> actorRefs : actorsPerAddress.values()) {
+            for (final ActorRef actorRef : actorRefs) {
+                actorRef.tell(message, getSelf());
+            }
+        }
+    }
+
     /**
      * Stores an address and an actorRef from that address.
      * @param address actor systems address
@@ -1,17 +1,22 @@
 package eu.europeana.harvester.cluster.master.accountants;
 
 import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
 import com.codahale.metrics.Gauge;
 import eu.europeana.harvester.cluster.domain.DefaultLimits;
+import eu.europeana.harvester.cluster.domain.messages.ChangeJobState;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
 import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
 import eu.europeana.harvester.cluster.domain.messages.inner.*;
+import eu.europeana.harvester.cluster.master.metrics.BusiestIPs;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
+import eu.europeana.harvester.domain.JobState;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 public class AccountantActor extends UntypedActor {
@@ -22,23 +27,86 @@ public class AccountantActor extends UntypedActor {
 
     private ActorRef masterReceiver;
 
-    private int lastNumberOfJobsCleaned = 0;
+    /**
+     * How often the expired started tasks are reclaimed.
+     */
+    private static final int RECLAIM_INTERVAL_IN_SECONDS = 5;
+
+    private int numberOfJobsReclaimed = 0;
+
+    /**
+     * The periodic reclaiming tick, cancelled when this instance stops (also before a restart).
+     */
+    private Cancellable reclaimExpiredTasksTick;
+
+    /*
+     * The telemetry of the queue, published on each reclaiming tick for the metrics reporter.
+     */
+    private final BusiestIPs busiestWaitingIPs = new BusiestIPs();
+    private final BusiestIPs busiestStartedIPs = new BusiestIPs();
+    private volatile long fastLaneOldestWaitingAge = 0;
+    private volatile long normalLaneOldestWaitingAge = 0;
+
+    /**
+     * The write-ahead log of the task queue, null if it's disabled.
+     */
+    private final AccountantJournal journal;
 
     public AccountantActor(DefaultLimits defaultLimits) {
-        accountantActorHelper = new AccountantActorHelper(defaultLimits);
+        this(defaultLimits, null);
+    }
+
+    public AccountantActor(DefaultLimits defaultLimits, AccountantJournalConfig accountantJournalConfig) {
+        this(defaultLimits, accountantJournalConfig, null);
+    }
+
+    public AccountantActor(DefaultLimits defaultLimits, AccountantJournalConfig accountantJournalConfig,
+                           LaneSchedulingConfig laneSchedulingConfig) {
+        journal = (accountantJournalConfig == null) ? null : new AccountantJournal(accountantJournalConfig);
+        accountantActorHelper = new AccountantActorHelper(defaultLimits, journal,
+                (laneSchedulingConfig == null) ? LaneSchedulingConfig.DEFAULT : laneSchedulingConfig);
         masterReceiver = getContext().actorFor("../receiver");
     }
 
     @Override
-    public void preStart() {
+    public void preStart() throws Exception {
+        recoverTasks();
         registerAccountantMetrics();
+        scheduleReclaimExpiredTasks();
     }
 
     @Override
     public void postRestart(Throwable reason) throws Exception {
+        recoverTasks();
         getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(10,
                 TimeUnit.MINUTES), getSelf(), new Clean(), getContext().system().dispatcher(), getSelf());
         registerAccountantMetrics();
+        scheduleReclaimExpiredTasks();
+    }
+
+    private void scheduleReclaimExpiredTasks() {
+        final scala.concurrent.duration.FiniteDuration interval = scala.concurrent.duration.Duration.create(
+                RECLAIM_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        reclaimExpiredTasksTick = getContext().system().scheduler().schedule(interval, interval, getSelf(),
+                new ReclaimExpiredTasks(), getContext().system().dispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (reclaimExpiredTasksTick != null)
+            reclaimExpiredTasksTick.cancel();
+        if (journal != null)
+            journal.close();
+    }
+
+    private void recoverTasks() throws IOException {
+        if (journal == null)
+            return;
+
+        final int records = journal.recover(accountantActorHelper);
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                "Accountant recovered from {} journal records: {} waiting and {} started tasks", records,
+                accountantActorHelper.getNumberOfTasks(), accountantActorHelper.allStartedTaskSize());
     }
 
     private void registerAccountantMetrics() {
@@ -73,10 +141,35 @@ public class AccountantActor extends UntypedActor {
         MasterMetrics.Master.jobAccountantAllReclaimedCount.registerHandler(new Gauge<Integer>() {
             @Override
             public Integer getValue() {
-                return lastNumberOfJobsCleaned;
+                return numberOfJobsReclaimed;
+            }
+        });
+
+        MasterMetrics.Master.jobAccountantFastLaneOldestWaitingAge.registerHandler(new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return fastLaneOldestWaitingAge;
+            }
+        });
+
+        MasterMetrics.Master.jobAccountantNormalLaneOldestWaitingAge.registerHandler(new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return normalLaneOldestWaitingAge;
             }
         });
 
+        busiestWaitingIPs.registerHandlers(MasterMetrics.Master.busiestIPsWaitingCounts);
+        busiestStartedIPs.registerHandlers(MasterMetrics.Master.busiestIPsStartedCounts);
+
+    }
+
+    private void publishTelemetry() {
+        final long now = System.currentTimeMillis();
+        fastLaneOldestWaitingAge = accountantActorHelper.fastLaneOldestWaitingAge(now);
+        normalLaneOldestWaitingAge = accountantActorHelper.normalLaneOldestWaitingAge(now);
+        busiestWaitingIPs.publish(accountantActorHelper.getWaitingTasksPerIP());
+        busiestStartedIPs.publish(accountantActorHelper.getStartedTasksPerIP());
     }
 
     @Override
@@ -91,24 +184,45 @@ public class AccountantActor extends UntypedActor {
         } else if (message instanceof RequestTasks) {
 
             LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
-                    "Received request for tasks from " + getSender());
+                    "Received request for {} tasks from {}", ((RequestTasks) message).getCredits(), getSender());
 
             MasterMetrics.Master.sendJobSetToSlaveCounter.inc();
             final com.codahale.metrics.Timer.Context context = MasterMetrics.Master.sendJobSetToSlaveDuration.time();
-            getSender().tell(accountantActorHelper.getBagOfTasks(), masterReceiver);
+            // a slave is identified by the address of its actor system
+            final String slave = getSender().path().address().toString();
+            getSender().tell(accountantActorHelper.getBagOfTasks((RequestTasks) message, slave), masterReceiver);
             context.stop();
             return;
+        } else if (message instanceof AddTasks) {
+            accountantActorHelper.addTasks((AddTasks) message);
+            return;
         } else if (message instanceof AddTask) {
             accountantActorHelper.addTask((AddTask) message);
             return;
         } else if (message instanceof DoneProcessing) {
             accountantActorHelper.doneTask((DoneProcessing) message);
             return;
+        } else if (message instanceof ChangeJobState) {
+            final ChangeJobState changeJobState = (ChangeJobState) message;
+            if (changeJobState.getNewState() == JobState.PAUSE) {
+                final int purgedTasks = accountantActorHelper.purgeJob(changeJobState.getJobId());
+                LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                        "Accountant dropped {} tasks of the paused job {}", purgedTasks, changeJobState.getJobId());
+            }
+            return;
         } else if (message instanceof Monitor) {
             accountantActorHelper.monitor();
+            LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                    "Accountant queue: {} fast lane and {} normal lane tasks waiting, {} started. Busiest IPs by waiting tasks {}, by started tasks {}",
+                    accountantActorHelper.fastLaneWaitingTaskSize(), accountantActorHelper.normalLaneWaitingTaskSize(),
+                    accountantActorHelper.allStartedTaskSize(), busiestWaitingIPs.get(), busiestStartedIPs.get());
+            return;
+        } else if (message instanceof ReclaimExpiredTasks) {
+            numberOfJobsReclaimed += accountantActorHelper.reclaimExpiredTasks();
+            publishTelemetry();
             return;
         } else if (message instanceof Clean) {
-            lastNumberOfJobsCleaned = accountantActorHelper.clean();
+            numberOfJobsReclaimed += accountantActorHelper.clean();
             getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(10,
                     TimeUnit.MINUTES), getSelf(), new Clean(), getContext().system().dispatcher(), getSelf());
             return;
@@ -4,11 +4,15 @@ import eu.europeana.harvester.cluster.domain.DefaultLimits;
 import eu.europeana.harvester.cluster.domain.TaskState;
 import eu.europeana.harvester.cluster.domain.messages.BagOfTasks;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.cluster.master.metrics.IpCounts;
 import eu.europeana.harvester.domain.JobPriority;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,10 +29,33 @@ public class AccountantActorHelper {
         private final Map<String, RetrieveUrl> waitingTasks = new HashMap<>();
         private final Map<String, List<String>> tasksPerIP = new HashMap<>();
 
+        /**
+         * The time each waiting task was added, the longest waiting first.
+         */
+        private final LinkedHashMap<String, Long> waitingSince = new LinkedHashMap<>();
+
         public int getSize() {
             return waitingTasks.size();
         }
 
+        /**
+         * @return the time the longest waiting task was added, null if there are no waiting tasks
+         */
+        public Long oldestWaitingSince() {
+            return waitingSince.isEmpty() ? null : waitingSince.values().iterator().next();
+        }
+
+        private void waiting(String taskID, String ip, long now) {
+            if (!waitingSince.containsKey(taskID))
+                waitingSince.put(taskID, now);
+            waitingTasksPerIP.increment(ip);
+        }
+
+        private void notWaiting(String taskID, String ip) {
+            waitingSince.remove(taskID);
+            waitingTasksPerIP.decrement(ip);
+        }
+
         public void addTask(RetrieveUrl retrieveUrl) {
             waitingTasks.put(retrieveUrl.getId(), retrieveUrl);
             final String IP = retrieveUrl.getIpAddress();
@@ -37,6 +64,48 @@ public class AccountantActorHelper {
                 tasks = new ArrayList<>();
             tasks.add(retrieveUrl.getId());
             tasksPerIP.put(IP, tasks);
+            waiting(retrieveUrl.getId(), IP, DateTimeUtils.currentTimeMillis());
+        }
+
+        /**
+         * Adds the task before the other tasks of its IP, so it's the next one sent from the IP.
+         */
+        public void addTaskFirst(RetrieveUrl retrieveUrl) {
+            waitingTasks.put(retrieveUrl.getId(), retrieveUrl);
+            final String IP = retrieveUrl.getIpAddress();
+            List<String> tasks = tasksPerIP.get(IP);
+            if (tasks == null) {
+                tasks = new ArrayList<>();
+                tasksPerIP.put(IP, tasks);
+            }
+            tasks.add(0, retrieveUrl.getId());
+            waiting(retrieveUrl.getId(), IP, DateTimeUtils.currentTimeMillis());
+        }
+
+        /**
+         * Adds the tasks in their order, with one lookup per IP.
+         */
+        public void addTasks(Collection<RetrieveUrl> retrieveUrls) {
+            final Map<String, List<String>> newTasksPerIP = new LinkedHashMap<>();
+            final long now = DateTimeUtils.currentTimeMillis();
+            for (RetrieveUrl retrieveUrl : retrieveUrls) {
+                waitingTasks.put(retrieveUrl.getId(), retrieveUrl);
+                waiting(retrieveUrl.getId(), retrieveUrl.getIpAddress(), now);
+                List<String> tasks = newTasksPerIP.get(retrieveUrl.getIpAddress());
+                if (tasks == null) {
+                    tasks = new ArrayList<>();
+                    newTasksPerIP.put(retrieveUrl.getIpAddress(), tasks);
+                }
+                tasks.add(retrieveUrl.getId());
+            }
+
+            for (Map.Entry<String, List<String>> newTasks : newTasksPerIP.entrySet()) {
+                final List<String> tasks = tasksPerIP.get(newTasks.getKey());
+                if (tasks == null)
+                    tasksPerIP.put(newTasks.getKey(), newTasks.getValue());
+                else
+                    tasks.addAll(newTasks.getValue());
+            }
         }
 
         public ArrayList<String> getOverloadedIPs(int threshold) {
@@ -48,49 +117,111 @@ public class AccountantActorHelper {
 
         }
 
-        public List<RetrieveUrl> getListOfTasksWithRoundRobinStrategy(int maxToSend) {
+        /**
+         * Takes one task per IP in each round until maxToSend tasks are taken. The IPs preferred by the requesting
+         * slave come first: the warm ones (it already has connections to them), then the ones it has affinity with
+         * or which no other slave has. The IPs other slaves have affinity with get only the remaining credits.
+         */
+        public List<RetrieveUrl> getListOfTasksWithRoundRobinStrategy(int maxToSend, Set<String> warmIPs,
+                                                                      String slave, long now) {
+
+            List<String> preferredIPs = new ArrayList<>(tasksPerIP.size());
+            List<String> otherIPs = new ArrayList<>();
+            for (String ip : warmIPs)
+                if (tasksPerIP.containsKey(ip))
+                    preferredIPs.add(ip);
+            for (String ip : tasksPerIP.keySet())
+                if (!warmIPs.contains(ip)) {
+                    if (slaveAffinity.isPreferredBy(ip, slave, now))
+                        preferredIPs.add(ip);
+                    else
+                        otherIPs.add(ip);
+                }
 
             ArrayList<RetrieveUrl> tasksToSend = new ArrayList<>();
+            takeRoundRobin(preferredIPs, maxToSend, tasksToSend);
+            takeRoundRobin(otherIPs, maxToSend, tasksToSend);
+            return tasksToSend;
+
+        }
 
-            boolean foundTasks = true;
+        private void takeRoundRobin(List<String> ips, int maxToSend, List<RetrieveUrl> tasksToSend) {
 
-            while (foundTasks && tasksToSend.size() < maxToSend) {
+            while (!ips.isEmpty() && tasksToSend.size() < maxToSend) {
 
-                List<String> ips = new ArrayList<>(tasksPerIP.keySet());
-                foundTasks = false;
+                List<String> ipsWithTasks = new ArrayList<>(ips.size());
                 for (String ip : ips) {
 
+                    if (tasksToSend.size() == maxToSend)
+                        break;
+
                     List<String> tasks = tasksPerIP.get(ip);
 
                     String task = tasks.remove(0);
+                    notWaiting(task, ip);
 
                     if (tasks.size() == 0)
                         tasksPerIP.remove(ip);
                     else
-                        tasksPerIP.put(ip, tasks);
-
+                        ipsWithTasks.add(ip);
 
                     RetrieveUrl retrieveUrl = waitingTasks.remove(task);
 
-
                     if (retrieveUrl != null)
                         tasksToSend.add(retrieveUrl);
-
-                    foundTasks = true;
-
-                    if (tasksToSend.size() == maxToSend)
-                        break;
                 }
+                ips = ipsWithTasks;
             }
-
-            return tasksToSend;
-
         }
 
         public final Set<String> uniqueIPs() {
             return tasksPerIP.keySet();
         }
 
+        public boolean containsTask(String taskID) {
+            return waitingTasks.containsKey(taskID);
+        }
+
+        public RetrieveUrl removeTask(String taskID) {
+            RetrieveUrl retrieveUrl = waitingTasks.remove(taskID);
+            if (retrieveUrl == null)
+                return null;
+
+            List<String> tasks = tasksPerIP.get(retrieveUrl.getIpAddress());
+            if (tasks != null && tasks.remove(taskID)) {
+                notWaiting(taskID, retrieveUrl.getIpAddress());
+                if (tasks.size() == 0)
+                    tasksPerIP.remove(retrieveUrl.getIpAddress());
+            }
+            return retrieveUrl;
+        }
+
+        /**
+         * @return the ids of the waiting tasks of the job
+         */
+        public List<String> taskIDsOfJob(String jobId) {
+            List<String> taskIDs = new ArrayList<>();
+            for (RetrieveUrl retrieveUrl : waitingTasks.values()) {
+                if (jobId.equals(retrieveUrl.getJobId()))
+                    taskIDs.add(retrieveUrl.getId());
+            }
+            return taskIDs;
+        }
+
+        /**
+         * @return the waiting tasks, in the order they are going to be sent for each IP
+         */
+        public List<RetrieveUrl> tasksInOrder() {
+            List<RetrieveUrl> tasks = new ArrayList<>(waitingTasks.size());
+            for (List<String> taskIDs : tasksPerIP.values())
+                for (String taskID : taskIDs) {
+                    RetrieveUrl retrieveUrl = waitingTasks.get(taskID);
+                    if (retrieveUrl != null)
+                        tasks.add(retrieveUrl);
+                }
+            return tasks;
+        }
+
     }
 
     /**
@@ -98,17 +229,70 @@ public class AccountantActorHelper {
      */
     private final Map<String, RetrieveUrl> allStartedTasks = new HashMap<>();
     private final Map<String, DateTime> allStartedTaskStartTime = new HashMap<>();
+
+    /**
+     * The started tasks by their start time (in millis), the oldest first, so the expired ones are found without
+     * scanning all the started tasks. The done and reclaimed tasks are not removed from here, they are skipped when
+     * their start time comes up.
+     */
+    private final TreeMap<Long, List<String>> startedTasksByStartTime = new TreeMap<>();
     private final MapWrapper normalLane = new MapWrapper();
     private final MapWrapper fastLane = new MapWrapper();
 
+    /**
+     * The number of waiting tasks (in both lanes) and of started tasks of each IP, kept up to date by every change
+     * of the queue.
+     */
+    private final IpCounts waitingTasksPerIP = new IpCounts();
+    private final IpCounts startedTasksPerIP = new IpCounts();
+
+    /**
+     * The started tasks which came from the fast lane; a reclaimed task goes back to the lane it came from.
+     */
+    private final Set<String> startedFastLaneTasks = new HashSet<>();
+
+    private final LaneSchedulingConfig laneSchedulingConfig;
+
+    /*
+     * The state of the smooth weighted round robin between the lanes: the lane with the highest current weight
+     * gets the next credit and gives back the sum of the weights, so the credits follow the weights without bursts.
+     */
+    private double fastLaneCurrentWeight = 0;
+    private double normalLaneCurrentWeight = 0;
+
+    /**
+     * How long a slave keeps its affinity with an IP after it got the last task of it.
+     */
+    private static final long SLAVE_AFFINITY_TTL_IN_MILLIS = 2 * 60 * 1000l;
+
+    private static final int MAX_SLAVES_PER_IP = 3;
+
+    private final IpSlaveAffinity slaveAffinity = new IpSlaveAffinity(SLAVE_AFFINITY_TTL_IN_MILLIS, MAX_SLAVES_PER_IP);
+
     private final DefaultLimits defaultLimits;
 
+    /**
+     * The write-ahead log of the queue, null if the queue is kept only in memory.
+     */
+    private final AccountantJournal journal;
+
 
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
 
     public AccountantActorHelper(DefaultLimits defaultLimits) {
+        this(defaultLimits, null);
+    }
+
+    public AccountantActorHelper(DefaultLimits defaultLimits, AccountantJournal journal) {
+        this(defaultLimits, journal, LaneSchedulingConfig.DEFAULT);
+    }
+
+    public AccountantActorHelper(DefaultLimits defaultLimits, AccountantJournal journal,
+                                 LaneSchedulingConfig laneSchedulingConfig) {
         this.defaultLimits = defaultLimits;
+        this.journal = journal;
+        this.laneSchedulingConfig = laneSchedulingConfig;
     }
 
     public Integer getNumberOfTasks() {
@@ -128,34 +312,124 @@ public class AccountantActorHelper {
                 fastLane.addTask(taskWithState.getKey());
             else
                 normalLane.addTask(taskWithState.getKey());
+
+            if (journal != null) {
+                journal.logAdded(message.getJobPriority(), taskWithState.getKey());
+                snapshotIfNeeded();
+            }
+        }
+    }
+
+    public void addTasks(AddTasks message) {
+        final JobPriority prio = JobPriority.fromPriority(message.getJobPriority());
+
+        if (prio != null && !message.getTasks().isEmpty()) {
+            if (prio == JobPriority.FASTLANE)
+                fastLane.addTasks(message.getTasks());
+            else
+                normalLane.addTasks(message.getTasks());
+
+            if (journal != null) {
+                journal.logAdded(message.getJobPriority(), message.getTasks());
+                snapshotIfNeeded();
+            }
         }
     }
 
     public void doneTask(DoneProcessing message) {
 
         final String taskID = message.getTaskID();
-        allStartedTasks.remove(taskID);
+        final RetrieveUrl retrieveUrl = allStartedTasks.remove(taskID);
         allStartedTaskStartTime.remove(taskID);
+        startedFastLaneTasks.remove(taskID);
+        if (retrieveUrl != null)
+            startedTasksPerIP.decrement(retrieveUrl.getIpAddress());
 
+        if (journal != null && retrieveUrl != null) {
+            journal.logDone(taskID);
+            snapshotIfNeeded();
+        }
         return;
     }
 
+    /**
+     * Drops the waiting and the started tasks of a paused job. Its tasks are loaded again when it's resumed.
+     *
+     * @return the number of dropped tasks
+     */
+    public int purgeJob(String jobId) {
+        final List<String> purgedTasks = new ArrayList<>();
+        for (final MapWrapper lane : Arrays.asList(fastLane, normalLane)) {
+            for (final String taskID : lane.taskIDsOfJob(jobId)) {
+                lane.removeTask(taskID);
+                purgedTasks.add(taskID);
+            }
+        }
+
+        final List<String> startedTasksOfJob = new ArrayList<>();
+        for (final RetrieveUrl retrieveUrl : allStartedTasks.values()) {
+            if (jobId.equals(retrieveUrl.getJobId()))
+                startedTasksOfJob.add(retrieveUrl.getId());
+        }
+        for (final String taskID : startedTasksOfJob) {
+            applyDone(taskID);
+        }
+        purgedTasks.addAll(startedTasksOfJob);
+
+        if (journal != null && !purgedTasks.isEmpty()) {
+            journal.logPurged(purgedTasks);
+            snapshotIfNeeded();
+        }
+        return purgedTasks.size();
+    }
+
     public void monitor() {
         return;
     }
 
+    /**
+     * Forgets the expired slave affinities and reclaims the expired tasks.
+     *
+     * @return the number of reclaimed tasks
+     */
     public int clean() {
-        DateTime minDateTime = DateTime.now().minus(defaultLimits.getMaxJobProcessingDuration());
+        slaveAffinity.clean(System.currentTimeMillis());
+        return reclaimExpiredTasks();
+    }
+
+    /**
+     * Puts back the tasks started longer than the max job processing duration ago, each one first in its lane.
+     * It costs only a lookup per started task of the expired start times, so it can run often.
+     *
+     * @return the number of reclaimed tasks
+     */
+    public int reclaimExpiredTasks() {
+        return reclaimExpiredTasks(DateTime.now());
+    }
+
+    int reclaimExpiredTasks(DateTime now) {
+        final long minStartTime = now.minus(defaultLimits.getMaxJobProcessingDuration()).getMillis();
         ArrayList<String> tasksToRestart = new ArrayList<>();
 
-        for (String taskID : allStartedTaskStartTime.keySet())
-            if (allStartedTaskStartTime.get(taskID).isBefore(minDateTime))
+        while (!startedTasksByStartTime.isEmpty() && startedTasksByStartTime.firstKey() < minStartTime) {
+            final Map.Entry<Long, List<String>> tasksStartedAtTheSameTime = startedTasksByStartTime.pollFirstEntry();
+            for (String taskID : tasksStartedAtTheSameTime.getValue()) {
+                // skips the tasks which are done, or were reclaimed and started again since
+                final DateTime startTime = allStartedTaskStartTime.get(taskID);
+                if (startTime == null || startTime.getMillis() != tasksStartedAtTheSameTime.getKey())
+                    continue;
+
+                allStartedTaskStartTime.remove(taskID);
+                RetrieveUrl retrieveUrl = allStartedTasks.remove(taskID);
+                startedTasksPerIP.decrement(retrieveUrl.getIpAddress());
+                requeue(retrieveUrl);
                 tasksToRestart.add(taskID);
+            }
+        }
 
-        for (String taskID : tasksToRestart) {
-            allStartedTaskStartTime.remove(taskID);
-            RetrieveUrl retrieveUrl = allStartedTasks.remove(taskID);
-            fastLane.addTask(retrieveUrl);
+        if (journal != null && !tasksToRestart.isEmpty()) {
+            journal.logReclaimed(tasksToRestart);
+            snapshotIfNeeded();
         }
 
         return tasksToRestart.size();
@@ -171,9 +445,29 @@ public class AccountantActorHelper {
     }
 
 
-    public BagOfTasks getBagOfTasks() {
+    /**
+     * Starts as many tasks as the slave has credits for (or the default batch size if it didn't advertise its
+     * credits), preferring the IPs the slave is already connected to.
+     */
+    public BagOfTasks getBagOfTasks(RequestTasks request) {
+        return getBagOfTasks(request, null);
+    }
+
+    /**
+     * Like {@link #getBagOfTasks(RequestTasks)}, but also prefers the IPs the slave recently got tasks of, and leaves
+     * the IPs other slaves recently got tasks of to them as long as there are other tasks.
+     *
+     * @param slave identifies the requesting slave, null if unknown
+     */
+    public BagOfTasks getBagOfTasks(RequestTasks request, String slave) {
+        return getBagOfTasks(request, slave, DateTime.now());
+    }
 
-        List<RetrieveUrl> tasksToSend = startTasks();
+    BagOfTasks getBagOfTasks(RequestTasks request, String slave, DateTime now) {
+
+        final int maxToSend = request.hasKnownCredits() ? request.getCredits() : defaultLimits.getTaskBatchSize();
+        List<RetrieveUrl> tasksToSend = (maxToSend > 0) ? startTasks(maxToSend, request.getWarmIPs(), slave, now) :
+                new ArrayList<RetrieveUrl>();
         final BagOfTasks bagOfTasks = new BagOfTasks(tasksToSend);
         return bagOfTasks;
 
@@ -183,28 +477,108 @@ public class AccountantActorHelper {
     /**
      * Check if we are allowed to start one or more jobs if yes then starts them.
      */
-    private List<RetrieveUrl> startTasks() {
+    private List<RetrieveUrl> startTasks(final int maxToSend, final Set<String> warmIPs, final String slave,
+                                         final DateTime startTime) {
 
         List<RetrieveUrl> tasksToSend = new ArrayList<>();
 
-        final int maxToSend = defaultLimits.getTaskBatchSize();
+        final long now = startTime.getMillis();
+        final int fastLaneCredits = fastLaneCredits(maxToSend, now);
+
+        List<RetrieveUrl> fastLaneTasks = fastLane.getListOfTasksWithRoundRobinStrategy(fastLaneCredits, warmIPs,
+                slave, now);
 
-        // first we go through the fastlane tasks
-        List<RetrieveUrl> fastLaneTasks = fastLane.getListOfTasksWithRoundRobinStrategy(maxToSend);
+        List<RetrieveUrl> normalLaneTasks = normalLane.getListOfTasksWithRoundRobinStrategy(
+                maxToSend - fastLaneTasks.size(), warmIPs, slave, now);
 
-        List<RetrieveUrl> normalLaneTasks = (tasksToSend.size() < maxToSend) ?
-                normalLane.getListOfTasksWithRoundRobinStrategy(maxToSend - fastLaneTasks.size()) : new ArrayList<RetrieveUrl>();
+        // the credits the normal lane couldn't use go back to the fast lane
+        if (fastLaneTasks.size() + normalLaneTasks.size() < maxToSend)
+            fastLaneTasks.addAll(fastLane.getListOfTasksWithRoundRobinStrategy(
+                    maxToSend - fastLaneTasks.size() - normalLaneTasks.size(), warmIPs, slave, now));
 
+        for (RetrieveUrl task : fastLaneTasks)
+            startedFastLaneTasks.add(task.getId());
         tasksToSend.addAll(fastLaneTasks);
         tasksToSend.addAll(normalLaneTasks);
+        final List<String> startedTaskIDs = new ArrayList<>(tasksToSend.size());
         for (RetrieveUrl task : tasksToSend) {
             allStartedTasks.put(task.getId(), task);
-            allStartedTaskStartTime.put(task.getId(), DateTime.now());
+            allStartedTaskStartTime.put(task.getId(), startTime);
+            startedTasksPerIP.increment(task.getIpAddress());
+            startedTaskIDs.add(task.getId());
+            if (slave != null)
+                slaveAffinity.served(task.getIpAddress(), slave, startTime.getMillis());
+        }
+        if (!startedTaskIDs.isEmpty())
+            addStartTime(startedTaskIDs, startTime);
+
+        if (journal != null && !tasksToSend.isEmpty()) {
+            journal.logStarted(tasksToSend, startTime);
+            snapshotIfNeeded();
         }
 
         return tasksToSend;
     }
 
+    /**
+     * Shares the credits between the lanes with a smooth weighted round robin. A lane gets all the credits the other
+     * lane has no tasks for. The weight of the normal lane grows with the wait of its oldest task, up to the weight of
+     * the fast lane, so the normal lane tasks wait a bounded time even while the fast lane is never empty.
+     *
+     * @return the number of credits of the fast lane, the rest belongs to the normal lane
+     */
+    private int fastLaneCredits(final int maxToSend, final long now) {
+        final double fastLaneWeight = laneSchedulingConfig.getFastLaneWeight();
+        final double normalLaneWeight = Math.min(Math.max(fastLaneWeight, laneSchedulingConfig.getNormalLaneWeight()),
+                agedWeight(laneSchedulingConfig.getNormalLaneWeight(), normalLane, now));
+        final int fastLaneTasks = fastLane.getSize();
+        final int normalLaneTasks = normalLane.getSize();
+
+        int fastLaneCredits = 0;
+        int normalLaneCredits = 0;
+        while (fastLaneCredits + normalLaneCredits < maxToSend) {
+            final boolean fastLaneHasTasks = fastLaneCredits < fastLaneTasks;
+            final boolean normalLaneHasTasks = normalLaneCredits < normalLaneTasks;
+            if (!fastLaneHasTasks && !normalLaneHasTasks)
+                break;
+
+            if (!normalLaneHasTasks) {
+                fastLaneCredits++;
+            } else if (!fastLaneHasTasks) {
+                normalLaneCredits++;
+            } else {
+                fastLaneCurrentWeight += fastLaneWeight;
+                normalLaneCurrentWeight += normalLaneWeight;
+                if (fastLaneCurrentWeight >= normalLaneCurrentWeight) {
+                    fastLaneCredits++;
+                    fastLaneCurrentWeight -= fastLaneWeight + normalLaneWeight;
+                } else {
+                    normalLaneCredits++;
+                    normalLaneCurrentWeight -= fastLaneWeight + normalLaneWeight;
+                }
+            }
+        }
+        return fastLaneCredits;
+    }
+
+    private double agedWeight(final int weight, final MapWrapper lane, final long now) {
+        final long agingPeriod = laneSchedulingConfig.getAgingPeriod().getMillis();
+        final Long oldestWaitingSince = lane.oldestWaitingSince();
+        if (agingPeriod <= 0 || oldestWaitingSince == null)
+            return weight;
+        return weight * (1 + (double) Math.max(0, now - oldestWaitingSince) / agingPeriod);
+    }
+
+    /**
+     * Puts a reclaimed task back in the lane it came from, before the other tasks of its IP.
+     */
+    private void requeue(RetrieveUrl retrieveUrl) {
+        if (startedFastLaneTasks.remove(retrieveUrl.getId()))
+            fastLane.addTaskFirst(retrieveUrl);
+        else
+            normalLane.addTaskFirst(retrieveUrl);
+    }
+
     public final int countUniqueIPs() {
         final Set<String> uniqueIps = new HashSet<>();
         uniqueIps.addAll(normalLane.uniqueIPs());
@@ -217,11 +591,120 @@ public class AccountantActorHelper {
     }
 
     public final int normalLaneWaitingTaskSize() {
-        return fastLane.getSize();
+        return normalLane.getSize();
+    }
+
+    /**
+     * @return how long the longest waiting task of the fast lane waits, in millis, 0 if the lane is empty
+     */
+    public final long fastLaneOldestWaitingAge(long now) {
+        final Long oldestWaitingSince = fastLane.oldestWaitingSince();
+        return oldestWaitingSince == null ? 0 : now - oldestWaitingSince;
+    }
+
+    /**
+     * @return how long the longest waiting task of the normal lane waits, in millis, 0 if the lane is empty
+     */
+    public final long normalLaneOldestWaitingAge(long now) {
+        final Long oldestWaitingSince = normalLane.oldestWaitingSince();
+        return oldestWaitingSince == null ? 0 : now - oldestWaitingSince;
+    }
+
+    /**
+     * @return the number of waiting tasks of each IP; it belongs to the accountant, don't change it or read it from
+     * another thread
+     */
+    public final IpCounts getWaitingTasksPerIP() {
+        return waitingTasksPerIP;
+    }
+
+    /**
+     * @return the number of started tasks of each IP; it belongs to the accountant, don't change it or read it from
+     * another thread
+     */
+    public final IpCounts getStartedTasksPerIP() {
+        return startedTasksPerIP;
     }
 
     public final int allStartedTaskSize() {
         return allStartedTasks.keySet().size();
     }
 
+    private void addStartTime(Collection<String> taskIDs, DateTime startTime) {
+        List<String> tasksStartedAtTheSameTime = startedTasksByStartTime.get(startTime.getMillis());
+        if (tasksStartedAtTheSameTime == null) {
+            tasksStartedAtTheSameTime = new ArrayList<>(taskIDs.size());
+            startedTasksByStartTime.put(startTime.getMillis(), tasksStartedAtTheSameTime);
+        }
+        tasksStartedAtTheSameTime.addAll(taskIDs);
+    }
+
+    private void snapshotIfNeeded() {
+        if (journal.needsSnapshot())
+            journal.snapshot(fastLane.tasksInOrder(), normalLane.tasksInOrder(), allStartedTasks, allStartedTaskStartTime,
+                    startedFastLaneTasks);
+    }
+
+    /*
+     * The transitions replayed by the journal during the recovery. They are not logged again and they ignore the
+     * tasks which are already in the expected state.
+     */
+
+    void applyAdded(Integer jobPriority, RetrieveUrl retrieveUrl) {
+        final String taskID = retrieveUrl.getId();
+        if (fastLane.containsTask(taskID) || normalLane.containsTask(taskID) || allStartedTasks.containsKey(taskID))
+            return;
+
+        if (JobPriority.fromPriority(jobPriority) == JobPriority.FASTLANE)
+            fastLane.addTask(retrieveUrl);
+        else
+            normalLane.addTask(retrieveUrl);
+    }
+
+    void applyStarted(String taskID, DateTime startTime) {
+        RetrieveUrl retrieveUrl = fastLane.removeTask(taskID);
+        if (retrieveUrl != null)
+            startedFastLaneTasks.add(taskID);
+        else
+            retrieveUrl = normalLane.removeTask(taskID);
+        if (retrieveUrl == null)
+            return;
+
+        allStartedTasks.put(taskID, retrieveUrl);
+        allStartedTaskStartTime.put(taskID, startTime);
+        startedTasksPerIP.increment(retrieveUrl.getIpAddress());
+        addStartTime(Collections.singletonList(taskID), startTime);
+    }
+
+    void applyStartedTask(RetrieveUrl retrieveUrl, DateTime startTime, boolean fromFastLane) {
+        if (fromFastLane)
+            startedFastLaneTasks.add(retrieveUrl.getId());
+        if (allStartedTasks.put(retrieveUrl.getId(), retrieveUrl) == null)
+            startedTasksPerIP.increment(retrieveUrl.getIpAddress());
+        allStartedTaskStartTime.put(retrieveUrl.getId(), startTime);
+        addStartTime(Collections.singletonList(retrieveUrl.getId()), startTime);
+    }
+
+    void applyDone(String taskID) {
+        final RetrieveUrl retrieveUrl = allStartedTasks.remove(taskID);
+        allStartedTaskStartTime.remove(taskID);
+        startedFastLaneTasks.remove(taskID);
+        if (retrieveUrl != null)
+            startedTasksPerIP.decrement(retrieveUrl.getIpAddress());
+    }
+
+    void applyPurged(String taskID) {
+        if (fastLane.removeTask(taskID) == null && normalLane.removeTask(taskID) == null)
+            applyDone(taskID);
+    }
+
+    void applyReclaimed(String taskID) {
+        final RetrieveUrl retrieveUrl = allStartedTasks.remove(taskID);
+        allStartedTaskStartTime.remove(taskID);
+        if (retrieveUrl != null) {
+            startedTasksPerIP.decrement(retrieveUrl.getIpAddress());
+            requeue(retrieveUrl);
+        }
+    }
+
 }
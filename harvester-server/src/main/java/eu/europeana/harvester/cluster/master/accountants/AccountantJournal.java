@@ -0,0 +1,299 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import eu.europeana.harvester.cluster.domain.serialization.ClusterMessageSerializer;
+import eu.europeana.harvester.domain.JobPriority;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Local write-ahead log of the task queue of the accountant.
+ * Every transition (task added, started, done or reclaimed) is appended to the current log file. From time to time
+ * the whole queue is written to a snapshot and the older log files are deleted, so that the recovery only replays
+ * the snapshot and the records written after it.
+ * <p/>
+ * The records are flushed to the OS after each write, so they survive a crash of the master process
+ * (but not necessarily a crash of the machine).
+ */
+public class AccountantJournal implements Closeable {
+
+    private static final String SNAPSHOT_FILE = "accountant.snapshot";
+    private static final String LOG_FILE_PREFIX = "accountant-";
+    private static final String LOG_FILE_SUFFIX = ".wal";
+
+    private static final int ADDED = 1;
+    private static final int STARTED = 2;
+    private static final int DONE = 3;
+    private static final int RECLAIMED = 4;
+    private static final int STARTED_TASK = 5;
+    private static final int PURGED = 6;
+
+    private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final File directory;
+
+    private final int recordsBetweenSnapshots;
+
+    private final ClusterMessageSerializer serializer = new ClusterMessageSerializer();
+
+    /**
+     * The generation of the log file currently written. The snapshot stores the first generation not included in it.
+     */
+    private long generation = 0;
+
+    private DataOutputStream log;
+
+    private int recordsSinceSnapshot = 0;
+
+    public AccountantJournal(final AccountantJournalConfig config) {
+        this.directory = new File(config.getDirectory());
+        this.recordsBetweenSnapshots = config.getRecordsBetweenSnapshots();
+    }
+
+    /**
+     * Rebuilds the queue of the accountant from the snapshot and the log files and opens a new log file.
+     *
+     * @param helper the empty accountant state
+     * @return the number of replayed records
+     */
+    public int recover(final AccountantActorHelper helper) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Cannot create the accountant journal directory " + directory.getAbsolutePath());
+        }
+
+        int records = 0;
+        long firstGeneration = 0;
+        final File snapshot = new File(directory, SNAPSHOT_FILE);
+        if (snapshot.exists()) {
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+                firstGeneration = in.readLong();
+                records += replay(in, snapshot, helper);
+            }
+        }
+
+        generation = firstGeneration;
+        for (final long logGeneration : logGenerations()) {
+            if (logGeneration < firstGeneration) {
+                continue;
+            }
+            try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(logFile(logGeneration))))) {
+                final int replayed = replay(in, logFile(logGeneration), helper);
+                records += replayed;
+                recordsSinceSnapshot += replayed;
+            }
+            generation = logGeneration + 1;
+        }
+
+        log = openLog(generation);
+        return records;
+    }
+
+    public void logAdded(final Integer jobPriority, final RetrieveUrl task) {
+        try {
+            writeAdded(log, jobPriority, task);
+            log.flush();
+            recordsSinceSnapshot++;
+        } catch (IOException e) {
+            LOG.error("Cannot log the addition of task " + task.getId(), e);
+        }
+    }
+
+    public void logAdded(final Integer jobPriority, final Collection<RetrieveUrl> tasks) {
+        try {
+            for (final RetrieveUrl task : tasks) {
+                writeAdded(log, jobPriority, task);
+            }
+            log.flush();
+            recordsSinceSnapshot += tasks.size();
+        } catch (IOException e) {
+            LOG.error("Cannot log the addition of " + tasks.size() + " tasks", e);
+        }
+    }
+
+    public void logStarted(final Collection<RetrieveUrl> tasks, final DateTime startTime) {
+        try {
+            for (final RetrieveUrl task : tasks) {
+                log.writeByte(STARTED);
+                log.writeUTF(task.getId());
+                log.writeLong(startTime.getMillis());
+            }
+            log.flush();
+            recordsSinceSnapshot += tasks.size();
+        } catch (IOException e) {
+            LOG.error("Cannot log the start of " + tasks.size() + " tasks", e);
+        }
+    }
+
+    public void logDone(final String taskID) {
+        logTaskTransition(DONE, taskID);
+    }
+
+    public void logReclaimed(final Collection<String> taskIDs) {
+        for (final String taskID : taskIDs) {
+            logTaskTransition(RECLAIMED, taskID);
+        }
+    }
+
+    public void logPurged(final Collection<String> taskIDs) {
+        for (final String taskID : taskIDs) {
+            logTaskTransition(PURGED, taskID);
+        }
+    }
+
+    private void logTaskTransition(final int type, final String taskID) {
+        try {
+            log.writeByte(type);
+            log.writeUTF(taskID);
+            log.flush();
+            recordsSinceSnapshot++;
+        } catch (IOException e) {
+            LOG.error("Cannot log the transition " + type + " of task " + taskID, e);
+        }
+    }
+
+    public boolean needsSnapshot() {
+        return recordsSinceSnapshot >= recordsBetweenSnapshots;
+    }
+
+    /**
+     * Starts a new log file, writes the whole queue in a new snapshot and deletes the log files covered by it.
+     */
+    public void snapshot(final List<RetrieveUrl> fastLaneTasks, final List<RetrieveUrl> normalLaneTasks,
+                         final Map<String, RetrieveUrl> startedTasks, final Map<String, DateTime> startTimes,
+                         final Set<String> startedFastLaneTasks) {
+        try {
+            log.close();
+            generation++;
+            log = openLog(generation);
+            recordsSinceSnapshot = 0;
+
+            final File temporarySnapshot = new File(directory, SNAPSHOT_FILE + ".tmp");
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporarySnapshot)))) {
+                out.writeLong(generation);
+                for (final RetrieveUrl task : fastLaneTasks) {
+                    writeAdded(out, JobPriority.FASTLANE.getPriority(), task);
+                }
+                for (final RetrieveUrl task : normalLaneTasks) {
+                    writeAdded(out, JobPriority.NORMAL.getPriority(), task);
+                }
+                for (final Map.Entry<String, RetrieveUrl> task : startedTasks.entrySet()) {
+                    out.writeByte(STARTED_TASK);
+                    out.writeInt(startedFastLaneTasks.contains(task.getKey()) ? JobPriority.FASTLANE.getPriority() :
+                            JobPriority.NORMAL.getPriority());
+                    out.writeLong(startTimes.get(task.getKey()).getMillis());
+                    writeTask(out, task.getValue());
+                }
+            }
+            Files.move(temporarySnapshot.toPath(), new File(directory, SNAPSHOT_FILE).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (final long logGeneration : logGenerations()) {
+                if (logGeneration < generation && !logFile(logGeneration).delete()) {
+                    LOG.warn("Cannot delete the old accountant log {}", logFile(logGeneration).getAbsolutePath());
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Cannot write the accountant snapshot", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (null != log) {
+            log.close();
+            log = null;
+        }
+    }
+
+    private int replay(final DataInputStream in, final File file, final AccountantActorHelper helper) throws IOException {
+        int records = 0;
+        try {
+            int type;
+            while ((type = in.read()) != -1) {
+                switch (type) {
+                    case ADDED:
+                        final int jobPriority = in.readInt();
+                        helper.applyAdded(jobPriority, readTask(in));
+                        break;
+                    case STARTED:
+                        final String startedTaskID = in.readUTF();
+                        helper.applyStarted(startedTaskID, new DateTime(in.readLong()));
+                        break;
+                    case DONE:
+                        helper.applyDone(in.readUTF());
+                        break;
+                    case RECLAIMED:
+                        helper.applyReclaimed(in.readUTF());
+                        break;
+                    case PURGED:
+                        helper.applyPurged(in.readUTF());
+                        break;
+                    case STARTED_TASK:
+                        final boolean fromFastLane = JobPriority.fromPriority(in.readInt()) == JobPriority.FASTLANE;
+                        final DateTime startTime = new DateTime(in.readLong());
+                        helper.applyStartedTask(readTask(in), startTime, fromFastLane);
+                        break;
+                    default:
+                        LOG.warn("Unknown record type {} in {}, ignoring the rest of the file", type, file.getAbsolutePath());
+                        return records;
+                }
+                records++;
+            }
+        } catch (EOFException | IllegalArgumentException e) {
+            // the master died in the middle of a write
+            LOG.warn("Truncated record in {} after {} records", file.getAbsolutePath(), records);
+        }
+        return records;
+    }
+
+    private void writeAdded(final DataOutputStream out, final Integer jobPriority, final RetrieveUrl task) throws IOException {
+        out.writeByte(ADDED);
+        out.writeInt(jobPriority);
+        writeTask(out, task);
+    }
+
+    private void writeTask(final DataOutputStream out, final RetrieveUrl task) throws IOException {
+        final byte[] bytes = serializer.toBinary(task);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private RetrieveUrl readTask(final DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return (RetrieveUrl) serializer.fromBinary(bytes);
+    }
+
+    private DataOutputStream openLog(final long logGeneration) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile(logGeneration), true)));
+    }
+
+    private File logFile(final long logGeneration) {
+        return new File(directory, LOG_FILE_PREFIX + logGeneration + LOG_FILE_SUFFIX);
+    }
+
+    private List<Long> logGenerations() {
+        final List<Long> generations = new ArrayList<>();
+        final String[] names = directory.list();
+        if (null == names) {
+            return generations;
+        }
+        for (final String name : names) {
+            if (name.startsWith(LOG_FILE_PREFIX) && name.endsWith(LOG_FILE_SUFFIX)) {
+                try {
+                    generations.add(Long.parseLong(name.substring(LOG_FILE_PREFIX.length(), name.length() - LOG_FILE_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unknown file {} in the accountant journal directory", name);
+                }
+            }
+        }
+        Collections.sort(generations);
+        return generations;
+    }
+}
@@ -0,0 +1,36 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import com.typesafe.config.Config;
+
+/**
+ * Stores the configuration of the write-ahead log of the accountant.
+ */
+public class AccountantJournalConfig {
+
+    /**
+     * The local directory which holds the log and the snapshot.
+     */
+    private final String directory;
+
+    /**
+     * The number of log records after which a new snapshot is written and the log is truncated.
+     */
+    private final Integer recordsBetweenSnapshots;
+
+    public AccountantJournalConfig(final String directory, final Integer recordsBetweenSnapshots) {
+        this.directory = directory;
+        this.recordsBetweenSnapshots = recordsBetweenSnapshots;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public Integer getRecordsBetweenSnapshots() {
+        return recordsBetweenSnapshots;
+    }
+
+    public static AccountantJournalConfig valueOf(final Config config) {
+        return new AccountantJournalConfig(config.getString("directory"), config.getInt("recordsBetweenSnapshots"));
+    }
+}
@@ -0,0 +1,94 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import java.util.*;
+
+/**
+ * Remembers which slaves recently got the tasks of each IP. These slaves already resolved the host of the IP and
+ * likely still hold connections to it, so the accountant prefers to give them the next tasks of the IP.
+ * The affinity of a slave expires when it doesn't get tasks of the IP for a while, e.g. because it left the cluster.
+ */
+public class IpSlaveAffinity {
+
+    /**
+     * The time after which a slave which didn't get tasks of an IP loses its affinity with it.
+     */
+    private final long ttlInMillis;
+
+    /**
+     * The maximum number of slaves with affinity to the same IP; the ones which got its tasks the longest ago are
+     * forgotten first.
+     */
+    private final int maxSlavesPerIP;
+
+    /**
+     * The slaves of each IP, with the time they last got one of its tasks, the oldest first.
+     */
+    private final Map<String, LinkedHashMap<String, Long>> slavesPerIP = new HashMap<>();
+
+    public IpSlaveAffinity(final long ttlInMillis, final int maxSlavesPerIP) {
+        this.ttlInMillis = ttlInMillis;
+        this.maxSlavesPerIP = maxSlavesPerIP;
+    }
+
+    /**
+     * Records that the slave got a task of the IP.
+     */
+    public void served(final String ip, final String slave, final long now) {
+        LinkedHashMap<String, Long> slaves = slavesPerIP.get(ip);
+        if (null == slaves) {
+            slaves = new LinkedHashMap<>();
+            slavesPerIP.put(ip, slaves);
+        }
+        slaves.remove(slave);
+        slaves.put(slave, now);
+        if (slaves.size() > maxSlavesPerIP) {
+            final Iterator<String> oldest = slaves.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * @return true if the slave should get the tasks of the IP before the other slaves: it has affinity with the IP,
+     * or no slave has. Always true for an unknown slave.
+     */
+    public boolean isPreferredBy(final String ip, final String slave, final long now) {
+        if (null == slave) {
+            return true;
+        }
+        final LinkedHashMap<String, Long> slaves = slavesPerIP.get(ip);
+        if (null == slaves) {
+            return true;
+        }
+        removeExpired(slaves, now);
+        if (slaves.isEmpty()) {
+            slavesPerIP.remove(ip);
+            return true;
+        }
+        return slaves.containsKey(slave);
+    }
+
+    /**
+     * Forgets the expired affinities.
+     *
+     * @return the number of IPs which still have affinity with some slave
+     */
+    public int clean(final long now) {
+        final Iterator<LinkedHashMap<String, Long>> slavesOfIPs = slavesPerIP.values().iterator();
+        while (slavesOfIPs.hasNext()) {
+            final LinkedHashMap<String, Long> slaves = slavesOfIPs.next();
+            removeExpired(slaves, now);
+            if (slaves.isEmpty()) {
+                slavesOfIPs.remove();
+            }
+        }
+        return slavesPerIP.size();
+    }
+
+    private void removeExpired(final LinkedHashMap<String, Long> slaves, final long now) {
+        final Iterator<Long> lastServed = slaves.values().iterator();
+        while (lastServed.hasNext() && now - lastServed.next() > ttlInMillis) {
+            lastServed.remove();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import com.typesafe.config.Config;
+import org.joda.time.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores how the accountant shares the credits of the slaves between the fast lane and the normal lane.
+ */
+public class LaneSchedulingConfig {
+
+    /**
+     * Used when the master config has no lane-scheduling section.
+     */
+    public static final LaneSchedulingConfig DEFAULT = new LaneSchedulingConfig(4, 1, Duration.standardMinutes(10));
+
+    /**
+     * The share of the credits given to the fast lane while both lanes have tasks. With weights 4 and 1 the slaves
+     * get four fast lane tasks for each normal lane task.
+     */
+    private final Integer fastLaneWeight;
+
+    /**
+     * The share of the credits given to the normal lane while both lanes have tasks.
+     */
+    private final Integer normalLaneWeight;
+
+    /**
+     * The weight of the normal lane grows by its configured weight for each aging period its longest waiting task
+     * waited, up to the weight of the fast lane, which bounds the wait of the normal lane tasks. Zero disables aging.
+     */
+    private final Duration agingPeriod;
+
+    public LaneSchedulingConfig(final Integer fastLaneWeight, final Integer normalLaneWeight, final Duration agingPeriod) {
+        if (fastLaneWeight <= 0 || normalLaneWeight <= 0) {
+            throw new IllegalArgumentException("The lane weights must be positive");
+        }
+        this.fastLaneWeight = fastLaneWeight;
+        this.normalLaneWeight = normalLaneWeight;
+        this.agingPeriod = agingPeriod;
+    }
+
+    public Integer getFastLaneWeight() {
+        return fastLaneWeight;
+    }
+
+    public Integer getNormalLaneWeight() {
+        return normalLaneWeight;
+    }
+
+    public Duration getAgingPeriod() {
+        return agingPeriod;
+    }
+
+    public static LaneSchedulingConfig valueOf(final Config config) {
+        return new LaneSchedulingConfig(config.getInt("fastLaneWeight"), config.getInt("normalLaneWeight"),
+                Duration.standardSeconds(config.getDuration("agingPeriod", TimeUnit.SECONDS)));
+    }
+}
@@ -0,0 +1,79 @@
+package eu.europeana.harvester.cluster.master.archiver;
+
+import akka.actor.Cancellable;
+import akka.actor.UntypedActor;
+import eu.europeana.harvester.cluster.domain.messages.ArchiveDocuments;
+import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
+import eu.europeana.harvester.logging.LoggingComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the archiver in the background. Each message moves one batch; the next one is scheduled after a delay which
+ * keeps the load on the database under the configured rate.
+ */
+public class ArchiverActor extends UntypedActor {
+
+    private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
+
+    private Cancellable cancellable;
+
+    private final ArchiverConfig config;
+    private final ArchiverHelper helper;
+
+    public ArchiverActor(final ArchiverConfig config,
+                         final ProcessingJobDao processingJobDao,
+                         final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao) {
+        if (null == config || null == processingJobDao || null == sourceDocumentProcessingStatisticsDao) {
+            throw new IllegalArgumentException("ArchiverActor: the config and the DAOs cannot be null!");
+        }
+
+        this.config = config;
+        this.helper = new ArchiverHelper(config, processingJobDao, sourceDocumentProcessingStatisticsDao);
+    }
+
+    @Override
+    public void preStart() {
+        try {
+            helper.ensureExpiry();
+        } catch (Exception e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.ARCHIVER),
+                    "Cannot create the TTL indexes of the history collections", e);
+        }
+        cancellable = scheduleOnce(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @Override
+    public void postStop() {
+        if (null != cancellable) cancellable.cancel();
+    }
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof ArchiveDocuments) {
+            long delayInMillis;
+            try {
+                delayInMillis = helper.archiveNextBatch();
+            } catch (Exception e) {
+                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.ARCHIVER),
+                        "Archiving failed, retrying at the next run", e);
+                helper.abortRun();
+                delayInMillis = -1;
+            }
+            cancellable = scheduleOnce(delayInMillis < 0 ? config.getTimeBetweenRuns().getMillis() : delayInMillis);
+        }
+    }
+
+    private Cancellable scheduleOnce(final long delayInMillis) {
+        return getContext().system().scheduler().scheduleOnce(Duration.create(delayInMillis, TimeUnit.MILLISECONDS),
+                getSelf(),
+                new ArchiveDocuments(),
+                getContext().dispatcher(),
+                getSelf()
+        );
+    }
+}
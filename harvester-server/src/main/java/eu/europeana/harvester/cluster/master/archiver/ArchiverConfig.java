@@ -0,0 +1,89 @@
+package eu.europeana.harvester.cluster.master.archiver;
+
+import com.typesafe.config.Config;
+import org.joda.time.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the configuration of the archiver, which moves the finished jobs and the old statistics to the history
+ * collections.
+ */
+public class ArchiverConfig {
+
+    /**
+     * The time between the end of a run and the start of the next one.
+     */
+    private final Duration timeBetweenRuns;
+
+    /**
+     * How long after its expected start a finished job stays in the ProcessingJob collection.
+     */
+    private final Duration jobRetention;
+
+    /**
+     * How long after its last update a statistic stays in the SourceDocumentProcessingStatistics collection.
+     */
+    private final Duration statisticsRetention;
+
+    /**
+     * How long the archived documents are kept in the history collections before they expire.
+     */
+    private final Duration historyRetention;
+
+    /**
+     * The number of documents moved by one bulk write.
+     */
+    private final Integer batchSize;
+
+    /**
+     * The maximum rate of the moved documents; the batches are spaced to stay under it.
+     */
+    private final Integer maxDocumentsPerSecond;
+
+    public ArchiverConfig(final Duration timeBetweenRuns, final Duration jobRetention, final Duration statisticsRetention,
+                          final Duration historyRetention, final Integer batchSize, final Integer maxDocumentsPerSecond) {
+        if (batchSize <= 0 || maxDocumentsPerSecond <= 0) {
+            throw new IllegalArgumentException("The batch size and the rate of the archiver must be positive");
+        }
+        this.timeBetweenRuns = timeBetweenRuns;
+        this.jobRetention = jobRetention;
+        this.statisticsRetention = statisticsRetention;
+        this.historyRetention = historyRetention;
+        this.batchSize = batchSize;
+        this.maxDocumentsPerSecond = maxDocumentsPerSecond;
+    }
+
+    public Duration getTimeBetweenRuns() {
+        return timeBetweenRuns;
+    }
+
+    public Duration getJobRetention() {
+        return jobRetention;
+    }
+
+    public Duration getStatisticsRetention() {
+        return statisticsRetention;
+    }
+
+    public Duration getHistoryRetention() {
+        return historyRetention;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public Integer getMaxDocumentsPerSecond() {
+        return maxDocumentsPerSecond;
+    }
+
+    public static ArchiverConfig valueOf(final Config config) {
+        return new ArchiverConfig(Duration.standardSeconds(config.getDuration("timeBetweenRuns", TimeUnit.SECONDS)),
+                                  Duration.standardSeconds(config.getDuration("jobRetention", TimeUnit.SECONDS)),
+                                  Duration.standardSeconds(config.getDuration("statisticsRetention", TimeUnit.SECONDS)),
+                                  Duration.standardSeconds(config.getDuration("historyRetention", TimeUnit.SECONDS)),
+                                  config.getInt("batchSize"),
+                                  config.getInt("maxDocumentsPerSecond"));
+    }
+}
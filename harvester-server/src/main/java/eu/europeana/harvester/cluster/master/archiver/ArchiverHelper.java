@@ -0,0 +1,105 @@
+package eu.europeana.harvester.cluster.master.archiver;
+
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
+import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.joda.time.Duration;
+
+import java.util.Date;
+
+/**
+ * Moves the finished jobs and then the old statistics to the history collections, one batch at a time.
+ * The dates which select the documents are fixed when a run starts, so a run always ends.
+ */
+public class ArchiverHelper {
+    private static Logger LOG = LogManager.getLogger(ArchiverHelper.class.getName());
+
+    private final ArchiverConfig config;
+    private final ProcessingJobDao processingJobDao;
+    private final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao;
+
+    /**
+     * When the current run started, null between runs.
+     */
+    private Date runStartedAt;
+
+    /**
+     * True while the current run moves jobs, false once it moves statistics.
+     */
+    private boolean archivingJobs;
+
+    private long archivedJobs;
+    private long archivedStatistics;
+
+    public ArchiverHelper(final ArchiverConfig config,
+                          final ProcessingJobDao processingJobDao,
+                          final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao) {
+        this.config = config;
+        this.processingJobDao = processingJobDao;
+        this.sourceDocumentProcessingStatisticsDao = sourceDocumentProcessingStatisticsDao;
+    }
+
+    /**
+     * Creates or updates the TTL indexes of the history collections.
+     */
+    public void ensureExpiry() {
+        final long retentionInSecs = config.getHistoryRetention().getStandardSeconds();
+        processingJobDao.expireArchivedJobsAfter(retentionInSecs);
+        sourceDocumentProcessingStatisticsDao.expireArchivedStatisticsAfter(retentionInSecs);
+    }
+
+    /**
+     * Moves the next batch of documents, starting a new run if there is none in progress.
+     *
+     * @return the delay in milliseconds before the next batch which keeps the rate under the configured one,
+     * or -1 if the run is over
+     */
+    public long archiveNextBatch() {
+        if (null == runStartedAt) {
+            runStartedAt = new Date();
+            archivingJobs = true;
+            archivedJobs = 0;
+            archivedStatistics = 0;
+        }
+
+        final long batchStart = System.currentTimeMillis();
+        final int archived;
+        if (archivingJobs) {
+            archived = processingJobDao.archiveFinishedJobs(before(config.getJobRetention()), config.getBatchSize(),
+                                                            WriteConcern.ACKNOWLEDGED);
+            archivedJobs += archived;
+            MasterMetrics.MasterDatabase.ProcessingJobCollectionSizeEstimate.removed(archived);
+            MasterMetrics.MasterDatabase.HistoricalProcessingJobCollectionSizeEstimate.inserted(archived);
+            archivingJobs = archived == config.getBatchSize();
+        } else {
+            archived = sourceDocumentProcessingStatisticsDao.archiveStatistics(before(config.getStatisticsRetention()),
+                                                                               config.getBatchSize(),
+                                                                               WriteConcern.ACKNOWLEDGED);
+            archivedStatistics += archived;
+            MasterMetrics.MasterDatabase.SourceDocumentProcessingStatisticsCollectionSizeEstimate.removed(archived);
+            if (archived < config.getBatchSize()) {
+                LOG.info("Archived " + archivedJobs + " jobs and " + archivedStatistics + " statistics in " +
+                         (System.currentTimeMillis() - runStartedAt.getTime()) + " ms");
+                runStartedAt = null;
+                return -1;
+            }
+        }
+
+        final long spentInMillis = System.currentTimeMillis() - batchStart;
+        return Math.max(0, archived * 1000L / config.getMaxDocumentsPerSecond() - spentInMillis);
+    }
+
+    /**
+     * Drops the run in progress; the next batch starts a new one.
+     */
+    public void abortRun() {
+        runStartedAt = null;
+    }
+
+    private Date before(final Duration retention) {
+        return new Date(runStartedAt.getTime() - retention.getMillis());
+    }
+}
@@ -29,7 +29,8 @@ public class JobRestarterActor extends UntypedActor {
         }
 
         this.config = config;
-        helper = new JobRestarterHelper(documentReferenceDao, processingJobDao, processingProfileDao);
+        helper = new JobRestarterHelper(documentReferenceDao, processingJobDao, processingProfileDao,
+                                        config.getBatchSize(), config.getCheckpointFile());
     }
 
 
@@ -40,7 +41,7 @@ public class JobRestarterActor extends UntypedActor {
 
     @Override
     public void postStop() {
-        if (null == cancellable) cancellable.cancel();
+        if (null != cancellable) cancellable.cancel();
     }
 
     @Override
@@ -0,0 +1,65 @@
+package eu.europeana.harvester.cluster.master.jobrestarter;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+
+/**
+ * The progress of an unfinished reload of the jobs: the date used to select the profiles when the reload started and
+ * the id of the last profile whose jobs were written. Saved in a local file after each batch.
+ */
+public class JobRestarterCheckpoint {
+
+    /**
+     * The upper limit of toBeEvaluatedAt of the interrupted reload.
+     */
+    private final Date evaluatedBefore;
+
+    /**
+     * The id of the last profile which was completely reloaded.
+     */
+    private final String lastProfileId;
+
+    public JobRestarterCheckpoint (final Date evaluatedBefore, final String lastProfileId) {
+        this.evaluatedBefore = evaluatedBefore;
+        this.lastProfileId = lastProfileId;
+    }
+
+    public Date getEvaluatedBefore () {
+        return evaluatedBefore;
+    }
+
+    public String getLastProfileId () {
+        return lastProfileId;
+    }
+
+    /**
+     * @return the saved checkpoint or null if there is no reload to resume
+     */
+    public static JobRestarterCheckpoint load (final File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            return new JobRestarterCheckpoint(new Date(in.readLong()), in.readUTF());
+        }
+    }
+
+    /**
+     * Replaces the saved checkpoint. The new one is written in a temporary file first, so a crash while writing
+     * leaves the previous one in place.
+     */
+    public void save (final File file) throws IOException {
+        final File temporaryFile = new File(file.getAbsolutePath() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)))) {
+            out.writeLong(evaluatedBefore.getTime());
+            out.writeUTF(lastProfileId);
+        }
+        Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static void clear (final File file) throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+}
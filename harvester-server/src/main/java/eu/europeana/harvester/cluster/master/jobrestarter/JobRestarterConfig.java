@@ -9,15 +9,47 @@ import java.util.concurrent.TimeUnit;
  * Created by salexandru on 20.07.2015.
  */
 public class JobRestarterConfig {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
     private final Duration numberOfSecondsBetweenRepetition;
 
-    public JobRestarterConfig (Duration numberOfSecondsBetweenRepetition) {this.numberOfSecondsBetweenRepetition = numberOfSecondsBetweenRepetition;}
+    /**
+     * The number of profiles which are reloaded together: one read of the references and one bulk write of the jobs
+     * and of the profiles for each batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The local file where the progress of the current reload is saved after each batch, null to restart from the
+     * beginning after a crash.
+     */
+    private final String checkpointFile;
+
+    public JobRestarterConfig (Duration numberOfSecondsBetweenRepetition) {
+        this(numberOfSecondsBetweenRepetition, DEFAULT_BATCH_SIZE, null);
+    }
+
+    public JobRestarterConfig (Duration numberOfSecondsBetweenRepetition, int batchSize, String checkpointFile) {
+        this.numberOfSecondsBetweenRepetition = numberOfSecondsBetweenRepetition;
+        this.batchSize = batchSize;
+        this.checkpointFile = checkpointFile;
+    }
 
     public Duration getNumberOfSecondsBetweenRepetition () {
         return numberOfSecondsBetweenRepetition;
     }
 
+    public int getBatchSize () {
+        return batchSize;
+    }
+
+    public String getCheckpointFile () {
+        return checkpointFile;
+    }
+
     public static JobRestarterConfig valueOf (final Config config) {
-        return new JobRestarterConfig(new Duration(config.getDuration("jobRestarterTimeBetweenRepetitions", TimeUnit.SECONDS)));
+        return new JobRestarterConfig(Duration.standardSeconds(config.getDuration("jobRestarterTimeBetweenRepetitions", TimeUnit.SECONDS)),
+                                      config.hasPath("jobRestarterBatchSize") ? config.getInt("jobRestarterBatchSize") : DEFAULT_BATCH_SIZE,
+                                      config.hasPath("jobRestarterCheckpointFile") ? config.getString("jobRestarterCheckpointFile") : null);
     }
 }
@@ -1,19 +1,23 @@
 package eu.europeana.harvester.cluster.master.jobrestarter;
 
 import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceProcessingProfileDao;
+import eu.europeana.harvester.domain.ProcessingJob;
+import eu.europeana.harvester.domain.SourceDocumentReference;
 import eu.europeana.harvester.domain.SourceDocumentReferenceProcessingProfile;
 import eu.europeana.jobcreator.JobCreator;
 import eu.europeana.jobcreator.domain.ProcessingJobTuple;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -26,35 +30,142 @@ public class JobRestarterHelper {
     private final ProcessingJobDao processingJobDao;
     private final SourceDocumentReferenceProcessingProfileDao processingProfileDao;
 
+    private final int batchSize;
+
+    /**
+     * Where the progress of the reload is saved, null if the reload starts from the beginning after a crash.
+     */
+    private final File checkpointFile;
+
     public JobRestarterHelper (SourceDocumentReferenceDao sourceDocumentReferenceDao,
                                ProcessingJobDao processingJobDao,
                                SourceDocumentReferenceProcessingProfileDao processingProfileDao) {
+        this(sourceDocumentReferenceDao, processingJobDao, processingProfileDao, JobRestarterConfig.DEFAULT_BATCH_SIZE, null);
+    }
+
+    public JobRestarterHelper (SourceDocumentReferenceDao sourceDocumentReferenceDao,
+                               ProcessingJobDao processingJobDao,
+                               SourceDocumentReferenceProcessingProfileDao processingProfileDao,
+                               int batchSize,
+                               String checkpointFile) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("The batch size of the job restarter must be positive, got " + batchSize);
+        }
         this.sourceDocumentReferenceDao = sourceDocumentReferenceDao;
         this.processingProfileDao = processingProfileDao;
         this.processingJobDao = processingJobDao;
+        this.batchSize = batchSize;
+        this.checkpointFile = null == checkpointFile ? null : new File(checkpointFile);
     }
 
-    public void reloadJobs() throws MalformedURLException, UnknownHostException, ExecutionException {
-        final List<ProcessingJobTuple> newProcessingJobTuples = new ArrayList<>();
-
-        for (final SourceDocumentReferenceProcessingProfile profile: processingProfileDao.getJobToBeEvaluated()) {
-            newProcessingJobTuples.addAll(JobCreator.createJobs(profile.getReferenceOwner(),
-                    sourceDocumentReferenceDao.read(profile.getSourceDocumentReferenceId()),
-                    profile.getUrlSourceType(),
-                    profile.getPriority(),
-                    profile.getTaskType()
-                    )
-            );
-        }
-
-        for (final ProcessingJobTuple jobTuple: newProcessingJobTuples) {
-            processingJobDao.createOrModify(jobTuple.getProcessingJob(), WriteConcern.ACKNOWLEDGED);
-            for (final SourceDocumentReferenceProcessingProfile profile: jobTuple.getSourceDocumentReferenceProcessingProfiles()) {
-                //should never happen
-                if (!processingProfileDao.update(profile, WriteConcern.ACKNOWLEDGED)) {
-                    LOG.error(profile.getId() + " " + profile.getSourceDocumentReferenceId() + " " + profile.getTaskType());
-                }
+    /**
+     * Creates new jobs for all the profiles which have to be re-evaluated and acknowledges the profiles.
+     * The profiles are streamed in the order of their ids and handled in batches. If a previous reload was interrupted
+     * it's resumed after the last batch it finished.
+     *
+     * @return the number of reloaded profiles
+     */
+    public int reloadJobs() throws MalformedURLException, UnknownHostException, ExecutionException {
+        final JobRestarterCheckpoint checkpoint = loadCheckpoint();
+        final Date evaluatedBefore = null == checkpoint ? new Date() : checkpoint.getEvaluatedBefore();
+        final String afterId = null == checkpoint ? null : checkpoint.getLastProfileId();
+        if (null != checkpoint) {
+            LOG.info("Resuming the reload of the jobs evaluated before " + evaluatedBefore + " after the profile " + afterId);
+        }
+
+        final Iterator<SourceDocumentReferenceProcessingProfile> profiles =
+                processingProfileDao.streamJobToBeEvaluated(evaluatedBefore, afterId, batchSize);
+
+        int numberOfProfiles = 0;
+        final List<SourceDocumentReferenceProcessingProfile> batch = new ArrayList<>(batchSize);
+        while (profiles.hasNext()) {
+            batch.add(profiles.next());
+            if (batch.size() == batchSize) {
+                numberOfProfiles += reloadBatch(batch, evaluatedBefore);
+                batch.clear();
             }
         }
+        if (!batch.isEmpty()) {
+            numberOfProfiles += reloadBatch(batch, evaluatedBefore);
+        }
+
+        clearCheckpoint();
+        return numberOfProfiles;
+    }
+
+    private int reloadBatch(final List<SourceDocumentReferenceProcessingProfile> profiles, final Date evaluatedBefore) throws ExecutionException {
+        final Set<String> referenceIds = new HashSet<>();
+        for (final SourceDocumentReferenceProcessingProfile profile : profiles) {
+            referenceIds.add(profile.getSourceDocumentReferenceId());
+        }
+
+        final Map<String, SourceDocumentReference> references = new HashMap<>(referenceIds.size());
+        for (final SourceDocumentReference reference : sourceDocumentReferenceDao.read(new ArrayList<>(referenceIds))) {
+            references.put(reference.getId(), reference);
+        }
+
+        final List<ProcessingJob> newProcessingJobs = new ArrayList<>(profiles.size());
+        final List<SourceDocumentReferenceProcessingProfile> acknowledgedProfiles = new ArrayList<>(profiles.size());
+        for (final SourceDocumentReferenceProcessingProfile profile : profiles) {
+            final SourceDocumentReference reference = references.get(profile.getSourceDocumentReferenceId());
+            //should never happen
+            if (null == reference) {
+                LOG.error("Missing source document reference for " + profile.getId() + " " + profile.getSourceDocumentReferenceId() + " " + profile.getTaskType());
+                continue;
+            }
+
+            for (final ProcessingJobTuple jobTuple : JobCreator.createJobs(profile.getReferenceOwner(),
+                                                                           reference,
+                                                                           profile.getUrlSourceType(),
+                                                                           profile.getPriority(),
+                                                                           profile.getTaskType())) {
+                newProcessingJobs.add(jobTuple.getProcessingJob());
+                acknowledgedProfiles.addAll(jobTuple.getSourceDocumentReferenceProcessingProfiles());
+            }
+        }
+
+        // the jobs are written before the profiles: after a crash in between the batch is reloaded, it's never lost
+        if (!newProcessingJobs.isEmpty()) {
+            processingJobDao.createOrModify(newProcessingJobs, WriteConcern.ACKNOWLEDGED);
+            MasterMetrics.MasterDatabase.ProcessingJobCollectionSizeEstimate.inserted(newProcessingJobs.size());
+        }
+        processingProfileDao.createOrModify(acknowledgedProfiles, WriteConcern.ACKNOWLEDGED);
+
+        saveCheckpoint(new JobRestarterCheckpoint(evaluatedBefore, profiles.get(profiles.size() - 1).getId()));
+        return profiles.size();
+    }
+
+    private JobRestarterCheckpoint loadCheckpoint() {
+        if (null == checkpointFile) {
+            return null;
+        }
+        try {
+            return JobRestarterCheckpoint.load(checkpointFile);
+        } catch (IOException e) {
+            LOG.error("Cannot read the job restarter checkpoint " + checkpointFile.getAbsolutePath() + ", reloading from the beginning", e);
+            return null;
+        }
+    }
+
+    private void saveCheckpoint(final JobRestarterCheckpoint checkpoint) {
+        if (null == checkpointFile) {
+            return;
+        }
+        try {
+            checkpoint.save(checkpointFile);
+        } catch (IOException e) {
+            LOG.error("Cannot save the job restarter checkpoint " + checkpointFile.getAbsolutePath(), e);
+        }
+    }
+
+    private void clearCheckpoint() {
+        if (null == checkpointFile) {
+            return;
+        }
+        try {
+            JobRestarterCheckpoint.clear(checkpointFile);
+        } catch (IOException e) {
+            LOG.error("Cannot delete the job restarter checkpoint " + checkpointFile.getAbsolutePath(), e);
+        }
     }
 }
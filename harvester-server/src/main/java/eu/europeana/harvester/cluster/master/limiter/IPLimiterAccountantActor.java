@@ -5,6 +5,7 @@ import akka.actor.ActorSystem;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import eu.europeana.harvester.cluster.master.limiter.domain.*;
+import eu.europeana.harvester.cluster.master.metrics.BusiestIPs;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.joda.time.DateTime;
@@ -34,6 +35,12 @@ public class IPLimiterAccountantActor extends UntypedActor {
     private final IpLimiterAccountant ipLimiterAccountant;
     private final IPLimiterConfig IPLimiterConfig;
 
+    /**
+     * The IPs with the most denied reservations, published at most once per second for the metrics reporter.
+     */
+    private final BusiestIPs busiestDeniedIPs = new BusiestIPs();
+    private long lastPublishedDeniedIPs = 0;
+
     public IPLimiterAccountantActor(final IPLimiterConfig IPLimiterConfig) {
         this.ipLimiterAccountant = new IpLimiterAccountant(IPLimiterConfig.getDefaultLimitsPerIp(), IPLimiterConfig.getSpecificLimitsPerIp());
         this.IPLimiterConfig = IPLimiterConfig;
@@ -44,6 +51,8 @@ public class IPLimiterAccountantActor extends UntypedActor {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
                 "IP limiter pre starting.");
 
+        busiestDeniedIPs.registerHandlers(MasterMetrics.Master.busiestIPsDeniedCounts);
+
         getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(IPLimiterConfig.getMaxSlotUsageLife().getStandardSeconds(),
                 TimeUnit.SECONDS), getSelf(), new IPLimitCleanExpiredSlots(), getContext().system().dispatcher(), getSelf());
     }
@@ -60,7 +69,10 @@ public class IPLimiterAccountantActor extends UntypedActor {
             final ReserveConnectionSlotRequest reserveConnectionSlotRequest = (ReserveConnectionSlotRequest) message;
             final ReserveConnectionSlotResponse response = ipLimiterAccountant.reserveConnectionSlotRequest(reserveConnectionSlotRequest);
             if (response.getGranted()) MasterMetrics.Master.ipLimitGrantedSlotRequestCounter.inc();
-            else MasterMetrics.Master.ipLimitNotGrantedSlotRequestCounter.inc();
+            else {
+                MasterMetrics.Master.ipLimitNotGrantedSlotRequestCounter.inc();
+                publishDeniedIPs(false);
+            }
 
             getSender().tell(response, getSelf());
             return;
@@ -94,11 +106,23 @@ public class IPLimiterAccountantActor extends UntypedActor {
 
     }
 
+    private void publishDeniedIPs(final boolean now) {
+        final long currentTime = System.currentTimeMillis();
+        if (now || currentTime - lastPublishedDeniedIPs >= 1000) {
+            busiestDeniedIPs.publish(ipLimiterAccountant.getDeniedReservationsPerIp());
+            lastPublishedDeniedIPs = currentTime;
+        }
+    }
+
     private final void cleanExpiredSlots() {
         final int reclaimedSlots = ipLimiterAccountant.reclaimOccupiedSlotsOlderThan(DateTime.now().minus(IPLimiterConfig.getMaxSlotUsageLife()));
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
                 "IP limiter reclaimed {} slots. Next reclaiming will execute in {} seconds.", reclaimedSlots, IPLimiterConfig.getMaxSlotUsageLife().toStandardSeconds().getSeconds());
 
+        publishDeniedIPs(true);
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
+                "IP limiter busiest IPs by denied reservations {}", busiestDeniedIPs.get());
+
     }
 }
 
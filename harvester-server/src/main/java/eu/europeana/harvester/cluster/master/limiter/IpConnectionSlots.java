@@ -14,6 +14,16 @@ public class IpConnectionSlots {
     private Integer maxAvailableSlots;
     private final String ip;
     private final HashMap<String /* Slot token */, DateTime /* The time when it was granted */> slots;
+
+    /**
+     * The moving average of the time the slots are held until returned, null before the first return.
+     */
+    private Long averageHoldInMillis = null;
+
+    /**
+     * The weight of the last returned slot in the moving average of the hold time.
+     */
+    private static final double HOLD_AVERAGE_WEIGHT = 0.2;
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
     public IpConnectionSlots(Integer maxAvailableSlots, String ip) {
@@ -30,7 +40,7 @@ public class IpConnectionSlots {
             response = new ReserveConnectionSlotResponse(ip,taskId, true);
             slots.put(response.getSlotId(), DateTime.now());
         } else {
-            response = new ReserveConnectionSlotResponse(ip,taskId , false);
+            response = new ReserveConnectionSlotResponse(ip,taskId , false, estimateTimeUntilASlotFrees());
         }
         LOG.debug("reserve connection slot rez, ip {}, granted {}, slot id {}, task id {} ", response.getIp(), response.getGranted(), response.getSlotId(), response.getTaskID());
 
@@ -39,13 +49,31 @@ public class IpConnectionSlots {
 
     public final boolean returnConnectionSlotReservation(final String slotId) {
         if (slots.containsKey(slotId)) {
-            slots.remove(slotId);
+            final long hold = Math.max(0, DateTime.now().getMillis() - slots.remove(slotId).getMillis());
+            averageHoldInMillis = (null == averageHoldInMillis) ? hold :
+                    Math.round(HOLD_AVERAGE_WEIGHT * hold + (1 - HOLD_AVERAGE_WEIGHT) * averageHoldInMillis);
             return true;
         } else {
             return false;
         }
     }
 
+    /**
+     * The slot held the longest is expected to be returned first, once held for the average hold time.
+     *
+     * @return the estimated time until a slot frees up, null if no slot was returned yet
+     */
+    private Long estimateTimeUntilASlotFrees() {
+        if (null == averageHoldInMillis || slots.isEmpty()) {
+            return null;
+        }
+        long oldestGrant = Long.MAX_VALUE;
+        for (final DateTime granted : slots.values()) {
+            oldestGrant = Math.min(oldestGrant, granted.getMillis());
+        }
+        return Math.max(0, oldestGrant + averageHoldInMillis - DateTime.now().getMillis());
+    }
+
     public final Integer reclaimOccupiedSlotsOlderThan(final DateTime limit) {
         final List<String> slotIdsToBeReclaimed = new ArrayList<>();
         for (final String slotId : slots.keySet()) {
@@ -3,6 +3,7 @@ package eu.europeana.harvester.cluster.master.limiter;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.metrics.IpCounts;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,6 +16,7 @@ public class IpLimiterAccountant {
     private final Integer defaultLimitsPerIp;
     private final Map<String, Integer> specificLimitsPerIp = new HashMap<>();
     private final Map<String /* IP */, IpConnectionSlots> occupiedConnectionSlotsPerIp = new HashMap<>();
+    private final IpCounts deniedReservationsPerIp = new IpCounts();
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
     public IpLimiterAccountant(Integer defaultLimitsPerIp, Map<String, Integer> newSpecificLimitsPerIp) {
@@ -36,7 +38,16 @@ public class IpLimiterAccountant {
 
     public final ReserveConnectionSlotResponse reserveConnectionSlotRequest(final ReserveConnectionSlotRequest reserveConnectionSlotRequest) {
         occupiedConnectionSlotsPerIpFull(reserveConnectionSlotRequest.getIp());
-        return occupiedConnectionSlotsPerIp.get(reserveConnectionSlotRequest.getIp()).requestConnectionSlotReservation(reserveConnectionSlotRequest.getTaskID());
+        final ReserveConnectionSlotResponse response = occupiedConnectionSlotsPerIp.get(reserveConnectionSlotRequest.getIp()).requestConnectionSlotReservation(reserveConnectionSlotRequest.getTaskID());
+        if (!response.getGranted()) deniedReservationsPerIp.increment(reserveConnectionSlotRequest.getIp());
+        return response;
+    }
+
+    /**
+     * @return the number of reservations denied to each IP since the start
+     */
+    public final IpCounts getDeniedReservationsPerIp() {
+        return deniedReservationsPerIp;
     }
 
     public final boolean returnConnectionSlotRequest(final ReturnConnectionSlotRequest returnConnectionSlotRequest) {
@@ -0,0 +1,93 @@
+package eu.europeana.harvester.cluster.master.limiter;
+
+import eu.europeana.harvester.cluster.master.limiter.domain.ChangeMaxAvailableSlotsRequest;
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.domain.MachineResourceReference;
+
+import java.util.*;
+
+/**
+ * A versioned view of the connection limits stored in the machine resource references.
+ * The first refresh (and the first one after a reset) reads all the references, the following ones read only
+ * the references modified since the last seen modification. Both page through the references with a cursor, so
+ * there is no bound on their number. Only the limits which changed are pushed to the limiter.
+ */
+public class MachineResourceLimitsView {
+
+    /**
+     * The maximum number of references read in one query.
+     */
+    private static final int REFERENCES_PER_PAGE = 10000;
+
+    /**
+     * The last limit sent to the limiter for each ip.
+     */
+    private final Map<String, Integer> limitsPerIp = new HashMap<>();
+
+    /**
+     * The last modification seen in the db. Null means that a full read is needed.
+     */
+    private Date version = null;
+
+    /**
+     * Reads the changed machine resource references, registers their ips in the ip distribution and
+     * returns the limit changes that need to be sent to the limiter.
+     *
+     * @param machineResourceReferenceDao the dao used to read the references
+     * @param ipDistribution              the ip distribution of the loader, new ips are added with 0 jobs
+     * @return the limit changes
+     */
+    public synchronized List<ChangeMaxAvailableSlotsRequest> refresh(final MachineResourceReferenceDao machineResourceReferenceDao,
+                                                                     final Map<String, Integer> ipDistribution) {
+        Date newVersion = (null == version) ? new Date(0) : version;
+        final List<ChangeMaxAvailableSlotsRequest> changes = new ArrayList<>();
+
+        // the cursor of the pages: the (lastModified, id) of the last reference read
+        Date since = version;
+        String afterId = null;
+        List<MachineResourceReference> references;
+        do {
+            references = (null == version) ?
+                    machineResourceReferenceDao.getAllMachineResourceReferences(afterId, REFERENCES_PER_PAGE) :
+                    machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(since, afterId, REFERENCES_PER_PAGE);
+
+            for (final MachineResourceReference reference : references) {
+                if (!ipDistribution.containsKey(reference.getIp())) {
+                    ipDistribution.put(reference.getIp(), 0);
+                }
+
+                if (null != reference.getLastModified() && reference.getLastModified().after(newVersion)) {
+                    newVersion = reference.getLastModified();
+                }
+
+                final Integer limit = reference.getMaxConcurrentConnectionsLimit();
+                if (null != limit && !limit.equals(limitsPerIp.get(reference.getIp()))) {
+                    limitsPerIp.put(reference.getIp(), limit);
+                    changes.add(new ChangeMaxAvailableSlotsRequest(reference.getIp(), limit));
+                }
+            }
+
+            if (!references.isEmpty()) {
+                final MachineResourceReference last = references.get(references.size() - 1);
+                since = last.getLastModified();
+                afterId = last.getId();
+            }
+        } while (references.size() == REFERENCES_PER_PAGE);
+
+        version = newVersion;
+        return changes;
+    }
+
+    /**
+     * Forces a full read on the next refresh and resends all the limits.
+     * Needed for references edited directly in the db, which don't have their modification date updated.
+     */
+    public synchronized void reset() {
+        version = null;
+        limitsPerIp.clear();
+    }
+
+    public synchronized Date getVersion() {
+        return version;
+    }
+}
@@ -17,12 +17,23 @@ public class ReserveConnectionSlotResponse implements Serializable {
     private final String ip;
     private final Boolean granted;
 
+    /**
+     * For a denied reservation, the estimated time until a slot of the IP frees up. Null if unknown.
+     */
+    private final Long retryAfterInMillis;
+
 
     public ReserveConnectionSlotResponse(final String ip, final String taskID, final Boolean granted) {
+        this(ip, taskID, granted, null);
+    }
+
+    public ReserveConnectionSlotResponse(final String ip, final String taskID, final Boolean granted,
+                                         final Long retryAfterInMillis) {
         this.slotId = generateId();
         this.ip = ip;
         this.taskID = taskID;
         this.granted = granted;
+        this.retryAfterInMillis = retryAfterInMillis;
     }
 
     public String getSlotId() {
@@ -40,4 +51,8 @@ public class ReserveConnectionSlotResponse implements Serializable {
     public String getTaskID() {
         return taskID;
     }
+
+    public Long getRetryAfterInMillis() {
+        return retryAfterInMillis;
+    }
 }
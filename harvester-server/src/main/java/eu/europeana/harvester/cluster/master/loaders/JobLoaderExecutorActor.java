@@ -5,7 +5,9 @@ import com.codahale.metrics.Timer;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.IPExceptions;
 import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.master.limiter.MachineResourceLimitsView;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
+import eu.europeana.harvester.cluster.master.sharding.IpShardRing;
 import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
@@ -25,11 +27,14 @@ public class JobLoaderExecutorActor extends UntypedActor {
                                              final SourceDocumentReferenceDao SourceDocumentReferenceDao,
                                              final MachineResourceReferenceDao machineResourceReferenceDao,
                                              final HashMap<String, Boolean> ipsWithJobs, final IPExceptions ipExceptions,
-                                             final Map<String, Integer> ipDistribution
+                                             final Map<String, Integer> ipDistribution,
+                                             final MachineResourceLimitsView machineResourceLimitsView,
+                                             final IpShardRing shardRing, final Address shard
     ) {
         return system.actorOf(Props.create(JobLoaderExecutorActor.class,
                 clusterMasterConfig, accountantActor,limiterActor, processingJobDao, sourceDocumentProcessingStatisticsDao,
-                                           SourceDocumentReferenceDao, machineResourceReferenceDao, ipsWithJobs, ipExceptions, ipDistribution ));
+                                           SourceDocumentReferenceDao, machineResourceReferenceDao, ipsWithJobs, ipExceptions, ipDistribution, machineResourceLimitsView,
+                                           shardRing, shard));
 
     }
 
@@ -87,13 +92,31 @@ public class JobLoaderExecutorActor extends UntypedActor {
 
     private final ActorRef limiterActor;
 
+    /**
+     * The view of the machine limits already sent to the limiter.
+     */
+    private final MachineResourceLimitsView machineResourceLimitsView;
+
+    /**
+     * The partition of the IPs between the master shards, null if the master isn't sharded.
+     * Only the jobs of the IPs of this shard are loaded.
+     */
+    private final IpShardRing shardRing;
+
+    /**
+     * The address of the master shard of this loader.
+     */
+    private final Address shard;
+
     public JobLoaderExecutorActor(final ClusterMasterConfig clusterMasterConfig,
                                   final ActorRef accountantActor,final ActorRef limiterActor, final ProcessingJobDao processingJobDao,
                                   final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
                                   final SourceDocumentReferenceDao SourceDocumentReferenceDao,
                                   final MachineResourceReferenceDao machineResourceReferenceDao,
                                   final HashMap<String, Boolean> ipsWithJobs, final IPExceptions ipExceptions,
-                                  final Map<String, Integer> ipDistribution) {
+                                  final Map<String, Integer> ipDistribution,
+                                  final MachineResourceLimitsView machineResourceLimitsView,
+                                  final IpShardRing shardRing, final Address shard) {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
                 "The loader executor is constructed");
 
@@ -107,6 +130,9 @@ public class JobLoaderExecutorActor extends UntypedActor {
         this.ipsWithJobs = ipsWithJobs;
         this.ipExceptions = ipExceptions;
         this.ipDistribution = ipDistribution;
+        this.machineResourceLimitsView = machineResourceLimitsView;
+        this.shardRing = shardRing;
+        this.shard = shard;
 
 
     }
@@ -120,11 +146,13 @@ public class JobLoaderExecutorActor extends UntypedActor {
             try {
 
                 JobLoaderExecutorHelper.checkForNewFastLaneJobs(clusterMasterConfig, ipDistribution, ipsWithJobs, accountantActor,limiterActor, processingJobDao,
-                                                                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
+                                                                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, machineResourceLimitsView,
+                                                                shardRing, shard, LOG);
 
                 JobLoaderExecutorHelper.checkForNewJobs(clusterMasterConfig, ipDistribution, ipsWithJobs,
                                                         accountantActor,limiterActor, processingJobDao,
-                                                        SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
+                                                        SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, machineResourceLimitsView,
+                                                        shardRing, shard, LOG);
 
             } catch (Exception e) {
                 LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
@@ -1,18 +1,19 @@
 package eu.europeana.harvester.cluster.master.loaders;
 
 import akka.actor.ActorRef;
+import akka.actor.Address;
 import akka.pattern.Patterns;
 import akka.util.Timeout;
 import com.codahale.metrics.Timer;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
-import eu.europeana.harvester.cluster.domain.TaskState;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
-import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
 import eu.europeana.harvester.cluster.domain.messages.inner.GetNumberOfTasks;
 import eu.europeana.harvester.cluster.domain.messages.inner.GetOverLoadedIPs;
-import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.cluster.master.limiter.MachineResourceLimitsView;
 import eu.europeana.harvester.cluster.master.limiter.domain.ChangeMaxAvailableSlotsRequest;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
+import eu.europeana.harvester.cluster.master.sharding.IpShardRing;
 import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
@@ -28,6 +29,15 @@ import java.util.concurrent.TimeUnit;
 
 public class JobLoaderExecutorHelper {
 
+    /**
+     * The response headers of the last download which a conditional download compares with the new response.
+     */
+    private static final Set<String> CONDITIONAL_DOWNLOAD_HEADERS = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    static {
+        CONDITIONAL_DOWNLOAD_HEADERS.addAll(Arrays.asList("Content-Length", "ETag", "Last-Modified"));
+    }
+
     /**
      * Checks if there were added any new jobs in the db
      */
@@ -35,11 +45,14 @@ public class JobLoaderExecutorHelper {
                                        HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor,ActorRef limiterActor, ProcessingJobDao processingJobDao,
                                        SourceDocumentReferenceDao SourceDocumentReferenceDao, MachineResourceReferenceDao machineResourceReferenceDao,
                                        final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                       final MachineResourceLimitsView machineResourceLimitsView,
+                                       final IpShardRing shardRing, final Address shard,
                                        Logger LOG) {
 
         checkForNewJobsByPriority(JobPriority.NORMAL, clusterMasterConfig, ipDistribution, ipsWithJobs,
                 accountantActor, limiterActor, processingJobDao,
-                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
+                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, machineResourceLimitsView,
+                shardRing, shard, LOG);
 
     }
 
@@ -47,11 +60,14 @@ public class JobLoaderExecutorHelper {
                                                HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor,ActorRef limiterActor, ProcessingJobDao processingJobDao,
                                                SourceDocumentReferenceDao SourceDocumentReferenceDao, MachineResourceReferenceDao machineResourceReferenceDao,
                                                final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                               final MachineResourceLimitsView machineResourceLimitsView,
+                                               final IpShardRing shardRing, final Address shard,
                                                Logger LOG) {
 
         checkForNewJobsByPriority(JobPriority.FASTLANE, clusterMasterConfig, ipDistribution, ipsWithJobs,
                 accountantActor, limiterActor, processingJobDao,
-                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
+                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, machineResourceLimitsView,
+                shardRing, shard, LOG);
 
     }
 
@@ -59,6 +75,8 @@ public class JobLoaderExecutorHelper {
                                                  HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor,ActorRef limiterActor, ProcessingJobDao processingJobDao,
                                                  SourceDocumentReferenceDao SourceDocumentReferenceDao, MachineResourceReferenceDao machineResourceReferenceDao,
                                                  final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                                 final MachineResourceLimitsView machineResourceLimitsView,
+                                                 final IpShardRing shardRing, final Address shard,
                                                  Logger LOG) {
         final int taskSize = getAllTasks(accountantActor, LOG);
 
@@ -67,25 +85,27 @@ public class JobLoaderExecutorHelper {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
                 "{} priority - Checking IPs in database", jobPriority.name());
 
-        List<MachineResourceReference> ips = machineResourceReferenceDao.getAllMachineResourceReferences(new Page(0, 10000));
-        for (MachineResourceReference machine : ips) {
-            if (!ipDistribution.containsKey(machine.getIp())) {
-                ipDistribution.put(machine.getIp(), 0);
+        // Send to the limiter only the limits which changed since the last load
+        // (the IPs of the new references are registered in the distribution shared by all the loads)
+        final List<ChangeMaxAvailableSlotsRequest> limitChanges = machineResourceLimitsView.refresh(machineResourceReferenceDao, ipDistribution);
+        for (final ChangeMaxAvailableSlotsRequest limitChange : limitChanges) {
+            if (null == shardRing || shardRing.owns(shard, limitChange.getIp())) {
+                limiterActor.tell(limitChange, ActorRef.noSender());
             }
         }
 
-        // Set all the limits found in the machine resource reference table (unless null)
-        for (final MachineResourceReference reference : ips) {
-            if (reference.getMaxConcurrentConnectionsLimit() != null) {
-                limiterActor.tell(new ChangeMaxAvailableSlotsRequest(reference.getIp(),reference.getMaxConcurrentConnectionsLimit()),ActorRef.noSender());
-            }
-        }
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "{} priority - Sent {} limit changes, machine limits version {}", jobPriority.name(), limitChanges.size(), machineResourceLimitsView.getVersion());
 
         if (taskSize < clusterMasterConfig.getMaxTasksInMemory()) {
 
             //don't load for IPs that are overloaded
             ArrayList<String> noLoadIPs = getOverLoadedIPList(10000, accountantActor, LOG);
             HashMap<String, Integer> tempDistribution = new HashMap<>(ipDistribution);
+            // a sharded master loads only the jobs of its IPs, the other shards load the rest
+            if (null != shardRing) {
+                tempDistribution.keySet().retainAll(shardRing.ownedBy(shard, tempDistribution.keySet()));
+            }
             if (noLoadIPs != null) {
                 for (String ip : noLoadIPs) {
                     if (tempDistribution.containsKey(ip))
@@ -111,54 +131,110 @@ public class JobLoaderExecutorHelper {
             final Timer.Context loadJobResourcesFromDBDuration = MasterMetrics.Master.loadJobResourcesFromDBDuration.time();
 
             final Map<String, SourceDocumentReference> sourceDocumentReferenceIdToDoc = getStringSourceDocumentReferenceMap(SourceDocumentReferenceDao, all);
-            final Map<String, SourceDocumentProcessingStatistics> referenceIdTolastJobProcessingStatisticsMap = getSourceDocumentProcessingStatisticsMap(sourceDocumentProcessingStatisticsDao, sourceDocumentReferenceIdToDoc.values());
+            final Map<String, Map<String, String>> referenceIdToLastHeaders = getConditionalDownloadHeadersMap(sourceDocumentProcessingStatisticsDao, all, sourceDocumentReferenceIdToDoc);
             loadJobResourcesFromDBDuration.stop();
 
             LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
                     "{} priority -  Done with loading {} resources.", jobPriority.name(), sourceDocumentReferenceIdToDoc.size());
 
-            List<String> processingJobIdsThatAreRunningInHarvester = new ArrayList<>();
-            int i = 0;
-            for (final ProcessingJob job : all) {
+            // Start all the jobs with one update, before their tasks are sent: a job which is no longer READY
+            // (e.g. started by a previous load or paused meanwhile) is skipped
+            final List<ProcessingJob> startedJobs = startJobs(jobPriority, all, processingJobDao, LOG);
+
+            final List<String> jobIdsWithoutTasks = new ArrayList<>();
+            final Map<Integer, List<RetrieveUrl>> tasksByPriority = new HashMap<>();
+            for (final ProcessingJob job : startedJobs) {
                 try {
-//
-//                    i++;
-//                    if (i >= 500) {
-                        //LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                            //    "{} priority -  Done with another 500 jobs out of {}", jobPriority.name(), all.size());
-//                        i = 0;
-//                    }
-                    addJob(job, jobPriority.getPriority(), sourceDocumentReferenceIdToDoc, referenceIdTolastJobProcessingStatisticsMap, clusterMasterConfig, processingJobDao, sourceDocumentProcessingStatisticsDao,
-                            accountantActor, LOG);
-
-                    processingJobIdsThatAreRunningInHarvester.add(job.getId());
+                    final List<RetrieveUrl> tasks = addJob(job, sourceDocumentReferenceIdToDoc, referenceIdToLastHeaders, LOG);
+                    if (!tasksByPriority.containsKey(job.getPriority())) {
+                        tasksByPriority.put(job.getPriority(), new ArrayList<RetrieveUrl>());
+                    }
+                    tasksByPriority.get(job.getPriority()).addAll(tasks);
                 } catch (Exception e) {
+                    jobIdsWithoutTasks.add(job.getId());
                     LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
                             "{} priority -   JobLoaderMasterActor, while loading job: {} -> {}", jobPriority.name(), job.getId(), e.getMessage());
                 }
             }
 
-            if (!processingJobIdsThatAreRunningInHarvester.isEmpty()) {
-                processingJobDao.modifyStateOfJobsWithIds(JobState.RUNNING, processingJobIdsThatAreRunningInHarvester);
-                LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                        "{} priority -   JobLoaderMasterActor, {} new jobs loaded & their state in DB is RUNNING.", jobPriority.name(), processingJobIdsThatAreRunningInHarvester.size());
+            // one message per priority for the whole cycle instead of one per task
+            for (final Map.Entry<Integer, List<RetrieveUrl>> tasks : tasksByPriority.entrySet()) {
+                accountantActor.tell(new AddTasks(tasks.getKey(), tasks.getValue()), ActorRef.noSender());
             }
+
+            // the jobs whose tasks could not be built are retried by the next load
+            processingJobDao.modifyStateOfJobsWithIds(JobState.RUNNING, JobState.READY, jobIdsWithoutTasks);
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                    "{} priority -   JobLoaderMasterActor, {} new jobs loaded & their state in DB is RUNNING.", jobPriority.name(), startedJobs.size() - jobIdsWithoutTasks.size());
         }
     }
 
-    private static Map<String, SourceDocumentProcessingStatistics> getSourceDocumentProcessingStatisticsMap(SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao, Collection<SourceDocumentReference> all) {
-        final List<String> statsIds = new ArrayList<>();
+    /**
+     * Moves the jobs from READY to RUNNING with a single update guarded by their state, which marks them with a token
+     * unique to this load.
+     *
+     * @return the jobs which were READY and were started by this load
+     */
+    private static List<ProcessingJob> startJobs(final JobPriority jobPriority, final List<ProcessingJob> jobs,
+                                                 final ProcessingJobDao processingJobDao, final Logger LOG) {
+        final List<String> jobIds = new ArrayList<>(jobs.size());
+        for (final ProcessingJob job : jobs) {
+            jobIds.add(job.getId());
+        }
 
-        for (final SourceDocumentReference reference : all) {
-            if (reference.getLastStatsId() != null) statsIds.add(reference.getLastStatsId());
+        final String loadToken = UUID.randomUUID().toString();
+        final int numberOfStartedJobs = processingJobDao.startJobsWithIds(jobIds, loadToken);
+        if (numberOfStartedJobs == jobIds.size()) {
+            return jobs;
         }
 
-        final List<SourceDocumentProcessingStatistics> sourceDocumentProcessingStatisticsList = sourceDocumentProcessingStatisticsDao.read(statsIds);
+        // some jobs changed since they were read: a job RUNNING now may have been started by another load, only the
+        // ones with the token of this load were started by it
+        LOG.warn(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "{} priority - {} of the {} loaded jobs were no longer READY, they are skipped", jobPriority.name(), jobIds.size() - numberOfStartedJobs, jobIds.size());
+        final Set<String> startedJobIds = new HashSet<>(processingJobDao.findJobIdsStartedBy(loadToken, jobIds));
+        final List<ProcessingJob> startedJobs = new ArrayList<>(numberOfStartedJobs);
+        for (final ProcessingJob job : jobs) {
+            if (startedJobIds.contains(job.getId())) {
+                startedJobs.add(job);
+            }
+        }
+        return startedJobs;
+    }
 
-        final Map<String, SourceDocumentProcessingStatistics> results = new HashMap<>();
+    /**
+     * Reads with one query the response headers of the last download of the references which are conditionally
+     * downloaded, keeping only the headers compared by a conditional download.
+     *
+     * @return the headers by source document reference id
+     */
+    private static Map<String, Map<String, String>> getConditionalDownloadHeadersMap(SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                                                                      List<ProcessingJob> all,
+                                                                                      Map<String, SourceDocumentReference> resources) {
+        final Set<String> statsIds = new HashSet<>();
+        for (final ProcessingJob job : all) {
+            if (job == null || job.getTasks() == null) {
+                continue;
+            }
+            for (final ProcessingJobTaskDocumentReference task : job.getTasks()) {
+                final SourceDocumentReference reference = resources.get(task.getSourceDocumentReferenceID());
+                if (task.getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD && reference != null && reference.getLastStatsId() != null) {
+                    statsIds.add(reference.getLastStatsId());
+                }
+            }
+        }
 
-        for (SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics : sourceDocumentProcessingStatisticsList) {
-            results.put(sourceDocumentProcessingStatistics.getSourceDocumentReferenceId(), sourceDocumentProcessingStatistics);
+        final Map<String, Map<String, String>> results = new HashMap<>();
+        for (final SourceDocumentProcessingStatistics statistics : sourceDocumentProcessingStatisticsDao.readHttpResponseHeaders(new ArrayList<>(statsIds))) {
+            final Map<String, String> headers = new HashMap<>();
+            if (statistics.getHttpResponseHeaders() != null) {
+                for (final Map.Entry<String, String> header : statistics.getHttpResponseHeaders().entrySet()) {
+                    if (CONDITIONAL_DOWNLOAD_HEADERS.contains(header.getKey())) {
+                        headers.put(header.getKey(), header.getValue());
+                    }
+                }
+            }
+            results.put(statistics.getSourceDocumentReferenceId(), headers);
         }
         return results;
     }
@@ -175,7 +251,7 @@ public class JobLoaderExecutorHelper {
                 resourceIds.add(resourceId);
             }
         }
-        final List<SourceDocumentReference> sourceDocumentReferences = SourceDocumentReferenceDao.read(resourceIds);
+        final List<SourceDocumentReference> sourceDocumentReferences = SourceDocumentReferenceDao.readForTasks(resourceIds);
         final Map<String, SourceDocumentReference> resources = new HashMap<>();
         for (SourceDocumentReference sourceDocumentReference : sourceDocumentReferences) {
             resources.put(sourceDocumentReference.getId(), sourceDocumentReference);
@@ -214,14 +290,13 @@ public class JobLoaderExecutorHelper {
 
 
     /**
-     * Adds a job and its tasks to our evidence.
+     * Generates the tasks of a job.
      *
      * @param job the ProcessingJob object
+     * @return the tasks to send to the accountant
      */
-    private static void addJob(final ProcessingJob job, final Integer jobPriority, final Map<String, SourceDocumentReference> resources, final Map<String, SourceDocumentProcessingStatistics> lastJobProcessingStatistics,
-                               final ClusterMasterConfig clusterMasterConfig, final ProcessingJobDao processingJobDao,
-                               final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
-                               final ActorRef accountantActor, Logger LOG) {
+    private static List<RetrieveUrl> addJob(final ProcessingJob job, final Map<String, SourceDocumentReference> resources, final Map<String, Map<String, String>> lastHeaders,
+                                            Logger LOG) {
 
         // (Step 1) Generate the tasks.
         final List<ProcessingJobTaskDocumentReference> tasks = job.getTasks();
@@ -230,7 +305,7 @@ public class JobLoaderExecutorHelper {
 
         final List<RetrieveUrl> generatedTasks = new ArrayList<>();
         for (final ProcessingJobTaskDocumentReference task : tasks) {
-            final RetrieveUrl retrieveUrl = generateTask(job, task, resources, lastJobProcessingStatistics, LOG);
+            final RetrieveUrl retrieveUrl = generateTask(job, task, resources, lastHeaders, LOG);
 
             LOG.debug("jobloaderexecutorhelper addjob retrieve url: {} ", retrieveUrl);
 
@@ -245,23 +320,9 @@ public class JobLoaderExecutorHelper {
             LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
                     "Loaded {} tasks for jobID {} on IP {}", tasks.size(), job.getId(), job.getIpAddress());
 
-        final List<String> taskIds = new ArrayList<>();
-        for (final RetrieveUrl retrieveUrl : generatedTasks) {
-            taskIds.add(retrieveUrl.getId());
-        }
-
-        LOG.debug("jobloaderexecutorhelper addjob job task ids size: {}", taskIds.size());
-
-        // (Step 2) Send the tasks to accountant
-
-
-        for (final RetrieveUrl retrieveUrl : generatedTasks) {
-            accountantActor.tell(new AddTask(job.getPriority(), retrieveUrl.getId(), new Pair<>(retrieveUrl, TaskState.READY)), ActorRef.noSender());
-        }
-
         LOG.debug("jobloaderexecutorhelper addjob job done");
 
-
+        return generatedTasks;
     }
 
     /**
@@ -273,7 +334,7 @@ public class JobLoaderExecutorHelper {
      */
     private static RetrieveUrl generateTask(final ProcessingJob job, final ProcessingJobTaskDocumentReference task,
                                             final Map<String, SourceDocumentReference> resources,
-                                            final Map<String, SourceDocumentProcessingStatistics> lastJobProcessingStatistics,
+                                            final Map<String, Map<String, String>> lastHeaders,
                                             Logger LOG) {
         final String sourceDocId = task.getSourceDocumentReferenceID();
 
@@ -291,7 +352,7 @@ public class JobLoaderExecutorHelper {
 
         final String ipAddress = job.getIpAddress();
 
-        final Map<String, String> headers = lastJobProcessingStatistics.containsKey(task.getSourceDocumentReferenceID()) ? lastJobProcessingStatistics.get(task.getSourceDocumentReferenceID()).getHttpResponseHeaders() : new HashMap<String, String>();
+        final Map<String, String> headers = lastHeaders.containsKey(task.getSourceDocumentReferenceID()) ? lastHeaders.get(task.getSourceDocumentReferenceID()) : new HashMap<String, String>();
 
         final RetrieveUrl retrieveUrl = new RetrieveUrl(sourceDocumentReference.getUrl(), job.getLimits(), task.getTaskType(),
                 job.getId(), task.getSourceDocumentReferenceID(),
@@ -1,6 +1,8 @@
 package eu.europeana.harvester.cluster.master.loaders;
 
 import akka.actor.ActorRef;
+import akka.actor.Address;
+import akka.actor.Cancellable;
 import akka.actor.Terminated;
 import akka.actor.UntypedActor;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
@@ -8,6 +10,11 @@ import eu.europeana.harvester.cluster.domain.DefaultLimits;
 import eu.europeana.harvester.cluster.domain.IPExceptions;
 import eu.europeana.harvester.cluster.domain.messages.Clean;
 import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.inner.ChangeIpShardRing;
+import eu.europeana.harvester.cluster.domain.messages.inner.CheckJobStates;
+import eu.europeana.harvester.cluster.domain.messages.inner.ResyncMachineResources;
+import eu.europeana.harvester.cluster.master.limiter.MachineResourceLimitsView;
+import eu.europeana.harvester.cluster.master.sharding.IpShardRing;
 import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
@@ -17,7 +24,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class JobLoaderMasterActor extends UntypedActor {
 
@@ -62,8 +73,9 @@ public class JobLoaderMasterActor extends UntypedActor {
 
     /**
      * A map which maps each ip with the number of jobs from that ip.
+     * Shared with the loader executors, which register the IPs of the new machine resource references in it.
      */
-    private Map<String, Integer> ipDistribution;
+    private final Map<String, Integer> ipDistribution = new ConcurrentHashMap<>();
 
     /**
      * Contains default download limits.
@@ -88,6 +100,36 @@ public class JobLoaderMasterActor extends UntypedActor {
 
     private final ActorRef limiterActor;
 
+    /**
+     * The view of the machine limits already sent to the limiter.
+     */
+    private final MachineResourceLimitsView machineResourceLimitsView = new MachineResourceLimitsView();
+
+    /**
+     * The partition of the IPs between the master shards, null until it's known or if the master isn't sharded.
+     */
+    private IpShardRing shardRing = null;
+
+    /**
+     * The address of the master shard of this loader.
+     */
+    private Address shard = null;
+
+    /**
+     * How often the pauses and the resumes of jobs are checked, which bounds the time a paused job keeps running.
+     */
+    private static final int JOB_STATE_CHECK_INTERVAL_IN_SECONDS = 10;
+
+    private Cancellable checkJobStatesTick;
+
+    /**
+     * How often all the machine resource references are read again, for the ones edited directly in the db which
+     * don't have their modification date updated.
+     */
+    private static final int MACHINE_RESOURCES_RESYNC_INTERVAL_IN_MINUTES = 10;
+
+    private Cancellable resyncMachineResourcesTick;
+
     public JobLoaderMasterActor(final ActorRef receiverActor, final ClusterMasterConfig clusterMasterConfig,
                                 final ActorRef accountantActor, final ActorRef limiterActor, final ProcessingJobDao processingJobDao,
                                 final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
@@ -111,19 +153,48 @@ public class JobLoaderMasterActor extends UntypedActor {
         this.ipExceptions = ipExceptions;
         this.haveLoader = false;
 
-        LOG.debug("Call check for abandoned jobs from constructor - job loader");
+        // With the journal the accountant recovers its running tasks, they must not be loaded again.
+        // A shard recovers only the jobs of its IPs, once it knows them.
+        if (null == clusterMasterConfig.getAccountantJournalConfig() && !isSharded()) {
+            LOG.debug("Call check for abandoned jobs from constructor - job loader");
 
-        JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, LOG);
+            JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, LOG);
+        }
 
         LOG.debug("Call ip distribution from constructor - job loader");
 
-        ipDistribution = JobLoaderMasterHelper.getIPDistribution(machineResourceReferenceDao, LOG);
+        ipDistribution.putAll(JobLoaderMasterHelper.getIPDistribution(machineResourceReferenceDao, LOG));
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        final scala.concurrent.duration.FiniteDuration interval = scala.concurrent.duration.Duration.create(
+                JOB_STATE_CHECK_INTERVAL_IN_SECONDS, TimeUnit.SECONDS);
+        checkJobStatesTick = getContext().system().scheduler().schedule(interval, interval, getSelf(),
+                new CheckJobStates(), getContext().system().dispatcher(), getSelf());
+
+        final scala.concurrent.duration.FiniteDuration resyncInterval = scala.concurrent.duration.Duration.create(
+                MACHINE_RESOURCES_RESYNC_INTERVAL_IN_MINUTES, TimeUnit.MINUTES);
+        resyncMachineResourcesTick = getContext().system().scheduler().schedule(resyncInterval, resyncInterval, getSelf(),
+                new ResyncMachineResources(), getContext().system().dispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (checkJobStatesTick != null)
+            checkJobStatesTick.cancel();
+        if (resyncMachineResourcesTick != null)
+            resyncMachineResourcesTick.cancel();
     }
 
     @Override
     public void onReceive(Object message) throws Exception {
         if (message instanceof LoadJobs) {
 
+            if (isSharded() && null == shardRing) {
+                LOG.debug("The IPs of the shard are not known yet, no job is loaded");
+                return;
+            }
 
             if ( !haveLoader ) {
 
@@ -132,7 +203,8 @@ public class JobLoaderMasterActor extends UntypedActor {
                     ActorRef loaderActor = JobLoaderExecutorActor.createActor(getContext().system(),
                             clusterMasterConfig, accountantActor,limiterActor, processingJobDao, sourceDocumentProcessingStatisticsDao,
 
-                                                                              SourceDocumentReferenceDao, machineResourceReferenceDao, ipsWithJobs, ipExceptions, ipDistribution
+                                                                              SourceDocumentReferenceDao, machineResourceReferenceDao, ipsWithJobs, ipExceptions, ipDistribution, machineResourceLimitsView,
+                            shardRing, shard
                     );
                     context().watch(loaderActor);
                     loaderActor.tell(message, ActorRef.noSender());
@@ -150,11 +222,15 @@ public class JobLoaderMasterActor extends UntypedActor {
         if (message instanceof Clean) {
             LOG.debug("Message instance of clean");
 
-            JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, LOG);
+            if (!isSharded()) {
+                JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, LOG);
+            } else if (null != shardRing) {
+                JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, ownedIpDistribution().keySet(), LOG);
+            }
 
             LOG.debug("Call ip distribution from message instanceof clean");
 
-            this.ipDistribution = JobLoaderMasterHelper.getIPDistribution(machineResourceReferenceDao, LOG);
+            resyncMachineResources();
 
             getSelf().tell(new LoadJobs(), getSelf());
 
@@ -163,6 +239,41 @@ public class JobLoaderMasterActor extends UntypedActor {
             return;
         }
 
+        if (message instanceof ResyncMachineResources) {
+            resyncMachineResources();
+            return;
+        }
+
+        if (message instanceof CheckJobStates) {
+            if (!isSharded()) {
+                JobLoaderMasterHelper.checkForPausedAndResumedJobs(processingJobDao, null, accountantActor,
+                        receiverActor, LOG);
+            } else if (null != shardRing) {
+                JobLoaderMasterHelper.checkForPausedAndResumedJobs(processingJobDao, ownedIpDistribution().keySet(),
+                        accountantActor, receiverActor, LOG);
+            }
+            return;
+        }
+
+        if (message instanceof ChangeIpShardRing) {
+            final ChangeIpShardRing changeIpShardRing = (ChangeIpShardRing) message;
+            final IpShardRing previousRing = shardRing;
+            shardRing = changeIpShardRing.getRing();
+            shard = changeIpShardRing.getShard();
+
+            // the limits of the IPs which moved to this shard must be sent to its limiter
+            machineResourceLimitsView.reset();
+
+            if (null == previousRing) {
+                if (null == clusterMasterConfig.getAccountantJournalConfig()) {
+                    JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, ownedIpDistribution().keySet(), LOG);
+                }
+            } else {
+                JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, ipsOfRemovedShards(previousRing), LOG);
+            }
+            return;
+        }
+
         if (message instanceof Terminated) {
             if (((Terminated) message).getActor()==loaderActor) {
                 LOG.debug("Got terminated for {}, marking the loader as expired ", ((Terminated) message).getActor());
@@ -173,5 +284,49 @@ public class JobLoaderMasterActor extends UntypedActor {
         }
     }
 
+    /**
+     * Drops the IPs whose machine resource reference was removed and makes the next load read all the references
+     * again and resend all their limits, as they might have been edited directly in the db.
+     */
+    private void resyncMachineResources() {
+        final Map<String, Integer> currentIpDistribution = JobLoaderMasterHelper.getIPDistribution(machineResourceReferenceDao, LOG);
+        ipDistribution.putAll(currentIpDistribution);
+        ipDistribution.keySet().retainAll(currentIpDistribution.keySet());
+
+        machineResourceLimitsView.reset();
+    }
+
+    private boolean isSharded() {
+        return null != clusterMasterConfig.getShardingConfig();
+    }
+
+    /**
+     * @return the IP distribution restricted to the IPs of this shard, the whole one if the master isn't sharded
+     */
+    private Map<String, Integer> ownedIpDistribution() {
+        if (null == shardRing) {
+            return ipDistribution;
+        }
+        final Map<String, Integer> ownedIpDistribution = new HashMap<>();
+        for (final String ip : shardRing.ownedBy(shard, ipDistribution.keySet())) {
+            ownedIpDistribution.put(ip, ipDistribution.get(ip));
+        }
+        return ownedIpDistribution;
+    }
+
+    /**
+     * @return the IPs which this shard took over from the shards which left the cluster; their running jobs were
+     * abandoned with them
+     */
+    private Set<String> ipsOfRemovedShards(final IpShardRing previousRing) {
+        final Set<String> ips = new HashSet<>();
+        for (final String ip : shardRing.ownedBy(shard, ipDistribution.keySet())) {
+            if (!shardRing.getShards().contains(previousRing.shardOf(ip))) {
+                ips.add(ip);
+            }
+        }
+        return ips;
+    }
+
 
 }
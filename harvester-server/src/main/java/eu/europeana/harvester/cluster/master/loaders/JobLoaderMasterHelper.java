@@ -3,6 +3,7 @@ package eu.europeana.harvester.cluster.master.loaders;
 import akka.actor.ActorRef;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.TaskState;
+import eu.europeana.harvester.cluster.domain.messages.ChangeJobState;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
@@ -12,12 +13,19 @@ import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDa
 import eu.europeana.harvester.domain.*;
 import org.slf4j.Logger;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 public class JobLoaderMasterHelper  {
 
+    /**
+     * The maximum number of jobs paused and of jobs resumed by one check.
+     */
+    private static final int JOB_STATE_CHANGES_PER_CHECK = 10000;
+
 
     public static Map<String, Integer> getIPDistribution( MachineResourceReferenceDao machineResourceReferenceDao, Logger LOG ) {
 
@@ -131,4 +139,58 @@ public class JobLoaderMasterHelper  {
 
     }
 
+    /**
+     * Checks if any job of the given IPs was started but has been abandoned, e.g. by the master shard which owned
+     * these IPs before.
+     */
+    public static void checkForAbandonedJobs(ProcessingJobDao processingJobDao, Collection<String> ipAddresses,
+                                             Logger LOG) {
+
+        final int abandonedJobs = processingJobDao.modifyStateOfJobsWithIpAddresses(JobState.RUNNING, JobState.READY, ipAddresses);
+        LOG.debug("Done checkForAbandonedJobs of {} IPs, {} jobs are READY again", ipAddresses.size(), abandonedJobs);
+
+    }
+
+    /**
+     * Applies the pauses and the resumes asked by the clients. A paused job has its waiting tasks dropped by the
+     * accountant and its tasks on the slaves dropped or cancelled, then becomes PAUSED. A resumed job becomes READY
+     * and is loaded again.
+     *
+     * @param ipAddresses the IPs whose jobs are checked, null for all of them
+     * @param receiverActor broadcasts the changes to the slaves
+     */
+    public static void checkForPausedAndResumedJobs(ProcessingJobDao processingJobDao, Collection<String> ipAddresses,
+                                                    ActorRef accountantActor, ActorRef receiverActor, Logger LOG) {
+
+        final List<String> pausedJobIds = changeStateOfJobs(processingJobDao, JobState.PAUSE, JobState.PAUSED, ipAddresses);
+        for (final String jobId : pausedJobIds) {
+            final ChangeJobState changeJobState = new ChangeJobState(JobState.PAUSE, jobId);
+            accountantActor.tell(changeJobState, ActorRef.noSender());
+            receiverActor.tell(changeJobState, ActorRef.noSender());
+        }
+
+        final List<String> resumedJobIds = changeStateOfJobs(processingJobDao, JobState.RESUME, JobState.READY, ipAddresses);
+        for (final String jobId : resumedJobIds) {
+            receiverActor.tell(new ChangeJobState(JobState.RESUME, jobId), ActorRef.noSender());
+        }
+
+        if (!pausedJobIds.isEmpty() || !resumedJobIds.isEmpty()) {
+            LOG.info("Paused {} jobs and resumed {} jobs", pausedJobIds.size(), resumedJobIds.size());
+        }
+    }
+
+    private static List<String> changeStateOfJobs(ProcessingJobDao processingJobDao, JobState oldJobState,
+                                                  JobState newJobState, Collection<String> ipAddresses) {
+        final List<String> jobIds = new ArrayList<>();
+        for (final ProcessingJob job : processingJobDao.getJobsWithState(oldJobState, new Page(0, JOB_STATE_CHANGES_PER_CHECK))) {
+            if (null == ipAddresses || ipAddresses.contains(job.getIpAddress())) {
+                jobIds.add(job.getId());
+            }
+        }
+        if (!jobIds.isEmpty()) {
+            processingJobDao.modifyStateOfJobsWithIds(oldJobState, newJobState, jobIds);
+        }
+        return jobIds;
+    }
+
 }
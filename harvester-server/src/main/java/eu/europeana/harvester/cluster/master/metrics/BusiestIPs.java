@@ -0,0 +1,40 @@
+package eu.europeana.harvester.cluster.master.metrics;
+
+import com.codahale.metrics.Gauge;
+import eu.europeana.harvester.monitoring.LazyGauge;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The IPs with the highest counts in an {@link IpCounts}, as of the last time the actor owning it published them.
+ * The metrics reporter reads them from its own thread through one gauge per rank.
+ */
+public class BusiestIPs {
+
+    private volatile List<IpCounts.IpCount> busiest = Collections.emptyList();
+
+    public void publish(final IpCounts ipCounts) {
+        busiest = Collections.unmodifiableList(ipCounts.top(MasterMetrics.BUSIEST_IPS_RANKS));
+    }
+
+    public List<IpCounts.IpCount> get() {
+        return busiest;
+    }
+
+    /**
+     * Makes each gauge report the count of the IP of its rank, zero if there are fewer IPs.
+     */
+    public void registerHandlers(final LazyGauge[] gaugesPerRank) {
+        for (int rank = 0; rank < gaugesPerRank.length; rank++) {
+            final int index = rank;
+            gaugesPerRank[rank].registerHandler(new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    final List<IpCounts.IpCount> current = busiest;
+                    return index < current.size() ? current.get(index).getCount() : 0L;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package eu.europeana.harvester.cluster.master.metrics;
+
+import com.codahale.metrics.Gauge;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The size of a collection of the master database, made of the last estimate read in the background and of the
+ * documents inserted by the master since then. Reading it never touches the database.
+ */
+public class CollectionSizeGauge implements Gauge<Long> {
+
+    private final AtomicLong lastEstimate = new AtomicLong(0);
+
+    private final AtomicLong insertedSinceEstimate = new AtomicLong(0);
+
+    /**
+     * Called by the actors which insert documents in the collection.
+     */
+    public void inserted(final long count) {
+        insertedSinceEstimate.addAndGet(count);
+    }
+
+    /**
+     * Called by the actors which remove documents from the collection.
+     */
+    public void removed(final long count) {
+        insertedSinceEstimate.addAndGet(-count);
+    }
+
+    /**
+     * @return the number of documents inserted (less the removed ones) since the last estimate; pass it to {@link #updateEstimate}
+     * together with the estimate read after calling this
+     */
+    public long insertedSinceEstimate() {
+        return insertedSinceEstimate.get();
+    }
+
+    /**
+     * Replaces the estimate. The insertions counted before reading it are included in it, the ones which happened
+     * meanwhile are kept.
+     *
+     * @param estimate           the estimated size of the collection
+     * @param insertedBeforeRead the value of {@link #insertedSinceEstimate()} before the estimate was read
+     */
+    public void updateEstimate(final long estimate, final long insertedBeforeRead) {
+        lastEstimate.set(estimate);
+        insertedSinceEstimate.addAndGet(-insertedBeforeRead);
+    }
+
+    @Override
+    public Long getValue() {
+        return lastEstimate.get() + insertedSinceEstimate.get();
+    }
+}
@@ -0,0 +1,100 @@
+package eu.europeana.harvester.cluster.master.metrics;
+
+import java.util.*;
+
+/**
+ * Counts something per IP (e.g. its waiting tasks) and keeps the IPs ordered by their count, so the busiest ones
+ * are found without scanning all the IPs. Each change costs a lookup and two updates of the ordered index.
+ * It's not thread safe: it belongs to the actor doing the counting, the metrics read {@link BusiestIPs} instead.
+ */
+public class IpCounts {
+
+    public static class IpCount {
+        private final String ip;
+        private final long count;
+
+        public IpCount(final String ip, final long count) {
+            this.ip = ip;
+            this.count = count;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return ip + "=" + count;
+        }
+    }
+
+    private static final Comparator<IpCount> HIGHEST_COUNT_FIRST = new Comparator<IpCount>() {
+        @Override
+        public int compare(IpCount first, IpCount second) {
+            if (first.count != second.count) {
+                return first.count > second.count ? -1 : 1;
+            }
+            return first.ip.compareTo(second.ip);
+        }
+    };
+
+    private final Map<String, Long> countPerIP = new HashMap<>();
+
+    private final TreeSet<IpCount> ipsByCount = new TreeSet<>(HIGHEST_COUNT_FIRST);
+
+    /**
+     * Adds delta (which can be negative) to the count of the IP. The IPs with a count of zero are forgotten.
+     */
+    public void add(final String ip, final long delta) {
+        if (null == ip || 0 == delta) {
+            return;
+        }
+        final Long oldCount = countPerIP.get(ip);
+        if (null != oldCount) {
+            ipsByCount.remove(new IpCount(ip, oldCount));
+        }
+        final long newCount = (null == oldCount ? 0 : oldCount) + delta;
+        if (newCount > 0) {
+            countPerIP.put(ip, newCount);
+            ipsByCount.add(new IpCount(ip, newCount));
+        } else {
+            countPerIP.remove(ip);
+        }
+    }
+
+    public void increment(final String ip) {
+        add(ip, 1);
+    }
+
+    public void decrement(final String ip) {
+        add(ip, -1);
+    }
+
+    public long get(final String ip) {
+        final Long count = countPerIP.get(ip);
+        return null == count ? 0 : count;
+    }
+
+    /**
+     * @return the number of IPs with a count above zero
+     */
+    public int size() {
+        return countPerIP.size();
+    }
+
+    /**
+     * @return the k IPs with the highest counts, the highest first
+     */
+    public List<IpCount> top(final int k) {
+        final List<IpCount> top = new ArrayList<>(k);
+        final Iterator<IpCount> ips = ipsByCount.iterator();
+        while (top.size() < k && ips.hasNext()) {
+            top.add(ips.next());
+        }
+        return top;
+    }
+}
@@ -52,6 +52,18 @@ public class MasterMetrics {
     public static final String JOBS_NORMAL_LANE_WAITING = "jobsNormalLaneWaiting";
     public static final String JOBS_ALL_STARTED_TASKS = "jobsAllStarted";
     public static final String JOBS_ALL_RECLAIMED_TASKS = "jobsAllReclaimed";
+    public static final String JOBS_FAST_LANE_OLDEST_WAITING_AGE = "jobsFastLaneOldestWaitingAge";
+    public static final String JOBS_NORMAL_LANE_OLDEST_WAITING_AGE = "jobsNormalLaneOldestWaitingAge";
+
+    public static final String BUSIEST_IPS = "busiestIPs";
+    public static final String WAITING = "waiting";
+    public static final String STARTED = "started";
+    public static final String DENIED = "denied";
+
+    /**
+     * The number of IPs reported in each busiest IPs summary.
+     */
+    public static final int BUSIEST_IPS_RANKS = 5;
 
     public static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
 
@@ -65,6 +77,15 @@ public class MasterMetrics {
         public static final LazyGauge SourceDocumentReferenceCollectionSize = new LazyGauge(METRIC_REGISTRY, name(Master.NAME,"SourceDocumentReferenceCollectionSize",COUNTER));
         public static final LazyGauge SourceDocumentReferenceMetaInfoCollectionSize = new LazyGauge(METRIC_REGISTRY, name(Master.NAME,"SourceDocumentReferenceMetaInfoCollectionSize",COUNTER));
         public static final LazyGauge SourceDocumentReferenceProcessingProfileCollectionSize = new LazyGauge(METRIC_REGISTRY, name(Master.NAME,"SourceDocumentReferenceProcessingProfileCollectionSize",COUNTER));
+
+        public static final CollectionSizeGauge HistoricalProcessingJobCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge ProcessingJobCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge LastSourceDocumentProcessingStatisticsCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge MachineResourceReferenceCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge SourceDocumentProcessingStatisticsCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge SourceDocumentReferenceCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge SourceDocumentReferenceMetaInfoCollectionSizeEstimate = new CollectionSizeGauge();
+        public static final CollectionSizeGauge SourceDocumentReferenceProcessingProfileCollectionSizeEstimate = new CollectionSizeGauge();
     }
 
     public static class Master {
@@ -84,10 +105,29 @@ public class MasterMetrics {
 
         public static final LazyGauge jobsUniqueIPsCount = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_UNIQUE_IPS, COUNTER));
 
+        public static final LazyGauge doneProcessingBeingPersistedCount = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, DONE_PROCESSING, "beingPersisted", COUNTER));
+
         public static final LazyGauge jobAccountantFastLaneWaitingCount = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_FAST_LANE_WAITING, COUNTER));
         public static final LazyGauge jobAccountantNormalLaneWaitingCount = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_NORMAL_LANE_WAITING, COUNTER));
         public static final LazyGauge jobAccountantAllStartedCount = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_ALL_STARTED_TASKS, COUNTER));
         public static final LazyGauge jobAccountantAllReclaimedCount = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_ALL_RECLAIMED_TASKS, COUNTER));
+        public static final LazyGauge jobAccountantFastLaneOldestWaitingAge = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_FAST_LANE_OLDEST_WAITING_AGE, DURATION));
+        public static final LazyGauge jobAccountantNormalLaneOldestWaitingAge = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, JOBS_NORMAL_LANE_OLDEST_WAITING_AGE, DURATION));
+
+        public static final LazyGauge[] busiestIPsWaitingCounts = busiestIPsGauges(WAITING);
+        public static final LazyGauge[] busiestIPsStartedCounts = busiestIPsGauges(STARTED);
+        public static final LazyGauge[] busiestIPsDeniedCounts = busiestIPsGauges(DENIED);
+
+        private static LazyGauge[] busiestIPsGauges(final String count) {
+            final LazyGauge[] gauges = new LazyGauge[BUSIEST_IPS_RANKS];
+            for (int rank = 0; rank < BUSIEST_IPS_RANKS; rank++) {
+                gauges[rank] = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, BUSIEST_IPS, count, "rank" + (rank + 1), COUNTER));
+            }
+            return gauges;
+        }
+
+        public static final Timer jobsPersistenceDuration = METRIC_REGISTRY.timer(name(Master.NAME, JOBS_PERSISTENCE, DURATION));
+        public static final Counter jobsPersistenceCounter = METRIC_REGISTRY.counter(name(Master.NAME, JOBS_PERSISTENCE, COUNTER));
 
         public static final Counter ipLimitGrantedSlotRequestCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_GRANTED_SLOT_REQUEST, COUNTER));
         public static final Counter ipLimitNotGrantedSlotRequestCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_NOT_GRANTED_SLOT_REQUEST, COUNTER));
@@ -1,18 +1,26 @@
 package eu.europeana.harvester.cluster.master.receivers;
 
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
-import com.mongodb.WriteConcern;
+import com.codahale.metrics.Timer;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.inner.DoneProcessingPersisted;
+import eu.europeana.harvester.cluster.domain.messages.inner.FlushDoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.inner.PersistDoneProcessing;
+import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoTuple;
 import eu.europeana.harvester.db.interfaces.*;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.logging.LoggingComponent;
+import org.joda.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collections;
-import java.util.Date;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 public class ReceiverJobDumperActor extends UntypedActor {
 
@@ -36,6 +44,32 @@ public class ReceiverJobDumperActor extends UntypedActor {
     private final SourceDocumentReferenceDao sourceDocumentReferenceDao;
     private final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao;
 
+    /**
+     * The messages received since the last flush.
+     */
+    private final List<DoneProcessing> bufferedDoneProcessing = new ArrayList<>();
+
+    /**
+     * The parts of batches among the buffered messages, with the actor to tell once they are persisted.
+     */
+    private final List<Pair<ActorRef, PersistDoneProcessing>> bufferedBatchParts = new ArrayList<>();
+
+    private Cancellable flushTask;
+
+    /**
+     * The number of times in a row the buffered messages failed to persist.
+     */
+    private int failedFlushes = 0;
+
+    /**
+     * After a failed flush the messages are kept and persisted again once this time is reached.
+     */
+    private long nextFlushAttemptAt = 0;
+
+    private static final int MAX_FLUSH_ATTEMPTS = 5;
+
+    private static final long MAX_FLUSH_RETRY_DELAY_IN_MILLIS = 60 * 1000;
+
 
     public ReceiverJobDumperActor(final ClusterMasterConfig clusterMasterConfig,
                                   final ProcessingJobDao processingJobDao,
@@ -57,57 +91,235 @@ public class ReceiverJobDumperActor extends UntypedActor {
         this.sourceDocumentReferenceMetaInfoDao = sourceDocumentReferenceMetaInfoDao;
     }
 
+    @Override
+    public void preStart() throws Exception {
+        final Duration flushInterval = clusterMasterConfig.getReceiverJobDumperConfig().getFlushInterval();
+        flushTask = getContext().system().scheduler().schedule(
+                scala.concurrent.duration.Duration.create(flushInterval.getMillis(), TimeUnit.MILLISECONDS),
+                scala.concurrent.duration.Duration.create(flushInterval.getMillis(), TimeUnit.MILLISECONDS),
+                getSelf(), new FlushDoneProcessing(), getContext().system().dispatcher(), ActorRef.noSender());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (flushTask != null) {
+            flushTask.cancel();
+        }
+        flush();
+        if (!bufferedDoneProcessing.isEmpty()) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                    "{} done processing messages weren't persisted before the dumper stopped", bufferedDoneProcessing.size());
+        }
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
 
         LOG.debug("receiverjobdumperactor, onreceive");
         if (message instanceof DoneProcessing) {
             LOG.debug("receiverjobdumperactor, message instance of doneprocessing, message url: {}", ((DoneProcessing) message).getUrl());
-            DoneProcessing doneProcessing = (DoneProcessing) message;
-            markDone(doneProcessing);
-
+            bufferedDoneProcessing.add((DoneProcessing) message);
+            if (bufferedDoneProcessing.size() >= clusterMasterConfig.getReceiverJobDumperConfig().getBatchSize() && !isBackingOff()) {
+                flush();
+            }
+            return;
+        }
+        if (message instanceof PersistDoneProcessing) {
+            final PersistDoneProcessing persistDoneProcessing = (PersistDoneProcessing) message;
+            bufferedDoneProcessing.addAll(persistDoneProcessing.getResults());
+            bufferedBatchParts.add(new Pair<ActorRef, PersistDoneProcessing>(getSender(), persistDoneProcessing));
+            if (bufferedDoneProcessing.size() >= clusterMasterConfig.getReceiverJobDumperConfig().getBatchSize() && !isBackingOff()) {
+                flush();
+            }
+            return;
+        }
+        if (message instanceof FlushDoneProcessing) {
+            if (!isBackingOff()) {
+                flush();
+            }
+            return;
         }
 
         return;
     }
 
+    private boolean isBackingOff() {
+        return System.currentTimeMillis() < nextFlushAttemptAt;
+    }
 
     /**
-     * Marks task as done and save it's statistics in the DB.
-     * If one job has finished all his tasks then the job also will be marked as done(FINISHED).
+     * Persists all the buffered messages, then tells the senders of the batch parts among them whether they were
+     * persisted. Messages which failed to persist are kept and persisted again after a growing delay, up to
+     * {@link #MAX_FLUSH_ATTEMPTS} times; after that the messages outside of batches are lost, the batches are persisted
+     * again when the slaves resend them.
+     */
+    private void flush() {
+        if (bufferedDoneProcessing.isEmpty()) {
+            return;
+        }
+
+        final List<DoneProcessing> batch = new ArrayList<>(bufferedDoneProcessing);
+        bufferedDoneProcessing.clear();
+        final List<Pair<ActorRef, PersistDoneProcessing>> batchParts = new ArrayList<>(bufferedBatchParts);
+        bufferedBatchParts.clear();
+
+        boolean successful = false;
+        final Timer.Context context = MasterMetrics.Master.jobsPersistenceDuration.time();
+        try {
+            markDone(batch);
+            MasterMetrics.Master.jobsPersistenceCounter.inc(batch.size());
+            successful = true;
+        } catch (Exception e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                    "Exception while persisting {} done processing messages, attempt {} of {}", batch.size(),
+                    failedFlushes + 1, MAX_FLUSH_ATTEMPTS, e);
+        } finally {
+            context.stop();
+        }
+
+        if (!successful && ++failedFlushes < MAX_FLUSH_ATTEMPTS) {
+            // kept before the messages received meanwhile
+            bufferedDoneProcessing.addAll(0, batch);
+            bufferedBatchParts.addAll(0, batchParts);
+            final long flushInterval = clusterMasterConfig.getReceiverJobDumperConfig().getFlushInterval().getMillis();
+            nextFlushAttemptAt = System.currentTimeMillis() +
+                    Math.min(flushInterval << (failedFlushes - 1), MAX_FLUSH_RETRY_DELAY_IN_MILLIS);
+            return;
+        }
+        if (!successful) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                    "Gave up persisting {} done processing messages", batch.size());
+        }
+        failedFlushes = 0;
+        nextFlushAttemptAt = 0;
+
+        for (final Pair<ActorRef, PersistDoneProcessing> batchPart : batchParts) {
+            batchPart.getKey().tell(new DoneProcessingPersisted(batchPart.getValue().getBatchId(),
+                    batchPart.getValue().getResults().size(), successful), getSelf());
+        }
+    }
+
+    /**
+     * Marks the tasks as done and saves their statistics in the DB.
+     * All the needed documents are read with one query per collection and all the changes are written with one bulk
+     * per collection. Only the fields needed by the statistics are read and only the changed fields are written.
      *
-     * @param doneProcessing - the message from the slave actor with jobId
+     * @param batch - the messages from the slave actors
      */
-    private void markDone(DoneProcessing doneProcessing) {
-        // (Step 1) Updating processing jobs
+    private void markDone(final List<DoneProcessing> batch) {
+        LOG.debug("receiverjobdumperactor, markdone, batch size: {}", batch.size());
+
+        // (Step 1) Reading all the needed documents
+        final Set<String> jobIds = new HashSet<>();
+        for (final DoneProcessing doneProcessing : batch) {
+            jobIds.add(doneProcessing.getJobId());
+        }
 
-        LOG.debug("receiverjobdumperactor, markdone");
+        // the jobs are only partially read, they are never saved
+        final Map<String, ProcessingJob> processingJobs = new HashMap<>();
+        for (final ProcessingJob processingJob : processingJobDao.readOwnersAndSourceTypes(new ArrayList<>(jobIds))) {
+            processingJobs.put(processingJob.getId(), processingJob);
+        }
 
-        final ProcessingJob processingJob = processingJobDao.read(doneProcessing.getJobId());
-        final ProcessingJob newProcessingJob = processingJob.withState(DoneProcessing.convertProcessingStateToJobState(doneProcessing.getProcessingState()));
-        processingJobDao.createOrModify(newProcessingJob, WriteConcern.NORMAL);
+        final Map<String, LastSourceDocumentProcessingStatistics> lastStatistics = readLastStatisticsToKeep(batch, processingJobs);
+
+        // (Step 2) Computing the changes
+        final Map<String, JobState> jobStates = new LinkedHashMap<>();
+        final List<SourceDocumentProcessingStatistics> statisticsToSave = new ArrayList<>();
+        final Map<String, LastSourceDocumentProcessingStatistics> lastStatisticsToSave = new LinkedHashMap<>();
+        final Map<String, SourceDocumentReference> sourceDocumentReferencesToSave = new LinkedHashMap<>();
+        final Map<String, SourceDocumentReferenceMetaInfo> metaInfosToSave = new LinkedHashMap<>();
+
+        for (final DoneProcessing doneProcessing : batch) {
+            final ProcessingJob processingJob = processingJobs.get(doneProcessing.getJobId());
+            if (processingJob == null) {
+                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                        "Done processing received for missing job {}", doneProcessing.getJobId());
+                continue;
+            }
+
+            jobStates.put(processingJob.getId(), DoneProcessing.convertProcessingStateToJobState(doneProcessing.getProcessingState()));
+
+            final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics = createStatistics(doneProcessing, processingJob);
+            statisticsToSave.add(sourceDocumentProcessingStatistics);
+
+            final LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatistics =
+                    createLastStatistics(sourceDocumentProcessingStatistics, lastStatistics);
+            lastStatistics.put(lastSourceDocumentProcessingStatistics.getId(), lastSourceDocumentProcessingStatistics);
+            lastStatisticsToSave.put(lastSourceDocumentProcessingStatistics.getId(), lastSourceDocumentProcessingStatistics);
+
+            // only the last stats id and the redirection path of the reference are written
+            final SourceDocumentReference sourceDocumentReference = new SourceDocumentReference(doneProcessing.getReferenceId(),
+                    null, null, null, null, null, null, null)
+                    .withLastStatsId(sourceDocumentProcessingStatistics.getId())
+                    .withRedirectionPath(doneProcessing.getRedirectionPath());
+            sourceDocumentReferencesToSave.put(sourceDocumentReference.getId(), sourceDocumentReference);
+
+            final SourceDocumentReferenceMetaInfo metaInfo = createMetaInfo(doneProcessing);
+            if (metaInfo != null) {
+                metaInfosToSave.put(metaInfo.getId(), metaInfo);
+            }
+
+            LOG.debug("receiverjobdumperactor, doneProcessing - processing state: {}, url: {}, log: {}", doneProcessing.getProcessingState().name(),
+                    doneProcessing.getUrl(), doneProcessing.getLog());
+        }
 
-        // (Step 2) Updating statistics jobs
-        final SourceDocumentReference sourceDocumentReference = saveStatistics(doneProcessing,processingJob);
+        // (Step 3) Writing the changes
+        for (final Map.Entry<JobState, List<String>> jobsWithState : groupByState(jobStates).entrySet()) {
+            processingJobDao.modifyStateOfJobsWithIds(jobsWithState.getKey(), jobsWithState.getValue());
+        }
+        sourceDocumentProcessingStatisticsDao.createOrModify(statisticsToSave, clusterMasterConfig.getWriteConcern());
+        MasterMetrics.MasterDatabase.SourceDocumentProcessingStatisticsCollectionSizeEstimate.inserted(statisticsToSave.size());
+        lastSourceDocumentProcessingStatisticsDao.createOrModify(lastStatisticsToSave.values(), clusterMasterConfig.getWriteConcern());
+        sourceDocumentReferenceDao.updateLastStats(sourceDocumentReferencesToSave.values(), clusterMasterConfig.getWriteConcern());
+        sourceDocumentReferenceMetaInfoDao.createOrModify(metaInfosToSave.values(), clusterMasterConfig.getWriteConcern());
+    }
 
-        // (Step 3) Updating the stats jobs
-        saveMetaInfo(doneProcessing);
+    /**
+     * Reads the last statistics whose subtask states have to be kept, i.e. the ones of successful conditional downloads.
+     */
+    private Map<String, LastSourceDocumentProcessingStatistics> readLastStatisticsToKeep(final List<DoneProcessing> batch,
+                                                                                       final Map<String, ProcessingJob> processingJobs) {
+        final Set<String> ids = new HashSet<>();
+        for (final DoneProcessing doneProcessing : batch) {
+            final ProcessingJob processingJob = processingJobs.get(doneProcessing.getJobId());
+            if (processingJob != null && doneProcessing.getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD &&
+                    doneProcessing.getProcessingState() == ProcessingState.SUCCESS) {
+                ids.add(LastSourceDocumentProcessingStatistics.idOf(doneProcessing.getReferenceId(), processingJob.getUrlSourceType()));
+            }
+        }
 
-        LOG.debug("receiverjobdumperactor, doneProcessing - processing state: {}, url: {}, log: {}", doneProcessing.getProcessingState().name(),
-                doneProcessing.getUrl(), doneProcessing.getLog());
+        final Map<String, LastSourceDocumentProcessingStatistics> lastStatistics = new HashMap<>();
+        for (final LastSourceDocumentProcessingStatistics statistics : lastSourceDocumentProcessingStatisticsDao.readSubTaskStats(new ArrayList<>(ids))) {
+            lastStatistics.put(statistics.getId(), statistics);
+        }
+        return lastStatistics;
+    }
+
+    /**
+     * @param jobStates the new state of each job, by job id
+     * @return the ids of the jobs, by their new state
+     */
+    private static Map<JobState, List<String>> groupByState(final Map<String, JobState> jobStates) {
+        final Map<JobState, List<String>> jobIdsByState = new EnumMap<>(JobState.class);
+        for (final Map.Entry<String, JobState> jobState : jobStates.entrySet()) {
+            if (!jobIdsByState.containsKey(jobState.getValue())) {
+                jobIdsByState.put(jobState.getValue(), new ArrayList<String>());
+            }
+            jobIdsByState.get(jobState.getValue()).add(jobState.getKey());
+        }
+        return jobIdsByState;
     }
 
     /**
-     * Marks task as done and save it's statistics in the DB.
-     * If one job has finished all his tasks then the job also will be marked as done(FINISHED).
+     * Creates the statistics of a finished task.
      *
      * @param msg - the message from the slave actor with url, jobId and other statistics
      */
-    private SourceDocumentReference saveStatistics(DoneProcessing msg, ProcessingJob processingJob) {
+    private SourceDocumentProcessingStatistics createStatistics(DoneProcessing msg, ProcessingJob processingJob) {
         final ProcessingJobSubTaskStats subTaskStats = msg.getStats();
 
-        final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics =
-                new SourceDocumentProcessingStatistics(
+        return new SourceDocumentProcessingStatistics(
                         new Date(),
                         new Date(),
                         true,
@@ -128,43 +340,40 @@ public class ReceiverJobDumperActor extends UntypedActor {
                         msg.getLog(),
                         subTaskStats
                 );
+    }
 
+    /**
+     * Creates the last statistics of a document from the statistics of its latest task.
+     *
+     * @param sourceDocumentProcessingStatistics the statistics of the latest task
+     * @param existingLastStatistics             the already known last statistics, by id
+     */
+    private LastSourceDocumentProcessingStatistics createLastStatistics(final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics,
+                                                                        final Map<String, LastSourceDocumentProcessingStatistics> existingLastStatistics) {
         LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatistics = new LastSourceDocumentProcessingStatistics(sourceDocumentProcessingStatistics);
 
         /* We need to keep the previous last stats subtask states as a successful conditional download has them all se to never executed. See #CRF-509 */
         if (lastSourceDocumentProcessingStatistics.getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD &&
                 lastSourceDocumentProcessingStatistics.getState() == ProcessingState.SUCCESS) {
-            final LastSourceDocumentProcessingStatistics existingSourceDocumentProcessingStatistics = lastSourceDocumentProcessingStatisticsDao.read(lastSourceDocumentProcessingStatistics.getId());
+            final LastSourceDocumentProcessingStatistics existingSourceDocumentProcessingStatistics = existingLastStatistics.get(lastSourceDocumentProcessingStatistics.getId());
             if (existingSourceDocumentProcessingStatistics != null ) lastSourceDocumentProcessingStatistics = lastSourceDocumentProcessingStatistics.withProcessingJobSubTaskStats(existingSourceDocumentProcessingStatistics.getProcessingJobSubTaskStats());
         }
 
-        SourceDocumentReference sourceDocumentReference = sourceDocumentReferenceDao.read(msg.getReferenceId());
-        if (sourceDocumentReference != null) {
-            sourceDocumentReference = sourceDocumentReference.withLastStatsId(sourceDocumentProcessingStatistics.getId()).withRedirectionPath(msg.getRedirectionPath());
-        }
-
-        sourceDocumentProcessingStatisticsDao.createOrModify(sourceDocumentProcessingStatistics,
-                clusterMasterConfig.getWriteConcern());
-
-        lastSourceDocumentProcessingStatisticsDao.createOrModify(lastSourceDocumentProcessingStatistics, clusterMasterConfig.getWriteConcern());
-
-        sourceDocumentReferenceDao.createOrModify(sourceDocumentReference, clusterMasterConfig.getWriteConcern());
-        return sourceDocumentReference;
-
+        return lastSourceDocumentProcessingStatistics;
     }
 
     /**
-     * Saves the meta information of a document
+     * Creates the meta information of a document
      *
-\     * @param msg   all the information retrieved while downloading
+     * @param msg   all the information retrieved while downloading
+     * @return the meta information or null if nothing valid was extracted
      */
-    private void saveMetaInfo(final DoneProcessing msg) {
+    private SourceDocumentReferenceMetaInfo createMetaInfo(final DoneProcessing msg) {
         if (new MediaMetaInfoTuple(msg.getImageMetaInfo(), msg.getAudioMetaInfo(), msg.getVideoMetaInfo(), msg.getTextMetaInfo()).isValid()) {
-            final SourceDocumentReferenceMetaInfo newSourceDocumentReferenceMetaInfo = new SourceDocumentReferenceMetaInfo(msg.getReferenceId(), msg.getImageMetaInfo(),
+            return new SourceDocumentReferenceMetaInfo(msg.getReferenceId(), msg.getImageMetaInfo(),
                     msg.getAudioMetaInfo(), msg.getVideoMetaInfo(), msg.getTextMetaInfo());
-            sourceDocumentReferenceMetaInfoDao.createOrModify(Collections.singleton(newSourceDocumentReferenceMetaInfo),
-                    clusterMasterConfig.getWriteConcern());
         }
+        return null;
     }
 
 
@@ -0,0 +1,68 @@
+package eu.europeana.harvester.cluster.master.receivers;
+
+import com.typesafe.config.Config;
+import org.joda.time.Duration;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the configuration of the job dumpers which persist the done processing messages.
+ */
+public class ReceiverJobDumperConfig {
+
+    /**
+     * The number of job dumpers. The messages are distributed between them by job id.
+     */
+    private final Integer numberOfDumpers;
+
+    /**
+     * The maximum number of messages buffered by a dumper before they are persisted.
+     */
+    private final Integer batchSize;
+
+    /**
+     * The maximum time a message stays buffered before it is persisted.
+     */
+    private final Duration flushInterval;
+
+    /**
+     * Above this number of results waiting to be persisted the slaves are told to send fewer of them.
+     */
+    private final Integer lagThreshold;
+
+    public static final int DEFAULT_LAG_THRESHOLD = 10000;
+
+    public ReceiverJobDumperConfig(final Integer numberOfDumpers, final Integer batchSize, final Duration flushInterval) {
+        this(numberOfDumpers, batchSize, flushInterval, DEFAULT_LAG_THRESHOLD);
+    }
+
+    public ReceiverJobDumperConfig(final Integer numberOfDumpers, final Integer batchSize, final Duration flushInterval,
+                                   final Integer lagThreshold) {
+        this.numberOfDumpers = numberOfDumpers;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.lagThreshold = lagThreshold;
+    }
+
+    public Integer getNumberOfDumpers() {
+        return numberOfDumpers;
+    }
+
+    public Integer getBatchSize() {
+        return batchSize;
+    }
+
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    public Integer getLagThreshold() {
+        return lagThreshold;
+    }
+
+    public static ReceiverJobDumperConfig valueOf(final Config config) {
+        return new ReceiverJobDumperConfig(config.getInt("numberOfDumpers"), config.getInt("batchSize"),
+                new Duration(config.getDuration("flushInterval", TimeUnit.MILLISECONDS)),
+                config.hasPath("lagThreshold") ? config.getInt("lagThreshold") : DEFAULT_LAG_THRESHOLD);
+    }
+}
@@ -4,8 +4,11 @@ import akka.actor.ActorRef;
 import akka.actor.Address;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
+import com.codahale.metrics.Gauge;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.cluster.domain.messages.inner.DoneProcessingPersisted;
+import eu.europeana.harvester.cluster.domain.messages.inner.PersistDoneProcessing;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.db.interfaces.*;
 import eu.europeana.harvester.domain.ProcessingJobRetrieveSubTaskState;
@@ -16,6 +19,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import scala.Option;
 
+import java.util.*;
+
 public class ReceiverMasterActor extends UntypedActor {
 
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
@@ -57,10 +62,55 @@ public class ReceiverMasterActor extends UntypedActor {
      */
     private final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao;
 
-    private ActorRef receiverJobDumper;
+    /**
+     * The actors which persist the done processing messages. Each job is always handled by the same dumper.
+     */
+    private final List<ActorRef> receiverJobDumpers = new ArrayList<>();
 
     private ActorRef monitoringActor;
 
+    /**
+     * The batches of results sent by the slaves which are being persisted, by batch id.
+     */
+    private final Map<String, PendingBatch> pendingBatches = new HashMap<>();
+
+    /**
+     * The ids of the recently acknowledged batches, so a resent batch whose acknowledgement was lost isn't persisted
+     * again.
+     */
+    private final LinkedHashMap<String, Boolean> acknowledgedBatches = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_ACKNOWLEDGED_BATCHES;
+        }
+    };
+
+    /**
+     * The number of results sent to the dumpers which they didn't persist yet.
+     */
+    private int resultsBeingPersisted = 0;
+
+    private static final int MAX_ACKNOWLEDGED_BATCHES = 100000;
+
+    /**
+     * A batch which is still being persisted after this time is persisted again when resent, as its dumper may have
+     * lost it.
+     */
+    private static final long PENDING_BATCH_TIMEOUT_IN_MILLIS = 5 * 60 * 1000;
+
+    private static class PendingBatch {
+        final ActorRef slave;
+        final long receivedAt;
+        int remainingParts;
+        boolean failed = false;
+
+        PendingBatch(final ActorRef slave, final long receivedAt, final int remainingParts) {
+            this.slave = slave;
+            this.receivedAt = receivedAt;
+            this.remainingParts = remainingParts;
+        }
+    }
+
     public ReceiverMasterActor(final ClusterMasterConfig clusterMasterConfig,
                                final ActorRef accountantActor,
                                final ActorRef monitoringActor,
@@ -89,8 +139,18 @@ public class ReceiverMasterActor extends UntypedActor {
 
     @Override
     public void preStart() throws Exception {
-        receiverJobDumper = getContext().actorOf(Props.create(ReceiverJobDumperActor.class, clusterMasterConfig,
-                processingJobDao, historicalProcessingJobDao,sourceDocumentProcessingStatisticsDao, lastSourceDocumentProcessingStatisticsDao, sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao), "jobDumper");
+        final int numberOfDumpers = clusterMasterConfig.getReceiverJobDumperConfig().getNumberOfDumpers();
+        for (int i = 0; i < numberOfDumpers; i++) {
+            receiverJobDumpers.add(getContext().actorOf(Props.create(ReceiverJobDumperActor.class, clusterMasterConfig,
+                    processingJobDao, historicalProcessingJobDao, sourceDocumentProcessingStatisticsDao, lastSourceDocumentProcessingStatisticsDao, sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao), "jobDumper" + i));
+        }
+
+        MasterMetrics.Master.doneProcessingBeingPersistedCount.registerHandler(new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return resultsBeingPersisted;
+            }
+        });
 
     }
 
@@ -100,7 +160,10 @@ public class ReceiverMasterActor extends UntypedActor {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
                 "ReceiverMasterActor prestart");
 
-        getContext().system().stop(receiverJobDumper);
+        for (final ActorRef receiverJobDumper : receiverJobDumpers) {
+            getContext().system().stop(receiverJobDumper);
+        }
+        receiverJobDumpers.clear();
     }
 
 
@@ -115,51 +178,150 @@ public class ReceiverMasterActor extends UntypedActor {
 
             return;
         }
+        if(message instanceof ChangeJobState) {
+            // the monitoring knows all the slaves
+            monitoringActor.tell(message, ActorRef.noSender());
+            return;
+        }
         if(message instanceof DoneProcessing) {
-            final Address address = getSender().path().address();
             final DoneProcessing doneProcessing = (DoneProcessing) message;
 
-            accountantActor.tell(message, ActorRef.noSender());
-            receiverJobDumper.tell(message,ActorRef.noSender());
+            onDoneProcessing(getSender().path().address(), doneProcessing);
+            receiverJobDumperOf(doneProcessing.getJobId()).tell(message, ActorRef.noSender());
+            return;
+        }
+        if(message instanceof DoneProcessingBatch) {
+            onDoneProcessingBatch((DoneProcessingBatch) message);
+            return;
+        }
+        if(message instanceof DoneProcessingPersisted) {
+            onDoneProcessingPersisted((DoneProcessingPersisted) message);
+            return;
+        }
+
+    }
+
+    /**
+     * Hands the results of the batch to the dumpers of their jobs. The batch is acknowledged once all of them are
+     * persisted, so the slaves never have more results in the master than their window. A batch which a dumper failed
+     * to persist isn't acknowledged, it's persisted again when the slave resends it.
+     */
+    private void onDoneProcessingBatch(final DoneProcessingBatch batch) {
+        if (acknowledgedBatches.containsKey(batch.getBatchId())) {
+            getSender().tell(new DoneProcessingAck(batch.getBatchId(), isLagging()), getSelf());
+            return;
+        }
+        final PendingBatch pendingBatch = pendingBatches.get(batch.getBatchId());
+        if (pendingBatch != null && System.currentTimeMillis() - pendingBatch.receivedAt < PENDING_BATCH_TIMEOUT_IN_MILLIS) {
+            return;
+        }
+
+        final Address address = getSender().path().address();
+        final Map<ActorRef, List<DoneProcessing>> resultsPerDumper = new HashMap<>();
+        for (final DoneProcessing doneProcessing : batch.getResults()) {
+            onDoneProcessing(address, doneProcessing);
+
+            final ActorRef receiverJobDumper = receiverJobDumperOf(doneProcessing.getJobId());
+            List<DoneProcessing> results = resultsPerDumper.get(receiverJobDumper);
+            if (results == null) {
+                results = new ArrayList<>();
+                resultsPerDumper.put(receiverJobDumper, results);
+            }
+            results.add(doneProcessing);
+        }
+
+        if (resultsPerDumper.isEmpty()) {
+            acknowledgedBatches.put(batch.getBatchId(), Boolean.TRUE);
+            getSender().tell(new DoneProcessingAck(batch.getBatchId(), isLagging()), getSelf());
+            return;
+        }
+
+        pendingBatches.put(batch.getBatchId(), new PendingBatch(getSender(), System.currentTimeMillis(), resultsPerDumper.size()));
+        resultsBeingPersisted += batch.getResults().size();
+        for (final Map.Entry<ActorRef, List<DoneProcessing>> results : resultsPerDumper.entrySet()) {
+            results.getKey().tell(new PersistDoneProcessing(batch.getBatchId(), results.getValue()), getSelf());
+        }
+    }
+
+    private void onDoneProcessingPersisted(final DoneProcessingPersisted persisted) {
+        resultsBeingPersisted = Math.max(0, resultsBeingPersisted - persisted.getNumberOfResults());
+
+        final PendingBatch pendingBatch = pendingBatches.get(persisted.getBatchId());
+        if (pendingBatch == null)
+            return;
+
+        pendingBatch.remainingParts--;
+        pendingBatch.failed = pendingBatch.failed || !persisted.isSuccessful();
+        if (pendingBatch.remainingParts > 0) {
+            return;
+        }
+
+        pendingBatches.remove(persisted.getBatchId());
+        if (pendingBatch.failed) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                    "The batch {} wasn't persisted, it's persisted again when the slave resends it", persisted.getBatchId());
+            return;
+        }
+        acknowledgedBatches.put(persisted.getBatchId(), Boolean.TRUE);
+        pendingBatch.slave.tell(new DoneProcessingAck(persisted.getBatchId(), isLagging()), getSelf());
+    }
 
-            removeTask(address, doneProcessing);
-            MasterMetrics.Master.doneProcessingStateCounters.get(doneProcessing.getProcessingState()).inc();
-            MasterMetrics.Master.doneProcessingTotalCounter.inc();
+    /**
+     * @return true if the dumpers have more results to persist than they should
+     */
+    private boolean isLagging() {
+        return resultsBeingPersisted > clusterMasterConfig.getReceiverJobDumperConfig().getLagThreshold();
+    }
 
-            final ProcessingJobSubTaskStats subTaskStats = doneProcessing.getStats();
-            if (subTaskStats != null) {
+    /**
+     * Tells the accountant and the monitoring that the task is done and counts its result.
+     */
+    private void onDoneProcessing(final Address address, final DoneProcessing doneProcessing) {
+        accountantActor.tell(doneProcessing, ActorRef.noSender());
 
-                if (subTaskStats.getRetrieveState() != null) {
-                    MasterMetrics.Master.doneProcessingRetrieveStateCounters.get(subTaskStats.getRetrieveState()).inc();
-                    if (subTaskStats.getRetrieveState() != ProcessingJobRetrieveSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingRetrieveTotalCounter.inc();
-                }
+        removeTask(address, doneProcessing);
+        MasterMetrics.Master.doneProcessingStateCounters.get(doneProcessing.getProcessingState()).inc();
+        MasterMetrics.Master.doneProcessingTotalCounter.inc();
 
-                if (subTaskStats.getColorExtractionState() != null) {
-                    MasterMetrics.Master.doneProcessingColorExtractionStateCounters.get(subTaskStats.getColorExtractionState()).inc();
-                    if (subTaskStats.getColorExtractionState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingColorExtractionTotalCounter.inc();
-                }
+        final ProcessingJobSubTaskStats subTaskStats = doneProcessing.getStats();
+        if (subTaskStats != null) {
 
+            if (subTaskStats.getRetrieveState() != null) {
+                MasterMetrics.Master.doneProcessingRetrieveStateCounters.get(subTaskStats.getRetrieveState()).inc();
+                if (subTaskStats.getRetrieveState() != ProcessingJobRetrieveSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingRetrieveTotalCounter.inc();
+            }
 
-                if (subTaskStats.getMetaExtractionState() != null) {
-                    MasterMetrics.Master.doneProcessingMetaExtractionStateCounters.get(subTaskStats.getMetaExtractionState()).inc();
-                    if (subTaskStats.getMetaExtractionState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingMetaExtractionTotalCounter.inc();
-                }
+            if (subTaskStats.getColorExtractionState() != null) {
+                MasterMetrics.Master.doneProcessingColorExtractionStateCounters.get(subTaskStats.getColorExtractionState()).inc();
+                if (subTaskStats.getColorExtractionState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingColorExtractionTotalCounter.inc();
+            }
 
-                if (subTaskStats.getThumbnailGenerationState() != null) {
-                    MasterMetrics.Master.doneProcessingThumbnailGenerationStateCounters.get(subTaskStats.getThumbnailGenerationState()).inc();
-                    if (subTaskStats.getThumbnailGenerationState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingThumbnailGenerationTotalCounter.inc();
-                }
 
-                if (subTaskStats.getThumbnailStorageState() != null) {
-                    MasterMetrics.Master.doneProcessingThumbnailStorageStateCounters.get(subTaskStats.getThumbnailStorageState()).inc();
-                    if (subTaskStats.getThumbnailStorageState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingThumbnailStorageTotalCounter.inc();
-                }
+            if (subTaskStats.getMetaExtractionState() != null) {
+                MasterMetrics.Master.doneProcessingMetaExtractionStateCounters.get(subTaskStats.getMetaExtractionState()).inc();
+                if (subTaskStats.getMetaExtractionState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingMetaExtractionTotalCounter.inc();
+            }
 
+            if (subTaskStats.getThumbnailGenerationState() != null) {
+                MasterMetrics.Master.doneProcessingThumbnailGenerationStateCounters.get(subTaskStats.getThumbnailGenerationState()).inc();
+                if (subTaskStats.getThumbnailGenerationState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingThumbnailGenerationTotalCounter.inc();
+            }
+
+            if (subTaskStats.getThumbnailStorageState() != null) {
+                MasterMetrics.Master.doneProcessingThumbnailStorageStateCounters.get(subTaskStats.getThumbnailStorageState()).inc();
+                if (subTaskStats.getThumbnailStorageState() != ProcessingJobSubTaskState.NEVER_EXECUTED) MasterMetrics.Master.doneProcessingThumbnailStorageTotalCounter.inc();
             }
 
-            return;
         }
+    }
 
+    /**
+     * Returns the dumper responsible for the given job.
+     * @param jobId the id of the job
+     */
+    private ActorRef receiverJobDumperOf(final String jobId) {
+        final int hash = (jobId == null) ? 0 : jobId.hashCode();
+        return receiverJobDumpers.get((hash & Integer.MAX_VALUE) % receiverJobDumpers.size());
     }
 
     /**
@@ -0,0 +1,113 @@
+package eu.europeana.harvester.cluster.master.sharding;
+
+import akka.actor.Address;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A consistent hash ring which maps each IP to the master shard owning it. Each shard is placed on the ring at
+ * several points, an IP belongs to the first shard point which follows its hash.
+ * When a shard joins or leaves only the IPs between its points and the preceding ones change their owner.
+ * <p/>
+ * The ring is immutable: adding or removing a shard returns a new one.
+ */
+public class IpShardRing implements Serializable {
+
+    private final int virtualNodesPerShard;
+
+    private final Set<Address> shards;
+
+    private final TreeMap<Long, Address> points;
+
+    public IpShardRing(final int virtualNodesPerShard, final Collection<Address> shards) {
+        this.virtualNodesPerShard = virtualNodesPerShard;
+        this.shards = Collections.unmodifiableSet(new HashSet<>(shards));
+        this.points = new TreeMap<>();
+
+        for (final Address shard : this.shards) {
+            for (int i = 0; i < virtualNodesPerShard; ++i) {
+                final long point = hash(shard.toString() + "#" + i);
+                final Address other = points.get(point);
+                // on a collision the point goes to the same shard whatever the order of the shards
+                if (null == other || shard.toString().compareTo(other.toString()) < 0) {
+                    points.put(point, shard);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the shard which owns the IP (or any other key), null if the ring is empty
+     */
+    public Address shardOf(final String ip) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        final Map.Entry<Long, Address> point = points.ceilingEntry(hash(ip));
+        return (null == point) ? points.firstEntry().getValue() : point.getValue();
+    }
+
+    /**
+     * @return true if the IP (or any other key) belongs to the shard
+     */
+    public boolean owns(final Address shard, final String ip) {
+        return shard.equals(shardOf(ip));
+    }
+
+    /**
+     * @return the IPs, among the given ones, which belong to the shard
+     */
+    public Set<String> ownedBy(final Address shard, final Collection<String> ips) {
+        final Set<String> ownedIPs = new HashSet<>();
+        for (final String ip : ips) {
+            if (owns(shard, ip)) {
+                ownedIPs.add(ip);
+            }
+        }
+        return ownedIPs;
+    }
+
+    public IpShardRing withShard(final Address shard) {
+        if (shards.contains(shard)) {
+            return this;
+        }
+        final Set<Address> newShards = new HashSet<>(shards);
+        newShards.add(shard);
+        return new IpShardRing(virtualNodesPerShard, newShards);
+    }
+
+    public IpShardRing withoutShard(final Address shard) {
+        if (!shards.contains(shard)) {
+            return this;
+        }
+        final Set<Address> newShards = new HashSet<>(shards);
+        newShards.remove(shard);
+        return new IpShardRing(virtualNodesPerShard, newShards);
+    }
+
+    public Set<Address> getShards() {
+        return shards;
+    }
+
+    public int size() {
+        return shards.size();
+    }
+
+    private static long hash(final String key) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+        long hash = 0;
+        for (int i = 0; i < 8; ++i) {
+            hash = (hash << 8) | (digest[i] & 0xFF);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,182 @@
+package eu.europeana.harvester.cluster.master.sharding;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.cluster.Cluster;
+import akka.cluster.ClusterEvent;
+import akka.cluster.Member;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingBatch;
+import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.ChangeIpShardRing;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import eu.europeana.harvester.logging.LoggingComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+
+/**
+ * Lets a master node act as one shard of the masters of the cluster. The slaves broadcast their messages to all the
+ * masters; this actor keeps only the ones of the IPs owned by its shard and passes them to the accountant, limiter
+ * and receiver of the shard. The partition of the IPs follows the masters which are up in the cluster.
+ */
+public class IpShardRouterActor extends UntypedActor {
+
+    /**
+     * The cluster role of the master nodes, each of them is a shard.
+     */
+    public static final String MASTER_ROLE = "clusterMaster";
+
+    public static ActorRef createActor(final ActorSystem system, final ShardingConfig shardingConfig,
+                                       final ActorRef accountantActor, final ActorRef limiterActor,
+                                       final ActorRef receiverActor, final ActorRef jobLoaderActor) {
+        return system.actorOf(Props.create(IpShardRouterActor.class, shardingConfig, accountantActor, limiterActor,
+                receiverActor, jobLoaderActor), "shardRouter");
+    }
+
+    private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final ActorRef accountantActor;
+
+    private final ActorRef limiterActor;
+
+    private final ActorRef receiverActor;
+
+    private final ActorRef jobLoaderActor;
+
+    /**
+     * The masters which are up. Until this shard sees itself up it owns nothing.
+     */
+    private IpShardRing ring;
+
+    private Address selfAddress;
+
+    public IpShardRouterActor(final ShardingConfig shardingConfig, final ActorRef accountantActor,
+                              final ActorRef limiterActor, final ActorRef receiverActor,
+                              final ActorRef jobLoaderActor) {
+        this.accountantActor = accountantActor;
+        this.limiterActor = limiterActor;
+        this.receiverActor = receiverActor;
+        this.jobLoaderActor = jobLoaderActor;
+        this.ring = new IpShardRing(shardingConfig.getVirtualNodesPerShard(), Collections.<Address>emptySet());
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        final Cluster cluster = Cluster.get(getContext().system());
+        selfAddress = cluster.selfAddress();
+        cluster.subscribe(getSelf(), ClusterEvent.initialStateAsEvents(), ClusterEvent.MemberEvent.class);
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        Cluster.get(getContext().system()).unsubscribe(getSelf());
+    }
+
+    @Override
+    public void onReceive(Object message) throws Exception {
+        if (message instanceof ReserveConnectionSlotRequest) {
+            if (ring.owns(selfAddress, ((ReserveConnectionSlotRequest) message).getIp())) {
+                limiterActor.tell(message, getSender());
+            }
+            return;
+        }
+
+        if (message instanceof ReturnConnectionSlotRequest) {
+            if (ring.owns(selfAddress, ((ReturnConnectionSlotRequest) message).getIp())) {
+                limiterActor.tell(message, getSender());
+            }
+            return;
+        }
+
+        if (message instanceof RequestTasks) {
+            if (ring.getShards().contains(selfAddress)) {
+                accountantActor.tell(shareOf((RequestTasks) message), getSender());
+                jobLoaderActor.tell(new LoadJobs(), ActorRef.noSender());
+            }
+            return;
+        }
+
+        if (message instanceof DoneProcessing) {
+            // the slaves send the completions to the receiver of the shard which gave them the task; one sent to
+            // all the masters (e.g. by a restarted slave) is handled by the shard owning the IP of the task, the only
+            // one whose accountant knows it
+            if (ring.owns(selfAddress, keyOf((DoneProcessing) message))) {
+                receiverActor.tell(message, getSender());
+            }
+            return;
+        }
+
+        if (message instanceof DoneProcessingBatch) {
+            // a batch resent to all the masters is persisted and acknowledged by a single shard, the database is
+            // shared; the other shards only tell their accountants about the tasks they gave out
+            final DoneProcessingBatch batch = (DoneProcessingBatch) message;
+            if (ring.owns(selfAddress, batch.getBatchId())) {
+                receiverActor.tell(message, getSender());
+            } else {
+                for (final DoneProcessing doneProcessing : batch.getResults()) {
+                    if (ring.owns(selfAddress, keyOf(doneProcessing))) {
+                        accountantActor.tell(doneProcessing, ActorRef.noSender());
+                    }
+                }
+            }
+            return;
+        }
+
+        if (message instanceof ClusterEvent.MemberUp) {
+            final Member member = ((ClusterEvent.MemberUp) message).member();
+            if (member.hasRole(MASTER_ROLE)) {
+                changeRing(ring.withShard(member.address()));
+            }
+            return;
+        }
+
+        if (message instanceof ClusterEvent.MemberRemoved) {
+            final Member member = ((ClusterEvent.MemberRemoved) message).member();
+            if (member.hasRole(MASTER_ROLE)) {
+                changeRing(ring.withoutShard(member.address()));
+            }
+            return;
+        }
+
+        if (message instanceof ClusterEvent.MemberEvent) {
+            return;
+        }
+
+        unhandled(message);
+    }
+
+    /**
+     * A completion without the IP of its task is handled by a single shard, by its job.
+     */
+    private static String keyOf(final DoneProcessing doneProcessing) {
+        return (null == doneProcessing.getIpAddress()) ? doneProcessing.getJobId() : doneProcessing.getIpAddress();
+    }
+
+    /**
+     * The request reaches every master, each of them sends its share of the asked tasks.
+     */
+    private RequestTasks shareOf(final RequestTasks requestTasks) {
+        if (!requestTasks.hasKnownCredits() || ring.size() <= 1) {
+            return requestTasks;
+        }
+        final int credits = (requestTasks.getCredits() + ring.size() - 1) / ring.size();
+        return new RequestTasks(credits, requestTasks.getWarmIPs());
+    }
+
+    private void changeRing(final IpShardRing newRing) {
+        if (newRing == ring) {
+            return;
+        }
+        ring = newRing;
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Master.SHARD_ROUTER),
+                "The IPs are now partitioned between the masters {}", ring.getShards());
+        jobLoaderActor.tell(new ChangeIpShardRing(ring, selfAddress), ActorRef.noSender());
+    }
+}
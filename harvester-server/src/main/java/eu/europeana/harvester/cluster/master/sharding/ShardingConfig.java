@@ -0,0 +1,41 @@
+package eu.europeana.harvester.cluster.master.sharding;
+
+import com.typesafe.config.Config;
+
+/**
+ * Stores the configuration of the master shards. Each master node of the cluster is a shard which owns a partition
+ * of the IPs: it loads, accounts and limits only the tasks of these IPs.
+ */
+public class ShardingConfig {
+
+    /**
+     * The number of points of each shard on the consistent hash ring. More points spread the IPs more evenly.
+     */
+    private final Integer virtualNodesPerShard;
+
+    /**
+     * Whether this master runs the tasks which are global to the cluster (the job restarter and the archiver).
+     * Exactly one master of the cluster should run them.
+     */
+    private final Boolean runsGlobalTasks;
+
+    public ShardingConfig(final Integer virtualNodesPerShard, final Boolean runsGlobalTasks) {
+        if (virtualNodesPerShard <= 0) {
+            throw new IllegalArgumentException("The number of virtual nodes per shard must be positive");
+        }
+        this.virtualNodesPerShard = virtualNodesPerShard;
+        this.runsGlobalTasks = runsGlobalTasks;
+    }
+
+    public Integer getVirtualNodesPerShard() {
+        return virtualNodesPerShard;
+    }
+
+    public Boolean getRunsGlobalTasks() {
+        return runsGlobalTasks;
+    }
+
+    public static ShardingConfig valueOf(final Config config) {
+        return new ShardingConfig(config.getInt("virtualNodesPerShard"), config.getBoolean("runsGlobalTasks"));
+    }
+}
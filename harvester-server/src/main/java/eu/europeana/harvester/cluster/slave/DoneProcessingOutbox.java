@@ -0,0 +1,189 @@
+package eu.europeana.harvester.cluster.slave;
+
+import akka.actor.ActorRef;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingBatch;
+
+import java.util.*;
+
+/**
+ * Holds the results of the tasks until the master acknowledges them. The results are sent in batches and at most
+ * a window of batches is unacknowledged at once; the window shrinks when the master says it lags behind and grows
+ * back with each acknowledgement. The unacknowledged batches are resent after a timeout.
+ * It belongs to the slave and outlives the restarts of its actor system, so the results aren't lost with them.
+ * When it's full the oldest unsent results are dropped; the master hands out their tasks again once they expire.
+ */
+public class DoneProcessingOutbox {
+
+    /**
+     * A batch to send and the receiver of the master shard to send it to, null if it's sent to all the masters.
+     */
+    public static class Batch {
+        private final ActorRef destination;
+
+        private final DoneProcessingBatch message;
+
+        Batch(final ActorRef destination, final DoneProcessingBatch message) {
+            this.destination = destination;
+            this.message = message;
+        }
+
+        public ActorRef getDestination() {
+            return destination;
+        }
+
+        public DoneProcessingBatch getMessage() {
+            return message;
+        }
+    }
+
+    private static class UnsentResult {
+        final DoneProcessing doneProcessing;
+        final ActorRef destination;
+
+        UnsentResult(final DoneProcessing doneProcessing, final ActorRef destination) {
+            this.doneProcessing = doneProcessing;
+            this.destination = destination;
+        }
+    }
+
+    private static class SentBatch {
+        final DoneProcessingBatch message;
+        long sentAt;
+
+        SentBatch(final DoneProcessingBatch message, final long sentAt) {
+            this.message = message;
+            this.sentAt = sentAt;
+        }
+    }
+
+    private final int capacity;
+
+    private final int batchSize;
+
+    private final int maxWindow;
+
+    private final long ackTimeoutInMillis;
+
+    private final LinkedList<UnsentResult> unsentResults = new LinkedList<>();
+
+    /**
+     * The sent batches which weren't acknowledged yet, the oldest first.
+     */
+    private final LinkedHashMap<String, SentBatch> unacknowledgedBatches = new LinkedHashMap<>();
+
+    /**
+     * The number of batches which can be unacknowledged at once.
+     */
+    private int window;
+
+    private long droppedResults = 0;
+
+    /**
+     * @param capacity           the maximum number of unsent results
+     * @param batchSize          the maximum number of results in a batch
+     * @param maxWindow          the maximum number of unacknowledged batches
+     * @param ackTimeoutInMillis the time after which an unacknowledged batch is resent
+     */
+    public DoneProcessingOutbox(final int capacity, final int batchSize, final int maxWindow, final long ackTimeoutInMillis) {
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.maxWindow = maxWindow;
+        this.ackTimeoutInMillis = ackTimeoutInMillis;
+        this.window = maxWindow;
+    }
+
+    /**
+     * @param destination the receiver of the master shard which sent the task, null if unknown
+     */
+    public synchronized void add(final DoneProcessing doneProcessing, final ActorRef destination) {
+        if (unsentResults.size() >= capacity) {
+            unsentResults.removeFirst();
+            droppedResults++;
+        }
+        unsentResults.addLast(new UnsentResult(doneProcessing, destination));
+    }
+
+    /**
+     * Takes the batches to send now: the unacknowledged ones which timed out, then new ones while the window allows.
+     * The timed out batches are resent to all the masters, as the receiver they were sent to may be gone.
+     *
+     * @param sendPartialBatch whether a batch smaller than the batch size is sent
+     */
+    public synchronized List<Batch> takeBatchesToSend(final long now, final boolean sendPartialBatch) {
+        final List<Batch> batches = new ArrayList<>();
+        for (final SentBatch sentBatch : unacknowledgedBatches.values()) {
+            if (now - sentBatch.sentAt >= ackTimeoutInMillis) {
+                sentBatch.sentAt = now;
+                batches.add(new Batch(null, sentBatch.message));
+            }
+        }
+
+        while (unacknowledgedBatches.size() < window && !unsentResults.isEmpty()
+                && (sendPartialBatch || unsentResults.size() >= batchSize)) {
+            final ActorRef destination = unsentResults.getFirst().destination;
+            final List<DoneProcessing> results = new ArrayList<>();
+            final Iterator<UnsentResult> unsent = unsentResults.iterator();
+            while (unsent.hasNext() && results.size() < batchSize) {
+                final UnsentResult result = unsent.next();
+                if (Objects.equals(destination, result.destination)) {
+                    results.add(result.doneProcessing);
+                    unsent.remove();
+                }
+            }
+
+            final DoneProcessingBatch message = new DoneProcessingBatch(UUID.randomUUID().toString(), results);
+            unacknowledgedBatches.put(message.getBatchId(), new SentBatch(message, now));
+            batches.add(new Batch(destination, message));
+        }
+        return batches;
+    }
+
+    /**
+     * Takes all the unacknowledged batches to send them again, to all the masters.
+     */
+    public synchronized List<Batch> takeUnacknowledgedBatches(final long now) {
+        final List<Batch> batches = new ArrayList<>();
+        for (final SentBatch sentBatch : unacknowledgedBatches.values()) {
+            sentBatch.sentAt = now;
+            batches.add(new Batch(null, sentBatch.message));
+        }
+        return batches;
+    }
+
+    /**
+     * Forgets the acknowledged batch. The window is halved if the master lags, else it grows by one batch.
+     */
+    public synchronized void acknowledged(final String batchId, final boolean lagging) {
+        if (null == unacknowledgedBatches.remove(batchId))
+            return;
+
+        window = lagging ? Math.max(1, window / 2) : Math.min(maxWindow, window + 1);
+    }
+
+    /**
+     * @return the number of results which weren't acknowledged yet
+     */
+    public synchronized int size() {
+        int size = unsentResults.size();
+        for (final SentBatch sentBatch : unacknowledgedBatches.values()) {
+            size += sentBatch.message.getResults().size();
+        }
+        return size;
+    }
+
+    public synchronized int unacknowledgedBatchesSize() {
+        return unacknowledgedBatches.size();
+    }
+
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the number of results dropped because the outbox was full
+     */
+    public synchronized long getDroppedResults() {
+        return droppedResults;
+    }
+}
@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 import scala.Option;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -35,6 +36,17 @@ public class NodeMasterActor extends UntypedActor {
                 "nodeMaster");
     }
 
+        public static ActorRef createActor(final ActorContext context, final ActorRef masterSender,
+                                           final ActorRef nodeSupervisor,
+                                           final NodeMasterConfig nodeMasterConfig,
+                                           final MediaStorageClient mediaStorageClient,
+                                           final DoneProcessingOutbox doneProcessingOutbox){
+
+        return context.system().actorOf(Props.create(NodeMasterActor.class,
+                        masterSender,nodeSupervisor, nodeMasterConfig, mediaStorageClient, doneProcessingOutbox),
+                "nodeMaster");
+    }
+
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
     /**
@@ -59,16 +71,95 @@ public class NodeMasterActor extends UntypedActor {
     private final Queue<Object> jobsReadyToBeProcessed = new LinkedList<>();
 
     /**
-     * List of jobs which was stopped by the clients.
+     * List of jobs which was stopped by the clients. Shared with the workers, which abort the tasks of these jobs.
      */
     private final Set<String> jobsToStop;
 
-    private Boolean sentRequest;
+    /**
+     * The results of the tasks which the master didn't acknowledge yet.
+     */
+    private final DoneProcessingOutbox doneProcessingOutbox;
+
+    /**
+     * False while the master is unreachable. Meanwhile no tasks are asked for, the started ones are finished and
+     * their results kept in the outbox.
+     */
+    private boolean masterReachable = true;
+
+    /**
+     * The number of tasks asked in the last request which didn't arrive yet.
+     */
+    private int outstandingCredits;
+
+    /**
+     * The IPs this slave recently got connection slots for, the most recent last.
+     * Sent with the task requests so that the master prefers tasks from these IPs.
+     */
+    private final LinkedHashMap<String, Boolean> warmIPs = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_WARM_IPS;
+        }
+    };
 
     final private List<ActorRef> actors = new ArrayList<>() ;
 
     final private HashMap<String, Pair<RetrieveUrlWithProcessingConfig,ReserveConnectionSlotResponse>> taskIDToRetrieveURL = new HashMap<>();
 
+    /**
+     * The receiver of the master shard which sent each task. The task is reported as done to it.
+     */
+    final private HashMap<String, ActorRef> taskIDToMasterReceiver = new HashMap<>();
+
+
+    /**
+     * The maximum number of results kept while they can't be sent to the master.
+     */
+    public static final int MAX_UNSENT_RESULTS = 100000;
+
+    /*
+     * The delivery of the results: they are sent in batches, with at most a window of unacknowledged batches,
+     * each resent if not acknowledged in time. Partial batches are sent on each tick.
+     */
+    private static final int DONE_PROCESSING_BATCH_SIZE = 50;
+    private static final int DONE_PROCESSING_MAX_WINDOW = 8;
+    private static final long DONE_PROCESSING_ACK_TIMEOUT_IN_MILLIS = 30000;
+    private static final long DONE_PROCESSING_SEND_INTERVAL_IN_MILLIS = 1000;
+
+    /**
+     * The tick on which the partial batches and the timed out ones are sent.
+     */
+    private static class SendDoneProcessing {
+    }
+
+    private Cancellable sendDoneProcessingTick;
+
+    public static DoneProcessingOutbox createDoneProcessingOutbox() {
+        return new DoneProcessingOutbox(MAX_UNSENT_RESULTS, DONE_PROCESSING_BATCH_SIZE, DONE_PROCESSING_MAX_WINDOW,
+                DONE_PROCESSING_ACK_TIMEOUT_IN_MILLIS);
+    }
+
+    /**
+     * The maximum number of warm IPs advertised to the master.
+     */
+    private static final int MAX_WARM_IPS = 100;
+
+    /**
+     * After this time the tasks asked in the last request which didn't arrive are no longer waited for.
+     */
+    private static final long REQUEST_TIMEOUT_IN_MILLIS = 5000;
+
+    /*
+     * The bounds of the delay before asking again for a connection slot the limiter denied.
+     */
+    private static final long SLOT_RESERVATION_BASE_DELAY_IN_MILLIS = 500;
+    private static final long SLOT_RESERVATION_MAX_DELAY_IN_MILLIS = 30000;
+
+    /**
+     * The backoff of the IPs whose connection slots were denied.
+     */
+    private final SlotReservationBackoff slotReservationBackoff = new SlotReservationBackoff(
+            SLOT_RESERVATION_BASE_DELAY_IN_MILLIS, SLOT_RESERVATION_MAX_DELAY_IN_MILLIS, new Random());
 
     Long lastRequest;
     final int maxSlaves;
@@ -82,14 +173,23 @@ public class NodeMasterActor extends UntypedActor {
                            final NodeMasterConfig nodeMasterConfig,
                            final MediaStorageClient mediaStorageClient
                            ) {
+        this(masterSender, nodeSupervisor, nodeMasterConfig, mediaStorageClient, createDoneProcessingOutbox());
+    }
+
+    public NodeMasterActor(final ActorRef masterSender,final  ActorRef nodeSupervisor,
+                           final NodeMasterConfig nodeMasterConfig,
+                           final MediaStorageClient mediaStorageClient,
+                           final DoneProcessingOutbox doneProcessingOutbox
+                           ) {
 
         this.masterSender = masterSender;
+        this.doneProcessingOutbox = doneProcessingOutbox;
         this.nodeSupervisor = nodeSupervisor;
         this.nodeMasterConfig = nodeMasterConfig;
 
-        this.jobsToStop = new HashSet<>();
+        this.jobsToStop = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 
-        this.sentRequest = false;
+        this.outstandingCredits = 0;
         this.mediaStorageClient = mediaStorageClient;
         this.maxSlaves = nodeMasterConfig.getNrOfDownloaderSlaves();
 
@@ -110,13 +210,20 @@ public class NodeMasterActor extends UntypedActor {
             }
         });
 
+        SlaveMetrics.Worker.Master.doneProcessingUnacknowledgedCounter.registerHandler(new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return doneProcessingOutbox.size();
+            }
+        });
+
     }
 
     @Override
     public void preStart() throws Exception {
 
         lastRequest = 0l;
-        sentRequest = false;
+        outstandingCredits = 0;
 
         LOG.debug("SLAVE - Node master actor, post restart");
 
@@ -124,6 +231,17 @@ public class NodeMasterActor extends UntypedActor {
         final SupervisorStrategy strategy =
                 new OneForOneStrategy(maxNrOfRetries, scala.concurrent.duration.Duration.create(1, TimeUnit.MINUTES),
                         Collections.<Class<? extends Throwable>>singletonList(Exception.class));
+
+        final scala.concurrent.duration.FiniteDuration interval = scala.concurrent.duration.Duration.create(
+                DONE_PROCESSING_SEND_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+        sendDoneProcessingTick = getContext().system().scheduler().schedule(interval, interval, getSelf(),
+                new SendDoneProcessing(), getContext().system().dispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (sendDoneProcessingTick != null)
+            sendDoneProcessingTick.cancel();
     }
 
 
@@ -142,7 +260,7 @@ public class NodeMasterActor extends UntypedActor {
 
         super.postRestart(reason);
 
-        sentRequest = false;
+        outstandingCredits = 0;
         lastRequest = 0l;
 
         self().tell(new RequestTasks(), ActorRef.noSender());
@@ -174,6 +292,24 @@ public class NodeMasterActor extends UntypedActor {
             onChangeJobStateReceived((ChangeJobState) message);
             return;
         }
+        if(message instanceof DoneProcessingAck) {
+            final DoneProcessingAck ack = (DoneProcessingAck) message;
+            doneProcessingOutbox.acknowledged(ack.getBatchId(), Boolean.TRUE.equals(ack.getLagging()));
+            sendDoneProcessing(false);
+            return;
+        }
+        if(message instanceof SendDoneProcessing) {
+            sendDoneProcessing(true);
+            return;
+        }
+        if(message instanceof MasterUnreachable) {
+            onMasterUnreachableReceived();
+            return;
+        }
+        if(message instanceof MasterReachable) {
+            onMasterReachableReceived();
+            return;
+        }
         if(message instanceof SendHearbeat) {
             onSendHeartBeatReceived();
             return;
@@ -206,7 +342,7 @@ public class NodeMasterActor extends UntypedActor {
 
 
                 ActorRef newActor = RetrieveAndProcessActor.createActor(getContext().system(),
-                        httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath()
+                        httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath(), jobsToStop
                         );
                 this.actors.add(newActor);
                 context().watch(newActor);
@@ -227,7 +363,20 @@ public class NodeMasterActor extends UntypedActor {
 
         LOG.debug("SLAVE - Node master actor - onRetrieveUrlWithProcessingConfigReceived");
 
+        if (jobsToStop.contains(retrieveUrl.getRetrieveUrl().getJobId())) {
+            if (outstandingCredits > 0)
+                outstandingCredits--;
+            LOG.debug("SLAVE - Node master actor - dropped task {} of paused job {}", retrieveUrl.getRetrieveUrl().getId(),
+                    retrieveUrl.getRetrieveUrl().getJobId());
+            return;
+        }
+
         taskIDToRetrieveURL.put(retrieveUrl.getRetrieveUrl().getId(), new Pair(retrieveUrl,null));
+        if (getSender() != getContext().system().deadLetters()) {
+            taskIDToMasterReceiver.put(retrieveUrl.getRetrieveUrl().getId(), getSender());
+        }
+        if (outstandingCredits > 0)
+            outstandingCredits--;
 
         LOG.debug("SLAVE - Node master actor - onRetrieveUrlWithProcessingConfigReceived - taskIDToRetrieveURL has size {}",
                 taskIDToRetrieveURL.size());
@@ -244,20 +393,28 @@ public class NodeMasterActor extends UntypedActor {
 
         LOG.debug("SLAVE - Node master actor - onReserveConnectionSlotResponseReceived");
 
-        if (!taskIDToRetrieveURL.containsKey(reserveConnectionSlotResponse.getTaskID()))
+        if (!taskIDToRetrieveURL.containsKey(reserveConnectionSlotResponse.getTaskID())) {
+            // the task was dropped while waiting for the slot
+            if (reserveConnectionSlotResponse.getGranted())
+                returnSlot(reserveConnectionSlotResponse);
             return;
+        }
 
         RetrieveUrlWithProcessingConfig retrieveUrl = taskIDToRetrieveURL.get(reserveConnectionSlotResponse.getTaskID()).getKey();
 
         if ( !reserveConnectionSlotResponse.getGranted()) {
-            getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(30,
-                    TimeUnit.SECONDS), masterSender,
+            final long delay = slotReservationBackoff.denied(reserveConnectionSlotResponse.getIp(),
+                    reserveConnectionSlotResponse.getRetryAfterInMillis());
+            getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(delay,
+                    TimeUnit.MILLISECONDS), masterSender,
                     new ReserveConnectionSlotRequest(reserveConnectionSlotResponse.getIp(),reserveConnectionSlotResponse.getTaskID()),
                     getContext().system().dispatcher(), getSelf());
             return;
         }
 
         taskIDToRetrieveURL.put(retrieveUrl.getRetrieveUrl().getId(), new Pair(retrieveUrl,reserveConnectionSlotResponse));
+        slotReservationBackoff.granted(reserveConnectionSlotResponse.getIp());
+        warmIPs.put(reserveConnectionSlotResponse.getIp(), Boolean.TRUE);
 
         LOG.debug("SLAVE - Node master actor - onReserveConnectionSlotResponseReceived - taskIDToRetrieveURL has size {}", taskIDToRetrieveURL.size());
 
@@ -276,63 +433,46 @@ public class NodeMasterActor extends UntypedActor {
 
         jobsReadyToBeProcessed.add(message);
 
-        if ( actors.size()<maxSlaves & jobsReadyToBeProcessed.size()>maxSlaves ) {
-
-            for ( int i=0;i<maxSlaves;i++){
-                Object msg = null;
-
-                if (!jobsReadyToBeProcessed.isEmpty())
-                    msg = jobsReadyToBeProcessed.poll();
-
-                if(msg != null) {
-                    RetrieveUrlWithProcessingConfig tst = (RetrieveUrlWithProcessingConfig) msg;
-                    LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
-                            "Slave master starting new Worker Actor for url {} ",tst.getRetrieveUrl().getUrl());
+        while (actors.size() < maxSlaves && !jobsReadyToBeProcessed.isEmpty()) {
+            final RetrieveUrlWithProcessingConfig msg = (RetrieveUrlWithProcessingConfig) jobsReadyToBeProcessed.poll();
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
+                    "Slave master starting new Worker Actor for url {} ", msg.getRetrieveUrl().getUrl());
 
-                    ActorRef newActor = RetrieveAndProcessActor.createActor(getContext().system(),
-                            httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath()
-                            );
-                    this.actors.add(newActor);
+            ActorRef newActor = RetrieveAndProcessActor.createActor(getContext().system(),
+                    httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath(), jobsToStop
+                    );
+            this.actors.add(newActor);
 
-                    context().watch(newActor);
+            context().watch(newActor);
 
-                    newActor.tell(msg, getSelf());
-                }
-
-            }
+            newActor.tell(msg, getSelf());
         }
     }
 
+    /**
+     * Asks the master for as many tasks as this slave has room for. No new request is sent while the tasks of the
+     * previous one are still expected.
+     */
     private void onRequestTasksReceived() {
-        //allways request tasks if the message is coming from the supervisor
 
         LOG.debug("SLAVE - Node master actor - onRequestTasksReceived");
 
-        if ( getSender().equals(nodeSupervisor)) {
-            if ( masterSender!= null && jobsReadyToBeProcessed.size() < nodeMasterConfig.getTaskNrLimit() ) {
-                masterSender.tell(new RequestTasks(), nodeSupervisor);
-                sentRequest = true;
-                lastRequest = System.currentTimeMillis();
-            }
-        }
-        else if(!sentRequest && masterSender != null && jobsReadyToBeProcessed.size() < nodeMasterConfig.getTaskNrLimit()) {
-
-            masterSender.tell(new RequestTasks(), nodeSupervisor);
-            sentRequest = true;
-            lastRequest = System.currentTimeMillis();
-        }
-        else  {
-                final Long currentTime = System.currentTimeMillis();
-                final int diff = Math.round ( ((currentTime - lastRequest)/1000) );
-                if(diff > 5 && jobsReadyToBeProcessed.size() < nodeMasterConfig.getTaskNrLimit() ) {
-                    sentRequest = true;
-                    //self().tell(new RequestTasks(), ActorRef.noSender());
-                    masterSender.tell(new RequestTasks(), nodeSupervisor);
-                    lastRequest = System.currentTimeMillis();
+        if (masterSender == null || !masterReachable)
+            return;
 
-                }
+        final long currentTime = System.currentTimeMillis();
+        if (outstandingCredits > 0 && currentTime - lastRequest < REQUEST_TIMEOUT_IN_MILLIS)
+            return;
 
+        final int credits = nodeMasterConfig.getTaskNrLimit() - taskIDToRetrieveURL.size();
+        if (credits <= 0) {
+            outstandingCredits = 0;
+            return;
         }
+
+        masterSender.tell(new RequestTasks(credits, new HashSet<>(warmIPs.keySet())), nodeSupervisor);
+        outstandingCredits = credits;
+        lastRequest = currentTime;
     }
 
     private void onDoneProcessingReceived(Object message) {
@@ -346,16 +486,117 @@ public class NodeMasterActor extends UntypedActor {
         if(taskIDToRetrieveURL.containsKey(doneProcessing.getTaskID())) {
 
             Pair < RetrieveUrlWithProcessingConfig, ReserveConnectionSlotResponse> pair = taskIDToRetrieveURL.remove(doneProcessing.getTaskID());
-            masterSender.tell(new ReturnConnectionSlotRequest(pair.getValue().getSlotId(), pair.getValue().getIp()), ActorRef.noSender());
+            returnSlot(pair.getValue());
+        }
+
+        // the master dropped the tasks of a paused job, they are done again once it's resumed
+        if (jobsToStop.contains(doneProcessing.getJobId())) {
+            taskIDToMasterReceiver.remove(doneProcessing.getTaskID());
+            return;
         }
 
-        masterSender.tell(message, getSelf());
+        // without the receiver of its shard, the result is sent to all the masters
+        doneProcessingOutbox.add(doneProcessing, taskIDToMasterReceiver.remove(doneProcessing.getTaskID()));
+        sendDoneProcessing(false);
 
 
         SlaveMetrics.Worker.Master.doneProcessingStateCounters.get(doneProcessing.getProcessingState()).inc();
         SlaveMetrics.Worker.Master.doneProcessingTotalCounter.inc();
     }
 
+    private void onMasterUnreachableReceived() {
+        masterReachable = false;
+        outstandingCredits = 0;
+
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
+                "Master unreachable, draining {} started tasks, {} results unacknowledged", taskIDToRetrieveURL.size(),
+                doneProcessingOutbox.size());
+    }
+
+    /**
+     * Sends again the unacknowledged results and asks again for the slots which may have been lost with the master,
+     * then resumes sending the results and asking for tasks.
+     */
+    private void onMasterReachableReceived() {
+        masterReachable = true;
+
+        final List<DoneProcessingOutbox.Batch> unacknowledgedBatches =
+                doneProcessingOutbox.takeUnacknowledgedBatches(System.currentTimeMillis());
+        send(unacknowledgedBatches);
+        sendDoneProcessing(true);
+
+        int slotRequests = 0;
+        for (final Pair<RetrieveUrlWithProcessingConfig, ReserveConnectionSlotResponse> task : taskIDToRetrieveURL.values()) {
+            if (task.getValue() == null) {
+                final RetrieveUrl retrieveUrl = task.getKey().getRetrieveUrl();
+                masterSender.tell(new ReserveConnectionSlotRequest(retrieveUrl.getIpAddress(), retrieveUrl.getId()), getSelf());
+                slotRequests++;
+            }
+        }
+
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
+                "Master reachable again, resent {} unacknowledged batches of results ({} results dropped so far) and asked again for {} slots",
+                unacknowledgedBatches.size(), doneProcessingOutbox.getDroppedResults(), slotRequests);
+
+        self().tell(new RequestTasks(), ActorRef.noSender());
+    }
+
+    /**
+     * Sends the batches of results the window allows, unless the master is unreachable.
+     *
+     * @param sendPartialBatch whether a batch smaller than the batch size is sent
+     */
+    private void sendDoneProcessing(final boolean sendPartialBatch) {
+        if (!masterReachable)
+            return;
+
+        send(doneProcessingOutbox.takeBatchesToSend(System.currentTimeMillis(), sendPartialBatch));
+    }
+
+    private void send(final List<DoneProcessingOutbox.Batch> batches) {
+        for (final DoneProcessingOutbox.Batch batch : batches) {
+            final ActorRef destination = (null == batch.getDestination()) ? masterSender : batch.getDestination();
+            destination.tell(batch.getMessage(), getSelf());
+        }
+    }
+
+    private void returnSlot(final ReserveConnectionSlotResponse slot) {
+        masterSender.tell(new ReturnConnectionSlotRequest(slot.getSlotId(), slot.getIp()), ActorRef.noSender());
+    }
+
+    /**
+     * Drops the tasks of the paused job which wait for a connection slot or for a free worker. The running ones are
+     * aborted by their workers.
+     */
+    private void dropTasksOfPausedJob(final String jobId) {
+        int droppedTasks = 0;
+        final Iterator<Map.Entry<String, Pair<RetrieveUrlWithProcessingConfig, ReserveConnectionSlotResponse>>> tasks =
+                taskIDToRetrieveURL.entrySet().iterator();
+        while (tasks.hasNext()) {
+            final Map.Entry<String, Pair<RetrieveUrlWithProcessingConfig, ReserveConnectionSlotResponse>> task = tasks.next();
+            final RetrieveUrlWithProcessingConfig retrieveUrl = task.getValue().getKey();
+            if (!jobId.equals(retrieveUrl.getRetrieveUrl().getJobId()))
+                continue;
+
+            final ReserveConnectionSlotResponse slot = task.getValue().getValue();
+            if (slot == null) {
+                SlaveMetrics.Worker.Master.jobsWaitingForSlotGrantCounter.dec();
+            } else if (jobsReadyToBeProcessed.remove(retrieveUrl)) {
+                returnSlot(slot);
+            } else {
+                continue;
+            }
+            tasks.remove();
+            taskIDToMasterReceiver.remove(task.getKey());
+            droppedTasks++;
+        }
+
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
+                "Slave dropped {} waiting tasks of the paused job {}", droppedTasks, jobId);
+        if (droppedTasks > 0)
+            self().tell(new RequestTasks(), ActorRef.noSender());
+    }
+
     private void onCleanReceived() {
 
         LOG.debug("SLAVE - Node master actor - oncleanReceived");
@@ -379,6 +620,7 @@ public class NodeMasterActor extends UntypedActor {
         switch (changeJobState.getNewState()) {
             case PAUSE:
                 jobsToStop.add(changeJobState.getJobId());
+                dropTasksOfPausedJob(changeJobState.getJobId());
                 break;
             case RESUME:
                 jobsToStop.remove(changeJobState.getJobId());
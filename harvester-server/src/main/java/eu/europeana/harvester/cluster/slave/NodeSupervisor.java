@@ -3,6 +3,8 @@ package eu.europeana.harvester.cluster.slave;
 import akka.actor.*;
 import akka.cluster.Cluster;
 import akka.cluster.ClusterEvent;
+import akka.cluster.Member;
+import akka.cluster.MemberStatus;
 import akka.remote.AssociatedEvent;
 import akka.remote.DisassociatedEvent;
 import com.codahale.metrics.MetricRegistry;
@@ -22,9 +24,10 @@ import java.util.concurrent.TimeUnit;
 public class NodeSupervisor extends UntypedActor {
 
     public static ActorRef createActor(final ActorSystem system, final Slave slave, final ActorRef masterSender,
-                                       final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient, MetricRegistry metrics) {
+                                       final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient, MetricRegistry metrics,
+                                       final DoneProcessingOutbox doneProcessingOutbox) {
         return system.actorOf(Props.create(NodeSupervisor.class, slave, masterSender, nodeMasterConfig,
-                mediaStorageClient, metrics), "nodeSupervisor");
+                mediaStorageClient, metrics, doneProcessingOutbox), "nodeSupervisor");
 
     }
 
@@ -67,8 +70,52 @@ public class NodeSupervisor extends UntypedActor {
 
     private final MetricRegistry metrics;
 
+    /**
+     * The results which the master didn't acknowledge yet, kept by the slave across restarts.
+     */
+    private final DoneProcessingOutbox doneProcessingOutbox;
+
+    /**
+     * When the master became unreachable, null while it's reachable.
+     */
+    private Long masterUnreachableSince;
+
+    /**
+     * Counts the times the master became unreachable, so the checks of a previous outage are ignored.
+     */
+    private int masterOutages;
+
+    /**
+     * The number of times the reachability of the master was checked in the current outage.
+     */
+    private int reachabilityChecks;
+
+    /*
+     * The bounds of the delay between the checks of the reachability of the master.
+     */
+    private static final long REACHABILITY_CHECK_BASE_DELAY_IN_SECONDS = 5;
+    private static final long REACHABILITY_CHECK_MAX_DELAY_IN_SECONDS = 60;
+
+    /**
+     * After this time without the master the slave is restarted, as this node may have been removed from the
+     * cluster, which it can join again only with a new actor system.
+     */
+    private static final long MAX_MASTER_UNREACHABLE_TIME_IN_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * The tick on which the reachability of the master is checked during an outage.
+     */
+    private static class CheckMasterReachable {
+        private final int outage;
+
+        CheckMasterReachable(final int outage) {
+            this.outage = outage;
+        }
+    }
+
     public NodeSupervisor(final Slave slave, final ActorRef masterSender,
-                          final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient, MetricRegistry metrics) {
+                          final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient, MetricRegistry metrics,
+                          final DoneProcessingOutbox doneProcessingOutbox) {
 
 
         this.slave = slave;
@@ -77,6 +124,7 @@ public class NodeSupervisor extends UntypedActor {
         this.mediaStorageClient = mediaStorageClient;
         this.missedHeartbeats = 0;
         this.metrics = metrics;
+        this.doneProcessingOutbox = doneProcessingOutbox;
 
         this.memberups = 0;
     }
@@ -86,7 +134,8 @@ public class NodeSupervisor extends UntypedActor {
 
         LOG.debug("SLAVE - Node supervisor pre start");
 
-        nodeMaster = NodeMasterActor.createActor(context(), masterSender,getSelf(), nodeMasterConfig, mediaStorageClient);
+        nodeMaster = NodeMasterActor.createActor(context(), masterSender,getSelf(), nodeMasterConfig, mediaStorageClient,
+                doneProcessingOutbox);
         watchdog = WatchdogActor.createActor(context().system(),slave);
 
         context().watch(nodeMaster);
@@ -94,7 +143,8 @@ public class NodeSupervisor extends UntypedActor {
 
         final Cluster cluster = Cluster.get(getContext().system());
         cluster.subscribe(getSelf(), ClusterEvent.initialStateAsEvents(),
-                ClusterEvent.MemberEvent.class, ClusterEvent.UnreachableMember.class, AssociatedEvent.class);
+                ClusterEvent.MemberEvent.class, ClusterEvent.UnreachableMember.class, ClusterEvent.ReachableMember.class,
+                AssociatedEvent.class);
         getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(10,
                 TimeUnit.SECONDS), getSelf(), new SendHearbeat(), getContext().system().dispatcher(), getSelf());
 
@@ -143,6 +193,17 @@ public class NodeSupervisor extends UntypedActor {
             return;
         }
 
+        if (message instanceof ClusterEvent.ReachableMember) {
+            if (((ClusterEvent.ReachableMember) message).member().hasRole("clusterMaster"))
+                onMasterReachable();
+            return;
+        }
+
+        if (message instanceof CheckMasterReachable) {
+            onCheckMasterReachable((CheckMasterReachable) message);
+            return;
+        }
+
         // Anything else
         nodeMaster.tell(message, getSender());
     }
@@ -156,6 +217,10 @@ public class NodeSupervisor extends UntypedActor {
         memberups++;
         if (memberups == 2)
             nodeMaster.tell(new RequestTasks(), getSelf());
+
+        // a new master replaced the unreachable one
+        if (mUp.member().hasRole("clusterMaster"))
+            onMasterReachable();
     }
 
     private void onAssociatedEventReceived() {
@@ -169,21 +234,76 @@ public class NodeSupervisor extends UntypedActor {
 
 
     private void onUnreachableMember(ClusterEvent.UnreachableMember message){
-        // if it's the master, restart
+        // if it's the master, drain the started tasks until it returns
 
         LOG.debug("SLAVE - Node supervisor onUnreachableMember");
 
-        if (message.member().getRoles().contains("clusterMaster")) {
-            try {
-                Thread.sleep(300000);
+        if (message.member().hasRole("clusterMaster") && masterUnreachableSince == null) {
+            LOG.warn(LoggingComponent.appendAppFields(LoggingComponent.Slave.SUPERVISOR),
+                    "Master {} unreachable. The started tasks are drained until it returns.", message.member().address());
 
-            } catch (InterruptedException e) {
-                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SUPERVISOR),
-                        "Master {} unreachable. Interrupted while waiting 30 secs.", e);
-            }
+            masterUnreachableSince = System.currentTimeMillis();
+            masterOutages++;
+            reachabilityChecks = 0;
+            nodeMaster.tell(new MasterUnreachable(), getSelf());
+            scheduleReachabilityCheck();
+        }
+    }
+
+    private void onMasterReachable() {
+        if (masterUnreachableSince == null)
+            return;
+
+        LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Slave.SUPERVISOR),
+                "Master reachable again after {} ms", System.currentTimeMillis() - masterUnreachableSince);
+
+        masterUnreachableSince = null;
+        nodeMaster.tell(new MasterReachable(), getSelf());
+    }
+
+    private void onCheckMasterReachable(CheckMasterReachable message) {
+        if (masterUnreachableSince == null || message.outage != masterOutages)
+            return;
+
+        if (isMasterReachable()) {
+            onMasterReachable();
+            return;
+        }
 
+        if (System.currentTimeMillis() - masterUnreachableSince > MAX_MASTER_UNREACHABLE_TIME_IN_MILLIS) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SUPERVISOR),
+                    "Master unreachable for more than {} ms. The slave will be restarted.", MAX_MASTER_UNREACHABLE_TIME_IN_MILLIS);
+            masterUnreachableSince = null;
             slave.restart();
+            return;
+        }
+
+        scheduleReachabilityCheck();
+    }
+
+    /**
+     * @return true if a master is up and reachable from this node
+     */
+    private boolean isMasterReachable() {
+        final ClusterEvent.CurrentClusterState state = Cluster.get(getContext().system()).state();
+        for (final Member member : state.getMembers()) {
+            if (member.hasRole("clusterMaster") && member.status() == MemberStatus.up()
+                    && !state.getUnreachable().contains(member)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    /**
+     * Schedules the next check of the master, doubling the delay up to its maximum.
+     */
+    private void scheduleReachabilityCheck() {
+        final long delay = Math.min(REACHABILITY_CHECK_MAX_DELAY_IN_SECONDS,
+                REACHABILITY_CHECK_BASE_DELAY_IN_SECONDS << Math.min(reachabilityChecks, 10));
+        reachabilityChecks++;
+        getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(delay,
+                TimeUnit.SECONDS), getSelf(), new CheckMasterReachable(masterOutages), getContext().system().dispatcher(), getSelf());
     }
 
     private void onSlaveHeartBeatReceived() {
@@ -245,7 +365,10 @@ public class NodeSupervisor extends UntypedActor {
 
         nodeMaster = NodeMasterActor.createActor(context(), masterSender, getSelf(),
                 nodeMasterConfig,
-                mediaStorageClient);
+                mediaStorageClient,
+                doneProcessingOutbox);
         context().watch(nodeMaster);
+        if (masterUnreachableSince != null)
+            nodeMaster.tell(new MasterUnreachable(), getSelf());
     }
 }
@@ -26,6 +26,8 @@ import scala.concurrent.duration.Duration;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
@@ -62,9 +64,19 @@ public class RetrieveAndProcessActor extends UntypedActor {
                                              final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
                                              final MediaStorageClient mediaStorageClient,
                                              final String colorMapPath
+    ) {
+        return createActor(system, httpRetrieveResponseFactory, mediaStorageClient, colorMapPath,
+                Collections.<String>emptySet());
+    }
+
+    public static final ActorRef createActor(final ActorSystem system,
+                                             final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                             final MediaStorageClient mediaStorageClient,
+                                             final String colorMapPath,
+                                             final Set<String> pausedJobs
     ) {
         return system.actorOf(Props.create(RetrieveAndProcessActor.class,
-                httpRetrieveResponseFactory, colorMapPath, mediaStorageClient
+                httpRetrieveResponseFactory, colorMapPath, mediaStorageClient, pausedJobs
         ));
     }
 
@@ -102,11 +114,26 @@ public class RetrieveAndProcessActor extends UntypedActor {
 
     private final SlaveLinkChecker slaveLinkChecker;
 
+    /**
+     * The ids of the jobs paused on this slave, shared with the node master. A task of a paused job is neither
+     * retrieved nor processed, and its running download is aborted.
+     */
+    private final Set<String> pausedJobs;
+
     public RetrieveAndProcessActor(final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
                                    final String colorMapPath,
                                    final MediaStorageClient mediaStorageClient
     ) throws Exception {
+        this(httpRetrieveResponseFactory, colorMapPath, mediaStorageClient, Collections.<String>emptySet());
+    }
+
+    public RetrieveAndProcessActor(final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                   final String colorMapPath,
+                                   final MediaStorageClient mediaStorageClient,
+                                   final Set<String> pausedJobs
+    ) throws Exception {
 
+        this.pausedJobs = pausedJobs;
         this.httpRetrieveResponseFactory = httpRetrieveResponseFactory;
         this.slaveProcessor = new SlaveProcessor(new MediaMetaInfoExtractor(colorMapPath),
                 new ColorExtractor(colorMapPath),
@@ -120,6 +147,7 @@ public class RetrieveAndProcessActor extends UntypedActor {
     public RetrieveAndProcessActor(final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
                                    final SlaveProcessor slaveProcessor) {
 
+        this.pausedJobs = Collections.emptySet();
         this.httpRetrieveResponseFactory = httpRetrieveResponseFactory;
         this.slaveProcessor = slaveProcessor;
         this.slaveDownloader = new SlaveDownloader();
@@ -183,7 +211,7 @@ public class RetrieveAndProcessActor extends UntypedActor {
             final ProcessingJobRetrieveSubTaskState responseState = convertRetrieveStateToProcessingJobRetrieveSubTaskState(response.getState());
 
             doneProcessing = new DoneProcessing(
-                    task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(),
+                    task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(), task.getIpAddress(),
                     task.getTaskType(),
                     response,
                     new ProcessingJobSubTaskStats().withRetrieveState(responseState, response.getException()),
@@ -197,7 +225,7 @@ public class RetrieveAndProcessActor extends UntypedActor {
 
         } catch (Exception e) {
             doneProcessing = new DoneProcessing(
-                    task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(),
+                    task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(), task.getIpAddress(),
                     task.getTaskType(),
                     null,
                     new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.ERROR, e),
@@ -211,6 +239,12 @@ public class RetrieveAndProcessActor extends UntypedActor {
             downloadTimerContext.stop();
         }
 
+        // (Stop case 0) Stop when the job was paused meanwhile, the node master drops the result
+        if (pausedJobs.contains(task.getJobId())) {
+            finishProcess(doneProcessing);
+            return;
+        }
+
         // (Stop case 1) Stop when this is link checking
         if (task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CHECK_LINK) {
             // We can skip processing altogether as is this is link checking.
@@ -308,7 +342,7 @@ public class RetrieveAndProcessActor extends UntypedActor {
                 try {
                     response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, taskWithProcessingConfig.getDownloadPath());
                     response.setLoggingAppFields(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_RETRIEVAL, task.getJobId(), task.getUrl(), task.getReferenceOwner()));
-                    slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task);
+                    slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task, pausedJobs);
                 } finally {
                     downloadUnconditionalDownloadTimerContext.stop();
                 }
@@ -320,7 +354,7 @@ public class RetrieveAndProcessActor extends UntypedActor {
                 try {
                     response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, taskWithProcessingConfig.getDownloadPath());
                     response.setLoggingAppFields(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_RETRIEVAL, task.getJobId(), task.getUrl(), task.getReferenceOwner()));
-                    slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task);
+                    slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task, pausedJobs);
                 } finally {
                     downloadConditionalDownloadTimerContext.stop();
                 }
@@ -67,6 +67,8 @@ public class SlaveMetrics {
 
             public static final Counter doneProcessingTotalCounter = METRIC_REGISTRY.counter(name(Master.NAME, DONE_PROCESSING, TOTAL, COUNTER));
 
+            public static final LazyGauge doneProcessingUnacknowledgedCounter = new LazyGauge(METRIC_REGISTRY, name(Master.NAME, DONE_PROCESSING, "unacknowledged", COUNTER));
+
         }
 
         public static class Slave {
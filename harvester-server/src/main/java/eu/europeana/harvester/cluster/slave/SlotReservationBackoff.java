@@ -0,0 +1,82 @@
+package eu.europeana.harvester.cluster.slave;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides when the slave asks again for a connection slot of an IP after the limiter denied it. The delay doubles
+ * with each denial of the IP and is jittered, so the slaves waiting for the same IP don't retry all at once. When
+ * the limiter estimates when a slot frees up, the retry is aimed just after that time instead.
+ * A granted slot resets the backoff of its IP.
+ */
+public class SlotReservationBackoff {
+
+    /**
+     * The maximum number of IPs with denied reservations remembered; the least recently denied are forgotten first.
+     */
+    private static final int MAX_IPS = 10000;
+
+    /**
+     * The largest power of two the base delay is multiplied with.
+     */
+    private static final int MAX_DOUBLINGS = 20;
+
+    private final long baseDelayInMillis;
+
+    private final long maxDelayInMillis;
+
+    private final Random random;
+
+    /**
+     * The number of reservations denied to each IP since a slot of it was last granted.
+     */
+    private final LinkedHashMap<String, Integer> deniedReservationsPerIP = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_IPS;
+        }
+    };
+
+    public SlotReservationBackoff(final long baseDelayInMillis, final long maxDelayInMillis, final Random random) {
+        this.baseDelayInMillis = baseDelayInMillis;
+        this.maxDelayInMillis = maxDelayInMillis;
+        this.random = random;
+    }
+
+    /**
+     * Records a denied reservation of the IP.
+     *
+     * @param retryAfterInMillis the estimate of the limiter for when a slot frees up, null if unknown
+     * @return the time to wait before asking again for a slot of the IP
+     */
+    public long denied(final String ip, final Long retryAfterInMillis) {
+        final Integer previouslyDenied = deniedReservationsPerIP.get(ip);
+        final int denied = (null == previouslyDenied) ? 1 : previouslyDenied + 1;
+        deniedReservationsPerIP.put(ip, denied);
+
+        final long ceiling = Math.min(maxDelayInMillis, baseDelayInMillis << Math.min(denied - 1, MAX_DOUBLINGS));
+        if (null == retryAfterInMillis) {
+            return ceiling / 2 + jitter(ceiling / 2);
+        }
+        return Math.min(maxDelayInMillis, Math.max(baseDelayInMillis, retryAfterInMillis) + jitter(ceiling / 2));
+    }
+
+    /**
+     * Records a granted reservation of the IP, which resets its backoff.
+     */
+    public void granted(final String ip) {
+        deniedReservationsPerIP.remove(ip);
+    }
+
+    /**
+     * @return the number of IPs which are backed off
+     */
+    public int size() {
+        return deniedReservationsPerIP.size();
+    }
+
+    private long jitter(final long bound) {
+        return (bound <= 0) ? 0 : (long) (random.nextDouble() * (bound + 1));
+    }
+}
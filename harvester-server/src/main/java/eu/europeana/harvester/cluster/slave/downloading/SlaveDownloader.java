@@ -15,15 +15,35 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SlaveDownloader {
 
     private Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
+    /**
+     * How often a running download checks if its job was paused.
+     */
+    public static final long PAUSE_CHECK_INTERVAL_IN_MILLIS = 500;
+
     public HttpRetrieveResponse downloadAndStoreInHttpRetrieveResponse(final HttpRetrieveResponse httpRetrieveResponse, final RetrieveUrl task) {
+        return downloadAndStoreInHttpRetrieveResponse(httpRetrieveResponse, task, Collections.<String>emptySet());
+    }
+
+    /**
+     * Like {@link #downloadAndStoreInHttpRetrieveResponse(HttpRetrieveResponse, RetrieveUrl)}, but aborts the
+     * download once the job of the task is paused.
+     *
+     * @param pausedJobs the ids of the paused jobs, changed by other threads
+     */
+    public HttpRetrieveResponse downloadAndStoreInHttpRetrieveResponse(final HttpRetrieveResponse httpRetrieveResponse, final RetrieveUrl task,
+                                                                       final Set<String> pausedJobs) {
 
         if ((task.getDocumentReferenceTask().getTaskType() != DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD) &&
                 (task.getDocumentReferenceTask().getTaskType() != DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD)) {
@@ -208,7 +228,7 @@ public class SlaveDownloader {
         });
 
         try {
-            Integer r = downloadListener.get(1, TimeUnit.DAYS /* This timeout should never be reached. There are other timeouts used internally that will expire much quicker. */);
+            Integer r = awaitUnlessPaused(downloadListener, httpRetrieveResponse, task, pausedJobs);
             LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_RETRIEVAL, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
                     "Download finished with status {}", r);
 
@@ -222,6 +242,30 @@ public class SlaveDownloader {
         }
     }
 
+    /**
+     * Waits for the download, aborting it (which closes its connection) when its job is paused.
+     */
+    private Integer awaitUnlessPaused(final ListenableFuture<Integer> downloadListener, final HttpRetrieveResponse httpRetrieveResponse,
+                                      final RetrieveUrl task, final Set<String> pausedJobs) throws Exception {
+        final long deadline = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1) /* This timeout should never be reached. There are other timeouts used internally that will expire much quicker. */;
+        while (true) {
+            try {
+                return downloadListener.get(PAUSE_CHECK_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (pausedJobs.contains(task.getJobId())) {
+                    final CancellationException cancellation = new CancellationException("The job " + task.getJobId() + " was paused");
+                    downloadListener.abort(cancellation);
+                    httpRetrieveResponse.setState(RetrievingState.ERROR);
+                    httpRetrieveResponse.setLog("The download was aborted, as its job was paused");
+                    throw cancellation;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+            }
+        }
+    }
+
     private String fetchContentLengthHeader(Map<String, String> headers) {
         for (final Map.Entry<String, String> entry : headers.entrySet()) {
             if ("Content-Length".equalsIgnoreCase(entry.getKey())) {
@@ -18,6 +18,8 @@ public class LoggingComponent {
         public static final String TASKS_RECEIVER = PREFIX_MASTER+"."+"receiver";
         public static final String TASKS_SENDER = PREFIX_MASTER+"."+"senderr";
         public static final String IP_LIMITER = PREFIX_MASTER+".ipLimiter";
+        public static final String ARCHIVER = PREFIX_MASTER+".archiver";
+        public static final String SHARD_ROUTER = PREFIX_MASTER+".shardRouter";
 
     }
 
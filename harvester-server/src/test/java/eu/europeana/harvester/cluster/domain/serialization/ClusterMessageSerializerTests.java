@@ -0,0 +1,306 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import akka.actor.ActorSystem;
+import akka.serialization.SerializationExtension;
+import com.typesafe.config.ConfigFactory;
+import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.domain.*;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ClusterMessageSerializerTests {
+
+    private static final int BENCHMARK_ITERATIONS = 20000;
+
+    private final ClusterMessageSerializer serializer = new ClusterMessageSerializer();
+
+    private static RetrieveUrl createRetrieveUrl(final int index) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Length", "123456");
+        headers.put("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT");
+
+        final ProcessingJobTaskDocumentReference task = new ProcessingJobTaskDocumentReference(
+                DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD, "reference" + index,
+                Arrays.asList(new ProcessingJobSubTask(ProcessingJobSubTaskType.META_EXTRACTION, null),
+                        new ProcessingJobSubTask(ProcessingJobSubTaskType.COLOR_EXTRACTION, new GenericSubTaskConfiguration()),
+                        new ProcessingJobSubTask(ProcessingJobSubTaskType.GENERATE_THUMBNAIL,
+                                new GenericSubTaskConfiguration(new ThumbnailConfig(180, 180)))));
+
+        return new RetrieveUrl("task" + index, "http://www.example.com/images/" + index + ".jpg",
+                DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD,
+                new ProcessingJobLimits(5 * 60 * 1000l, 5 * 1000l, 10 * 1000l, 10, 10 * 60 * 1000l),
+                "job" + index, "reference" + index, headers, task, "192.168.1.1",
+                new ReferenceOwner("provider", "collection", "record" + index, "execution"));
+    }
+
+    private static DoneProcessing createDoneProcessing(final int index) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "image/jpeg");
+        headers.put("Content-Length", "123456");
+        headers.put("Server", "Apache/2.2.22 (Debian)");
+
+        return new DoneProcessing("task" + index, "http://www.example.com/images/" + index + ".jpg",
+                "reference" + index, "job" + index, "10.0.0." + index, DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, 200,
+                "image/jpeg", 123456l, 35l, 1200l, 1200l, "10.0.0.1", headers,
+                Arrays.asList("http://www.example.com/" + index, "http://www.example.com/images/" + index + ".jpg"),
+                new ProcessingJobSubTaskStats("ok", ProcessingJobRetrieveSubTaskState.SUCCESS,
+                        null, ProcessingJobSubTaskState.SUCCESS, null, ProcessingJobSubTaskState.SUCCESS,
+                        null, ProcessingJobSubTaskState.FAILED, "storage failed", ProcessingJobSubTaskState.NEVER_EXECUTED),
+                "",
+                new ImageMetaInfo(800, 600, "image/jpeg", "JPEG", "sRGB", 123456l,
+                        new String[]{"#FFFFFF", "#000000", "#A0B0C0"}, ImageOrientation.LANDSCAPE),
+                new AudioMetaInfo(44100, 320, 180000l, "audio/mpeg", "mp3", 123456l, 2, 16),
+                new VideoMetaInfo(1920, 1080, 60000l, "video/mp4", 29.97, 123456l, "h264", "1920x1080", 5000),
+                new TextMetaInfo("application/pdf", 123456l, 300, true));
+    }
+
+    private byte[] javaSerialize(final Object message) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(message);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private Object javaDeserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+        return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+    }
+
+    private Object roundTrip(final Object message) {
+        return serializer.fromBinary(serializer.toBinary(message));
+    }
+
+    private static void assertRetrieveUrlEquals(final RetrieveUrl expected, final RetrieveUrl actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getUrl(), actual.getUrl());
+        assertEquals(expected.getTaskType(), actual.getTaskType());
+        assertEquals(expected.getJobId(), actual.getJobId());
+        assertEquals(expected.getReferenceId(), actual.getReferenceId());
+        assertEquals(expected.getHeaders(), actual.getHeaders());
+        assertEquals(expected.getIpAddress(), actual.getIpAddress());
+        assertEquals(expected.getReferenceOwner(), actual.getReferenceOwner());
+
+        assertEquals(expected.getLimits().getRetrievalTerminationThresholdTimeLimitInMillis(),
+                actual.getLimits().getRetrievalTerminationThresholdTimeLimitInMillis());
+        assertEquals(expected.getLimits().getRetrievalTerminationThresholdReadPerSecondInBytes(),
+                actual.getLimits().getRetrievalTerminationThresholdReadPerSecondInBytes());
+        assertEquals(expected.getLimits().getRetrievalConnectionTimeoutInMillis(),
+                actual.getLimits().getRetrievalConnectionTimeoutInMillis());
+        assertEquals(expected.getLimits().getRetrievalMaxNrOfRedirects(),
+                actual.getLimits().getRetrievalMaxNrOfRedirects());
+        assertEquals(expected.getLimits().getProcessingTerminationThresholdTimeLimitInMillis(),
+                actual.getLimits().getProcessingTerminationThresholdTimeLimitInMillis());
+
+        assertEquals(expected.getDocumentReferenceTask().getTaskType(), actual.getDocumentReferenceTask().getTaskType());
+        assertEquals(expected.getDocumentReferenceTask().getSourceDocumentReferenceID(),
+                actual.getDocumentReferenceTask().getSourceDocumentReferenceID());
+        assertEquals(expected.getDocumentReferenceTask().getProcessingTasks(),
+                actual.getDocumentReferenceTask().getProcessingTasks());
+    }
+
+    @Test
+    public void canRoundTripRetrieveUrl() {
+        final RetrieveUrl retrieveUrl = createRetrieveUrl(1);
+        assertRetrieveUrlEquals(retrieveUrl, (RetrieveUrl) roundTrip(retrieveUrl));
+    }
+
+    @Test
+    public void canRoundTripRetrieveUrlWithNullFields() {
+        final RetrieveUrl retrieveUrl = new RetrieveUrl("task", "http://www.example.com", null, null, null, null,
+                null, null, null, null);
+        final RetrieveUrl result = (RetrieveUrl) roundTrip(retrieveUrl);
+
+        assertEquals("task", result.getId());
+        assertEquals("http://www.example.com", result.getUrl());
+        assertNull(result.getTaskType());
+        assertNull(result.getLimits());
+        assertNull(result.getHeaders());
+        assertNull(result.getDocumentReferenceTask());
+        assertNull(result.getReferenceOwner());
+    }
+
+    @Test
+    public void canRoundTripBagOfTasks() {
+        final List<RetrieveUrl> tasks = Arrays.asList(createRetrieveUrl(1), createRetrieveUrl(2), createRetrieveUrl(3));
+        final BagOfTasks result = (BagOfTasks) roundTrip(new BagOfTasks(tasks));
+
+        assertEquals(tasks.size(), result.getTasks().size());
+        for (int i = 0; i < tasks.size(); i++) {
+            assertRetrieveUrlEquals(tasks.get(i), result.getTasks().get(i));
+        }
+        assertTrue(((BagOfTasks) roundTrip(new BagOfTasks(new ArrayList<RetrieveUrl>()))).getTasks().isEmpty());
+    }
+
+    @Test
+    public void canRoundTripDoneProcessing() {
+        final DoneProcessing doneProcessing = createDoneProcessing(1);
+        final DoneProcessing result = (DoneProcessing) roundTrip(doneProcessing);
+
+        assertEquals(doneProcessing.getTaskID(), result.getTaskID());
+        assertEquals(doneProcessing.getUrl(), result.getUrl());
+        assertEquals(doneProcessing.getReferenceId(), result.getReferenceId());
+        assertEquals(doneProcessing.getJobId(), result.getJobId());
+        assertEquals(doneProcessing.getIpAddress(), result.getIpAddress());
+        assertEquals(doneProcessing.getTaskType(), result.getTaskType());
+        assertEquals(doneProcessing.getHttpResponseCode(), result.getHttpResponseCode());
+        assertEquals(doneProcessing.getHttpResponseContentType(), result.getHttpResponseContentType());
+        assertEquals(doneProcessing.getHttpResponseContentSizeInBytes(), result.getHttpResponseContentSizeInBytes());
+        assertEquals(doneProcessing.getSocketConnectToDownloadStartDurationInMilliSecs(),
+                result.getSocketConnectToDownloadStartDurationInMilliSecs());
+        assertEquals(doneProcessing.getRetrievalDurationInMilliSecs(), result.getRetrievalDurationInMilliSecs());
+        assertEquals(doneProcessing.getCheckingDurationInMilliSecs(), result.getCheckingDurationInMilliSecs());
+        assertEquals(doneProcessing.getSourceIp(), result.getSourceIp());
+        assertEquals(doneProcessing.getHttpResponseHeaders(), result.getHttpResponseHeaders());
+        assertEquals(doneProcessing.getRedirectionPath(), result.getRedirectionPath());
+        assertEquals(doneProcessing.getLog(), result.getLog());
+        assertEquals(ProcessingState.FAILED, result.getProcessingState());
+
+        assertEquals(doneProcessing.getStats().getRetrieveLog(), result.getStats().getRetrieveLog());
+        assertEquals(doneProcessing.getStats().getRetrieveState(), result.getStats().getRetrieveState());
+        assertEquals(doneProcessing.getStats().getThumbnailGenerationState(), result.getStats().getThumbnailGenerationState());
+        assertEquals(doneProcessing.getStats().getThumbnailStorageLog(), result.getStats().getThumbnailStorageLog());
+        assertEquals(doneProcessing.getStats().getThumbnailStorageState(), result.getStats().getThumbnailStorageState());
+
+        assertEquals(doneProcessing.getImageMetaInfo().getWidth(), result.getImageMetaInfo().getWidth());
+        assertEquals(doneProcessing.getImageMetaInfo().getColorSpace(), result.getImageMetaInfo().getColorSpace());
+        assertArrayEquals(doneProcessing.getImageMetaInfo().getColorPalette(), result.getImageMetaInfo().getColorPalette());
+        assertEquals(doneProcessing.getImageMetaInfo().getOrientation(), result.getImageMetaInfo().getOrientation());
+        assertEquals(doneProcessing.getAudioMetaInfo().getSampleRate(), result.getAudioMetaInfo().getSampleRate());
+        assertEquals(doneProcessing.getAudioMetaInfo().getBitDepth(), result.getAudioMetaInfo().getBitDepth());
+        assertEquals(doneProcessing.getVideoMetaInfo().getFrameRate(), result.getVideoMetaInfo().getFrameRate());
+        assertEquals(doneProcessing.getVideoMetaInfo().getCodec(), result.getVideoMetaInfo().getCodec());
+        assertEquals(doneProcessing.getTextMetaInfo().getResolution(), result.getTextMetaInfo().getResolution());
+        assertEquals(doneProcessing.getTextMetaInfo().getIsSearchable(), result.getTextMetaInfo().getIsSearchable());
+    }
+
+    @Test
+    public void canRoundTripDoneProcessingWithoutResponse() {
+        final DoneProcessing doneProcessing = new DoneProcessing("task", "http://www.example.com", "reference", "job",
+                DocumentReferenceTaskType.CHECK_LINK, null, new ProcessingJobSubTaskStats(), null, null, null, null,
+                "Connection refused");
+        final DoneProcessing result = (DoneProcessing) roundTrip(doneProcessing);
+
+        assertEquals(Integer.valueOf(-1), result.getHttpResponseCode());
+        assertEquals(Long.valueOf(-1), result.getHttpResponseContentSizeInBytes());
+        assertNull(result.getHttpResponseHeaders());
+        assertNull(result.getRedirectionPath());
+        assertNull(result.getImageMetaInfo());
+        assertNull(result.getTextMetaInfo());
+        assertEquals(ProcessingJobRetrieveSubTaskState.NEVER_EXECUTED, result.getStats().getRetrieveState());
+        assertEquals("Connection refused", result.getLog());
+    }
+
+    @Test
+    public void canRoundTripSmallMessages() {
+        assertEquals("task", ((StartedTask) roundTrip(new StartedTask("task"))).getTaskID());
+        assertEquals(RequestTasks.UNKNOWN_CREDITS, ((RequestTasks) roundTrip(new RequestTasks())).getCredits());
+
+        final RequestTasks requestTasks = (RequestTasks) roundTrip(new RequestTasks(42,
+                new HashSet<>(Arrays.asList("10.0.0.1", "10.0.0.2"))));
+        assertEquals(42, requestTasks.getCredits());
+        assertEquals(new HashSet<>(Arrays.asList("10.0.0.1", "10.0.0.2")), requestTasks.getWarmIPs());
+
+        final DoneProcessingAck ack = (DoneProcessingAck) roundTrip(new DoneProcessingAck("batch", true));
+        assertEquals("batch", ack.getBatchId());
+        assertTrue(ack.getLagging());
+    }
+
+    @Test
+    public void canRoundTripDoneProcessingBatch() {
+        final List<DoneProcessing> results = Arrays.asList(createDoneProcessing(1), createDoneProcessing(2));
+        final DoneProcessingBatch result = (DoneProcessingBatch) roundTrip(new DoneProcessingBatch("batch", results));
+
+        assertEquals("batch", result.getBatchId());
+        assertEquals(2, result.getResults().size());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(results.get(i).getTaskID(), result.getResults().get(i).getTaskID());
+            assertEquals(results.get(i).getIpAddress(), result.getResults().get(i).getIpAddress());
+            assertEquals(results.get(i).getHttpResponseHeaders(), result.getResults().get(i).getHttpResponseHeaders());
+            assertEquals(results.get(i).getImageMetaInfo().getWidth(), result.getResults().get(i).getImageMetaInfo().getWidth());
+        }
+        assertTrue(((DoneProcessingBatch) roundTrip(new DoneProcessingBatch("empty", new ArrayList<DoneProcessing>())))
+                .getResults().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void failsOnTruncatedMessage() {
+        final byte[] bytes = serializer.toBinary(createDoneProcessing(1));
+        serializer.fromBinary(Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    @Test
+    public void isBoundToTheHotMessages() {
+        final String bindings = "akka.actor {\n" +
+                "  serializers.cluster-messages = \"" + ClusterMessageSerializer.class.getName() + "\"\n" +
+                "  serialization-bindings {\n" +
+                "    \"" + RetrieveUrl.class.getName() + "\" = cluster-messages\n" +
+                "    \"" + BagOfTasks.class.getName() + "\" = cluster-messages\n" +
+                "    \"" + DoneProcessing.class.getName() + "\" = cluster-messages\n" +
+                "    \"" + StartedTask.class.getName() + "\" = cluster-messages\n" +
+                "    \"" + RequestTasks.class.getName() + "\" = cluster-messages\n" +
+                "    \"" + DoneProcessingBatch.class.getName() + "\" = cluster-messages\n" +
+                "    \"" + DoneProcessingAck.class.getName() + "\" = cluster-messages\n" +
+                "  }\n" +
+                "}";
+        final ActorSystem system = ActorSystem.create("SerializationTestSystem",
+                ConfigFactory.parseString(bindings).withFallback(ConfigFactory.load()));
+        try {
+            final akka.serialization.Serialization serialization = SerializationExtension.get(system);
+            assertTrue(serialization.findSerializerFor(createRetrieveUrl(1)) instanceof ClusterMessageSerializer);
+            assertTrue(serialization.findSerializerFor(new BagOfTasks(null)) instanceof ClusterMessageSerializer);
+            assertTrue(serialization.findSerializerFor(createDoneProcessing(1)) instanceof ClusterMessageSerializer);
+            assertTrue(serialization.findSerializerFor(new StartedTask("task")) instanceof ClusterMessageSerializer);
+            assertTrue(serialization.findSerializerFor(new RequestTasks()) instanceof ClusterMessageSerializer);
+            assertTrue(serialization.findSerializerFor(new DoneProcessingBatch("batch", null)) instanceof ClusterMessageSerializer);
+            assertTrue(serialization.findSerializerFor(new DoneProcessingAck("batch", false)) instanceof ClusterMessageSerializer);
+        } finally {
+            system.shutdown();
+        }
+    }
+
+    @Test
+    public void isSmallerAndFasterThanJavaSerialization() throws Exception {
+        final List<RetrieveUrl> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            tasks.add(createRetrieveUrl(i));
+        }
+        final Object[] messages = {createRetrieveUrl(1), new BagOfTasks(tasks), createDoneProcessing(1)};
+
+        for (final Object message : messages) {
+            final int compactSize = serializer.toBinary(message).length;
+            final int javaSize = javaSerialize(message).length;
+
+            // warm up
+            for (int i = 0; i < BENCHMARK_ITERATIONS / 10; i++) {
+                roundTrip(message);
+                javaDeserialize(javaSerialize(message));
+            }
+
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                roundTrip(message);
+            }
+            final long compactNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                javaDeserialize(javaSerialize(message));
+            }
+            final long javaNanos = System.nanoTime() - start;
+
+            System.out.println(message.getClass().getSimpleName() + ": compact " + compactSize + " bytes, " +
+                    compactNanos / BENCHMARK_ITERATIONS + " ns per round trip; java " + javaSize + " bytes, " +
+                    javaNanos / BENCHMARK_ITERATIONS + " ns per round trip");
+
+            assertTrue(compactSize * 2 < javaSize);
+        }
+    }
+}
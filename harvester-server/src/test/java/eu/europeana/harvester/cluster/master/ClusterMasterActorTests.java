@@ -0,0 +1,148 @@
+package eu.europeana.harvester.cluster.master;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.testkit.JavaTestKit;
+import com.mongodb.WriteConcern;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.DefaultLimits;
+import eu.europeana.harvester.cluster.domain.IPExceptions;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingAck;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingBatch;
+import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.receivers.ReceiverJobDumperConfig;
+import eu.europeana.harvester.cluster.master.sharding.ShardingConfig;
+import eu.europeana.harvester.db.interfaces.*;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.ProcessingJobSubTaskStats;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs a master on DAOs which persist nothing and sends it the messages of a slave.
+ */
+public class ClusterMasterActorTests {
+
+    private static final String CLUSTER_CONFIG =
+            "akka.actor.provider = \"akka.cluster.ClusterActorRefProvider\"\n" +
+            "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n" +
+            "akka.remote.netty.tcp.port = 0\n" +
+            "akka.remote.log-remote-lifecycle-events = off\n" +
+            "akka.cluster.roles = [clusterMaster]\n" +
+            "akka.loglevel = WARNING\n";
+
+    private ActorSystem system;
+
+    @After
+    public void tearDown() {
+        if (null != system) {
+            JavaTestKit.shutdownActorSystem(system);
+            system = null;
+        }
+    }
+
+    private ActorRef startMaster(final ShardingConfig shardingConfig) {
+        return startMaster(shardingConfig, mock(ProcessingJobDao.class));
+    }
+
+    private ActorRef startMaster(final ShardingConfig shardingConfig, final ProcessingJobDao processingJobDao) {
+        final Config config = ConfigFactory.parseString(CLUSTER_CONFIG).withFallback(ConfigFactory.load());
+        system = ActorSystem.create("ClusterSystem", config);
+        Cluster.get(system).join(Cluster.get(system).selfAddress());
+
+        final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(10, 50l, Duration.standardSeconds(50),
+                50000, new JobRestarterConfig(Duration.standardDays(100)),
+                new ReceiverJobDumperConfig(2, 10, Duration.millis(100)), null, null, shardingConfig,
+                WriteConcern.ACKNOWLEDGED);
+        final DefaultLimits defaultLimits = new DefaultLimits(1, 100000l, 10, 1000, 10000, 5, 80d,
+                Duration.standardMinutes(10));
+
+        return system.actorOf(Props.create(ClusterMasterActor.class, clusterMasterConfig,
+                new IPExceptions(100, Collections.EMPTY_LIST, Collections.EMPTY_LIST),
+                processingJobDao, mock(HistoricalProcessingJobDao.class),
+                mock(MachineResourceReferenceDao.class), mock(SourceDocumentProcessingStatisticsDao.class),
+                mock(LastSourceDocumentProcessingStatisticsDao.class), mock(SourceDocumentReferenceDao.class),
+                mock(SourceDocumentReferenceMetaInfoDao.class), mock(SourceDocumentReferenceProcessingProfileDao.class),
+                defaultLimits, 100, Duration.standardDays(100)), "clusterMaster");
+    }
+
+    private static DoneProcessingBatch createBatch(final String batchId) {
+        return new DoneProcessingBatch(batchId, Collections.singletonList(new DoneProcessing(batchId + "/0",
+                "http://10.0.0.1/image.jpg", "reference", "job", "10.0.0.1",
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, 200, "image/jpeg", 1l, 1l, 1l, 1l, "10.0.0.1",
+                Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new ProcessingJobSubTaskStats(),
+                null, null, null, null, null)));
+    }
+
+    /**
+     * Resends the batch, like a slave, until it's acknowledged.
+     */
+    private static DoneProcessingAck resendUntilAcknowledged(final JavaTestKit slave, final ActorRef clusterMaster,
+                                                             final DoneProcessingBatch batch) {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            clusterMaster.tell(batch, slave.getRef());
+            final Object message = slave.receiveOne(JavaTestKit.duration("1 second"));
+            if (message instanceof DoneProcessingAck) {
+                return (DoneProcessingAck) message;
+            }
+        }
+        throw new AssertionError("The batch " + batch.getBatchId() + " was never acknowledged");
+    }
+
+    @Test
+    public void canAcknowledgeABatchResentThroughTheClusterMaster() {
+        final ActorRef clusterMaster = startMaster(null);
+        final JavaTestKit slave = new JavaTestKit(system);
+
+        clusterMaster.tell(createBatch("batch1"), slave.getRef());
+        assertEquals("batch1", slave.expectMsgClass(JavaTestKit.duration("5 seconds"), DoneProcessingAck.class).getBatchId());
+    }
+
+    @Test
+    public void canAcknowledgeABatchResentThroughTheClusterMasterOfAShard() {
+        final ActorRef clusterMaster = startMaster(new ShardingConfig(100, true));
+        final JavaTestKit slave = new JavaTestKit(system);
+
+        // the batches are dropped until the master sees itself up
+        assertEquals("batch1", resendUntilAcknowledged(slave, clusterMaster, createBatch("batch1")).getBatchId());
+    }
+
+    @Test
+    public void canRefreshTheDatabaseMetricsOutsideOfTheDispatcher() throws Exception {
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        final CountDownLatch estimated = new CountDownLatch(1);
+        final AtomicReference<String> estimatingThread = new AtomicReference<>();
+        when(processingJobDao.getEstimatedCount()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(final InvocationOnMock invocation) {
+                estimatingThread.set(Thread.currentThread().getName());
+                estimated.countDown();
+                return 10l;
+            }
+        });
+        startMaster(null, processingJobDao);
+
+        assertTrue(estimated.await(10, TimeUnit.SECONDS));
+        assertFalse(estimatingThread.get().contains("dispatcher"));
+    }
+}
@@ -21,6 +21,7 @@ import eu.europeana.harvester.cluster.domain.IPExceptions;
 import eu.europeana.harvester.cluster.domain.messages.*;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.receivers.ReceiverJobDumperConfig;
 import eu.europeana.harvester.cluster.slave.RetrieveAndProcessActor;
 import eu.europeana.harvester.cluster.slave.processing.SlaveProcessor;
 import eu.europeana.harvester.cluster.slave.processing.color.ColorExtractor;
@@ -172,8 +173,11 @@ public class MasterTests {
         final Integer cleanupInterval = 100;
         final JobRestarterConfig jobRestarterConfig = new JobRestarterConfig(Duration.standardDays(100));
 
+        final ReceiverJobDumperConfig receiverJobDumperConfig = new ReceiverJobDumperConfig(2, 10, Duration.millis(100));
+
         final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(jobsPerIP, maxTasksInMemory,
-                receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig, WriteConcern.NORMAL);
+                receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig, receiverJobDumperConfig,
+                WriteConcern.NORMAL);
 
         final DefaultLimits defaultLimits = new DefaultLimits(1 /*taskBatchSize*/, 100000l /*defaultBandwidthLimitReadInBytesPerSec*/,
                 10 /*defaultMaxConcurrentConnectionsLimit*/, 1000 /*minDistanceInMillisBetweenTwoRequest*/,
@@ -0,0 +1,372 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import eu.europeana.harvester.cluster.domain.DefaultLimits;
+import eu.europeana.harvester.cluster.domain.TaskState;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
+import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.JobPriority;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccountantActorHelperTests {
+
+    private static final int TASK_BATCH_SIZE = 10;
+
+    private AccountantActorHelper accountantActorHelper;
+
+    @Before
+    public void setUp() {
+        accountantActorHelper = new AccountantActorHelper(new DefaultLimits(TASK_BATCH_SIZE, 1000l, 2, 1000, 5000, 10,
+                0.5, Duration.standardHours(1)));
+    }
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    private void addTasks(final String ip, final int count, final JobPriority priority) {
+        for (int i = 0; i < count; i++) {
+            final RetrieveUrl retrieveUrl = new RetrieveUrl("http://" + ip + "/" + i, null,
+                    DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, "job" + ip + i, "reference" + ip + i, null, null,
+                    ip, null);
+            accountantActorHelper.addTask(new AddTask(priority.getPriority(), retrieveUrl.getId(),
+                    new Pair<>(retrieveUrl, TaskState.READY)));
+        }
+    }
+
+    private static Map<String, Integer> countPerIp(final List<RetrieveUrl> tasks) {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (final RetrieveUrl task : tasks) {
+            final Integer count = counts.get(task.getIpAddress());
+            counts.put(task.getIpAddress(), null == count ? 1 : count + 1);
+        }
+        return counts;
+    }
+
+    @Test
+    public void canSendExactlyTheAdvertisedCredits() {
+        addTasks("10.0.0.1", 20, JobPriority.NORMAL);
+
+        assertEquals(3, accountantActorHelper.getBagOfTasks(new RequestTasks(3, null)).getTasks().size());
+        assertEquals(0, accountantActorHelper.getBagOfTasks(new RequestTasks(0, null)).getTasks().size());
+        assertEquals(TASK_BATCH_SIZE, accountantActorHelper.getBagOfTasks(new RequestTasks()).getTasks().size());
+        assertEquals(TASK_BATCH_SIZE + 3, accountantActorHelper.allStartedTaskSize());
+    }
+
+    @Test
+    public void canPreferTheWarmIPsOfTheSlave() {
+        addTasks("10.0.0.1", 5, JobPriority.NORMAL);
+        addTasks("10.0.0.2", 5, JobPriority.NORMAL);
+        addTasks("10.0.0.3", 5, JobPriority.NORMAL);
+
+        final Map<String, Integer> counts = countPerIp(accountantActorHelper.getBagOfTasks(
+                new RequestTasks(1, new HashSet<>(Arrays.asList("10.0.0.3", "10.0.0.9")))).getTasks());
+        assertEquals(Collections.singletonMap("10.0.0.3", 1), counts);
+
+        final Map<String, Integer> nextCounts = countPerIp(accountantActorHelper.getBagOfTasks(
+                new RequestTasks(4, new HashSet<>(Arrays.asList("10.0.0.2")))).getTasks());
+        assertEquals(3, nextCounts.size());
+        assertEquals(Integer.valueOf(2), nextCounts.get("10.0.0.2"));
+    }
+
+    @Test
+    public void canFillTheCreditsFromTheFastLaneFirst() {
+        addTasks("10.0.0.1", 2, JobPriority.FASTLANE);
+        addTasks("10.0.0.2", 5, JobPriority.NORMAL);
+
+        final List<RetrieveUrl> tasks = accountantActorHelper.getBagOfTasks(new RequestTasks(4, null)).getTasks();
+        final Map<String, Integer> counts = countPerIp(tasks);
+        assertEquals(4, tasks.size());
+        assertEquals(Integer.valueOf(2), counts.get("10.0.0.1"));
+        assertEquals(Integer.valueOf(2), counts.get("10.0.0.2"));
+        assertTrue(accountantActorHelper.getBagOfTasks(new RequestTasks(10, null)).getTasks().size() == 3);
+    }
+
+    @Test
+    public void canAddTheTasksOfACycleWithOneMessage() {
+        final AccountantActorHelper bulkHelper = new AccountantActorHelper(new DefaultLimits(TASK_BATCH_SIZE, 1000l, 2,
+                1000, 5000, 10, 0.5, Duration.standardHours(1)));
+        final List<RetrieveUrl> tasks = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            final String ip = "10.0.0." + (i % 3);
+            final RetrieveUrl retrieveUrl = new RetrieveUrl("http://" + ip + "/" + i, null,
+                    DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, "job" + i, "reference" + i, null, null, ip, null);
+            tasks.add(retrieveUrl);
+            accountantActorHelper.addTask(new AddTask(JobPriority.NORMAL.getPriority(), retrieveUrl.getId(),
+                    new Pair<>(retrieveUrl, TaskState.READY)));
+        }
+        bulkHelper.addTasks(new AddTasks(JobPriority.NORMAL.getPriority(), tasks.subList(0, 6)));
+        bulkHelper.addTasks(new AddTasks(JobPriority.NORMAL.getPriority(), tasks.subList(6, 12)));
+
+        assertEquals(accountantActorHelper.getNumberOfTasks(), bulkHelper.getNumberOfTasks());
+        assertEquals(accountantActorHelper.countUniqueIPs(), bulkHelper.countUniqueIPs());
+        for (int i = 0; i < 3; i++) {
+            final List<RetrieveUrl> expected = accountantActorHelper.getBagOfTasks(new RequestTasks(4, null)).getTasks();
+            assertEquals(expected, bulkHelper.getBagOfTasks(new RequestTasks(4, null)).getTasks());
+        }
+    }
+
+    /**
+     * The slaves ask for tasks in turns, one request per second, and a slave leaves half way through.
+     *
+     * @return the share of the tasks which went to the slave which got the previous task of the same IP
+     */
+    private double simulateSlavesTakingTurns(final boolean withAffinity, final int numberOfSlaves,
+                                             final int numberOfIPs, final int tasksPerIP) {
+        for (int ip = 0; ip < numberOfIPs; ip++) {
+            addTasks("10.0.1." + ip, tasksPerIP, JobPriority.NORMAL);
+        }
+        final int numberOfTasks = numberOfIPs * tasksPerIP;
+
+        final Map<String, String> lastSlavePerIP = new HashMap<>();
+        final Map<String, Integer> sentPerIP = new HashMap<>();
+        int sent = 0;
+        int tasksOfServedIPs = 0;
+        int hits = 0;
+        DateTime now = new DateTime(2015, 9, 1, 0, 0);
+        int slaves = numberOfSlaves;
+        boolean slaveLeft = false;
+
+        for (int turn = 0; sent < numberOfTasks; turn++) {
+            assertTrue("The tasks were not all sent", turn < 10 * numberOfTasks);
+            final String slave = "slave" + (turn % slaves);
+            final List<RetrieveUrl> tasks = accountantActorHelper.getBagOfTasks(new RequestTasks(TASK_BATCH_SIZE, null),
+                    withAffinity ? slave : null, now).getTasks();
+            now = now.plusSeconds(1);
+
+            for (final RetrieveUrl task : tasks) {
+                final String previousSlave = lastSlavePerIP.put(task.getIpAddress(), slave);
+                if (null != previousSlave) {
+                    ++tasksOfServedIPs;
+                    if (previousSlave.equals(slave)) {
+                        ++hits;
+                    }
+                }
+                final Integer count = sentPerIP.get(task.getIpAddress());
+                sentPerIP.put(task.getIpAddress(), null == count ? 1 : count + 1);
+            }
+            sent += tasks.size();
+
+            if (withAffinity && !slaveLeft && sent >= numberOfTasks / 2) {
+                // no IP waits for the others while the slaves work on their own IPs
+                for (int ip = 0; ip < numberOfIPs; ip++) {
+                    final Integer count = sentPerIP.get("10.0.1." + ip);
+                    assertTrue("An IP starved", null != count && count >= tasksPerIP / 4);
+                }
+                slaves = numberOfSlaves - 1;
+                slaveLeft = true;
+            }
+        }
+        return (double) hits / tasksOfServedIPs;
+    }
+
+    @Test
+    public void canKeepGivingTheTasksOfAnIPToTheSameSlave() {
+        final double hitRate = simulateSlavesTakingTurns(true, 4, 40, 30);
+
+        setUp();
+        final double hitRateWithoutAffinity = simulateSlavesTakingTurns(false, 4, 40, 30);
+
+        // the misses are the IPs of the slave which left and the last tasks, which are shared by all the slaves
+        assertTrue("The hit rate with affinity is " + hitRate, hitRate > 0.8);
+        assertTrue("The hit rate without affinity is " + hitRateWithoutAffinity, hitRateWithoutAffinity < 0.2);
+    }
+
+    @Test
+    public void canGiveTheIPsOfAGoneSlaveToTheOthers() {
+        addTasks("10.0.0.1", 10, JobPriority.NORMAL);
+        addTasks("10.0.0.2", 10, JobPriority.NORMAL);
+        final DateTime now = new DateTime(2015, 9, 1, 0, 0);
+
+        final String ipOfSlave1 = accountantActorHelper.getBagOfTasks(new RequestTasks(1, null), "slave1", now)
+                .getTasks().get(0).getIpAddress();
+        final String ipOfSlave2 = accountantActorHelper.getBagOfTasks(new RequestTasks(1, null), "slave2", now)
+                .getTasks().get(0).getIpAddress();
+        assertTrue(!ipOfSlave1.equals(ipOfSlave2));
+
+        // slave1 keeps its IP while it is fresh
+        assertEquals(Collections.singletonMap(ipOfSlave2, 3), countPerIp(accountantActorHelper.getBagOfTasks(
+                new RequestTasks(3, null), "slave2", now.plusSeconds(1)).getTasks()));
+        assertEquals(Collections.singletonMap(ipOfSlave2, 3), countPerIp(accountantActorHelper.getBagOfTasks(
+                new RequestTasks(3, null), "slave2", now.plusSeconds(90)).getTasks()));
+
+        // and loses it when it stops asking for tasks
+        final Map<String, Integer> counts = countPerIp(accountantActorHelper.getBagOfTasks(
+                new RequestTasks(4, null), "slave2", now.plusSeconds(150)).getTasks());
+        assertEquals(Integer.valueOf(2), counts.get(ipOfSlave1));
+        assertEquals(Integer.valueOf(2), counts.get(ipOfSlave2));
+    }
+
+    @Test
+    public void canReclaimOnlyTheExpiredTasks() {
+        addTasks("10.0.0.1", 10, JobPriority.NORMAL);
+        final DateTime now = new DateTime(2015, 9, 1, 0, 0);
+
+        final List<RetrieveUrl> firstTasks = accountantActorHelper.getBagOfTasks(new RequestTasks(3, null), null, now)
+                .getTasks();
+        accountantActorHelper.getBagOfTasks(new RequestTasks(2, null), null, now.plusMinutes(30));
+        accountantActorHelper.doneTask(new DoneProcessing(firstTasks.get(0).getId(), firstTasks.get(0).getUrl(),
+                "reference", "job", DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, null, null, null, null, null,
+                null, null));
+
+        assertEquals(0, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(59)));
+        assertEquals(2, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(61)));
+        assertEquals(0, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(62)));
+        assertEquals(7, accountantActorHelper.normalLaneWaitingTaskSize());
+        assertEquals(0, accountantActorHelper.fastLaneWaitingTaskSize());
+        assertEquals(2, accountantActorHelper.allStartedTaskSize());
+
+        // a reclaimed task started again expires from its new start time
+        accountantActorHelper.getBagOfTasks(new RequestTasks(2, null), null, now.plusMinutes(62));
+        assertEquals(2, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(91)));
+        assertEquals(0, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(121)));
+        assertEquals(2, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(123)));
+    }
+
+    @Test
+    public void canKeepTheTelemetryOfTheQueueUpToDate() {
+        addTasks("10.0.0.1", 4, JobPriority.NORMAL);
+        addTasks("10.0.0.2", 2, JobPriority.NORMAL);
+        addTasks("10.0.0.3", 1, JobPriority.FASTLANE);
+        final long now = System.currentTimeMillis();
+
+        assertEquals(1, accountantActorHelper.fastLaneWaitingTaskSize());
+        assertEquals(6, accountantActorHelper.normalLaneWaitingTaskSize());
+        assertTrue(accountantActorHelper.normalLaneOldestWaitingAge(now + 1000) >= 1000);
+        assertEquals("10.0.0.1", accountantActorHelper.getWaitingTasksPerIP().top(1).get(0).getIp());
+
+        final List<RetrieveUrl> tasks = accountantActorHelper.getBagOfTasks(new RequestTasks(3, null)).getTasks();
+        assertEquals(0, accountantActorHelper.fastLaneOldestWaitingAge(now));
+        assertEquals(3, accountantActorHelper.getWaitingTasksPerIP().get("10.0.0.1"));
+        assertEquals(1, accountantActorHelper.getWaitingTasksPerIP().get("10.0.0.2"));
+        assertEquals(0, accountantActorHelper.getWaitingTasksPerIP().get("10.0.0.3"));
+        assertEquals(1, accountantActorHelper.getStartedTasksPerIP().get("10.0.0.3"));
+        assertEquals(3, accountantActorHelper.getStartedTasksPerIP().size());
+
+        for (final RetrieveUrl task : tasks) {
+            accountantActorHelper.doneTask(new DoneProcessing(task.getId(), task.getUrl(), "reference", "job",
+                    DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, null, null, null, null, null, null, null));
+        }
+        assertEquals(0, accountantActorHelper.getStartedTasksPerIP().size());
+        assertEquals(2, accountantActorHelper.getWaitingTasksPerIP().size());
+    }
+
+    @Test
+    public void canPutAReclaimedTaskBackFirstInItsLane() {
+        addTasks("10.0.0.1", 3, JobPriority.NORMAL);
+        final DateTime now = new DateTime(2015, 9, 1, 0, 0);
+
+        final RetrieveUrl task = accountantActorHelper.getBagOfTasks(new RequestTasks(1, null), null, now)
+                .getTasks().get(0);
+        assertEquals(1, accountantActorHelper.reclaimExpiredTasks(now.plusMinutes(61)));
+        assertEquals(3, accountantActorHelper.normalLaneWaitingTaskSize());
+        assertEquals(0, accountantActorHelper.fastLaneWaitingTaskSize());
+
+        assertEquals(task.getId(), accountantActorHelper.getBagOfTasks(new RequestTasks(1, null), null,
+                now.plusMinutes(62)).getTasks().get(0).getId());
+    }
+
+    @Test
+    public void canBoundTheWaitOfTheNormalLaneWhileTheFastLaneIsNeverEmpty() {
+        final long waitWithAging = maxNormalLaneWaitInSeconds(Duration.standardMinutes(1));
+        final long waitWithoutAging = maxNormalLaneWaitInSeconds(Duration.ZERO);
+
+        assertTrue("The max wait with aging is " + waitWithAging, waitWithAging < 120);
+        assertTrue("The max wait without aging is " + waitWithoutAging, waitWithoutAging > 500);
+    }
+
+    /**
+     * Every second 10 fast lane tasks and 3 normal lane tasks arrive and a slave asks for 10 tasks, so the fast lane
+     * is never empty. With the default weights the normal lane gets 2 tasks per second without aging, less than its
+     * arrival rate.
+     *
+     * @return the longest time a normal lane task waited before it was sent
+     */
+    private long maxNormalLaneWaitInSeconds(final Duration agingPeriod) {
+        accountantActorHelper = new AccountantActorHelper(new DefaultLimits(TASK_BATCH_SIZE, 1000l, 2, 1000, 5000, 10,
+                0.5, Duration.standardHours(1)), null, new LaneSchedulingConfig(4, 1, agingPeriod));
+        final DateTime start = new DateTime(2015, 9, 1, 0, 0);
+        final Map<String, Integer> arrivals = new HashMap<>();
+
+        long maxWait = 0;
+        for (int second = 0; second < 2000; ++second) {
+            final DateTime now = start.plusSeconds(second);
+            DateTimeUtils.setCurrentMillisFixed(now.getMillis());
+
+            for (int i = 0; i < 10; ++i) {
+                accountantActorHelper.addTask(newTask("10.0.1." + (i % 5), JobPriority.FASTLANE, second + "/" + i));
+            }
+            for (int i = 0; i < 3; ++i) {
+                final AddTask task = newTask("10.0.2.1", JobPriority.NORMAL, second + "/" + i);
+                arrivals.put(task.getTaskID(), second);
+                accountantActorHelper.addTask(task);
+            }
+
+            for (final RetrieveUrl task : accountantActorHelper.getBagOfTasks(new RequestTasks(10, null), null, now)
+                    .getTasks()) {
+                final Integer arrival = arrivals.remove(task.getId());
+                if (null != arrival) {
+                    maxWait = Math.max(maxWait, second - arrival);
+                }
+            }
+        }
+        for (final Integer arrival : arrivals.values()) {
+            maxWait = Math.max(maxWait, 2000 - arrival);
+        }
+        return maxWait;
+    }
+
+    private static AddTask newTask(final String ip, final JobPriority priority, final String path) {
+        return newTask(ip, priority, path, "job" + ip + path);
+    }
+
+    private static AddTask newTask(final String ip, final JobPriority priority, final String path, final String jobId) {
+        final RetrieveUrl retrieveUrl = new RetrieveUrl("http://" + ip + "/" + path, null,
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, jobId, "reference" + ip + path, null,
+                null, ip, null);
+        return new AddTask(priority.getPriority(), retrieveUrl.getId(), new Pair<>(retrieveUrl, TaskState.READY));
+    }
+
+    @Test
+    public void canPurgeTheWaitingAndStartedTasksOfAPausedJob() {
+        for (final String ip : Arrays.asList("10.0.0.1", "10.0.0.2")) {
+            for (int i = 0; i < 3; i++) {
+                accountantActorHelper.addTask(newTask(ip, JobPriority.NORMAL, "paused/" + i, "pausedJob"));
+                accountantActorHelper.addTask(newTask(ip, JobPriority.FASTLANE, "running/" + i, "runningJob"));
+            }
+        }
+        final List<RetrieveUrl> started = accountantActorHelper.getBagOfTasks(new RequestTasks(6, null)).getTasks();
+        int startedOfPausedJob = 0;
+        for (final RetrieveUrl task : started) {
+            if ("pausedJob".equals(task.getJobId())) {
+                startedOfPausedJob++;
+            }
+        }
+        final int startedOfRunningJob = started.size() - startedOfPausedJob;
+
+        assertEquals(6, accountantActorHelper.purgeJob("pausedJob"));
+        assertEquals(6 - startedOfRunningJob, accountantActorHelper.getNumberOfTasks().intValue());
+        assertEquals(startedOfRunningJob, accountantActorHelper.allStartedTaskSize());
+        assertEquals(startedOfRunningJob, accountantActorHelper.getStartedTasksPerIP().get("10.0.0.1")
+                + accountantActorHelper.getStartedTasksPerIP().get("10.0.0.2"));
+
+        for (final RetrieveUrl task : accountantActorHelper.getBagOfTasks(new RequestTasks(10, null)).getTasks()) {
+            assertEquals("runningJob", task.getJobId());
+        }
+    }
+}
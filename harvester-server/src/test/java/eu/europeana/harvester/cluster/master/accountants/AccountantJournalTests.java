@@ -0,0 +1,265 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Kill;
+import akka.actor.Props;
+import akka.pattern.Patterns;
+import eu.europeana.harvester.cluster.domain.DefaultLimits;
+import eu.europeana.harvester.cluster.domain.TaskState;
+import eu.europeana.harvester.cluster.domain.messages.BagOfTasks;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetNumberOfTasks;
+import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.JobPriority;
+import eu.europeana.harvester.domain.ProcessingJobSubTaskStats;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.Await;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AccountantJournalTests {
+
+    private static final int NUMBER_OF_TASKS = 300;
+    private static final int NUMBER_OF_STARTED_TASKS = 100;
+    private static final int NUMBER_OF_DONE_TASKS = 40;
+    private static final int NUMBER_OF_LATE_TASKS = 5;
+
+    private static final scala.concurrent.duration.FiniteDuration TIMEOUT =
+            scala.concurrent.duration.Duration.create(10, TimeUnit.SECONDS);
+
+    private final DefaultLimits defaultLimits = new DefaultLimits(10, 1000l, 2, 1000, 5000, 10, 0.5,
+            Duration.standardHours(1));
+
+    private static final FilenameFilter LOG_FILES = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            return name.endsWith(".wal");
+        }
+    };
+
+    private File directory;
+    private AccountantJournalConfig journalConfig;
+    private ActorSystem system;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("accountant-journal").toFile();
+        journalConfig = new AccountantJournalConfig(directory.getAbsolutePath(), 50);
+        system = ActorSystem.create("AccountantJournalTestSystem");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        system.shutdown();
+        system.awaitTermination();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    private static AddTask createTask(final int index) {
+        final String ip = "10.0.0." + (index % 5);
+        final RetrieveUrl retrieveUrl = new RetrieveUrl("http://" + ip + "/" + index, null,
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, "job" + index, "reference" + index, null, null, ip, null);
+        final JobPriority priority = (index % 7 == 0) ? JobPriority.FASTLANE : JobPriority.NORMAL;
+        return new AddTask(priority.getPriority(), retrieveUrl.getId(), new Pair<>(retrieveUrl, TaskState.READY));
+    }
+
+    private static DoneProcessing createDone(final RetrieveUrl task) {
+        return new DoneProcessing(task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(),
+                task.getTaskType(), null, new ProcessingJobSubTaskStats(), null, null, null, null, "");
+    }
+
+    private Object ask(final ActorRef actor, final Object message) throws Exception {
+        return Await.result(Patterns.ask(actor, message, TIMEOUT.toMillis()), TIMEOUT);
+    }
+
+    /**
+     * Copies the journal as a crash of the master would leave it, before the accountant closes it on stop.
+     *
+     * @return the config of the copied journal
+     */
+    private AccountantJournalConfig crash(final ActorRef accountant) throws Exception {
+        // the journal has the records of all the messages handled before this one
+        ask(accountant, new GetNumberOfTasks());
+
+        final File crashedDirectory = Files.createTempDirectory("accountant-journal-crashed").toFile();
+        FileUtils.copyDirectory(directory, crashedDirectory);
+        Await.result(Patterns.gracefulStop(accountant, TIMEOUT, Kill.getInstance()), TIMEOUT);
+
+        FileUtils.deleteDirectory(directory);
+        directory = crashedDirectory;
+        return new AccountantJournalConfig(crashedDirectory.getAbsolutePath(), journalConfig.getRecordsBetweenSnapshots());
+    }
+
+    @Test(timeout = 60000)
+    public void canRebuildTheQueueAfterTheMasterCrashes() throws Exception {
+        final ActorRef accountant = system.actorOf(Props.create(AccountantActor.class, defaultLimits, journalConfig));
+
+        final Set<String> addedTaskIDs = new HashSet<>();
+        for (int i = 0; i < NUMBER_OF_TASKS; i++) {
+            final AddTask addTask = createTask(i);
+            addedTaskIDs.add(addTask.getTaskID());
+            accountant.tell(addTask, ActorRef.noSender());
+        }
+
+        final BagOfTasks started = (BagOfTasks) ask(accountant, new RequestTasks(NUMBER_OF_STARTED_TASKS, null));
+        assertEquals(NUMBER_OF_STARTED_TASKS, started.getTasks().size());
+        for (int i = 0; i < NUMBER_OF_DONE_TASKS; i++) {
+            accountant.tell(createDone(started.getTasks().get(i)), ActorRef.noSender());
+        }
+        // the last records are still in the log, after the last snapshot
+        for (int i = NUMBER_OF_TASKS; i < NUMBER_OF_TASKS + NUMBER_OF_LATE_TASKS; i++) {
+            final AddTask addTask = createTask(i);
+            addedTaskIDs.add(addTask.getTaskID());
+            accountant.tell(addTask, ActorRef.noSender());
+        }
+        final AccountantJournalConfig crashedJournalConfig = crash(accountant);
+
+        final ActorRef recoveredAccountant = system.actorOf(Props.create(AccountantActor.class, defaultLimits, crashedJournalConfig));
+        final int numberOfWaitingTasks = NUMBER_OF_TASKS + NUMBER_OF_LATE_TASKS - NUMBER_OF_STARTED_TASKS;
+        assertEquals(numberOfWaitingTasks, ask(recoveredAccountant, new GetNumberOfTasks()));
+
+        final Set<String> startedTaskIDs = new HashSet<>();
+        for (final RetrieveUrl task : started.getTasks()) {
+            startedTaskIDs.add(task.getId());
+        }
+
+        final BagOfTasks remaining = (BagOfTasks) ask(recoveredAccountant, new RequestTasks(NUMBER_OF_TASKS, null));
+        final Set<String> remainingTaskIDs = new HashSet<>();
+        for (final RetrieveUrl task : remaining.getTasks()) {
+            assertTrue("duplicated task " + task.getId(), remainingTaskIDs.add(task.getId()));
+            assertFalse(startedTaskIDs.contains(task.getId()));
+        }
+        assertEquals(numberOfWaitingTasks, remainingTaskIDs.size());
+
+        remainingTaskIDs.addAll(startedTaskIDs);
+        assertEquals(addedTaskIDs, remainingTaskIDs);
+    }
+
+    @Test
+    public void canRecoverStartedTasksAndIgnoreATruncatedRecord() throws Exception {
+        final AccountantJournal journal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 1000));
+        final AccountantActorHelper helper = new AccountantActorHelper(defaultLimits, journal);
+        journal.recover(helper);
+
+        for (int i = 0; i < 20; i++) {
+            helper.addTask(createTask(i));
+        }
+        final List<RetrieveUrl> started = helper.getBagOfTasks(new RequestTasks(5, null)).getTasks();
+        helper.doneTask(createDone(started.get(0)));
+        helper.addTask(createTask(20));
+
+        // the master died while writing the last addition, without closing the journal
+        final File log = directory.listFiles(LOG_FILES)[0];
+        try (final RandomAccessFile file = new RandomAccessFile(log, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        final AccountantJournal recoveredJournal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 1000));
+        final AccountantActorHelper recoveredHelper = new AccountantActorHelper(defaultLimits, recoveredJournal);
+        recoveredJournal.recover(recoveredHelper);
+        recoveredJournal.close();
+
+        assertEquals(Integer.valueOf(15), recoveredHelper.getNumberOfTasks());
+        assertEquals(4, recoveredHelper.allStartedTaskSize());
+    }
+
+    @Test
+    public void canRecoverWithoutThePurgedTasksOfAPausedJob() throws Exception {
+        final AccountantJournal journal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 1000));
+        final AccountantActorHelper helper = new AccountantActorHelper(defaultLimits, journal);
+        journal.recover(helper);
+
+        for (int i = 0; i < 20; i++) {
+            helper.addTask(createTask(i));
+        }
+        final List<RetrieveUrl> started = helper.getBagOfTasks(new RequestTasks(5, null)).getTasks();
+        final Set<String> startedJobIds = new HashSet<>();
+        for (final RetrieveUrl task : started) {
+            startedJobIds.add(task.getJobId());
+        }
+        String waitingJobId = null;
+        for (int i = 0; waitingJobId == null; i++) {
+            if (!startedJobIds.contains("job" + i)) {
+                waitingJobId = "job" + i;
+            }
+        }
+
+        assertEquals(1, helper.purgeJob(started.get(0).getJobId()));
+        assertEquals(1, helper.purgeJob(waitingJobId));
+        assertEquals(0, helper.purgeJob(waitingJobId));
+        journal.close();
+
+        final AccountantJournal recoveredJournal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 1000));
+        final AccountantActorHelper recoveredHelper = new AccountantActorHelper(defaultLimits, recoveredJournal);
+        recoveredJournal.recover(recoveredHelper);
+        recoveredJournal.close();
+
+        assertEquals(Integer.valueOf(14), recoveredHelper.getNumberOfTasks());
+        assertEquals(4, recoveredHelper.allStartedTaskSize());
+    }
+
+    @Test
+    public void canRecoverTasksAddedInBulk() throws Exception {
+        final AccountantJournal journal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 1000));
+        final AccountantActorHelper helper = new AccountantActorHelper(defaultLimits, journal);
+        journal.recover(helper);
+
+        final List<RetrieveUrl> tasks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tasks.add(createTask(i).getTaskWithState().getKey());
+        }
+        helper.addTasks(new AddTasks(JobPriority.NORMAL.getPriority(), tasks));
+        journal.close();
+
+        final AccountantJournal recoveredJournal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 1000));
+        final AccountantActorHelper recoveredHelper = new AccountantActorHelper(defaultLimits, recoveredJournal);
+        recoveredJournal.recover(recoveredHelper);
+        recoveredJournal.close();
+
+        assertEquals(Integer.valueOf(20), recoveredHelper.getNumberOfTasks());
+    }
+
+    @Test
+    public void canRecoverFromASnapshotAndTheFollowingLog() throws Exception {
+        final AccountantJournal journal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 10));
+        final AccountantActorHelper helper = new AccountantActorHelper(defaultLimits, journal);
+        journal.recover(helper);
+
+        for (int i = 0; i < 25; i++) {
+            helper.addTask(createTask(i));
+        }
+        final List<RetrieveUrl> started = helper.getBagOfTasks(new RequestTasks(7, null)).getTasks();
+        helper.doneTask(createDone(started.get(0)));
+        helper.doneTask(createDone(started.get(1)));
+        journal.close();
+
+        assertTrue(new File(directory, "accountant.snapshot").exists());
+        assertEquals(1, directory.listFiles(LOG_FILES).length);
+
+        final AccountantJournal recoveredJournal = new AccountantJournal(new AccountantJournalConfig(directory.getAbsolutePath(), 10));
+        final AccountantActorHelper recoveredHelper = new AccountantActorHelper(defaultLimits, recoveredJournal);
+        recoveredJournal.recover(recoveredHelper);
+        recoveredJournal.close();
+
+        assertEquals(Integer.valueOf(18), recoveredHelper.getNumberOfTasks());
+        assertEquals(5, recoveredHelper.allStartedTaskSize());
+    }
+}
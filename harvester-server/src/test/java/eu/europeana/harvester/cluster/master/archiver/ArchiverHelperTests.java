@@ -0,0 +1,67 @@
+package eu.europeana.harvester.cluster.master.archiver;
+
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ArchiverHelperTests {
+
+    private final ArchiverConfig config = new ArchiverConfig(Duration.standardHours(1), Duration.standardDays(7),
+                                                             Duration.standardDays(30), Duration.standardDays(365),
+                                                             100, 1000);
+
+    @Test
+    public void canMoveTheJobsAndThenTheStatisticsUntilABatchIsNotFull() {
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        final SourceDocumentProcessingStatisticsDao statisticsDao = mock(SourceDocumentProcessingStatisticsDao.class);
+        when(processingJobDao.archiveFinishedJobs(any(Date.class), eq(100), any(WriteConcern.class))).thenReturn(100, 40);
+        when(statisticsDao.archiveStatistics(any(Date.class), eq(100), any(WriteConcern.class))).thenReturn(100, 0);
+
+        final ArchiverHelper helper = new ArchiverHelper(config, processingJobDao, statisticsDao);
+
+        final Date runStart = new Date();
+        assertTrue(helper.archiveNextBatch() >= 0);
+        assertTrue(helper.archiveNextBatch() >= 0);
+        assertTrue(helper.archiveNextBatch() >= 0);
+        assertEquals(-1, helper.archiveNextBatch());
+
+        final ArgumentCaptor<Date> jobDates = ArgumentCaptor.forClass(Date.class);
+        verify(processingJobDao, times(2)).archiveFinishedJobs(jobDates.capture(), eq(100), eq(WriteConcern.ACKNOWLEDGED));
+        final ArgumentCaptor<Date> statisticsDates = ArgumentCaptor.forClass(Date.class);
+        verify(statisticsDao, times(2)).archiveStatistics(statisticsDates.capture(), eq(100), eq(WriteConcern.ACKNOWLEDGED));
+
+        // the dates are fixed for the whole run
+        assertEquals(jobDates.getAllValues().get(0), jobDates.getAllValues().get(1));
+        assertEquals(statisticsDates.getAllValues().get(0), statisticsDates.getAllValues().get(1));
+        final long jobRetention = runStart.getTime() - jobDates.getValue().getTime();
+        assertTrue(Math.abs(jobRetention - Duration.standardDays(7).getMillis()) < 60000);
+
+        // the next call starts a new run with the jobs
+        helper.archiveNextBatch();
+        verify(processingJobDao, times(3)).archiveFinishedJobs(any(Date.class), eq(100), any(WriteConcern.class));
+    }
+
+    @Test
+    public void canSpaceTheBatchesToStayUnderTheRate() {
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        final SourceDocumentProcessingStatisticsDao statisticsDao = mock(SourceDocumentProcessingStatisticsDao.class);
+        when(processingJobDao.archiveFinishedJobs(any(Date.class), eq(100), any(WriteConcern.class))).thenReturn(100);
+
+        final ArchiverHelper helper = new ArchiverHelper(config, processingJobDao, statisticsDao);
+
+        // 100 documents at 1000 per second
+        final long delay = helper.archiveNextBatch();
+        assertTrue(delay <= 100 && delay > 50);
+    }
+}
@@ -15,6 +15,7 @@ import de.flapdoodle.embed.process.runtime.Network;
 import eu.europeana.harvester.db.interfaces.*;
 import eu.europeana.harvester.db.mongo.*;
 import eu.europeana.harvester.domain.*;
+import eu.europeana.jobcreator.JobCreator;
 import eu.europeana.jobcreator.domain.ProcessingJobTuple;
 import eu.europeana.jobcreator.logic.SubTaskBuilder;
 import org.joda.time.DateTime;
@@ -24,11 +25,15 @@ import org.junit.Before;
 import org.junit.Test;
 import org.unitils.reflectionassert.ReflectionAssert;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -211,5 +216,119 @@ public class JobRestarterHelperTest {
 //        }
     }
 
+    private List<SourceDocumentReferenceProcessingProfile> createDueProfiles (final int count) {
+        final List<SourceDocumentReference> references = new ArrayList<>(count);
+        final List<SourceDocumentReferenceProcessingProfile> profiles = new ArrayList<>(count);
 
+        for (int i = 0; i < count; ++i) {
+            final String recordId = "record" + i;
+            final ProcessingJobTuple jobTuple = createJob(new ReferenceOwner(recordId, recordId, recordId, recordId),
+                                                          "http://127.0.0.1/" + i, URLSourceType.OBJECT,
+                                                          DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD, true,
+                                                          DateTime.now().minusDays(1 + i % 300));
+            references.add(jobTuple.getSourceDocumentReference());
+            profiles.addAll(jobTuple.getSourceDocumentReferenceProcessingProfiles());
+        }
+
+        sourceDocumentReferenceDao.createOrModify(references, WriteConcern.ACKNOWLEDGED);
+        sourceDocumentReferenceProcessingProfileDao.createOrModify(profiles, WriteConcern.ACKNOWLEDGED);
+        return profiles;
+    }
+
+    private boolean isAcknowledged (final SourceDocumentReferenceProcessingProfile profile) {
+        return sourceDocumentReferenceProcessingProfileDao.read(profile.getId()).getToBeEvaluatedAt().after(new Date());
+    }
+
+    /**
+     * The reload as it was done before the streaming: a read, a job creation and two writes for each profile.
+     */
+    private void reloadJobsOneByOne () throws ExecutionException {
+        for (final SourceDocumentReferenceProcessingProfile profile : sourceDocumentReferenceProcessingProfileDao.getJobToBeEvaluated()) {
+            for (final ProcessingJobTuple jobTuple : JobCreator.createJobs(profile.getReferenceOwner(),
+                                                                           sourceDocumentReferenceDao.read(profile.getSourceDocumentReferenceId()),
+                                                                           profile.getUrlSourceType(),
+                                                                           profile.getPriority(),
+                                                                           profile.getTaskType())) {
+                processingJobDao.createOrModify(jobTuple.getProcessingJob(), WriteConcern.ACKNOWLEDGED);
+                for (final SourceDocumentReferenceProcessingProfile newProfile : jobTuple.getSourceDocumentReferenceProcessingProfiles()) {
+                    sourceDocumentReferenceProcessingProfileDao.update(newProfile, WriteConcern.ACKNOWLEDGED);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void canReloadTheDueProfilesInBatches () throws Exception {
+        final List<SourceDocumentReferenceProcessingProfile> dueProfiles = createDueProfiles(2500);
+
+        final ProcessingJobTuple inactive = createJob(new ReferenceOwner("a", "b", "c", "d"), "http://127.0.0.1/inactive",
+                                                      URLSourceType.OBJECT, DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD,
+                                                      false, DateTime.now().minusDays(5));
+        final ProcessingJobTuple notDue = createJob(new ReferenceOwner("a", "b", "c", "d"), "http://127.0.0.1/notDue",
+                                                    URLSourceType.OBJECT, DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD,
+                                                    true, DateTime.now().plusDays(5));
+        for (final ProcessingJobTuple jobTuple : Arrays.asList(inactive, notDue)) {
+            sourceDocumentReferenceDao.createOrModify(jobTuple.getSourceDocumentReference(), WriteConcern.ACKNOWLEDGED);
+            sourceDocumentReferenceProcessingProfileDao.createOrModify(jobTuple.getSourceDocumentReferenceProcessingProfiles(), WriteConcern.ACKNOWLEDGED);
+        }
+
+        final JobRestarterHelper batchedHelper = new JobRestarterHelper(sourceDocumentReferenceDao, processingJobDao,
+                                                                        sourceDocumentReferenceProcessingProfileDao, 1000, null);
+        assertEquals(2500, batchedHelper.reloadJobs());
+
+        assertEquals(Long.valueOf(2500), processingJobDao.getCount());
+        for (final SourceDocumentReferenceProcessingProfile profile : dueProfiles) {
+            assertTrue(isAcknowledged(profile));
+        }
+        for (final ProcessingJobTuple jobTuple : Arrays.asList(inactive, notDue)) {
+            final SourceDocumentReferenceProcessingProfile profile = jobTuple.getSourceDocumentReferenceProcessingProfiles().get(0);
+            ReflectionAssert.assertReflectionEquals(profile, sourceDocumentReferenceProcessingProfileDao.read(profile.getId()));
+        }
+    }
+
+    @Test
+    public void canResumeAnInterruptedReloadFromTheCheckpoint () throws Exception {
+        final List<SourceDocumentReferenceProcessingProfile> dueProfiles = createDueProfiles(30);
+        final List<String> profileIds = new ArrayList<>();
+        for (final SourceDocumentReferenceProcessingProfile profile : dueProfiles) {
+            profileIds.add(profile.getId());
+        }
+        Collections.sort(profileIds);
+
+        final File checkpointFile = new File(Files.createTempDirectory("job-restarter").toFile(), "checkpoint");
+        new JobRestarterCheckpoint(new Date(), profileIds.get(9)).save(checkpointFile);
+
+        final JobRestarterHelper resumingHelper = new JobRestarterHelper(sourceDocumentReferenceDao, processingJobDao,
+                                                                         sourceDocumentReferenceProcessingProfileDao, 7,
+                                                                         checkpointFile.getAbsolutePath());
+        assertEquals(20, resumingHelper.reloadJobs());
+        assertFalse(checkpointFile.exists());
+
+        for (final SourceDocumentReferenceProcessingProfile profile : dueProfiles) {
+            assertEquals(profile.getId().compareTo(profileIds.get(9)) > 0, isAcknowledged(profile));
+        }
+    }
+
+    /**
+     * Compares the reload one profile at a time with the streamed one. Run with -DjobRestarter.benchmark.profiles=1000000
+     * for the size of the production restart window.
+     */
+    @Test
+    public void benchmarkTheStreamedReload () throws Exception {
+        final int numberOfProfiles = Integer.getInteger("jobRestarter.benchmark.profiles", 10000);
+
+        createDueProfiles(numberOfProfiles);
+        long start = System.currentTimeMillis();
+        reloadJobsOneByOne();
+        final long oneByOneMillis = System.currentTimeMillis() - start;
+
+        datastore.delete(datastore.createQuery(ProcessingJob.class));
+        createDueProfiles(numberOfProfiles);
+        start = System.currentTimeMillis();
+        assertEquals(numberOfProfiles, helper.reloadJobs());
+        final long streamedMillis = System.currentTimeMillis() - start;
+
+        System.out.println("Reloading " + numberOfProfiles + " profiles: one by one " + oneByOneMillis + " ms, streamed " + streamedMillis + " ms");
+        assertEquals(Long.valueOf(numberOfProfiles), processingJobDao.getCount());
+    }
 }
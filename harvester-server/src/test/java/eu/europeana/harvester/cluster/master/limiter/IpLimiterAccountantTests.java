@@ -79,4 +79,16 @@ public class IpLimiterAccountantTests {
         System.out.println("Finished in " +new Duration(start, DateTime.now()).getStandardSeconds()+" seconds");
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void canCountTheDeniedReservationsPerIp() {
+        final IpLimiterAccountant ipLimiterAccountant = new IpLimiterAccountant(1, Collections.<String, Integer>emptyMap());
+        for (int i = 0; i < 3; i++) {
+            ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip1, taskId));
+        }
+        ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip2, taskId));
+
+        assertEquals(2, ipLimiterAccountant.getDeniedReservationsPerIp().get(ip1));
+        assertEquals(0, ipLimiterAccountant.getDeniedReservationsPerIp().get(ip2));
+    }
+}
@@ -0,0 +1,124 @@
+package eu.europeana.harvester.cluster.master.limiter;
+
+import eu.europeana.harvester.cluster.master.limiter.domain.ChangeMaxAvailableSlotsRequest;
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.domain.MachineResourceReference;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.*;
+
+public class MachineResourceLimitsViewTests {
+
+    private final String ip1 = "192.168.1.1";
+    private final String ip2 = "192.168.1.2";
+    private final String ip3 = "192.168.1.3";
+
+    @Test
+    public void canSendAllLimitsOnFirstRefreshAndOnlyChangesAfterwards() {
+        final MachineResourceReferenceDao dao = mock(MachineResourceReferenceDao.class);
+        final Date t1 = new Date(1000);
+        final Date t2 = new Date(2000);
+
+        when(dao.getAllMachineResourceReferences(isNull(String.class), anyInt())).thenReturn(Arrays.asList(
+                new MachineResourceReference(ip1, 5, t1),
+                new MachineResourceReference(ip2, null, t1)));
+        when(dao.getMachineResourceReferencesModifiedSince(eq(t1), isNull(String.class), anyInt())).thenReturn(Arrays.asList(
+                new MachineResourceReference(ip1, 5, t1),
+                new MachineResourceReference(ip2, 3, t2),
+                new MachineResourceReference(ip3, null, t2)));
+
+        final MachineResourceLimitsView view = new MachineResourceLimitsView();
+        final Map<String, Integer> ipDistribution = new HashMap<>();
+
+        final List<ChangeMaxAvailableSlotsRequest> firstChanges = view.refresh(dao, ipDistribution);
+        assertEquals(1, firstChanges.size());
+        assertEquals(ip1, firstChanges.get(0).getIp());
+        assertEquals(Integer.valueOf(5), firstChanges.get(0).getMaxAvailableSlots());
+        assertEquals(t1, view.getVersion());
+        assertEquals(2, ipDistribution.size());
+
+        final List<ChangeMaxAvailableSlotsRequest> secondChanges = view.refresh(dao, ipDistribution);
+        assertEquals(1, secondChanges.size());
+        assertEquals(ip2, secondChanges.get(0).getIp());
+        assertEquals(Integer.valueOf(3), secondChanges.get(0).getMaxAvailableSlots());
+        assertEquals(t2, view.getVersion());
+        assertTrue(ipDistribution.containsKey(ip3));
+
+        verify(dao, times(1)).getAllMachineResourceReferences(isNull(String.class), anyInt());
+        verify(dao, times(1)).getMachineResourceReferencesModifiedSince(eq(t1), isNull(String.class), anyInt());
+    }
+
+    @Test
+    public void canResendAllLimitsAfterReset() {
+        final MachineResourceReferenceDao dao = mock(MachineResourceReferenceDao.class);
+        when(dao.getAllMachineResourceReferences(isNull(String.class), anyInt())).thenReturn(Arrays.asList(
+                new MachineResourceReference(ip1, 5, null),
+                new MachineResourceReference(ip2, 2, null)));
+
+        final MachineResourceLimitsView view = new MachineResourceLimitsView();
+        final Map<String, Integer> ipDistribution = new HashMap<>();
+
+        assertEquals(2, view.refresh(dao, ipDistribution).size());
+        assertEquals(new Date(0), view.getVersion());
+
+        view.reset();
+        assertEquals(2, view.refresh(dao, ipDistribution).size());
+        verify(dao, times(2)).getAllMachineResourceReferences(isNull(String.class), anyInt());
+    }
+
+    private static List<MachineResourceReference> createReferences(final int from, final int to, final Date lastModified) {
+        final List<MachineResourceReference> references = new ArrayList<>();
+        for (int i = from; i < to; ++i) {
+            references.add(new MachineResourceReference(String.format("10.0.%d.%d", i / 256, i % 256), 1, lastModified));
+        }
+        return references;
+    }
+
+    @Test
+    public void canPageThroughAllTheReferences() {
+        final MachineResourceReferenceDao dao = mock(MachineResourceReferenceDao.class);
+        final Date t1 = new Date(1000);
+        final List<MachineResourceReference> firstPage = createReferences(0, 10000, null);
+        final String lastIdOfFirstPage = firstPage.get(9999).getId();
+
+        when(dao.getAllMachineResourceReferences(isNull(String.class), anyInt())).thenReturn(firstPage);
+        when(dao.getAllMachineResourceReferences(eq(lastIdOfFirstPage), anyInt())).thenReturn(createReferences(10000, 10005, t1));
+
+        final MachineResourceLimitsView view = new MachineResourceLimitsView();
+        final Map<String, Integer> ipDistribution = new HashMap<>();
+
+        assertEquals(10005, view.refresh(dao, ipDistribution).size());
+        assertEquals(10005, ipDistribution.size());
+        assertEquals(t1, view.getVersion());
+    }
+
+    @Test
+    public void canPageThroughMoreReferencesModifiedAtTheSameMomentThanAPage() {
+        final MachineResourceReferenceDao dao = mock(MachineResourceReferenceDao.class);
+        final Date t1 = new Date(1000);
+        final Date t2 = new Date(2000);
+        final List<MachineResourceReference> firstPage = createReferences(0, 10000, t2);
+        final String lastIdOfFirstPage = firstPage.get(9999).getId();
+
+        when(dao.getAllMachineResourceReferences(isNull(String.class), anyInt())).thenReturn(createReferences(0, 1, t1));
+        when(dao.getMachineResourceReferencesModifiedSince(eq(t1), isNull(String.class), anyInt())).thenReturn(firstPage);
+        when(dao.getMachineResourceReferencesModifiedSince(eq(t2), eq(lastIdOfFirstPage), anyInt()))
+                .thenReturn(createReferences(10000, 10003, t2));
+
+        final MachineResourceLimitsView view = new MachineResourceLimitsView();
+        final Map<String, Integer> ipDistribution = new HashMap<>();
+        view.refresh(dao, ipDistribution);
+
+        view.refresh(dao, ipDistribution);
+        assertEquals(10003, ipDistribution.size());
+        assertEquals(t2, view.getVersion());
+        verify(dao, times(1)).getMachineResourceReferencesModifiedSince(eq(t2), eq(lastIdOfFirstPage), anyInt());
+    }
+}
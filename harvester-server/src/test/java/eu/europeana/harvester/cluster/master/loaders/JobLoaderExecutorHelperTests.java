@@ -0,0 +1,152 @@
+package eu.europeana.harvester.cluster.master.loaders;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.testkit.JavaTestKit;
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetNumberOfTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetOverLoadedIPs;
+import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.limiter.MachineResourceLimitsView;
+import eu.europeana.harvester.cluster.master.receivers.ReceiverJobDumperConfig;
+import eu.europeana.harvester.cluster.master.sharding.IpShardRing;
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
+import eu.europeana.harvester.domain.*;
+import org.joda.time.Duration;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class JobLoaderExecutorHelperTests {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JobLoaderExecutorHelperTests.class.getName());
+
+    private static final Address SHARD1 = new Address("akka.tcp", "ClusterSystem", "10.0.0.1", 5555);
+    private static final Address SHARD2 = new Address("akka.tcp", "ClusterSystem", "10.0.0.2", 5555);
+
+    private static ActorSystem system;
+
+    private final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(10, 50000l, Duration.standardSeconds(50),
+            50000, new JobRestarterConfig(Duration.standardDays(100)), new ReceiverJobDumperConfig(1, 10, Duration.millis(100)),
+            WriteConcern.ACKNOWLEDGED);
+
+    @BeforeClass
+    public static void setUp() {
+        system = ActorSystem.create("JobLoaderExecutorHelperTestSystem");
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    /**
+     * An accountant without tasks.
+     */
+    public static class IdleAccountant extends UntypedActor {
+        @Override
+        public void onReceive(final Object message) {
+            if (message instanceof GetNumberOfTasks) {
+                getSender().tell(0, getSelf());
+            } else if (message instanceof GetOverLoadedIPs) {
+                getSender().tell(new ArrayList<String>(), getSelf());
+            }
+        }
+    }
+
+    /**
+     * The state which the loader master of a shard keeps between the loads.
+     */
+    private static class Shard {
+        final Address address;
+        final Map<String, Integer> ipDistribution = new ConcurrentHashMap<>();
+        final MachineResourceLimitsView machineResourceLimitsView = new MachineResourceLimitsView();
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        final List<Set<String>> loadedIPs = new ArrayList<>();
+
+        Shard(final Address address) {
+            this.address = address;
+            when(processingJobDao.getDiffusedJobsWithState(any(JobPriority.class), any(JobState.class), any(Page.class),
+                    anyMapOf(String.class, Integer.class))).thenAnswer(new Answer<List<ProcessingJob>>() {
+                @Override
+                public List<ProcessingJob> answer(final InvocationOnMock invocation) {
+                    loadedIPs.add(new HashSet<>(((Map<String, Integer>) invocation.getArguments()[3]).keySet()));
+                    return Collections.emptyList();
+                }
+            });
+        }
+    }
+
+    private void load(final Shard shard, final IpShardRing ring, final MachineResourceReferenceDao machineResourceReferenceDao,
+                      final ActorRef accountant, final ActorRef limiter) {
+        JobLoaderExecutorHelper.checkForNewJobsByPriority(JobPriority.NORMAL, clusterMasterConfig, shard.ipDistribution,
+                new HashMap<String, Boolean>(), accountant, limiter, shard.processingJobDao, mock(SourceDocumentReferenceDao.class),
+                machineResourceReferenceDao, mock(SourceDocumentProcessingStatisticsDao.class), shard.machineResourceLimitsView,
+                ring, shard.address, LOG);
+    }
+
+    @Test
+    public void canLoadAnIPRegisteredAfterTheFirstLoadOnlyInItsShard() {
+        final IpShardRing ring = new IpShardRing(100, Arrays.asList(SHARD1, SHARD2));
+        final String newIp = "192.168.1.100";
+        final Date t1 = new Date(1000);
+        final Date t2 = new Date(2000);
+
+        final MachineResourceReferenceDao machineResourceReferenceDao = mock(MachineResourceReferenceDao.class);
+        final List<MachineResourceReference> references = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            references.add(new MachineResourceReference("192.168.1." + i, null, t1));
+        }
+        when(machineResourceReferenceDao.getAllMachineResourceReferences(isNull(String.class), anyInt())).thenReturn(references);
+        when(machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(eq(t1), isNull(String.class), anyInt()))
+                .thenReturn(Arrays.asList(new MachineResourceReference(newIp, 3, t2)));
+        when(machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(eq(t2), isNull(String.class), anyInt()))
+                .thenReturn(Collections.<MachineResourceReference>emptyList());
+
+        final ActorRef accountant = system.actorOf(Props.create(IdleAccountant.class));
+        final JavaTestKit limiter = new JavaTestKit(system);
+        final Shard shard1 = new Shard(SHARD1);
+        final Shard shard2 = new Shard(SHARD2);
+
+        // the first load, then the one which sees the new reference, then one which doesn't
+        for (int cycle = 0; cycle < 3; cycle++) {
+            load(shard1, ring, machineResourceReferenceDao, accountant, limiter.getRef());
+            load(shard2, ring, machineResourceReferenceDao, accountant, limiter.getRef());
+        }
+
+        final Shard owner = SHARD1.equals(ring.shardOf(newIp)) ? shard1 : shard2;
+        final Shard other = (owner == shard1) ? shard2 : shard1;
+        for (final Shard shard : Arrays.asList(shard1, shard2)) {
+            assertEquals(3, shard.loadedIPs.size());
+            for (final Set<String> loadedIPs : shard.loadedIPs) {
+                assertEquals(ring.ownedBy(shard.address, loadedIPs), loadedIPs);
+            }
+        }
+        assertFalse(owner.loadedIPs.get(0).contains(newIp));
+        assertTrue(owner.loadedIPs.get(1).contains(newIp));
+        assertTrue(owner.loadedIPs.get(2).contains(newIp));
+        for (final Set<String> loadedIPs : other.loadedIPs) {
+            assertFalse(loadedIPs.contains(newIp));
+        }
+    }
+}
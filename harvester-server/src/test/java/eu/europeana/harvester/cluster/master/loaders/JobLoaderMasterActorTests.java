@@ -0,0 +1,99 @@
+package eu.europeana.harvester.cluster.master.loaders;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.IPExceptions;
+import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.inner.ResyncMachineResources;
+import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.limiter.domain.ChangeMaxAvailableSlotsRequest;
+import eu.europeana.harvester.cluster.master.receivers.ReceiverJobDumperConfig;
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
+import eu.europeana.harvester.domain.MachineResourceReference;
+import org.joda.time.Duration;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class JobLoaderMasterActorTests {
+
+    private static final String IP = "192.168.1.1";
+
+    private static ActorSystem system;
+
+    private final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(10, 50000l, Duration.standardSeconds(50),
+            50000, new JobRestarterConfig(Duration.standardDays(100)), new ReceiverJobDumperConfig(1, 10, Duration.millis(100)),
+            WriteConcern.ACKNOWLEDGED);
+
+    @BeforeClass
+    public static void setUp() {
+        system = ActorSystem.create("JobLoaderMasterActorTestSystem");
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    /**
+     * Loads until a load sends a limit change to the limiter, as a load asked while the previous one runs is dropped.
+     */
+    private Object loadUntilALimitChange(final ActorRef loader, final JavaTestKit limiter) {
+        for (int attempt = 0; attempt < 20; attempt++) {
+            loader.tell(new LoadJobs(), ActorRef.noSender());
+            final Object message = limiter.receiveOne(scala.concurrent.duration.Duration.create(500, "millis"));
+            if (null != message) {
+                return message;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void canResendAllTheLimitsOnTheResyncTick() {
+        final MachineResourceReferenceDao machineResourceReferenceDao = mock(MachineResourceReferenceDao.class);
+        final Date lastModified = new Date(1000);
+        when(machineResourceReferenceDao.getAllMachineResourceReferences(isNull(String.class), anyInt()))
+                .thenReturn(Arrays.asList(new MachineResourceReference(IP, 3, lastModified)));
+        // a reference edited directly in the db keeps its modification date, only a full read sees the edit
+        when(machineResourceReferenceDao.getMachineResourceReferencesModifiedSince(any(Date.class), isNull(String.class), anyInt()))
+                .thenReturn(Collections.<MachineResourceReference>emptyList());
+
+        final JavaTestKit receiver = new JavaTestKit(system);
+        final JavaTestKit limiter = new JavaTestKit(system);
+        final ActorRef accountant = system.actorOf(Props.create(JobLoaderExecutorHelperTests.IdleAccountant.class));
+        final ActorRef loader = system.actorOf(Props.create(JobLoaderMasterActor.class, receiver.getRef(), clusterMasterConfig,
+                accountant, limiter.getRef(), mock(ProcessingJobDao.class), mock(SourceDocumentProcessingStatisticsDao.class),
+                mock(SourceDocumentReferenceDao.class), machineResourceReferenceDao, null, new HashMap<String, Boolean>(),
+                new IPExceptions(0, new ArrayList<String>(), new ArrayList<String>())));
+
+        final ChangeMaxAvailableSlotsRequest first = (ChangeMaxAvailableSlotsRequest) loadUntilALimitChange(loader, limiter);
+        assertNotNull(first);
+        assertEquals(IP, first.getIp());
+        verify(machineResourceReferenceDao, times(1)).getAllMachineResourceReferences(isNull(String.class), anyInt());
+
+        loader.tell(new ResyncMachineResources(), ActorRef.noSender());
+
+        final ChangeMaxAvailableSlotsRequest resent = (ChangeMaxAvailableSlotsRequest) loadUntilALimitChange(loader, limiter);
+        assertNotNull(resent);
+        assertEquals(IP, resent.getIp());
+        assertEquals(Integer.valueOf(3), resent.getMaxAvailableSlots());
+        verify(machineResourceReferenceDao, times(2)).getAllMachineResourceReferences(isNull(String.class), anyInt());
+
+        system.stop(loader);
+    }
+}
@@ -0,0 +1,31 @@
+package eu.europeana.harvester.cluster.master.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class CollectionSizeGaugeTests {
+
+    @Test
+    public void canAddTheInsertionsToTheLastEstimate() {
+        final CollectionSizeGauge gauge = new CollectionSizeGauge();
+        gauge.updateEstimate(1000, gauge.insertedSinceEstimate());
+        gauge.inserted(20);
+        gauge.inserted(5);
+
+        assertEquals(Long.valueOf(1025), gauge.getValue());
+    }
+
+    @Test
+    public void canKeepTheInsertionsMadeWhileTheEstimateIsRead() {
+        final CollectionSizeGauge gauge = new CollectionSizeGauge();
+        gauge.inserted(30);
+
+        final long insertedBeforeRead = gauge.insertedSinceEstimate();
+        // inserted after the estimate was requested, not part of it
+        gauge.inserted(7);
+        gauge.updateEstimate(2030, insertedBeforeRead);
+
+        assertEquals(Long.valueOf(2037), gauge.getValue());
+    }
+}
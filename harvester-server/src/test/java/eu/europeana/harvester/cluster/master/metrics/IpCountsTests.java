@@ -0,0 +1,55 @@
+package eu.europeana.harvester.cluster.master.metrics;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IpCountsTests {
+
+    @Test
+    public void canKeepTheIPsOrderedByTheirCount() {
+        final IpCounts ipCounts = new IpCounts();
+        ipCounts.add("10.0.0.1", 3);
+        ipCounts.add("10.0.0.2", 5);
+        ipCounts.add("10.0.0.3", 1);
+        ipCounts.increment("10.0.0.1");
+        ipCounts.add("10.0.0.2", -2);
+
+        final List<IpCounts.IpCount> top = ipCounts.top(2);
+        assertEquals(2, top.size());
+        assertEquals("10.0.0.1", top.get(0).getIp());
+        assertEquals(4, top.get(0).getCount());
+        assertEquals("10.0.0.2", top.get(1).getIp());
+        assertEquals(3, top.get(1).getCount());
+        assertEquals(3, ipCounts.top(10).size());
+    }
+
+    @Test
+    public void canForgetTheIPsWithoutCount() {
+        final IpCounts ipCounts = new IpCounts();
+        ipCounts.increment("10.0.0.1");
+        ipCounts.decrement("10.0.0.1");
+        ipCounts.decrement("10.0.0.2");
+
+        assertEquals(0, ipCounts.size());
+        assertEquals(0, ipCounts.get("10.0.0.1"));
+        assertTrue(ipCounts.top(5).isEmpty());
+    }
+
+    @Test
+    public void canPublishTheBusiestIPs() {
+        final IpCounts ipCounts = new IpCounts();
+        for (int i = 0; i < 10; i++) {
+            ipCounts.add("10.0.0." + i, i + 1);
+        }
+        final BusiestIPs busiestIPs = new BusiestIPs();
+        busiestIPs.publish(ipCounts);
+        ipCounts.add("10.0.0.0", 100);
+
+        assertEquals(MasterMetrics.BUSIEST_IPS_RANKS, busiestIPs.get().size());
+        assertEquals("10.0.0.9", busiestIPs.get().get(0).getIp());
+    }
+}
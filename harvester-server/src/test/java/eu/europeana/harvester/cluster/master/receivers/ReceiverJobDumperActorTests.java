@@ -0,0 +1,136 @@
+package eu.europeana.harvester.cluster.master.receivers;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Morphia;
+import com.mongodb.MongoClient;
+import com.mongodb.WriteConcern;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.db.interfaces.*;
+import eu.europeana.harvester.db.mongo.*;
+import eu.europeana.harvester.domain.*;
+import org.joda.time.DateTime;
+import org.joda.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ReceiverJobDumperActorTests {
+
+    private static final int NUMBER_OF_JOBS = 2000;
+
+    private MongodExecutable mongodExecutable = null;
+    private int port = 12345;
+
+    private Datastore datastore;
+    private ActorSystem system;
+
+    private ProcessingJobDao processingJobDao;
+    private SourceDocumentReferenceDao sourceDocumentReferenceDao;
+    private SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao;
+    private LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao;
+    private SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao;
+
+    public ReceiverJobDumperActorTests() throws IOException {
+        MongodStarter starter = MongodStarter.getDefaultInstance();
+
+        IMongodConfig mongodConfig = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(port, Network.localhostIsIPv6()))
+                .build();
+
+        mongodExecutable = starter.prepare(mongodConfig);
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        mongodExecutable.start();
+
+        final MongoClient mongo = new MongoClient("localhost", port);
+        datastore = new Morphia().createDatastore(mongo, "harvester_jobDumper");
+
+        processingJobDao = new ProcessingJobDaoImpl(datastore);
+        sourceDocumentReferenceDao = new SourceDocumentReferenceDaoImpl(datastore);
+        sourceDocumentProcessingStatisticsDao = new SourceDocumentProcessingStatisticsDaoImpl(datastore);
+        lastSourceDocumentProcessingStatisticsDao = new LastSourceDocumentProcessingStatisticsDaoImpl(datastore);
+        sourceDocumentReferenceMetaInfoDao = new SourceDocumentReferenceMetaInfoDaoImpl(datastore);
+
+        system = ActorSystem.create("TestJobDumperSystem");
+    }
+
+    @After
+    public void tearDown() {
+        system.shutdown();
+        datastore.getDB().dropDatabase();
+        mongodExecutable.stop();
+    }
+
+    @Test(timeout = 60000)
+    public void canPersistDoneProcessingMessagesInBatches() throws Exception {
+        final List<DoneProcessing> messages = new ArrayList<>();
+        final List<ProcessingJob> jobs = new ArrayList<>();
+        final List<SourceDocumentReference> references = new ArrayList<>();
+
+        for (int i = 0; i < NUMBER_OF_JOBS; i++) {
+            final ReferenceOwner owner = new ReferenceOwner("1", "1", Integer.toString(i));
+            final SourceDocumentReference reference =
+                    new SourceDocumentReference(owner, "http://127.0.0.1/" + i, null, null, 0l, null, true);
+            final ProcessingJob job = new ProcessingJob(0, new Date(), owner,
+                    Arrays.asList(new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                            reference.getId(), null)),
+                    JobState.RUNNING, URLSourceType.ISSHOWNBY, "127.0.0.1", true);
+
+            references.add(reference);
+            jobs.add(job);
+            messages.add(new DoneProcessing(UUID.randomUUID().toString(), reference.getUrl(), reference.getId(), job.getId(),
+                    DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, null,
+                    new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.SUCCESS),
+                    null, null, null, null, ""));
+        }
+        sourceDocumentReferenceDao.createOrModify(references, WriteConcern.ACKNOWLEDGED);
+        processingJobDao.createOrModify(jobs, WriteConcern.ACKNOWLEDGED);
+
+        final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(10, 100l, Duration.standardSeconds(50),
+                50000, new JobRestarterConfig(Duration.standardDays(100)),
+                new ReceiverJobDumperConfig(1, 500, Duration.millis(100)), WriteConcern.ACKNOWLEDGED);
+
+        final ActorRef dumper = system.actorOf(Props.create(ReceiverJobDumperActor.class, clusterMasterConfig,
+                processingJobDao, new HistoricalProcessingJobDaoImpl(datastore), sourceDocumentProcessingStatisticsDao,
+                lastSourceDocumentProcessingStatisticsDao, sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao));
+
+        final DateTime start = DateTime.now();
+        for (final DoneProcessing message : messages) {
+            dumper.tell(message, ActorRef.noSender());
+        }
+
+        while (sourceDocumentProcessingStatisticsDao.getCount() < NUMBER_OF_JOBS) {
+            Thread.sleep(50);
+        }
+        System.out.println("Persisted " + NUMBER_OF_JOBS + " done processing messages in " +
+                new Duration(start, DateTime.now()).getMillis() + " ms");
+
+        assertEquals(NUMBER_OF_JOBS, lastSourceDocumentProcessingStatisticsDao.getCount().intValue());
+        for (final DoneProcessing message : messages) {
+            assertEquals(DoneProcessing.convertProcessingStateToJobState(message.getProcessingState()),
+                    processingJobDao.read(message.getJobId()).getState());
+            assertNotNull(sourceDocumentReferenceDao.read(message.getReferenceId()).getLastStatsId());
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package eu.europeana.harvester.cluster.master.receivers;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingAck;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingBatch;
+import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.db.interfaces.*;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.ProcessingJob;
+import eu.europeana.harvester.domain.ProcessingJobSubTaskStats;
+import org.joda.time.Duration;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReceiverMasterActorTests {
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static DoneProcessingBatch createBatch(final String batchId, final int size) {
+        final List<DoneProcessing> results = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            results.add(new DoneProcessing(batchId + "/" + i, "http://10.0.0.1/image.jpg", "reference", "job" + i,
+                    DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, 200, "image/jpeg", 1l, 1l, 1l, 1l, "10.0.0.1",
+                    Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new ProcessingJobSubTaskStats(),
+                    null, null, null, null, null));
+        }
+        return new DoneProcessingBatch(batchId, results);
+    }
+
+    /**
+     * The dumpers persist the results in DAOs which write nothing.
+     */
+    private static ActorRef createReceiver(final JavaTestKit accountant, final JavaTestKit monitoring,
+                                           final ReceiverJobDumperConfig receiverJobDumperConfig) {
+        return createReceiver(accountant, monitoring, receiverJobDumperConfig, mock(ProcessingJobDao.class));
+    }
+
+    private static ActorRef createReceiver(final JavaTestKit accountant, final JavaTestKit monitoring,
+                                           final ReceiverJobDumperConfig receiverJobDumperConfig,
+                                           final ProcessingJobDao processingJobDao) {
+        final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(10, 100l, Duration.standardSeconds(50),
+                50000, new JobRestarterConfig(Duration.standardDays(100)), receiverJobDumperConfig, WriteConcern.ACKNOWLEDGED);
+        return system.actorOf(Props.create(ReceiverMasterActor.class, clusterMasterConfig, accountant.getRef(),
+                monitoring.getRef(), processingJobDao, mock(HistoricalProcessingJobDao.class),
+                mock(SourceDocumentProcessingStatisticsDao.class), mock(LastSourceDocumentProcessingStatisticsDao.class),
+                mock(SourceDocumentReferenceDao.class), mock(SourceDocumentReferenceMetaInfoDao.class)));
+    }
+
+    @Test
+    public void canAcknowledgeABatchOnceItIsPersistedAndOnlyOnce() {
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit monitoring = new JavaTestKit(system);
+            final ActorRef receiver = createReceiver(accountant, monitoring,
+                    new ReceiverJobDumperConfig(3, 1000, Duration.millis(500)));
+
+            receiver.tell(createBatch("batch1", 10), getRef());
+            accountant.receiveN(10);
+            // acknowledged only after the dumpers flush
+            expectNoMsg(duration("200 milliseconds"));
+            final DoneProcessingAck ack = expectMsgClass(duration("2 seconds"), DoneProcessingAck.class);
+            assertEquals("batch1", ack.getBatchId());
+            assertFalse(ack.getLagging());
+
+            // a resent batch is acknowledged again without handling its results twice
+            receiver.tell(createBatch("batch1", 10), getRef());
+            assertEquals("batch1", expectMsgClass(DoneProcessingAck.class).getBatchId());
+            accountant.expectNoMsg(duration("200 milliseconds"));
+        }};
+    }
+
+    @Test
+    public void canRetryABatchWhichFailedToPersist() {
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit monitoring = new JavaTestKit(system);
+            final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+            when(processingJobDao.readOwnersAndSourceTypes(anyListOf(String.class)))
+                    .thenThrow(new RuntimeException("The database is down"))
+                    .thenReturn(Collections.<ProcessingJob>emptyList());
+            final ActorRef receiver = createReceiver(accountant, monitoring,
+                    new ReceiverJobDumperConfig(1, 1000, Duration.millis(200)), processingJobDao);
+
+            receiver.tell(createBatch("batch1", 10), getRef());
+            assertEquals("batch1", expectMsgClass(duration("2 seconds"), DoneProcessingAck.class).getBatchId());
+            verify(processingJobDao, times(2)).readOwnersAndSourceTypes(anyListOf(String.class));
+        }};
+    }
+
+    @Test
+    public void canPersistAgainAResentBatchWhichFailedToPersist() {
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit monitoring = new JavaTestKit(system);
+            final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+            final RuntimeException failure = new RuntimeException("The database is down");
+            when(processingJobDao.readOwnersAndSourceTypes(anyListOf(String.class)))
+                    .thenThrow(failure, failure, failure, failure, failure)
+                    .thenReturn(Collections.<ProcessingJob>emptyList());
+            final ActorRef receiver = createReceiver(accountant, monitoring,
+                    new ReceiverJobDumperConfig(1, 1000, Duration.millis(50)), processingJobDao);
+
+            // the dumper gives up after 5 attempts
+            receiver.tell(createBatch("batch1", 10), getRef());
+            expectNoMsg(duration("3 seconds"));
+            verify(processingJobDao, times(5)).readOwnersAndSourceTypes(anyListOf(String.class));
+
+            receiver.tell(createBatch("batch1", 10), getRef());
+            assertEquals("batch1", expectMsgClass(duration("2 seconds"), DoneProcessingAck.class).getBatchId());
+        }};
+    }
+
+    @Test
+    public void canSignalThatTheDumpersLag() {
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit monitoring = new JavaTestKit(system);
+            final ActorRef receiver = createReceiver(accountant, monitoring,
+                    new ReceiverJobDumperConfig(1, 1000, Duration.millis(500), 5));
+
+            receiver.tell(createBatch("batch1", 10), getRef());
+            receiver.tell(createBatch("batch2", 10), getRef());
+
+            // 10 results of the second batch are still being persisted when the first one is acknowledged
+            final DoneProcessingAck first = expectMsgClass(duration("2 seconds"), DoneProcessingAck.class);
+            assertEquals("batch1", first.getBatchId());
+            assertTrue(first.getLagging());
+            final DoneProcessingAck second = expectMsgClass(DoneProcessingAck.class);
+            assertEquals("batch2", second.getBatchId());
+            assertFalse(second.getLagging());
+        }};
+    }
+}
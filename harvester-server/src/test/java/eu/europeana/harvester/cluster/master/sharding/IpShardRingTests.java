@@ -0,0 +1,88 @@
+package eu.europeana.harvester.cluster.master.sharding;
+
+import akka.actor.Address;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IpShardRingTests {
+
+    private static final Address shard1 = new Address("akka.tcp", "ClusterSystem", "10.0.0.1", 5555);
+    private static final Address shard2 = new Address("akka.tcp", "ClusterSystem", "10.0.0.2", 5555);
+    private static final Address shard3 = new Address("akka.tcp", "ClusterSystem", "10.0.0.3", 5555);
+    private static final Address shard4 = new Address("akka.tcp", "ClusterSystem", "10.0.0.4", 5555);
+
+    private static List<String> ips(final int count) {
+        final List<String> ips = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            ips.add("192.168." + (i / 256) + "." + (i % 256));
+        }
+        return ips;
+    }
+
+    @Test
+    public void anEmptyRingOwnsNothing() {
+        final IpShardRing ring = new IpShardRing(100, Collections.<Address>emptySet());
+
+        assertNull(ring.shardOf("192.168.1.1"));
+        assertFalse(ring.owns(shard1, "192.168.1.1"));
+    }
+
+    @Test
+    public void everyShardComputesTheSameOwners() {
+        final IpShardRing ring = new IpShardRing(100, Arrays.asList(shard1, shard2, shard3));
+        final IpShardRing sameRing = new IpShardRing(100, Arrays.asList(shard3, shard1, shard2));
+
+        for (final String ip : ips(1000)) {
+            assertEquals(ring.shardOf(ip), sameRing.shardOf(ip));
+            assertTrue(ring.getShards().contains(ring.shardOf(ip)));
+        }
+    }
+
+    @Test
+    public void theIPsAreSpreadBetweenTheShards() {
+        final List<String> ips = ips(10000);
+        final IpShardRing ring = new IpShardRing(100, Arrays.asList(shard1, shard2, shard3, shard4));
+
+        int ownedIPs = 0;
+        for (final Address shard : ring.getShards()) {
+            final int ownedByShard = ring.ownedBy(shard, ips).size();
+            assertTrue("A shard owns " + ownedByShard + " of the " + ips.size() + " IPs",
+                    ownedByShard > ips.size() / 8 && ownedByShard < ips.size() / 2);
+            ownedIPs += ownedByShard;
+        }
+        assertEquals(ips.size(), ownedIPs);
+    }
+
+    @Test
+    public void onlyTheIPsOfTheRemovedShardMove() {
+        final IpShardRing ring = new IpShardRing(100, Arrays.asList(shard1, shard2, shard3));
+        final IpShardRing smallerRing = ring.withoutShard(shard3);
+
+        assertEquals(new HashSet<>(Arrays.asList(shard1, shard2)), smallerRing.getShards());
+        for (final String ip : ips(1000)) {
+            if (!shard3.equals(ring.shardOf(ip))) {
+                assertEquals(ring.shardOf(ip), smallerRing.shardOf(ip));
+            }
+        }
+    }
+
+    @Test
+    public void onlyTheIPsTakenByTheAddedShardMove() {
+        final List<String> ips = ips(1000);
+        final IpShardRing ring = new IpShardRing(100, Arrays.asList(shard1, shard2));
+        final IpShardRing largerRing = ring.withShard(shard3);
+
+        int movedIPs = 0;
+        for (final String ip : ips) {
+            if (!ring.shardOf(ip).equals(largerRing.shardOf(ip))) {
+                assertEquals(shard3, largerRing.shardOf(ip));
+                ++movedIPs;
+            }
+        }
+        assertTrue(movedIPs > 0 && movedIPs < ips.size() / 2);
+        assertSame(largerRing, largerRing.withShard(shard3));
+    }
+}
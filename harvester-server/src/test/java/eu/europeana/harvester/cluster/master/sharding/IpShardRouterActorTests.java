@@ -0,0 +1,235 @@
+package eu.europeana.harvester.cluster.master.sharding;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Address;
+import akka.cluster.Cluster;
+import akka.testkit.JavaTestKit;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessingBatch;
+import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.ChangeIpShardRing;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs several masters, each in its own actor system, in a cluster inside this JVM. The accountant, limiter,
+ * receiver and loader of each master are probes.
+ */
+public class IpShardRouterActorTests {
+
+    private static final String CLUSTER_CONFIG =
+            "akka.actor.provider = \"akka.cluster.ClusterActorRefProvider\"\n" +
+            "akka.remote.netty.tcp.hostname = \"127.0.0.1\"\n" +
+            "akka.remote.netty.tcp.port = 0\n" +
+            "akka.remote.log-remote-lifecycle-events = off\n" +
+            "akka.cluster.roles = [clusterMaster]\n" +
+            "akka.loglevel = WARNING\n";
+
+    private final List<ActorSystem> systems = new ArrayList<>();
+
+    private static class MasterShard {
+        final ActorSystem system;
+        final Address address;
+        final JavaTestKit accountant;
+        final JavaTestKit limiter;
+        final JavaTestKit receiver;
+        final JavaTestKit loader;
+        final ActorRef router;
+
+        MasterShard(final ActorSystem system) {
+            this.system = system;
+            this.address = Cluster.get(system).selfAddress();
+            this.accountant = new JavaTestKit(system);
+            this.limiter = new JavaTestKit(system);
+            this.receiver = new JavaTestKit(system);
+            this.loader = new JavaTestKit(system);
+            this.router = IpShardRouterActor.createActor(system, new ShardingConfig(100, false), accountant.getRef(),
+                    limiter.getRef(), receiver.getRef(), loader.getRef());
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (final ActorSystem system : systems) {
+            system.shutdown();
+        }
+        for (final ActorSystem system : systems) {
+            system.awaitTermination();
+        }
+    }
+
+    private MasterShard startMaster(final MasterShard seed) {
+        final Config config = ConfigFactory.parseString(CLUSTER_CONFIG).withFallback(ConfigFactory.load());
+        final ActorSystem system = ActorSystem.create("ClusterSystem", config);
+        systems.add(system);
+
+        final MasterShard master = new MasterShard(system);
+        Cluster.get(system).join(null == seed ? master.address : seed.address);
+        return master;
+    }
+
+    /**
+     * Waits until the loader of the master is told about a ring of the given size.
+     */
+    private static IpShardRing awaitRing(final MasterShard master, final int numberOfShards) {
+        final long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            final Object message = master.loader.receiveOne(JavaTestKit.duration("30 seconds"));
+            if (message instanceof ChangeIpShardRing) {
+                final ChangeIpShardRing changeIpShardRing = (ChangeIpShardRing) message;
+                assertEquals(master.address, changeIpShardRing.getShard());
+                if (changeIpShardRing.getRing().size() == numberOfShards) {
+                    return changeIpShardRing.getRing();
+                }
+            }
+        }
+        fail("The masters didn't form a ring of " + numberOfShards + " shards");
+        return null;
+    }
+
+    private static List<String> ips(final int count) {
+        final List<String> ips = new ArrayList<>();
+        for (int i = 0; i < count; ++i) {
+            ips.add("192.168.1." + i);
+        }
+        return ips;
+    }
+
+    /**
+     * Sends the reservations to all the masters, like the broadcasting router of a slave, and checks that each one
+     * reached only the limiter of the master owning its IP.
+     */
+    private static void assertReservationsReachTheirOwners(final List<MasterShard> masters, final IpShardRing ring,
+                                                           final List<String> ips, final JavaTestKit slave) {
+        for (final String ip : ips) {
+            for (final MasterShard master : masters) {
+                master.router.tell(new ReserveConnectionSlotRequest(ip, "task-" + ip), slave.getRef());
+            }
+        }
+
+        for (final MasterShard master : masters) {
+            final Set<String> ownedIPs = ring.ownedBy(master.address, ips);
+            final Set<String> reservedIPs = new HashSet<>();
+            for (final Object message : master.limiter.receiveN(ownedIPs.size(), JavaTestKit.duration("5 seconds"))) {
+                reservedIPs.add(((ReserveConnectionSlotRequest) message).getIp());
+            }
+            assertEquals(ownedIPs, reservedIPs);
+            master.limiter.expectNoMsg(JavaTestKit.duration("300 milliseconds"));
+        }
+    }
+
+    @Test
+    public void eachMessageIsHandledByTheMasterOwningItsIP() {
+        final MasterShard master1 = startMaster(null);
+        final MasterShard master2 = startMaster(master1);
+        final MasterShard master3 = startMaster(master1);
+        final List<MasterShard> masters = Arrays.asList(master1, master2, master3);
+
+        final IpShardRing ring = awaitRing(master1, 3);
+        assertEquals(ring.getShards(), awaitRing(master2, 3).getShards());
+        assertEquals(ring.getShards(), awaitRing(master3, 3).getShards());
+
+        final JavaTestKit slave = new JavaTestKit(master1.system);
+        assertReservationsReachTheirOwners(masters, ring, ips(60), slave);
+
+        // every master sends its share of the asked tasks and loads more
+        for (final MasterShard master : masters) {
+            master.router.tell(new RequestTasks(10, Collections.<String>emptySet()), slave.getRef());
+        }
+        for (final MasterShard master : masters) {
+            assertEquals(4, master.accountant.expectMsgClass(RequestTasks.class).getCredits());
+            master.loader.expectMsgClass(LoadJobs.class);
+        }
+
+        assertCompletionsReachTheirOwners(masters, ring, ips(60), slave);
+
+        // a batch sent to all the masters is persisted once, every master hears of the tasks of its IPs
+        final List<String> batchIPs = ips(30);
+        final List<DoneProcessing> results = new ArrayList<>();
+        for (final String ip : batchIPs) {
+            results.add(createDoneProcessing(ip));
+        }
+        for (final MasterShard master : masters) {
+            master.router.tell(new DoneProcessingBatch("batch", results), slave.getRef());
+        }
+        for (final MasterShard master : masters) {
+            if (master.address.equals(ring.shardOf("batch"))) {
+                assertEquals("batch", master.receiver.expectMsgClass(DoneProcessingBatch.class).getBatchId());
+            } else {
+                final Set<String> completedIPs = new HashSet<>();
+                for (final Object message : master.accountant.receiveN(ring.ownedBy(master.address, batchIPs).size())) {
+                    completedIPs.add(((DoneProcessing) message).getIpAddress());
+                }
+                assertEquals(ring.ownedBy(master.address, batchIPs), completedIPs);
+            }
+            master.receiver.expectNoMsg(JavaTestKit.duration("300 milliseconds"));
+            master.accountant.expectNoMsg(JavaTestKit.duration("100 milliseconds"));
+        }
+    }
+
+    private static DoneProcessing createDoneProcessing(final String ip) {
+        return new DoneProcessing("task-" + ip, "http://" + ip + "/1.jpg", "reference", "job", ip,
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, null, null, null, null, null, null, null);
+    }
+
+    /**
+     * Sends the completions of tasks of the same job to all the masters, like a restarted slave, and checks that each
+     * one reached only the receiver of the master owning the IP of its task.
+     */
+    private static void assertCompletionsReachTheirOwners(final List<MasterShard> masters, final IpShardRing ring,
+                                                          final List<String> ips, final JavaTestKit slave) {
+        for (final String ip : ips) {
+            for (final MasterShard master : masters) {
+                master.router.tell(createDoneProcessing(ip), slave.getRef());
+            }
+        }
+
+        for (final MasterShard master : masters) {
+            final Set<String> ownedIPs = ring.ownedBy(master.address, ips);
+            final Set<String> completedIPs = new HashSet<>();
+            for (int i = 0; i < ownedIPs.size(); ++i) {
+                completedIPs.add(master.receiver.expectMsgClass(DoneProcessing.class).getIpAddress());
+            }
+            assertEquals(ownedIPs, completedIPs);
+            master.receiver.expectNoMsg(JavaTestKit.duration("300 milliseconds"));
+        }
+    }
+
+    @Test
+    public void theIPsOfARemovedMasterAreTakenOverByTheOthers() {
+        final MasterShard master1 = startMaster(null);
+        final MasterShard master2 = startMaster(master1);
+        final MasterShard master3 = startMaster(master1);
+
+        final IpShardRing ring = awaitRing(master1, 3);
+        awaitRing(master2, 3);
+        awaitRing(master3, 3);
+
+        Cluster.get(master3.system).leave(master3.address);
+
+        final IpShardRing smallerRing = awaitRing(master1, 2);
+        assertEquals(smallerRing.getShards(), awaitRing(master2, 2).getShards());
+        assertFalse(smallerRing.getShards().contains(master3.address));
+
+        final List<String> ips = ips(60);
+        for (final String ip : ips) {
+            if (!master3.address.equals(ring.shardOf(ip))) {
+                assertEquals(ring.shardOf(ip), smallerRing.shardOf(ip));
+            }
+        }
+
+        final JavaTestKit slave = new JavaTestKit(master1.system);
+        assertReservationsReachTheirOwners(Arrays.asList(master1, master2), smallerRing, ips, slave);
+        assertCompletionsReachTheirOwners(Arrays.asList(master1, master2), smallerRing, ips, slave);
+    }
+}
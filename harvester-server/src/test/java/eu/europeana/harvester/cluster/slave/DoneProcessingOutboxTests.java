@@ -0,0 +1,91 @@
+package eu.europeana.harvester.cluster.slave;
+
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.ProcessingJobSubTaskStats;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DoneProcessingOutboxTests {
+
+    private static DoneProcessing createDone(final String taskID) {
+        return new DoneProcessing(taskID, "http://10.0.0.9/image.jpg", "reference", "job",
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, 200, "image/jpeg", 1l, 1l, 1l, 1l, "10.0.0.9",
+                Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new ProcessingJobSubTaskStats(),
+                null, null, null, null, null);
+    }
+
+    @Test
+    public void canSendPartialBatchesOnlyWhenAsked() {
+        final DoneProcessingOutbox outbox = new DoneProcessingOutbox(100, 10, 4, 1000);
+        for (int i = 0; i < 5; i++) {
+            outbox.add(createDone("task" + i), null);
+        }
+
+        assertTrue(outbox.takeBatchesToSend(0, false).isEmpty());
+        final List<DoneProcessingOutbox.Batch> batches = outbox.takeBatchesToSend(0, true);
+        assertEquals(1, batches.size());
+        assertEquals(5, batches.get(0).getMessage().getResults().size());
+        assertEquals(5, outbox.size());
+    }
+
+    @Test
+    public void canShrinkTheWindowWhileTheMasterLags() {
+        final DoneProcessingOutbox outbox = new DoneProcessingOutbox(1000, 10, 8, 1000);
+        for (int i = 0; i < 200; i++) {
+            outbox.add(createDone("task" + i), null);
+        }
+
+        final List<DoneProcessingOutbox.Batch> batches = outbox.takeBatchesToSend(0, false);
+        assertEquals(8, batches.size());
+        assertEquals(8, outbox.unacknowledgedBatchesSize());
+        assertEquals(200, outbox.size());
+
+        outbox.acknowledged(batches.get(0).getMessage().getBatchId(), true);
+        outbox.acknowledged(batches.get(1).getMessage().getBatchId(), true);
+        assertEquals(2, outbox.getWindow());
+        // 6 batches are still unacknowledged, above the window
+        assertTrue(outbox.takeBatchesToSend(0, false).isEmpty());
+
+        for (int i = 2; i < 8; i++) {
+            outbox.acknowledged(batches.get(i).getMessage().getBatchId(), false);
+        }
+        assertEquals(8, outbox.getWindow());
+        // a repeated acknowledgement changes nothing
+        outbox.acknowledged(batches.get(0).getMessage().getBatchId(), true);
+        assertEquals(8, outbox.getWindow());
+        assertEquals(8, outbox.takeBatchesToSend(0, false).size());
+    }
+
+    @Test
+    public void canResendTheUnacknowledgedBatchesAfterTheTimeout() {
+        final DoneProcessingOutbox outbox = new DoneProcessingOutbox(100, 10, 2, 1000);
+        for (int i = 0; i < 20; i++) {
+            outbox.add(createDone("task" + i), null);
+        }
+        final List<DoneProcessingOutbox.Batch> batches = outbox.takeBatchesToSend(0, false);
+        outbox.acknowledged(batches.get(0).getMessage().getBatchId(), false);
+
+        assertTrue(outbox.takeBatchesToSend(999, true).isEmpty());
+        final List<DoneProcessingOutbox.Batch> resent = outbox.takeBatchesToSend(1000, true);
+        assertEquals(1, resent.size());
+        assertEquals(batches.get(1).getMessage().getBatchId(), resent.get(0).getMessage().getBatchId());
+        assertTrue(outbox.takeBatchesToSend(1500, true).isEmpty());
+        assertEquals(1, outbox.takeUnacknowledgedBatches(1500).size());
+    }
+
+    @Test
+    public void canDropTheOldestUnsentResultsWhenFull() {
+        final DoneProcessingOutbox outbox = new DoneProcessingOutbox(2, 10, 2, 1000);
+        outbox.add(createDone("1"), null);
+        outbox.add(createDone("2"), null);
+        outbox.add(createDone("3"), null);
+
+        assertEquals(1, outbox.getDroppedResults());
+        assertEquals("2", outbox.takeBatchesToSend(0, true).get(0).getMessage().getResults().get(0).getTaskID());
+    }
+}
@@ -0,0 +1,110 @@
+package eu.europeana.harvester.cluster.slave;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import eu.europeana.harvester.cluster.domain.NodeMasterConfig;
+import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
+import eu.europeana.harvester.domain.*;
+import eu.europeana.harvester.httpclient.response.ResponseType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class NodeMasterActorTests {
+
+    private static final NodeMasterConfig nodeMasterConfig = new NodeMasterConfig(2, 2, 2, 3, 10, "/tmp/",
+            ResponseType.DISK_STORAGE, "source", null);
+
+    static ActorSystem system;
+
+    @BeforeClass
+    public static void setup() {
+        system = ActorSystem.create();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        JavaTestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    private static RetrieveUrl createTask(final String ip) {
+        return new RetrieveUrl("http://" + ip + "/image.jpg", new ProcessingJobLimits(),
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, "job", "reference", Collections.<String, String>emptyMap(),
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, "source-reference",
+                        Collections.<ProcessingJobSubTask>emptyList()), ip, new ReferenceOwner("unknown", "unknown", "unknown"));
+    }
+
+    private static DoneProcessing createDone(final String taskID) {
+        return new DoneProcessing(taskID, "http://10.0.0.9/image.jpg", "reference", "job",
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, 200, "image/jpeg", 1l, 1l, 1l, 1l, "10.0.0.9",
+                Collections.<String, String>emptyMap(), Collections.<String>emptyList(), new ProcessingJobSubTaskStats(),
+                null, null, null, null, null);
+    }
+
+    @Test
+    public void canBufferTheResultsWhileTheMasterIsUnreachableAndSendThemOnceItReturns() {
+        new JavaTestKit(system) {{
+            final JavaTestKit master = new JavaTestKit(system);
+            final JavaTestKit supervisor = new JavaTestKit(system);
+            final DoneProcessingOutbox outbox = NodeMasterActor.createDoneProcessingOutbox();
+            final ActorRef nodeMaster = system.actorOf(Props.create(NodeMasterActor.class, master.getRef(),
+                    supervisor.getRef(), nodeMasterConfig, null, outbox));
+
+            final RetrieveUrl task = createTask("10.0.0.1");
+            nodeMaster.tell(new RetrieveUrlWithProcessingConfig(task, "/tmp/" + task.getId()), ActorRef.noSender());
+            master.expectMsgClass(ReserveConnectionSlotRequest.class);
+
+            nodeMaster.tell(new MasterUnreachable(), getRef());
+            nodeMaster.tell(createDone("finished-while-unreachable"), getRef());
+            nodeMaster.tell(new RequestTasks(), getRef());
+            master.expectNoMsg(duration("1500 milliseconds"));
+            assertEquals(1, outbox.size());
+
+            nodeMaster.tell(new MasterReachable(), getRef());
+            final DoneProcessingBatch replayed = master.expectMsgClass(DoneProcessingBatch.class);
+            assertEquals("finished-while-unreachable", replayed.getResults().get(0).getTaskID());
+            final ReserveConnectionSlotRequest slotRequest = master.expectMsgClass(ReserveConnectionSlotRequest.class);
+            assertEquals(task.getId(), slotRequest.getTaskID());
+            master.expectMsgClass(RequestTasks.class);
+
+            nodeMaster.tell(new DoneProcessingAck(replayed.getBatchId(), false), master.getRef());
+            master.expectNoMsg(duration("500 milliseconds"));
+            assertEquals(0, outbox.size());
+        }};
+    }
+
+    @Test
+    public void canSendTheResultsInBatchesAndResendTheUnacknowledgedOnes() {
+        new JavaTestKit(system) {{
+            final JavaTestKit master = new JavaTestKit(system);
+            final JavaTestKit supervisor = new JavaTestKit(system);
+            final DoneProcessingOutbox outbox = new DoneProcessingOutbox(100, 10, 2, 1000);
+            final ActorRef nodeMaster = system.actorOf(Props.create(NodeMasterActor.class, master.getRef(),
+                    supervisor.getRef(), nodeMasterConfig, null, outbox));
+
+            for (int i = 0; i < 30; i++) {
+                nodeMaster.tell(createDone("task" + i), getRef());
+            }
+            // only the window of 2 full batches is sent
+            final DoneProcessingBatch first = master.expectMsgClass(DoneProcessingBatch.class);
+            final DoneProcessingBatch second = master.expectMsgClass(DoneProcessingBatch.class);
+            assertEquals(10, first.getResults().size());
+            assertEquals("task10", second.getResults().get(0).getTaskID());
+
+            // the acknowledged batch makes room for the next one, the other is resent once it times out
+            nodeMaster.tell(new DoneProcessingAck(first.getBatchId(), false), master.getRef());
+            final DoneProcessingBatch third = master.expectMsgClass(DoneProcessingBatch.class);
+            assertEquals("task20", third.getResults().get(0).getTaskID());
+            final DoneProcessingBatch resent = master.expectMsgClass(duration("3 seconds"), DoneProcessingBatch.class);
+            assertEquals(second.getBatchId(), resent.getBatchId());
+        }};
+    }
+}
@@ -0,0 +1,199 @@
+package eu.europeana.harvester.cluster.slave;
+
+import eu.europeana.harvester.cluster.master.limiter.IpLimiterAccountant;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import org.joda.time.DateTimeUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SlotReservationBackoffTests {
+
+    private static final String IP = "10.0.0.1";
+
+    @After
+    public void tearDown() {
+        DateTimeUtils.setCurrentMillisSystem();
+    }
+
+    @Test
+    public void canDoubleTheDelayUntilASlotIsGranted() {
+        final SlotReservationBackoff backoff = new SlotReservationBackoff(1000, 30000, new Random(1));
+
+        long previousCeiling = 0;
+        for (int denied = 1; denied <= 5; ++denied) {
+            final long ceiling = 1000l << (denied - 1);
+            final long delay = backoff.denied(IP, null);
+            assertTrue(delay >= ceiling / 2 && delay <= ceiling);
+            assertTrue(delay > previousCeiling / 2);
+            previousCeiling = ceiling;
+        }
+        assertTrue(backoff.denied(IP, null) <= 30000);
+        assertTrue(backoff.denied("10.0.0.2", null) <= 1000);
+
+        backoff.granted(IP);
+        assertTrue(backoff.denied(IP, null) <= 1000);
+        assertEquals(2, backoff.size());
+    }
+
+    @Test
+    public void canRetryAfterTheHintOfTheLimiter() {
+        final SlotReservationBackoff backoff = new SlotReservationBackoff(1000, 30000, new Random(1));
+
+        final long delay = backoff.denied(IP, 5000l);
+        assertTrue(delay >= 5000 && delay <= 5500);
+        assertEquals(1000, backoff.denied("10.0.0.2", 0l), 500);
+        assertEquals(30000, backoff.denied("10.0.0.3", 60000l));
+    }
+
+    @Test
+    public void canUseTheSlotsBetterWithFewerMessagesThanFixedDelays() {
+        final SimulationResult fixedLong = simulate(new FixedDelay(30000));
+        final SimulationResult fixedShort = simulate(new FixedDelay(500));
+        final SimulationResult backoff = simulate(new Backoff());
+
+        assertTrue("Utilization " + backoff.utilization() + " against " + fixedLong.utilization(),
+                backoff.utilization() > 5 * fixedLong.utilization());
+        assertTrue("Utilization " + backoff.utilization(), backoff.utilization() > 0.75);
+        assertTrue("Reservations " + backoff.reservations + " against " + fixedShort.reservations,
+                backoff.reservations * 5 < fixedShort.reservations);
+        assertTrue("Reservations " + backoff.reservations + " against " + fixedLong.reservations,
+                backoff.reservations < fixedLong.reservations);
+    }
+
+    /**
+     * How a simulated slave retries a denied reservation.
+     */
+    private interface RetryPolicy {
+        long denied(int slave, ReserveConnectionSlotResponse response);
+
+        void granted(int slave, String ip);
+    }
+
+    private static class FixedDelay implements RetryPolicy {
+        private final long delay;
+
+        FixedDelay(final long delay) {
+            this.delay = delay;
+        }
+
+        @Override
+        public long denied(final int slave, final ReserveConnectionSlotResponse response) {
+            return delay;
+        }
+
+        @Override
+        public void granted(final int slave, final String ip) {
+        }
+    }
+
+    private static class Backoff implements RetryPolicy {
+        private final Map<Integer, SlotReservationBackoff> backoffPerSlave = new HashMap<>();
+
+        private SlotReservationBackoff of(final int slave) {
+            SlotReservationBackoff backoff = backoffPerSlave.get(slave);
+            if (null == backoff) {
+                backoff = new SlotReservationBackoff(500, 30000, new Random(slave));
+                backoffPerSlave.put(slave, backoff);
+            }
+            return backoff;
+        }
+
+        @Override
+        public long denied(final int slave, final ReserveConnectionSlotResponse response) {
+            return of(slave).denied(response.getIp(), response.getRetryAfterInMillis());
+        }
+
+        @Override
+        public void granted(final int slave, final String ip) {
+            of(slave).granted(ip);
+        }
+    }
+
+    private static class SimulationResult {
+        long makespan;
+        long busySlotTime;
+        int slots;
+        int reservations;
+
+        double utilization() {
+            return (double) busySlotTime / (slots * makespan);
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long order;
+        final int slave;
+        final String taskID;
+        /**
+         * Set when the event returns the slot of a finished download, null when it asks for a slot.
+         */
+        final String slotId;
+
+        Event(final long time, final long order, final int slave, final String taskID, final String slotId) {
+            this.time = time;
+            this.order = order;
+            this.slave = slave;
+            this.taskID = taskID;
+            this.slotId = slotId;
+        }
+
+        @Override
+        public int compareTo(final Event other) {
+            return (time != other.time) ? Long.compare(time, other.time) : Long.compare(order, other.order);
+        }
+    }
+
+    /**
+     * 6 slaves got 5 tasks each of the same IP, which has 2 connection slots. Each download takes 2 to 3 seconds.
+     * The limiter runs on the simulated clock.
+     */
+    private static SimulationResult simulate(final RetryPolicy retryPolicy) {
+        final int numberOfSlaves = 6;
+        final int tasksPerSlave = 5;
+        final SimulationResult result = new SimulationResult();
+        result.slots = 2;
+
+        final IpLimiterAccountant limiter = new IpLimiterAccountant(result.slots, Collections.<String, Integer>emptyMap());
+        final Random downloads = new Random(42);
+        final PriorityQueue<Event> events = new PriorityQueue<>();
+        long order = 0;
+        for (int slave = 0; slave < numberOfSlaves; ++slave) {
+            for (int task = 0; task < tasksPerSlave; ++task) {
+                events.add(new Event(0, order++, slave, slave + "/" + task, null));
+            }
+        }
+
+        final long start = 1441065600000l;
+        while (!events.isEmpty()) {
+            final Event event = events.poll();
+            DateTimeUtils.setCurrentMillisFixed(start + event.time);
+
+            if (null != event.slotId) {
+                limiter.returnConnectionSlotRequest(new ReturnConnectionSlotRequest(event.slotId, IP));
+                result.makespan = event.time;
+                continue;
+            }
+
+            result.reservations++;
+            final ReserveConnectionSlotResponse response = limiter.reserveConnectionSlotRequest(
+                    new ReserveConnectionSlotRequest(IP, event.taskID));
+            if (response.getGranted()) {
+                retryPolicy.granted(event.slave, IP);
+                final long download = 2000 + downloads.nextInt(1000);
+                result.busySlotTime += download;
+                events.add(new Event(event.time + download, order++, event.slave, event.taskID, response.getSlotId()));
+            } else {
+                events.add(new Event(event.time + retryPolicy.denied(event.slave, response), order++, event.slave,
+                        event.taskID, null));
+            }
+        }
+        return result;
+    }
+}
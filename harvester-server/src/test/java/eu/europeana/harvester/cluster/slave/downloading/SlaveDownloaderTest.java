@@ -6,6 +6,9 @@ import eu.europeana.harvester.httpclient.response.HttpRetrieveResponse;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponseFactory;
 import eu.europeana.harvester.httpclient.response.RetrievingState;
 import eu.europeana.harvester.httpclient.response.ResponseType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import org.apache.logging.log4j.LogManager;
 import org.junit.After;
 import org.junit.Before;
@@ -17,9 +20,14 @@ import org.junit.runner.Description;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 
 import static eu.europeana.harvester.TestUtils.*;
 import static org.junit.Assert.*;
@@ -239,4 +247,77 @@ public class SlaveDownloaderTest {
 
     }
 
+    @Test
+    public void canAbortADownloadOnceItsJobIsPaused() throws Exception {
+        // a local server which would take minutes to send the whole content
+        final HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(200, 100 * 1000 * 1000);
+                final OutputStream body = exchange.getResponseBody();
+                try {
+                    for (int i = 0; i < 10000; i++) {
+                        body.write(new byte[10 * 1000]);
+                        body.flush();
+                        Thread.sleep(100);
+                    }
+                } catch (InterruptedException | IOException e) {
+                    // the client went away
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        try {
+            final SlaveDownloader slaveDownloader = new SlaveDownloader();
+            final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
+            final ProcessingJobLimits limits = new ProcessingJobLimits(
+                    600 * 1000l /* retrievalTerminationThresholdTimeLimitInMillis */,
+                    1l /* retrievalTerminationThresholdReadPerSecondInBytes */,
+                    10 * 1000l /* retrievalConnectionTimeoutInMillis */,
+                    10 /* retrievalMaxNrOfRedirects */,
+                    100 * 1000l /* processingTerminationThresholdTimeLimitInMillis */);
+            final RetrieveUrl task = new RetrieveUrl(
+                    "http://127.0.0.1:" + server.getAddress().getPort() + "/slow",
+                    limits,
+                    DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                    "jobid-1",
+                    "referenceid-1",
+                    Collections.<String, String>emptyMap(),
+                    new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                            "source-reference-1",
+                            Collections.<ProcessingJobSubTask>emptyList()
+                    ),
+                    null, new ReferenceOwner("unknown", "unknwon", "unknown")
+            );
+
+            final Set<String> pausedJobs = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            final Thread pauser = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(1000);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    pausedJobs.add("jobid-1");
+                }
+            });
+
+            final long start = System.currentTimeMillis();
+            pauser.start();
+            slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task, pausedJobs);
+            final long duration = System.currentTimeMillis() - start;
+
+            assertEquals(RetrievingState.ERROR, response.getState());
+            assertTrue("The download took " + duration + " ms", duration < 1000 + 3 * SlaveDownloader.PAUSE_CHECK_INTERVAL_IN_MILLIS);
+            assertFalse(new File(pathOnDisk).exists());
+        } finally {
+            server.stop(0);
+        }
+    }
 }